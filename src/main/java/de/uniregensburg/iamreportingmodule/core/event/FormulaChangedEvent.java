@@ -0,0 +1,33 @@
+package de.uniregensburg.iamreportingmodule.core.event;
+
+import de.uniregensburg.iamreportingmodule.data.entity.Metric;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Application event published after a metric with a new or changed formula has been saved
+ *
+ * @author Julian Bauer
+ */
+public class FormulaChangedEvent extends ApplicationEvent {
+
+    private final Metric metric;
+
+    /**
+     *
+     * @param source
+     * @param metric
+     */
+    public FormulaChangedEvent(Object source, Metric metric) {
+        super(source);
+        this.metric = metric;
+    }
+
+    /**
+     * Returns metric with changed formula
+     *
+     * @return
+     */
+    public Metric getMetric() {
+        return metric;
+    }
+}
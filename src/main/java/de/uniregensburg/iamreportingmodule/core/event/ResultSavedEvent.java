@@ -0,0 +1,33 @@
+package de.uniregensburg.iamreportingmodule.core.event;
+
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Application event published after a result of a measurable has been saved
+ *
+ * @author Julian Bauer
+ */
+public class ResultSavedEvent extends ApplicationEvent {
+
+    private final Result result;
+
+    /**
+     *
+     * @param source
+     * @param result
+     */
+    public ResultSavedEvent(Object source, Result result) {
+        super(source);
+        this.result = result;
+    }
+
+    /**
+     * Returns saved result
+     *
+     * @return
+     */
+    public Result getResult() {
+        return result;
+    }
+}
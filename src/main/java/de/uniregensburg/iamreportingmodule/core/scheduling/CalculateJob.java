@@ -1,11 +1,10 @@
 package de.uniregensburg.iamreportingmodule.core.scheduling;
 
-import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
-import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
+import de.uniregensburg.iamreportingmodule.core.service.MetricRecalculationService;
 import de.uniregensburg.iamreportingmodule.data.entity.Formula;
 import de.uniregensburg.iamreportingmodule.data.entity.Metric;
-import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
@@ -18,23 +17,26 @@ import java.util.UUID;
 
 /**
  * Quartz job definition for calculating metrics
+ * Executions of the same metric do not overlap
  *
  * @author Julian Bauer
  */
 @Component
+@DisallowConcurrentExecution
 public class CalculateJob extends QuartzJobBean {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final MeasurableService service;
-    private final FormulaUtil util;
+    private final MetricRecalculationService recalculationService;
 
     /**
      *
      * @param service
+     * @param recalculationService
      */
-    CalculateJob(MeasurableService service) {
+    CalculateJob(MeasurableService service, MetricRecalculationService recalculationService) {
         this.service = service;
-        this.util = new FormulaUtil(service);
+        this.recalculationService = recalculationService;
     }
 
     /**
@@ -74,14 +76,7 @@ public class CalculateJob extends QuartzJobBean {
         }
         logger.info("Formula: " + formula.getFormula());
 
-        // calculate
-        try {
-            Result result = util.calculate(formula.getFormula());
-            result.setMeasurable(metric);
-            // save result
-            service.saveResult(result);
-        } catch (FormulaException e) {
-            logger.info("Failed to calculate metric " + metric.getName() + ": " + e.getMessage());
-        }
+        // calculate metric and metrics depending on it, unless inputs have not changed
+        recalculationService.calculateScheduled(metric);
     }
 }
@@ -0,0 +1,43 @@
+package de.uniregensburg.iamreportingmodule.core.scheduling;
+
+import de.uniregensburg.iamreportingmodule.core.service.LabelDirectoryService;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.quartz.QuartzJobBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Quartz job definition for checking label directory against database
+ *
+ * @author Julian Bauer
+ */
+@Component
+public class LabelDirectoryCheckJob extends QuartzJobBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final LabelDirectoryService labelDirectoryService;
+
+    /**
+     *
+     * @param labelDirectoryService
+     */
+    LabelDirectoryCheckJob(LabelDirectoryService labelDirectoryService) {
+        this.labelDirectoryService = labelDirectoryService;
+    }
+
+    /**
+     * Overrides job execution definition
+     *
+     * @param context
+     * @throws JobExecutionException
+     */
+    @Override
+    protected void executeInternal(JobExecutionContext context) throws JobExecutionException {
+        logger.info("Starting job execution");
+        // compare directory with database and correct differences
+        int drift = labelDirectoryService.checkConsistency();
+        logger.info("Label directory checked, " + drift + " labels corrected");
+    }
+}
@@ -2,11 +2,12 @@ package de.uniregensburg.iamreportingmodule.core.scheduling;
 
 import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
 import de.uniregensburg.iamreportingmodule.core.exception.FileException;
+import de.uniregensburg.iamreportingmodule.core.service.DatabaseBatchService;
+import de.uniregensburg.iamreportingmodule.core.service.DatabaseConnectionService;
+import de.uniregensburg.iamreportingmodule.core.service.FileScanService;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
-import de.uniregensburg.iamreportingmodule.core.util.CsvUtil;
-import de.uniregensburg.iamreportingmodule.core.util.DatabaseUtil;
 import de.uniregensburg.iamreportingmodule.data.entity.*;
-import org.quartz.Job;
+import org.quartz.InterruptableJob;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
@@ -20,21 +21,33 @@ import java.util.UUID;
 
 /**
  * Quartz job definition for determining measurements
+ * Interrupting the job cancels its running database query, results of interrupted jobs are not saved.
  *
  * @author Julian Bauer
  */
 @Component
-public class MeasureJob implements Job {
+public class MeasureJob implements InterruptableJob {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final MeasurableService service;
+    private final FileScanService fileScanService;
+    private final DatabaseBatchService databaseBatchService;
+    private final DatabaseConnectionService databaseConnectionService;
+    private volatile Thread worker;
 
     /**
      *
      * @param service
+     * @param fileScanService
+     * @param databaseBatchService
+     * @param databaseConnectionService
      */
-    public MeasureJob(MeasurableService service) {
+    public MeasureJob(MeasurableService service, FileScanService fileScanService, DatabaseBatchService databaseBatchService,
+                      DatabaseConnectionService databaseConnectionService) {
         this.service = service;
+        this.fileScanService = fileScanService;
+        this.databaseBatchService = databaseBatchService;
+        this.databaseConnectionService = databaseConnectionService;
     }
 
     /**
@@ -45,6 +58,35 @@ public class MeasureJob implements Job {
      */
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
+        worker = Thread.currentThread();
+        try {
+            measure(context);
+        } finally {
+            worker = null;
+        }
+    }
+
+    /**
+     * Overrides job interruption definition: interrupts executing thread and cancels its database query
+     */
+    @Override
+    public void interrupt() {
+        Thread thread = worker;
+        if (thread == null) {
+            return;
+        }
+        logger.info("Interrupting job execution");
+        thread.interrupt();
+        databaseConnectionService.cancel(thread);
+    }
+
+    /**
+     * Determines and saves measurement
+     *
+     * @param context
+     * @throws JobExecutionException
+     */
+    private void measure(JobExecutionContext context) throws JobExecutionException {
         logger.info("Starting job execution");
         // get id of measurement
         JobDataMap jobDataMap = context.getMergedJobDataMap();
@@ -101,6 +143,12 @@ public class MeasureJob implements Job {
             throw new JobExecutionException("Unknown datasource type: " + type);
         }
 
+        // skip result of interrupted job
+        if (Thread.currentThread().isInterrupted()) {
+            logger.info("Job interrupted");
+            throw new JobExecutionException("Job interrupted");
+        }
+
         // save result
         result.setMeasurable(measurement);
         service.saveResult(result);
@@ -129,11 +177,16 @@ public class MeasureJob implements Job {
         }
         logger.info("Query: " + query);
 
-        // execute sql query
+        // execute sql query, batched with queries due within batch window of datasource unless aggregated client side
         logger.info("Measuring database datasource");
-        DatabaseUtil databaseUtil = new DatabaseUtil(databaseDataSource);
         try {
-            Result result = databaseUtil.measure(query);
+            Result result;
+            if (attributes.get("sqlAggregationMethod") == null) {
+                result = databaseBatchService.measure(databaseDataSource, query);
+            } else {
+                logger.info("Aggregation method: " + attributes.get("sqlAggregationMethod"));
+                result = service.measureDatabase(databaseDataSource, attributes);
+            }
             logger.info("Query successful: " + result.getValue());
             return result;
         } catch (DatabaseException e) {
@@ -171,13 +224,9 @@ public class MeasureJob implements Job {
      */
     private Result measureCsvFileDataSource(FileDataSource fileDataSource, Measurement measurement) throws JobExecutionException {
         logger.info("Measuring file datasource");
-        // get attributes and csv util
-        Map<String, String> attributes = measurement.getAttributes();
-        logger.info("Measuring file datasource");
-        CsvUtil util = new CsvUtil(fileDataSource);
-        // get value using csv util and attributes
+        // get value using shared scan of all measurements of datasource
         try {
-            Result result = util.measure(attributes);
+            Result result = fileScanService.measure(fileDataSource, measurement);
             logger.info("Measurement successful: " + result.getValue());
             return result;
         } catch (FileException e) {
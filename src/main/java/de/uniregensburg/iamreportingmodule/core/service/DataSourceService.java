@@ -25,17 +25,28 @@ public class DataSourceService {
     private final ManualDataSourceRepository manualDataSourceRepository;
     private final DatabaseDataSourceRepository databaseDataSourceRepository;
     private final FileDataSourceRepository fileDataSourceRepository;
+    private final FileScanService fileScanService;
+    private final FileStorageService fileStorageService;
+    private final DatabaseConnectionService databaseConnectionService;
 
     /**
      *
      * @param manualDataSourceRepository
      * @param databaseDataSourceRepository
      * @param fileDataSourceRepository
+     * @param fileScanService
+     * @param fileStorageService
+     * @param databaseConnectionService
      */
-    public DataSourceService(ManualDataSourceRepository manualDataSourceRepository, DatabaseDataSourceRepository databaseDataSourceRepository, FileDataSourceRepository fileDataSourceRepository) {
+    public DataSourceService(ManualDataSourceRepository manualDataSourceRepository, DatabaseDataSourceRepository databaseDataSourceRepository, FileDataSourceRepository fileDataSourceRepository,
+                             FileScanService fileScanService, FileStorageService fileStorageService,
+                             DatabaseConnectionService databaseConnectionService) {
         this.manualDataSourceRepository = manualDataSourceRepository;
         this.databaseDataSourceRepository = databaseDataSourceRepository;
         this.fileDataSourceRepository = fileDataSourceRepository;
+        this.fileScanService = fileScanService;
+        this.fileStorageService = fileStorageService;
+        this.databaseConnectionService = databaseConnectionService;
     }
 
     /**
@@ -76,9 +87,14 @@ public class DataSourceService {
             } else if (type.equals(DataSourceType.DATABASE)) {
                 DatabaseDataSource databaseDataSource = (DatabaseDataSource) dataSource;
                 databaseDataSourceRepository.save(databaseDataSource);
+                // connection configuration may have changed, pool is rebuilt on next use
+                databaseConnectionService.evict(databaseDataSource);
             } else if (type.equals(DataSourceType.FILE)) {
                 FileDataSource fileDataSource = (FileDataSource) dataSource;
-                fileDataSourceRepository.save(fileDataSource);
+                // copy uploaded file chunk by chunk, datasource switches to new file in one transaction
+                fileStorageService.save(fileDataSource);
+                // file may have changed
+                fileScanService.invalidate(fileDataSource);
             } else {
                 logger.info("Saving datasource type " + type + " not implemented yet");
                 throw new SaveEntityException("Saving datasource type " + type + " not implemented yet");
@@ -112,9 +128,12 @@ public class DataSourceService {
             } else if (type.equals(DataSourceType.DATABASE)) {
                 DatabaseDataSource databaseDataSource = (DatabaseDataSource) dataSource;
                 databaseDataSourceRepository.delete(databaseDataSource);
+                databaseConnectionService.evict(databaseDataSource);
             } else if (type.equals(DataSourceType.FILE)) {
                 FileDataSource fileDataSource = (FileDataSource) dataSource;
                 fileDataSourceRepository.delete(fileDataSource);
+                fileStorageService.delete(fileDataSource);
+                fileScanService.invalidate(fileDataSource);
             } else {
                 logger.info("Deleting datasource type " + type + " not implemented yet");
                 throw new SaveEntityException("Deleting datasource type " + type + " not implemented yet");
@@ -126,6 +145,16 @@ public class DataSourceService {
         }
     }
 
+    /**
+     * Returns statistics of connection pool of database datasource
+     *
+     * @param databaseDataSource
+     * @return statistics or null if datasource has no pool yet
+     */
+    public DatabaseConnectionService.PoolStatistics getPoolStatistics(DatabaseDataSource databaseDataSource) {
+        return databaseConnectionService.getStatistics(databaseDataSource);
+    }
+
     /**
      * Returns manual datasource by id
      *
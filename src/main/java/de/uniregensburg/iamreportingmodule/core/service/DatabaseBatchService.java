@@ -0,0 +1,170 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
+import de.uniregensburg.iamreportingmodule.core.util.DatabaseUtil;
+import de.uniregensburg.iamreportingmodule.data.entity.DatabaseDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Service for measuring database datasources with batched queries
+ * The first measurement of a database datasource with batch window opens a batch, which is executed by the service
+ * after the window. Further measurements of the datasource that are due within the window join the batch. All queries
+ * of the batch are executed on one connection in one round-trip and each value is routed back to its measurements.
+ * Batches do not run on threads of measurement jobs, so stopping a job does not cancel queries of other measurements.
+ * Measurements with equal queries share a value. If the batch fails, its queries are executed separately, so errors
+ * are reported to the measurements that caused them.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class DatabaseBatchService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final DatabaseConnectionService databaseConnectionService;
+    private final Map<UUID, Batch> batches = new HashMap<>();
+    private final ScheduledExecutorService batchExecutor;
+
+    /**
+     *
+     * @param databaseConnectionService
+     * @param poolSize number of batches executed in parallel
+     */
+    public DatabaseBatchService(DatabaseConnectionService databaseConnectionService,
+                                @Value("${iamreportingmodule.database.batch-pool-size:2}") int poolSize) {
+        this.databaseConnectionService = databaseConnectionService;
+        this.batchExecutor = Executors.newScheduledThreadPool(Math.max(1, poolSize));
+    }
+
+    /**
+     * Returns result of executing sql query in database datasource, batched with queries of measurements due within
+     * the batch window of the datasource
+     * Batches are executed by the service, so cancelling a measurement only fails that measurement.
+     *
+     * @param databaseDataSource
+     * @param query
+     * @return
+     * @throws DatabaseException
+     */
+    public Result measure(DatabaseDataSource databaseDataSource, String query) throws DatabaseException {
+        UUID id = databaseDataSource.getId();
+        Integer window = databaseDataSource.getBatchWindow();
+        if (id == null || window == null || window <= 0 || !DatabaseUtil.isBatchable(query)) {
+            return databaseConnectionService.measure(databaseDataSource, query);
+        }
+
+        // join open batch of datasource or open new batch
+        CompletableFuture<BigDecimal> value;
+        synchronized (batches) {
+            Batch batch = batches.get(id);
+            if (batch == null) {
+                Batch opened = new Batch();
+                batch = opened;
+                batches.put(id, batch);
+                logger.info("Opened batch of datasource " + databaseDataSource.getName() + " for " + window + " ms");
+                batchExecutor.schedule(() -> close(databaseDataSource, opened), window, TimeUnit.MILLISECONDS);
+            }
+            // own future of measurement, equal queries share the value
+            value = batch.queries.computeIfAbsent(query, k -> new CompletableFuture<>()).copy();
+        }
+
+        // wait for value
+        try {
+            return new Result(value.get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DatabaseException) {
+                throw (DatabaseException) e.getCause();
+            }
+            throw new DatabaseException(e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            // only this measurement is cancelled, batch is executed for the others
+            value.completeExceptionally(new DatabaseException("Measurement cancelled"));
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while waiting for batch");
+        }
+    }
+
+    /**
+     * Closes batch after its window and executes its queries
+     *
+     * @param databaseDataSource
+     * @param batch
+     */
+    private void close(DatabaseDataSource databaseDataSource, Batch batch) {
+        // later measurements open a new batch
+        synchronized (batches) {
+            batches.remove(databaseDataSource.getId(), batch);
+        }
+        try {
+            execute(databaseDataSource, batch);
+        } finally {
+            // no-op for completed values, measurements do not wait forever on unexpected errors
+            DatabaseException failed = new DatabaseException("Batch failed");
+            batch.queries.values().forEach(v -> v.completeExceptionally(failed));
+        }
+    }
+
+    /**
+     * Stops batch executor on shutdown, waiting measurements fail
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Shutting down batch executor");
+        batchExecutor.shutdownNow();
+        synchronized (batches) {
+            DatabaseException failed = new DatabaseException("Batch cancelled");
+            batches.values().forEach(batch -> batch.queries.values().forEach(v -> v.completeExceptionally(failed)));
+            batches.clear();
+        }
+    }
+
+    /**
+     * Executes queries of closed batch and completes their values
+     *
+     * @param databaseDataSource
+     * @param batch
+     */
+    private void execute(DatabaseDataSource databaseDataSource, Batch batch) {
+        List<String> queries = new ArrayList<>(batch.queries.keySet());
+        logger.info("Executing batch of datasource " + databaseDataSource.getName() + " with " + queries.size() + " queries");
+        if (queries.size() > 1) {
+            try {
+                List<BigDecimal> values = databaseConnectionService.measureAll(databaseDataSource, queries);
+                for (int i = 0; i < queries.size(); i++) {
+                    batch.queries.get(queries.get(i)).complete(values.get(i));
+                }
+                return;
+            } catch (DatabaseException e) {
+                logger.info("Batch failed, executing queries separately: " + e.getMessage());
+            }
+        }
+        for (String query : queries) {
+            if (Thread.currentThread().isInterrupted()) {
+                batch.queries.get(query).completeExceptionally(new DatabaseException("Batch cancelled"));
+                continue;
+            }
+            try {
+                batch.queries.get(query).complete(databaseConnectionService.measure(databaseDataSource, query).getValue());
+            } catch (DatabaseException e) {
+                batch.queries.get(query).completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Queries of measurements of a datasource collected within a batch window
+     */
+    private static class Batch {
+
+        // values keyed by query, only modified while batch is open
+        private final Map<String, CompletableFuture<BigDecimal>> queries = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,388 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
+import de.uniregensburg.iamreportingmodule.core.util.CsvAggregator;
+import de.uniregensburg.iamreportingmodule.core.util.DatabaseUtil;
+import de.uniregensburg.iamreportingmodule.data.entity.DatabaseDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service keeping a connection pool per database datasource
+ * Pools are created on first use and sized per datasource. Idle connections are closed after the idle timeout, so
+ * pools of rarely measured datasources do not hold connections. Pools are closed when their datasource is saved or
+ * deleted, a saved datasource gets a new pool with its new configuration on next use.
+ * Each datasource has a bulkhead limiting its concurrent queries. Queries waiting longer than the bulkhead wait for a
+ * free slot are skipped, so a slow datasource cannot occupy all scheduler threads. Queries are cancelled after the
+ * query timeout of their datasource or when the thread executing them is cancelled.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class DatabaseConnectionService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Map<UUID, HikariDataSource> pools = new ConcurrentHashMap<>();
+    private final Map<UUID, Semaphore> bulkheads = new ConcurrentHashMap<>();
+    private final Map<Thread, DatabaseUtil> running = new ConcurrentHashMap<>();
+    private final int defaultPoolSize;
+    private final long connectionTimeout;
+    private final long idleTimeout;
+    private final int defaultQueryTimeout;
+    private final long bulkheadWait;
+    private final int fetchSize;
+
+    /**
+     *
+     * @param defaultPoolSize maximum number of connections of datasources without own pool size
+     * @param connectionTimeout maximum time in milliseconds to wait for a connection
+     * @param idleTimeout time in milliseconds after which idle connections are closed
+     * @param defaultQueryTimeout time in seconds after which queries of datasources without own timeout are cancelled
+     * @param bulkheadWait maximum time in milliseconds to wait for a free slot of a datasource
+     * @param fetchSize number of rows fetched per round-trip by queries aggregated client side
+     */
+    public DatabaseConnectionService(@Value("${iamreportingmodule.database.pool-size:4}") int defaultPoolSize,
+                                     @Value("${iamreportingmodule.database.connection-timeout-ms:30000}") long connectionTimeout,
+                                     @Value("${iamreportingmodule.database.idle-timeout-ms:600000}") long idleTimeout,
+                                     @Value("${iamreportingmodule.database.query-timeout-seconds:60}") int defaultQueryTimeout,
+                                     @Value("${iamreportingmodule.database.bulkhead-wait-ms:10000}") long bulkheadWait,
+                                     @Value("${iamreportingmodule.database.fetch-size:1000}") int fetchSize) {
+        this.defaultPoolSize = Math.max(1, defaultPoolSize);
+        this.connectionTimeout = connectionTimeout;
+        this.idleTimeout = idleTimeout;
+        this.defaultQueryTimeout = Math.max(0, defaultQueryTimeout);
+        this.bulkheadWait = Math.max(0, bulkheadWait);
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+    /**
+     * Returns measurement result of executing sql query in datasource
+     *
+     * @param databaseDataSource
+     * @param query
+     * @return
+     * @throws DatabaseException if query fails, times out, is cancelled or datasource is busy
+     */
+    public Result measure(DatabaseDataSource databaseDataSource, String query) throws DatabaseException {
+        return execute(databaseDataSource, util -> util.measure(query));
+    }
+
+    /**
+     * Returns measurement result of sql query (sqlQuery) in datasource, aggregated client side if attributes contain an
+     * aggregation method (sqlAggregationMethod)
+     *
+     * @param databaseDataSource
+     * @param attributes attributes of measurement
+     * @return
+     * @throws DatabaseException if attributes are invalid, query fails, times out, is cancelled or datasource is busy
+     */
+    public Result measure(DatabaseDataSource databaseDataSource, Map<String, String> attributes) throws DatabaseException {
+        String query = attributes.get("sqlQuery");
+        if (query == null || query.isBlank()) {
+            throw new DatabaseException("Query is blank");
+        }
+        CsvAggregator aggregator = DatabaseUtil.getAggregator(attributes);
+        if (aggregator == null) {
+            return measure(databaseDataSource, query);
+        }
+        return execute(databaseDataSource, util -> util.measure(query, aggregator, fetchSize));
+    }
+
+    /**
+     * Returns measurement values of executing sql queries in datasource in one round-trip
+     *
+     * @param databaseDataSource
+     * @param queries single statement queries
+     * @return values in order of queries
+     * @throws DatabaseException if any query fails, times out, is cancelled or datasource is busy
+     */
+    public List<BigDecimal> measureAll(DatabaseDataSource databaseDataSource, List<String> queries) throws DatabaseException {
+        return execute(databaseDataSource, util -> util.measureAll(queries));
+    }
+
+    /**
+     * Cancels query executed by thread, e.g. when measurement job is interrupted
+     *
+     * @param thread
+     */
+    public void cancel(Thread thread) {
+        DatabaseUtil util = running.get(thread);
+        if (util != null) {
+            util.cancel();
+        }
+    }
+
+    /**
+     * Executes query within bulkhead of datasource, queries of interrupted threads are not executed
+     *
+     * @param databaseDataSource
+     * @param query
+     * @param <T>
+     * @return
+     * @throws DatabaseException
+     */
+    <T> T execute(DatabaseDataSource databaseDataSource, Query<T> query) throws DatabaseException {
+        DatabaseUtil util;
+        try {
+            util = getDatabaseUtil(databaseDataSource);
+        } catch (SQLException e) {
+            logger.info(e.getMessage());
+            throw new DatabaseException(e.getMessage());
+        }
+        Semaphore bulkhead = getBulkhead(databaseDataSource);
+        if (bulkhead != null) {
+            try {
+                if (!bulkhead.tryAcquire(bulkheadWait, TimeUnit.MILLISECONDS)) {
+                    logger.info("Datasource " + databaseDataSource.getName() + " busy, skipping query");
+                    throw new DatabaseException("Datasource busy, maximum number of concurrent queries reached");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DatabaseException("Interrupted while waiting for datasource");
+            }
+        }
+        Thread thread = Thread.currentThread();
+        running.put(thread, util);
+        try {
+            // thread may have been cancelled while waiting for datasource, cancel finds util from now on
+            if (thread.isInterrupted()) {
+                logger.info("Query cancelled before execution");
+                throw new DatabaseException("Query cancelled");
+            }
+            return query.execute(util);
+        } finally {
+            running.remove(thread, util);
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Returns database util using pooled connections of datasource, unsaved datasources open new connections
+     *
+     * @param databaseDataSource
+     * @return
+     * @throws SQLException if dbms type is not supported
+     */
+    private DatabaseUtil getDatabaseUtil(DatabaseDataSource databaseDataSource) throws SQLException {
+        int queryTimeout = databaseDataSource.getQueryTimeout() != null ? databaseDataSource.getQueryTimeout() : defaultQueryTimeout;
+        if (databaseDataSource.getId() == null) {
+            return new DatabaseUtil(databaseDataSource, null, queryTimeout);
+        }
+        return new DatabaseUtil(databaseDataSource, getPool(databaseDataSource), queryTimeout);
+    }
+
+    /**
+     * Returns bulkhead of datasource, creates bulkhead on first use
+     *
+     * @param databaseDataSource
+     * @return bulkhead or null for unsaved datasources
+     */
+    private Semaphore getBulkhead(DatabaseDataSource databaseDataSource) {
+        if (databaseDataSource.getId() == null) {
+            return null;
+        }
+        return bulkheads.computeIfAbsent(databaseDataSource.getId(), id -> {
+            int limit;
+            if (databaseDataSource.getMaxConcurrentQueries() != null) {
+                limit = databaseDataSource.getMaxConcurrentQueries();
+            } else {
+                limit = databaseDataSource.getMaxPoolSize() != null ? databaseDataSource.getMaxPoolSize() : defaultPoolSize;
+            }
+            return new Semaphore(limit, true);
+        });
+    }
+
+    /**
+     * Returns connection pool of datasource, creates pool on first use
+     *
+     * @param databaseDataSource saved datasource
+     * @return
+     * @throws SQLException if dbms type is not supported
+     */
+    private HikariDataSource getPool(DatabaseDataSource databaseDataSource) throws SQLException {
+        HikariDataSource pool = pools.get(databaseDataSource.getId());
+        if (pool != null) {
+            return pool;
+        }
+        // check configuration before creating pool
+        DatabaseUtil util = new DatabaseUtil(databaseDataSource);
+        String url = util.getUrl();
+        return pools.computeIfAbsent(databaseDataSource.getId(), id -> createPool(databaseDataSource, url, util));
+    }
+
+    /**
+     * Creates connection pool of datasource
+     *
+     * @param databaseDataSource
+     * @param url jdbc connection url
+     * @param util util providing connection properties
+     * @return
+     */
+    private HikariDataSource createPool(DatabaseDataSource databaseDataSource, String url, DatabaseUtil util) {
+        int poolSize = databaseDataSource.getMaxPoolSize() != null ? databaseDataSource.getMaxPoolSize() : defaultPoolSize;
+        logger.info("Creating connection pool of datasource " + databaseDataSource.getName() + " with " + poolSize + " connections");
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("datasource-" + databaseDataSource.getId());
+        config.setJdbcUrl(url);
+        config.setDataSourceProperties(util.getProperties());
+        config.setMaximumPoolSize(poolSize);
+        // connections are opened on demand and closed when idle
+        config.setMinimumIdle(0);
+        config.setIdleTimeout(idleTimeout);
+        config.setConnectionTimeout(connectionTimeout);
+        // unreachable databases fail when a connection is requested, not when the pool is created
+        config.setInitializationFailTimeout(-1);
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Closes connection pool and removes bulkhead of datasource, e.g. after datasource was edited or deleted
+     *
+     * @param databaseDataSource
+     */
+    public void evict(DatabaseDataSource databaseDataSource) {
+        if (databaseDataSource.getId() == null) {
+            return;
+        }
+        // running queries release their slot to the old bulkhead
+        bulkheads.remove(databaseDataSource.getId());
+        HikariDataSource pool = pools.remove(databaseDataSource.getId());
+        if (pool != null) {
+            logger.info("Closing connection pool of datasource " + databaseDataSource.getName());
+            pool.close();
+        }
+    }
+
+    /**
+     * Returns statistics of connection pool of datasource
+     *
+     * @param databaseDataSource
+     * @return statistics or null if datasource has no pool yet
+     */
+    public PoolStatistics getStatistics(DatabaseDataSource databaseDataSource) {
+        if (databaseDataSource.getId() == null) {
+            return null;
+        }
+        HikariDataSource pool = pools.get(databaseDataSource.getId());
+        if (pool == null) {
+            return null;
+        }
+        HikariPoolMXBean bean = pool.getHikariPoolMXBean();
+        if (bean == null) {
+            return null;
+        }
+        return new PoolStatistics(bean.getActiveConnections(), bean.getIdleConnections(),
+                bean.getThreadsAwaitingConnection(), pool.getMaximumPoolSize());
+    }
+
+    /**
+     * Closes all connection pools on shutdown
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Closing " + pools.size() + " connection pools");
+        pools.values().forEach(HikariDataSource::close);
+        pools.clear();
+    }
+
+    /**
+     * Query executed with database util
+     *
+     * @param <T>
+     */
+    interface Query<T> {
+
+        /**
+         * Executes query
+         *
+         * @param util
+         * @return
+         * @throws DatabaseException
+         */
+        T execute(DatabaseUtil util) throws DatabaseException;
+    }
+
+    /**
+     * Statistics of a connection pool
+     */
+    public static final class PoolStatistics {
+
+        private final int active;
+        private final int idle;
+        private final int waiting;
+        private final int maximum;
+
+        /**
+         *
+         * @param active connections in use
+         * @param idle open connections not in use
+         * @param waiting threads waiting for a connection
+         * @param maximum maximum number of connections
+         */
+        PoolStatistics(int active, int idle, int waiting, int maximum) {
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.maximum = maximum;
+        }
+
+        /**
+         * Returns number of connections in use
+         *
+         * @return
+         */
+        public int getActive() {
+            return active;
+        }
+
+        /**
+         * Returns number of open connections not in use
+         *
+         * @return
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        /**
+         * Returns number of threads waiting for a connection
+         *
+         * @return
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * Returns maximum number of connections
+         *
+         * @return
+         */
+        public int getMaximum() {
+            return maximum;
+        }
+
+        @Override
+        public String toString() {
+            return active + " active, " + idle + " idle, " + waiting + " waiting (max. " + maximum + ")";
+        }
+    }
+}
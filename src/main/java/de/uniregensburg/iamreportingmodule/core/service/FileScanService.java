@@ -0,0 +1,181 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FileException;
+import de.uniregensburg.iamreportingmodule.core.util.CsvStatisticsUtil;
+import de.uniregensburg.iamreportingmodule.core.util.CsvUtil;
+import de.uniregensburg.iamreportingmodule.data.entity.DataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.Measurement;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Service for measuring csv files with a shared scan
+ * The first measurement of a file datasource scans the file once for all measurements of the datasource and keeps
+ * the outcomes keyed by attributes of the measurements. Further measurements of the datasource take their outcome
+ * from the scan as long as the datasource refers to the scanned generation of its file. Measurements that can be computed from the column statistics stored
+ * at upload do not need a scan at all. Outcomes are invalidated when the datasource is saved or deleted,
+ * measurements with changed attributes trigger a new scan.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class FileScanService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final FileStorageService fileStorageService;
+    private final long parallelThreshold;
+    private final Map<UUID, FileScan> scans = new ConcurrentHashMap<>();
+    private final Map<UUID, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param fileStorageService
+     * @param parallelThreshold size of csv data in bytes from which files are aggregated in parallel chunks
+     */
+    public FileScanService(FileStorageService fileStorageService,
+                           @Value("${iamreportingmodule.csv.parallel-threshold-bytes:16777216}") long parallelThreshold) {
+        this.fileStorageService = fileStorageService;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Returns result of measurement of csv file, computed from column statistics of file if possible, otherwise
+     * scans file for all measurements of datasource if outcome of measurement is not known yet
+     *
+     * @param fileDataSource
+     * @param measurement
+     * @return
+     * @throws FileException
+     */
+    public Result measure(FileDataSource fileDataSource, Measurement measurement) throws FileException {
+        Map<String, String> attributes = new HashMap<>(measurement.getAttributes());
+        // column statistics computed at upload
+        Result result = new CsvStatisticsUtil(fileDataSource).measure(attributes);
+        if (result != null) {
+            logger.info("Measurement computed from column statistics of datasource " + fileDataSource.getName());
+            return result;
+        }
+        UUID id = fileDataSource.getId();
+        if (id == null || fileDataSource.getUploadedFile() != null) {
+            // unsaved datasource or file cannot be invalidated
+            return createUtil(fileDataSource).measure(attributes);
+        }
+        CsvUtil.Outcome outcome = getOutcome(id, fileDataSource, attributes);
+        if (outcome == null) {
+            // one scan per datasource at a time, concurrent measurements of the datasource wait for its outcomes
+            synchronized (locks.computeIfAbsent(id, k -> new Object())) {
+                outcome = getOutcome(id, fileDataSource, attributes);
+                if (outcome == null) {
+                    FileScan scan = scan(fileDataSource, attributes);
+                    scans.put(id, scan);
+                    outcome = scan.outcomes.get(attributes);
+                }
+            }
+        } else {
+            logger.info("Outcome of measurement taken from shared scan of datasource " + fileDataSource.getName());
+        }
+        return outcome.toResult();
+    }
+
+    /**
+     * Removes outcomes of datasource
+     *
+     * @param dataSource
+     */
+    public void invalidate(DataSource dataSource) {
+        if (dataSource == null || dataSource.getId() == null) {
+            return;
+        }
+        if (scans.remove(dataSource.getId()) != null) {
+            logger.info("Invalidated shared scan of datasource " + dataSource.getName());
+        }
+    }
+
+    /**
+     * Returns outcome of measurement from last scan of datasource
+     *
+     * @param id
+     * @param fileDataSource
+     * @param attributes
+     * @return outcome or null if datasource was not scanned for attributes or refers to another generation of file
+     */
+    private CsvUtil.Outcome getOutcome(UUID id, FileDataSource fileDataSource, Map<String, String> attributes) {
+        FileScan scan = scans.get(id);
+        if (scan == null || !Objects.equals(scan.fileGeneration, fileDataSource.getFileGeneration())) {
+            return null;
+        }
+        return scan.outcomes.get(attributes);
+    }
+
+    /**
+     * Scans file once for measurement and all measurements of datasource
+     *
+     * @param fileDataSource
+     * @param attributes attributes of requested measurement
+     * @return
+     */
+    private FileScan scan(FileDataSource fileDataSource, Map<String, String> attributes) throws FileException {
+        // collect distinct attributes, measurements with equal attributes share an outcome
+        Set<Map<String, String>> attributesSet = new LinkedHashSet<>();
+        attributesSet.add(attributes);
+        List<Measurement> measurements = fileDataSource.getMeasurements();
+        if (measurements != null) {
+            for (Measurement measurement : measurements) {
+                attributesSet.add(new HashMap<>(measurement.getAttributes()));
+            }
+        }
+        logger.info("Scanning datasource " + fileDataSource.getName() + " for " + attributesSet.size() + " measurements");
+        List<Map<String, String>> attributesList = new ArrayList<>(attributesSet);
+        List<CsvUtil.Outcome> outcomes = createUtil(fileDataSource).measureAll(attributesList);
+        Map<Map<String, String>, CsvUtil.Outcome> outcomesByAttributes = new HashMap<>();
+        for (int i = 0; i < attributesList.size(); i++) {
+            outcomesByAttributes.put(attributesList.get(i), outcomes.get(i));
+        }
+        return new FileScan(fileDataSource.getFileGeneration(), outcomesByAttributes);
+    }
+
+    /**
+     * Returns csv util for datasource
+     *
+     * @param fileDataSource
+     * @return
+     * @throws FileException if file cannot be read
+     */
+    private CsvUtil createUtil(FileDataSource fileDataSource) throws FileException {
+        try {
+            return new CsvUtil(fileDataSource, fileStorageService.getContent(fileDataSource),
+                    () -> fileStorageService.getColumnar(fileDataSource), ForkJoinPool.commonPool(), parallelThreshold);
+        } catch (IOException e) {
+            logger.info("Cannot read file: " + e.getMessage());
+            throw new FileException("Cannot read file");
+        }
+    }
+
+    /**
+     * Outcomes of a scan of a file
+     */
+    private static class FileScan {
+
+        private final Integer fileGeneration;
+        private final Map<Map<String, String>, CsvUtil.Outcome> outcomes;
+
+        /**
+         *
+         * @param fileGeneration generation of scanned file, every stored file has a new generation
+         * @param outcomes outcomes keyed by attributes of measurements
+         */
+        FileScan(Integer fileGeneration, Map<Map<String, String>, CsvUtil.Outcome> outcomes) {
+            this.fileGeneration = fileGeneration;
+            this.outcomes = outcomes;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.util.ColumnarCsv;
+import de.uniregensburg.iamreportingmodule.core.util.CsvChunkStream;
+import de.uniregensburg.iamreportingmodule.core.util.CsvStatisticsUtil;
+import de.uniregensburg.iamreportingmodule.core.util.MappedCsvFile;
+import de.uniregensburg.iamreportingmodule.data.entity.ColumnarFile;
+import de.uniregensburg.iamreportingmodule.data.entity.FileChunk;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import de.uniregensburg.iamreportingmodule.data.repository.ColumnarFileRepository;
+import de.uniregensburg.iamreportingmodule.data.repository.FileChunkRepository;
+import de.uniregensburg.iamreportingmodule.data.repository.FileDataSourceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Service for storing uploaded files in compressed chunks and reading them without holding them in memory
+ * Uploads are spooled to temporary files, statistics and columnar representation are computed from the temporary file
+ * memory-mapped in windows of complete records and the file is copied into the database when the datasource is saved:
+ * cut into chunks of complete records and gzip-compressed chunk by chunk, under a new generation the datasource
+ * switches to once all chunks are written. For reading, chunks are loaded and decompressed one at a time, so
+ * neither the compressed nor the decompressed file is held in memory. Files stored before chunked storage are still
+ * read from attribute file of the datasource. The columnar representation is stored apart from the datasource and
+ * only loaded when a measurement reads it.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class FileStorageService {
+
+    /**
+     * Columnar representation is encoded from a single mapping of the file
+     */
+    public static final long COLUMNAR_MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Generation of columnar representation of files held by attribute file of datasource
+     */
+    public static final int ATTRIBUTE_FILE_GENERATION = 0;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final FileChunkRepository fileChunkRepository;
+    private final ColumnarFileRepository columnarFileRepository;
+    private final FileDataSourceRepository fileDataSourceRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final long maxFileSize;
+    private final long columnarMaxFileSize;
+    private final ExecutorService prepareExecutor;
+
+    /**
+     *
+     * @param fileChunkRepository
+     * @param columnarFileRepository
+     * @param fileDataSourceRepository
+     * @param transactionManager
+     * @param chunkSize minimum size of stored chunks in bytes before compression
+     * @param maxFileSize maximum size of uploaded files in bytes
+     * @param columnarMaxFileSize maximum size of files in bytes converted to columnar representation, at most 2 GB
+     * @param preparePoolSize maximum number of uploaded files prepared in parallel
+     */
+    public FileStorageService(FileChunkRepository fileChunkRepository, ColumnarFileRepository columnarFileRepository,
+                              FileDataSourceRepository fileDataSourceRepository, PlatformTransactionManager transactionManager,
+                              @Value("${iamreportingmodule.upload.chunk-size-bytes:8388608}") int chunkSize,
+                              @Value("${iamreportingmodule.upload.max-file-size-bytes:17179869184}") long maxFileSize,
+                              @Value("${iamreportingmodule.upload.columnar-max-file-size-bytes:268435456}") long columnarMaxFileSize,
+                              @Value("${iamreportingmodule.upload.prepare-pool-size:2}") int preparePoolSize) {
+        this.fileChunkRepository = fileChunkRepository;
+        this.columnarFileRepository = columnarFileRepository;
+        this.fileDataSourceRepository = fileDataSourceRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.maxFileSize = maxFileSize;
+        this.columnarMaxFileSize = Math.min(columnarMaxFileSize, COLUMNAR_MAX_FILE_SIZE);
+        this.prepareExecutor = Executors.newFixedThreadPool(Math.max(1, preparePoolSize));
+    }
+
+    /**
+     * Returns maximum size of uploaded files
+     *
+     * @return size in bytes
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Sets uploaded file of datasource and computes statistics and columnar representation from memory-mapped file
+     * The file is stored when the datasource is saved.
+     *
+     * @param fileDataSource
+     * @param uploadedFile temporary file, deleted when stored or replaced by another upload
+     * @throws IOException
+     */
+    public void prepare(FileDataSource fileDataSource, Path uploadedFile) throws IOException {
+        logger.info("Preparing uploaded file " + uploadedFile);
+        discard(fileDataSource);
+        try {
+            long size = Files.size(uploadedFile);
+            if (size > maxFileSize) {
+                throw new IOException("File exceeds maximum size of " + maxFileSize / (1024 * 1024) + " MB");
+            }
+            // statistics and columnar representation of uploaded file answer most measurements without parsing text
+            try {
+                new CsvStatisticsUtil(fileDataSource).computeStatistics(new MappedCsvFile(uploadedFile));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (size <= columnarMaxFileSize) {
+                fileDataSource.setColumnarFile(ColumnarCsv.encode(map(uploadedFile), fileDataSource.getStatisticsDelimiter()));
+            } else {
+                logger.info("File too large for columnar representation");
+                fileDataSource.setColumnarFile(null);
+            }
+            fileDataSource.setFile(null);
+            fileDataSource.setFileSize(size);
+            fileDataSource.setUploadedFile(uploadedFile);
+        } catch (IOException e) {
+            Files.deleteIfExists(uploadedFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares uploaded file of datasource in background, so scanning large files does not block the calling thread
+     * The datasource must not be used until the returned future is completed.
+     *
+     * @param fileDataSource
+     * @param uploadedFile temporary file, deleted when stored or replaced by another upload
+     * @return future completed exceptionally with IOException if file cannot be prepared
+     */
+    public CompletableFuture<Void> prepareAsync(FileDataSource fileDataSource, Path uploadedFile) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            prepareExecutor.execute(() -> {
+                try {
+                    prepare(fileDataSource, uploadedFile);
+                    future.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                Files.deleteIfExists(uploadedFile);
+            } catch (IOException deleteException) {
+                logger.info("Cannot delete uploaded file: " + deleteException.getMessage());
+            }
+            future.completeExceptionally(new IOException("Service is shutting down"));
+        }
+        return future;
+    }
+
+    /**
+     * Saves datasource with uploaded file in compressed chunks and its columnar representation
+     * Chunks and columnar representation are written under a new generation first, which is not read before the
+     * datasource is switched to it. Switching the datasource and deleting previous generations happen in one
+     * transaction, so readers see either the previous or the new file and a failed upload leaves the previous file.
+     *
+     * @param fileDataSource
+     * @throws IOException
+     */
+    public void save(FileDataSource fileDataSource) throws IOException {
+        Path uploadedFile = fileDataSource.getUploadedFile();
+        if (uploadedFile == null) {
+            // columnar representation is only pending with uploaded file
+            fileDataSourceRepository.save(fileDataSource);
+            return;
+        }
+        if (fileDataSource.getId() == null) {
+            // chunks need id of datasource, new datasource has no file until it is switched to the first generation
+            fileDataSourceRepository.save(fileDataSource);
+        }
+        UUID id = fileDataSource.getId();
+        Integer currentGeneration = fileDataSource.getFileGeneration();
+        // first stored file of datasource is generation 1
+        int generation = currentGeneration != null ? currentGeneration + 1 : 1;
+        logger.info("Storing file of datasource " + fileDataSource.getName() + " in chunks of generation " + generation);
+        // leftovers of a failed upload
+        fileChunkRepository.deleteByFileDataSourceIdAndGeneration(id, generation);
+        columnarFileRepository.deleteByFileDataSourceIdAndGeneration(id, generation);
+        CsvChunkStream chunks = new CsvChunkStream(chunkSize,
+                (chunkIndex, compressed) -> fileChunkRepository.save(new FileChunk(id, generation, chunkIndex, compressed)));
+        // one chunk in memory at a time
+        try (chunks) {
+            Files.copy(uploadedFile, chunks);
+        }
+        storeColumnar(fileDataSource, generation);
+        logger.info("Stored " + chunks.getChunks() + " chunks, " + chunks.getCompressedSize() + " bytes compressed");
+
+        Integer previousGeneration = fileDataSource.getFileGeneration();
+        Integer previousChunks = fileDataSource.getFileChunks();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                fileDataSource.setFileGeneration(generation);
+                fileDataSource.setFileChunks(chunks.getChunks());
+                fileDataSourceRepository.save(fileDataSource);
+                fileChunkRepository.deleteByFileDataSourceIdAndGenerationNot(id, generation);
+                columnarFileRepository.deleteByFileDataSourceIdAndGenerationNot(id, generation);
+            });
+        } catch (RuntimeException e) {
+            // datasource still refers to previous file
+            fileDataSource.setFileGeneration(previousGeneration);
+            fileDataSource.setFileChunks(previousChunks);
+            throw e;
+        }
+        logger.info("Switched datasource " + fileDataSource.getName() + " to generation " + generation);
+        fileDataSource.setColumnarFile(null);
+        discard(fileDataSource);
+    }
+
+    /**
+     * Stores pending columnar representation of datasource under generation, replaces columnar representation of
+     * generation
+     * A new upload without columnar representation stores none.
+     *
+     * @param fileDataSource
+     * @param generation
+     */
+    private void storeColumnar(FileDataSource fileDataSource, int generation) {
+        byte[] columnarFile = fileDataSource.getColumnarFile();
+        if (columnarFile == null) {
+            return;
+        }
+        UUID id = fileDataSource.getId();
+        columnarFileRepository.deleteByFileDataSourceIdAndGeneration(id, generation);
+        columnarFileRepository.save(new ColumnarFile(id, generation, columnarFile));
+        logger.info("Stored columnar representation, " + columnarFile.length + " bytes");
+    }
+
+    /**
+     * Returns columnar representation of file of datasource
+     * Columnar representation of uploaded file not stored yet is held by datasource, stored columnar representation is
+     * loaded from database.
+     *
+     * @param fileDataSource
+     * @return bytes or null if file was not converted
+     */
+    public byte[] getColumnar(FileDataSource fileDataSource) {
+        if (fileDataSource.getColumnarFile() != null || fileDataSource.getUploadedFile() != null) {
+            return fileDataSource.getColumnarFile();
+        }
+        UUID id = fileDataSource.getId();
+        Integer generation = fileDataSource.getFile() != null ? ATTRIBUTE_FILE_GENERATION : fileDataSource.getFileGeneration();
+        if (id == null || generation == null) {
+            return null;
+        }
+        return columnarFileRepository.findByFileDataSourceIdAndGeneration(id, generation)
+                .map(ColumnarFile::getData).orElse(null);
+    }
+
+    /**
+     * Deletes stored chunks, columnar representation and uploaded file of datasource
+     *
+     * @param fileDataSource
+     */
+    public void delete(FileDataSource fileDataSource) {
+        discard(fileDataSource);
+        if (fileDataSource.getId() != null) {
+            fileChunkRepository.deleteByFileDataSourceId(fileDataSource.getId());
+            columnarFileRepository.deleteByFileDataSourceId(fileDataSource.getId());
+        }
+    }
+
+    /**
+     * Returns size of file of datasource
+     *
+     * @param fileDataSource
+     * @return size in bytes
+     */
+    public long getSize(FileDataSource fileDataSource) {
+        if (fileDataSource.getFile() != null) {
+            return fileDataSource.getFile().length;
+        }
+        return fileDataSource.getFileSize() != null ? fileDataSource.getFileSize() : 0;
+    }
+
+    /**
+     * Returns content of file of datasource in segments of complete records
+     * Uploaded files not stored yet are memory-mapped window by window, stored chunks are loaded and decompressed while iterating.
+     *
+     * @param fileDataSource
+     * @return segments, iterators throw UncheckedIOException if a chunk or window cannot be read
+     * @throws IOException
+     */
+    public Iterable<ByteBuffer> getContent(FileDataSource fileDataSource) throws IOException {
+        if (fileDataSource.getUploadedFile() != null) {
+            return new MappedCsvFile(fileDataSource.getUploadedFile());
+        }
+        if (fileDataSource.getFile() != null) {
+            return List.of(ByteBuffer.wrap(fileDataSource.getFile()).asReadOnlyBuffer());
+        }
+        if (!hasChunks(fileDataSource)) {
+            return List.of();
+        }
+        return () -> new Iterator<>() {
+            private final Iterator<FileChunk> chunks = loadChunks(fileDataSource);
+
+            @Override
+            public boolean hasNext() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public ByteBuffer next() {
+                return ByteBuffer.wrap(CsvChunkStream.decompress(chunks.next().getData()));
+            }
+        };
+    }
+
+    /**
+     * Returns stream of file of datasource, chunks are loaded one by one while reading
+     *
+     * @param fileDataSource
+     * @return
+     * @throws IOException
+     */
+    public InputStream openStream(FileDataSource fileDataSource) throws IOException {
+        if (fileDataSource.getUploadedFile() != null) {
+            return Files.newInputStream(fileDataSource.getUploadedFile());
+        }
+        if (fileDataSource.getFile() != null) {
+            return new ByteArrayInputStream(fileDataSource.getFile());
+        }
+        if (!hasChunks(fileDataSource)) {
+            return InputStream.nullInputStream();
+        }
+        Iterator<FileChunk> chunks = loadChunks(fileDataSource);
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return new GZIPInputStream(new ByteArrayInputStream(chunks.next().getData()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes uploaded file of datasource not stored yet
+     *
+     * @param fileDataSource
+     */
+    public void discard(FileDataSource fileDataSource) {
+        Path uploadedFile = fileDataSource.getUploadedFile();
+        if (uploadedFile == null) {
+            return;
+        }
+        fileDataSource.setUploadedFile(null);
+        try {
+            Files.deleteIfExists(uploadedFile);
+        } catch (IOException e) {
+            logger.info("Cannot delete uploaded file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks if file of datasource is stored in chunks, stored files always have generation and number of chunks
+     *
+     * @param fileDataSource
+     * @return true if stored in chunks
+     */
+    private static boolean hasChunks(FileDataSource fileDataSource) {
+        return fileDataSource.getId() != null && fileDataSource.getFileGeneration() != null
+                && fileDataSource.getFileChunks() != null;
+    }
+
+    /**
+     * Returns chunks of current generation of file in order, a chunk is loaded when the previous chunk was returned
+     * If the file is replaced while reading, chunks of the previous generation are deleted and reading fails instead of
+     * returning part of the file.
+     *
+     * @param fileDataSource stored in chunks
+     * @return iterator throwing UncheckedIOException if chunks are missing
+     */
+    private Iterator<FileChunk> loadChunks(FileDataSource fileDataSource) {
+        UUID id = fileDataSource.getId();
+        int generation = fileDataSource.getFileGeneration();
+        int fileChunks = fileDataSource.getFileChunks();
+        return new Iterator<>() {
+            private int chunkIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return chunkIndex < fileChunks;
+            }
+
+            @Override
+            public FileChunk next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                FileChunk chunk = fileChunkRepository.findByFileDataSourceIdAndGenerationAndChunkIndex(id, generation, chunkIndex)
+                        .orElseThrow(() -> new UncheckedIOException(new IOException("File of datasource "
+                                + fileDataSource.getName() + " was replaced while reading")));
+                chunkIndex++;
+                return chunk;
+            }
+        };
+    }
+
+    /**
+     * Stops preparing uploaded files on shutdown
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Shutting down prepare pool");
+        prepareExecutor.shutdownNow();
+    }
+
+    /**
+     * Maps file read only into memory
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.util.CompiledFormula;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
+import de.uniregensburg.iamreportingmodule.data.entity.Formula;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service for caching compiled formulas
+ * Compiled formulas are keyed by id of formula and verified against the hash of the formula string,
+ * cached formulas are compiled to method handles after a number of evaluations
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class FormulaCacheService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Map<UUID, CompiledFormula> compiledFormulas = new ConcurrentHashMap<>();
+    private final long promotionThreshold;
+
+    /**
+     *
+     * @param promotionThreshold number of evaluations after which formulas are compiled to method handles
+     */
+    public FormulaCacheService(@Value("${iamreportingmodule.formula.promotion-threshold:50}") long promotionThreshold) {
+        this.promotionThreshold = promotionThreshold;
+    }
+
+    /**
+     * Returns compiled formula, compiles and caches formula if not cached yet or formula string changed
+     *
+     * @param formula
+     * @param util
+     * @return
+     * @throws FormulaException
+     */
+    public CompiledFormula getCompiledFormula(Formula formula, FormulaUtil util) throws FormulaException {
+        UUID id = formula.getId();
+        String formulaString = formula.getFormula();
+        // check cache
+        CompiledFormula compiledFormula = compiledFormulas.get(id);
+        if (compiledFormula != null && compiledFormula.matches(formulaString)) {
+            return compiledFormula;
+        }
+        logger.info("Compiled formula for formula with id " + id + " not cached or outdated");
+        // compile and cache formula
+        compiledFormula = util.compile(formulaString);
+        compiledFormula.setPromotionThreshold(promotionThreshold);
+        compiledFormulas.put(id, compiledFormula);
+        return compiledFormula;
+    }
+
+    /**
+     * Removes compiled formula from cache
+     *
+     * @param formula
+     */
+    public void invalidate(Formula formula) {
+        if (formula == null || formula.getId() == null) {
+            return;
+        }
+        logger.info("Invalidating compiled formula with id " + formula.getId());
+        compiledFormulas.remove(formula.getId());
+    }
+}
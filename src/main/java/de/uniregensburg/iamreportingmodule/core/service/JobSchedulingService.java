@@ -2,6 +2,7 @@ package de.uniregensburg.iamreportingmodule.core.service;
 
 import de.uniregensburg.iamreportingmodule.core.exception.JobSchedulingException;
 import de.uniregensburg.iamreportingmodule.core.scheduling.CalculateJob;
+import de.uniregensburg.iamreportingmodule.core.scheduling.LabelDirectoryCheckJob;
 import de.uniregensburg.iamreportingmodule.core.scheduling.MeasureJob;
 import de.uniregensburg.iamreportingmodule.data.entity.*;
 import org.quartz.*;
@@ -10,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.Date;
 
 /**
  * Service for scheduling quartz jobs
@@ -140,6 +142,45 @@ public class JobSchedulingService {
         logger.info("Measuring of measurement scheduled");
     }
 
+    /**
+     * Schedules job for checking label directory against database
+     *
+     * @param interval
+     * @throws JobSchedulingException
+     */
+    public void checkLabelDirectory(Duration interval) throws JobSchedulingException {
+        logger.info("Scheduling consistency check of label directory");
+        TriggerKey triggerKey = TriggerKey.triggerKey("labelDirectory", "maintenance");
+        JobKey jobKey = JobKey.jobKey("labelDirectory", "maintenance");
+
+        logger.info("Creating trigger");
+        // first check after one interval, directory has just been loaded
+        Trigger trigger = TriggerBuilder.newTrigger()
+                .withIdentity(triggerKey)
+                .startAt(new Date(System.currentTimeMillis() + interval.toMillis()))
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                        .repeatForever()
+                        .withIntervalInMilliseconds(interval.toMillis()))
+                .build();
+
+        if (checkJobAndTriggerExists(jobKey, triggerKey)) { // job and trigger exist
+            // reschedule job
+            rescheduleJob(trigger);
+        } else { // job and trigger do not exist
+            logger.info("Creating job");
+            // create job
+            JobDetail job = JobBuilder.newJob(LabelDirectoryCheckJob.class)
+                    .withIdentity(jobKey)
+                    .withDescription("Check label directory")
+                    .build();
+
+            // schedule job
+            scheduleJob(job, trigger);
+        }
+
+        logger.info("Consistency check of label directory scheduled");
+    }
+
     /**
      * Checks if job and trigger exists
      *
@@ -259,6 +300,12 @@ public class JobSchedulingService {
         logger.info("Measurement: " + measurement.getName());
 
         JobKey jobKey = JobKey.jobKey(measurement.getId().toString(), "measureMeasurement");
+        // cancel running measurement
+        try {
+            scheduler.interrupt(jobKey);
+        } catch (SchedulerException e) {
+            logger.info("Error while interrupting job: " + e.getMessage());
+        }
         return deleteJob(jobKey);
     }
 
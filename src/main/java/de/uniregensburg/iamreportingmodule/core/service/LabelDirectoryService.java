@@ -0,0 +1,221 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.JobSchedulingException;
+import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
+import de.uniregensburg.iamreportingmodule.data.entity.Metric;
+import de.uniregensburg.iamreportingmodule.data.repository.MeasurableLabel;
+import de.uniregensburg.iamreportingmodule.data.repository.MeasurementRepository;
+import de.uniregensburg.iamreportingmodule.data.repository.MetricRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service for resolving labels of measurables without querying the database
+ * The directory maps labels to ids of measurables. Lookups are lock-free, updates and the consistency check
+ * against the database are serialized, so the check cannot overwrite a concurrent update with an older state.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class LabelDirectoryService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final MetricRepository metricRepository;
+    private final MeasurementRepository measurementRepository;
+    private final JobSchedulingService jobSchedulingService;
+    private final long checkIntervalMinutes;
+    private final Map<String, Entry> entriesByLabel = new ConcurrentHashMap<>();
+    private final Map<UUID, String> labelsById = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param metricRepository
+     * @param measurementRepository
+     * @param jobSchedulingService
+     * @param checkIntervalMinutes interval of consistency check against database
+     */
+    public LabelDirectoryService(MetricRepository metricRepository, MeasurementRepository measurementRepository,
+                                 JobSchedulingService jobSchedulingService,
+                                 @Value("${iamreportingmodule.label-directory.check-interval-minutes:60}") long checkIntervalMinutes) {
+        this.metricRepository = metricRepository;
+        this.measurementRepository = measurementRepository;
+        this.jobSchedulingService = jobSchedulingService;
+        this.checkIntervalMinutes = checkIntervalMinutes;
+    }
+
+    /**
+     * Loads labels of all measurables and schedules consistency check
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        logger.info("Loading label directory");
+        checkConsistency();
+        logger.info("Label directory loaded with " + entriesByLabel.size() + " labels");
+        try {
+            jobSchedulingService.checkLabelDirectory(Duration.ofMinutes(checkIntervalMinutes));
+        } catch (JobSchedulingException e) {
+            logger.info("Cannot schedule consistency check of label directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns entry of label
+     *
+     * @param label
+     * @return entry or null if label is unknown
+     */
+    public Entry find(String label) {
+        return label != null ? entriesByLabel.get(label) : null;
+    }
+
+    /**
+     * Returns if label is used by a measurable
+     *
+     * @param label
+     * @return
+     */
+    public boolean contains(String label) {
+        return label != null && entriesByLabel.containsKey(label);
+    }
+
+    /**
+     * Adds or updates label of saved measurable
+     *
+     * @param measurable
+     */
+    public synchronized void put(Measurable measurable) {
+        if (measurable == null || measurable.getId() == null || measurable.getLabel() == null) {
+            return;
+        }
+        put(measurable.getId(), measurable.getLabel(), measurable instanceof Metric);
+    }
+
+    /**
+     * Removes label of deleted measurable
+     *
+     * @param measurable
+     */
+    public synchronized void remove(Measurable measurable) {
+        if (measurable == null || measurable.getId() == null) {
+            return;
+        }
+        String label = labelsById.remove(measurable.getId());
+        if (label != null) {
+            entriesByLabel.remove(label);
+        }
+    }
+
+    /**
+     * Compares directory with labels in database and corrects differences
+     *
+     * @return number of corrected labels
+     */
+    public synchronized int checkConsistency() {
+        logger.info("Checking label directory against database");
+        // collect labels from database
+        Map<String, Entry> expected = new HashMap<>();
+        for (MeasurableLabel label : metricRepository.findAllLabels()) {
+            expected.put(label.getLabel(), new Entry(label.getId(), true));
+        }
+        for (MeasurableLabel label : measurementRepository.findAllLabels()) {
+            expected.put(label.getLabel(), new Entry(label.getId(), false));
+        }
+        int drift = 0;
+        // remove labels not in database
+        for (String label : new ArrayList<>(entriesByLabel.keySet())) {
+            if (!expected.containsKey(label)) {
+                labelsById.remove(entriesByLabel.remove(label).getId());
+                drift++;
+            }
+        }
+        // add missing and changed labels
+        for (Map.Entry<String, Entry> entry : expected.entrySet()) {
+            if (!entry.getValue().equals(entriesByLabel.get(entry.getKey()))) {
+                put(entry.getValue().getId(), entry.getKey(), entry.getValue().isMetric());
+                drift++;
+            }
+        }
+        if (drift > 0) {
+            logger.info("Label directory differed from database in " + drift + " labels, corrected");
+        }
+        return drift;
+    }
+
+    /**
+     * Maps label to id, removes previous label of id
+     *
+     * @param id
+     * @param label
+     * @param metric
+     */
+    private void put(UUID id, String label, boolean metric) {
+        String previousLabel = labelsById.put(id, label);
+        if (previousLabel != null && !previousLabel.equals(label)) {
+            entriesByLabel.remove(previousLabel);
+        }
+        Entry previousEntry = entriesByLabel.put(label, new Entry(id, metric));
+        // label moved from another measurable
+        if (previousEntry != null && !previousEntry.getId().equals(id)) {
+            labelsById.remove(previousEntry.getId(), label);
+        }
+    }
+
+    /**
+     * Entry of label directory
+     * Attributes: id (UUID), metric (boolean)
+     */
+    public static final class Entry {
+
+        private final UUID id;
+        private final boolean metric;
+
+        /**
+         *
+         * @param id
+         * @param metric true if measurable is a metric, false if measurement
+         */
+        Entry(UUID id, boolean metric) {
+            this.id = id;
+            this.metric = metric;
+        }
+
+        /**
+         * Returns id of measurable
+         *
+         * @return
+         */
+        public UUID getId() {
+            return id;
+        }
+
+        /**
+         * Returns if measurable is a metric
+         *
+         * @return
+         */
+        public boolean isMetric() {
+            return metric;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return metric == entry.metric && id.equals(entry.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, metric);
+        }
+    }
+}
@@ -1,14 +1,26 @@
 package de.uniregensburg.iamreportingmodule.core.service;
 
+import de.uniregensburg.iamreportingmodule.core.event.FormulaChangedEvent;
+import de.uniregensburg.iamreportingmodule.core.event.ResultSavedEvent;
+import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
 import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.FileException;
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
 import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.core.util.CsvUtil;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaTokenizer;
+import de.uniregensburg.iamreportingmodule.core.util.MetricGraph;
 import de.uniregensburg.iamreportingmodule.data.entity.*;
 import de.uniregensburg.iamreportingmodule.data.repository.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -30,6 +42,11 @@ public class MeasurableService {
     private final ResultRepository resultRepository;
     private final JobSchedulingService jobSchedulingService;
     private final FileDataSourceRepository fileDataSourceRepository;
+    private final FormulaCacheService formulaCacheService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LabelDirectoryService labelDirectoryService;
+    private final FileStorageService fileStorageService;
+    private final DatabaseConnectionService databaseConnectionService;
 
     /**
      *
@@ -43,10 +60,17 @@ public class MeasurableService {
      * @param resultRepository
      * @param jobSchedulingService
      * @param fileDataSourceRepository
+     * @param formulaCacheService
+     * @param eventPublisher
+     * @param labelDirectoryService
+     * @param fileStorageService
+     * @param databaseConnectionService
      */
     public MeasurableService(MeasurementRepository measurementRepository, MetricRepository metricRepository, StakeholderRepository stakeholderRepository, AudienceRepository audienceRepository, InformationNeedRepository informationNeedRepository, ManualDataSourceRepository manualDataSourceRepository, DatabaseDataSourceRepository databaseDataSourceRepository,
                              ResultRepository resultRepository, JobSchedulingService jobSchedulingService,
-                             FileDataSourceRepository fileDataSourceRepository) {
+                             FileDataSourceRepository fileDataSourceRepository, FormulaCacheService formulaCacheService,
+                             ApplicationEventPublisher eventPublisher, LabelDirectoryService labelDirectoryService,
+                             FileStorageService fileStorageService, DatabaseConnectionService databaseConnectionService) {
         this.measurementRepository = measurementRepository;
         this.metricRepository = metricRepository;
         this.stakeholderRepository = stakeholderRepository;
@@ -57,6 +81,11 @@ public class MeasurableService {
         this.resultRepository = resultRepository;
         this.jobSchedulingService = jobSchedulingService;
         this.fileDataSourceRepository = fileDataSourceRepository;
+        this.formulaCacheService = formulaCacheService;
+        this.eventPublisher = eventPublisher;
+        this.labelDirectoryService = labelDirectoryService;
+        this.fileStorageService = fileStorageService;
+        this.databaseConnectionService = databaseConnectionService;
     }
 
     /**
@@ -85,8 +114,10 @@ public class MeasurableService {
         }
         try {
             // save measurement
-            measurementRepository.save(measurement);
+            Measurement savedMeasurement = measurementRepository.save(measurement);
             logger.info("Measurement saved");
+            // update label directory
+            labelDirectoryService.put(savedMeasurement);
             // schedule job
             jobSchedulingService.measureMeasurement(measurement);
             logger.info("Measuring of measurement scheduled");
@@ -112,6 +143,8 @@ public class MeasurableService {
         try {
             // delete measurement
             measurementRepository.delete(measurement);
+            // remove label from directory
+            labelDirectoryService.remove(measurement);
             // stop job
             jobSchedulingService.stopMeasurement(measurement);
             logger.info("Measurement deleted");
@@ -167,19 +200,124 @@ public class MeasurableService {
             logger.info("metric is null");
             throw new SaveEntityException("No metric provided");
         }
+        // check formula for circular dependencies
+        checkCircularDependencies(metric);
         try {
+            // compare formula with saved formula
+            boolean formulaChanged = isFormulaChanged(metric);
             // save metric
-            metricRepository.save(metric);
+            Metric savedMetric = metricRepository.save(metric);
             logger.info("Metric saved");
+            // update label directory
+            labelDirectoryService.put(savedMetric);
+            // formula may have changed, remove compiled formula from cache
+            formulaCacheService.invalidate(metric.getFormula());
             // schedule job
             jobSchedulingService.calculateMetric(metric);
             logger.info("Calculation of metric scheduled");
+            // notify listeners, e.g. for backfilling history of metric
+            if (formulaChanged) {
+                eventPublisher.publishEvent(new FormulaChangedEvent(this, metric));
+            }
         } catch (Exception e) {
             logger.info("Error while saving metric: " + e.getMessage());
             throw new SaveEntityException("Error while saving metric");
         }
     }
 
+    /**
+     * Returns if metric is new or its formula differs from the saved formula
+     *
+     * @param metric
+     * @return
+     */
+    private boolean isFormulaChanged(Metric metric) {
+        if (metric.getId() == null) {
+            return true;
+        }
+        Optional<Metric> savedMetric = metricRepository.findById(metric.getId());
+        if (savedMetric.isEmpty() || savedMetric.get().getFormula() == null || metric.getFormula() == null) {
+            return true;
+        }
+        return !Objects.equals(savedMetric.get().getFormula().getFormula(), metric.getFormula().getFormula());
+    }
+
+    /**
+     * Checks if formula of metric creates a circular dependency between metrics
+     * Inputs are found by labels in the formula string, measurables of a loaded formula are not read.
+     *
+     * @param metric
+     * @throws SaveEntityException if formula is invalid or metric depends on itself directly or transitively
+     */
+    private void checkCircularDependencies(Metric metric) throws SaveEntityException {
+        if (metric.getFormula() == null || metric.getFormula().getFormula() == null) {
+            return;
+        }
+        logger.info("Checking formula for circular dependencies");
+        Set<UUID> inputMetrics = findInputMetricIds(metric.getFormula().getFormula());
+        // build graph from saved metrics
+        List<Metric> metrics = metricRepository.findAll();
+        MetricGraph graph = MetricGraph.build(metrics);
+        Map<UUID, String> names = new HashMap<>();
+        metrics.forEach(m -> names.put(m.getId(), m.getName()));
+        // replace saved inputs of metric with inputs of new formula
+        UUID id = metric.getId() != null ? metric.getId() : UUID.randomUUID();
+        names.put(id, metric.getName());
+        graph.replaceInputIds(id, inputMetrics);
+        // search cycle
+        List<UUID> cycle = graph.findCycle();
+        if (!cycle.isEmpty()) {
+            String path = cycle.stream().map(names::get).collect(Collectors.joining(" -> "));
+            logger.info("Circular dependency found: " + path);
+            throw new SaveEntityException("Formula creates circular dependency: " + path);
+        }
+    }
+
+    /**
+     * Returns ids of metrics used as variables in formula using the label directory
+     * Labels unknown to the directory are searched by label in the database.
+     *
+     * @param formula
+     * @return
+     * @throws SaveEntityException if formula cannot be tokenized
+     */
+    private Set<UUID> findInputMetricIds(String formula) throws SaveEntityException {
+        Set<String> labels;
+        try {
+            labels = FormulaTokenizer.tokenize(formula).getLabels();
+        } catch (FormulaException e) {
+            logger.info("Invalid formula: " + e.getMessage());
+            throw new SaveEntityException("Invalid formula: " + e.getMessage());
+        }
+        Set<UUID> ids = new HashSet<>();
+        List<String> unknownLabels = new ArrayList<>();
+        for (String label : labels) {
+            LabelDirectoryService.Entry entry = labelDirectoryService.find(label);
+            if (entry == null) {
+                unknownLabels.add(label);
+            } else if (entry.isMetric()) {
+                ids.add(entry.getId());
+            }
+        }
+        // search unknown labels in database, measurements are not part of the graph
+        if (!unknownLabels.isEmpty()) {
+            findAllMeasurablesByLabels(unknownLabels).stream()
+                    .filter(measurable -> measurable instanceof Metric)
+                    .forEach(measurable -> ids.add(measurable.getId()));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns dependency graph of all metrics
+     *
+     * @return
+     */
+    public MetricGraph getMetricGraph() {
+        logger.info("Building dependency graph of metrics");
+        return MetricGraph.build(metricRepository.findAll());
+    }
+
     /**
      * Deletes a metric
      *
@@ -196,6 +334,10 @@ public class MeasurableService {
         try {
             // delete metric
             metricRepository.delete(metric);
+            // remove label from directory
+            labelDirectoryService.remove(metric);
+            // remove compiled formula from cache
+            formulaCacheService.invalidate(metric.getFormula());
             // stop job
             jobSchedulingService.stopCalculation(metric);
             logger.info("Metric deleted");
@@ -283,15 +425,140 @@ public class MeasurableService {
      * @return
      */
     public List<Measurable> findAllMeasurablesByLabel(String label) {
-        logger.info("Returning all measurables with label " + label);
-        // search measurables by label
+        return findAllMeasurablesByLabels(List.of(label));
+    }
+
+    /**
+     * Returns measurables by labels
+     * Labels are resolved to ids using the label directory, so only tables of found measurable types are queried by
+     * primary key. Labels unknown to the directory are searched by label in the database.
+     *
+     * @param labels
+     * @return
+     */
+    public List<Measurable> findAllMeasurablesByLabels(Collection<String> labels) {
+        logger.info("Returning all measurables with labels " + labels);
         List<Measurable> measurables = new ArrayList<>();
-        measurables.addAll(metricRepository.findAllByLabel(label));
-        measurables.addAll(measurementRepository.findAllByLabel(label));
+        // check labels
+        if (labels.isEmpty()) {
+            return measurables;
+        }
+        // resolve labels using directory
+        List<UUID> metricIds = new ArrayList<>();
+        List<UUID> measurementIds = new ArrayList<>();
+        List<String> unknownLabels = new ArrayList<>();
+        for (String label : labels) {
+            LabelDirectoryService.Entry entry = labelDirectoryService.find(label);
+            if (entry == null) {
+                unknownLabels.add(label);
+            } else if (entry.isMetric()) {
+                metricIds.add(entry.getId());
+            } else {
+                measurementIds.add(entry.getId());
+            }
+        }
+        // search measurables by ids
+        if (!metricIds.isEmpty()) {
+            measurables.addAll(metricRepository.findAllById(metricIds));
+        }
+        if (!measurementIds.isEmpty()) {
+            measurables.addAll(measurementRepository.findAllById(measurementIds));
+        }
+        // search unknown labels in database
+        if (!unknownLabels.isEmpty()) {
+            logger.info("Labels not found in label directory: " + unknownLabels);
+            List<Measurable> foundMeasurables = new ArrayList<>();
+            foundMeasurables.addAll(metricRepository.findAllByLabelIn(unknownLabels));
+            foundMeasurables.addAll(measurementRepository.findAllByLabelIn(unknownLabels));
+            foundMeasurables.forEach(labelDirectoryService::put);
+            measurables.addAll(foundMeasurables);
+        }
         // return measurables
         return measurables;
     }
 
+    /**
+     * Returns ids of measurables by labels using the label directory
+     * Labels unknown to the directory are searched by label in the database.
+     *
+     * @param labels
+     * @return
+     */
+    public Set<UUID> findMeasurableIdsByLabels(Collection<String> labels) {
+        logger.info("Returning ids of measurables with labels " + labels);
+        Set<UUID> ids = new HashSet<>();
+        List<String> unknownLabels = new ArrayList<>();
+        for (String label : labels) {
+            LabelDirectoryService.Entry entry = labelDirectoryService.find(label);
+            if (entry == null) {
+                unknownLabels.add(label);
+            } else {
+                ids.add(entry.getId());
+            }
+        }
+        // search unknown labels in database
+        if (!unknownLabels.isEmpty()) {
+            findAllMeasurablesByLabels(unknownLabels).forEach(measurable -> ids.add(measurable.getId()));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns if label is used by a measurable
+     * Labels unknown to the directory are confirmed in the database, e.g. saved by another instance, and added to the
+     * directory.
+     *
+     * @param label
+     * @return
+     */
+    public boolean isLabelUsed(String label) {
+        logger.info("Checking if label " + label + " is used");
+        // look up label in directory
+        if (labelDirectoryService.contains(label)) {
+            return true;
+        }
+        if (label == null) {
+            return false;
+        }
+        List<Measurable> measurables = new ArrayList<>();
+        measurables.addAll(metricRepository.findAllByLabel(label));
+        measurables.addAll(measurementRepository.findAllByLabel(label));
+        measurables.forEach(labelDirectoryService::put);
+        return !measurables.isEmpty();
+    }
+
+    /**
+     * Returns point in time and value of latest result of each measurable by id of measurable using a single query
+     *
+     * @param measurables
+     * @return
+     */
+    public Map<UUID, ResultValue> findLatestResultsByMeasurables(Collection<? extends Measurable> measurables) {
+        return findLatestResultsByMeasurableIds(measurables.stream().map(Measurable::getId).collect(Collectors.toSet()));
+    }
+
+    /**
+     * Returns point in time and value of latest result of each measurable by id of measurable using a single query
+     *
+     * @param ids ids of measurables
+     * @return
+     */
+    public Map<UUID, ResultValue> findLatestResultsByMeasurableIds(Collection<UUID> ids) {
+        logger.info("Returning latest results of " + ids.size() + " measurables");
+        Map<UUID, ResultValue> results = new HashMap<>();
+        // check measurables
+        if (ids.isEmpty()) {
+            return results;
+        }
+        // search latest results
+        for (ResultValue result : resultRepository.findLatestByMeasurableIdIn(ids)) {
+            // keep one result per measurable if results share the same point in time
+            results.putIfAbsent(result.getMeasurableId(), result);
+        }
+        // return results by id of measurable
+        return results;
+    }
+
     /**
      * Returns latest 10 results by measurable
      *
@@ -317,11 +584,53 @@ public class MeasurableService {
     }
 
     /**
-     * Saves result
+     * Returns statistics of results by measurable since point in time
+     *
+     * @param measurable
+     * @param from
+     * @return
+     */
+    public ResultStatistics findResultStatisticsByMeasurableSince(Measurable measurable, Date from) {
+        logger.info("Returning statistics of results of measurable " + measurable.getName() + " since " + from);
+        // aggregate results in database
+        return resultRepository.findStatisticsByMeasurableSince(measurable, from);
+    }
+
+    /**
+     * Returns value of measurable as of point in time: latest result at or before point in time,
+     * earliest result after point in time if no earlier result exists
+     *
+     * @param measurable
+     * @param pointInTime
+     * @return
+     */
+    public Result findResultByMeasurableAsOf(Measurable measurable, Date pointInTime) {
+        logger.info("Returning result of measurable " + measurable.getName() + " as of " + pointInTime);
+        // search latest result at or before point in time
+        Result result = resultRepository.findFirstByMeasurableAndPointInTimeLessThanEqualOrderByPointInTimeDesc(measurable, pointInTime);
+        if (result == null) {
+            // search earliest result after point in time
+            result = resultRepository.findFirstByMeasurableAndPointInTimeGreaterThanEqualOrderByPointInTimeAsc(measurable, pointInTime);
+        }
+        return result;
+    }
+
+    /**
+     * Saves result and notifies listeners, e.g. for recalculating dependent metrics
      *
      * @param result
      */
     public void saveResult(Result result) {
+        saveResult(result, true);
+    }
+
+    /**
+     * Saves result
+     *
+     * @param result
+     * @param publishEvent if a result saved event is published
+     */
+    public void saveResult(Result result, boolean publishEvent) {
         logger.info("Saving result");
         // check result
         if (result == null) {
@@ -332,6 +641,11 @@ public class MeasurableService {
         // save result
         resultRepository.save(result);
         logger.info("Result saved");
+
+        // notify listeners
+        if (publishEvent) {
+            eventPublisher.publishEvent(new ResultSavedEvent(this, result));
+        }
     }
 
     /**
@@ -375,4 +689,37 @@ public class MeasurableService {
         // nothing found, return null
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns result of measurement of csv file of datasource, e.g. for testing attributes of a measurement
+     *
+     * @param fileDataSource
+     * @param attributes
+     * @return
+     * @throws FileException
+     */
+    public Result measureFile(FileDataSource fileDataSource, Map<String, String> attributes) throws FileException {
+        Iterable<ByteBuffer> content;
+        try {
+            content = fileStorageService.getContent(fileDataSource);
+        } catch (IOException e) {
+            logger.info("Cannot read file: " + e.getMessage());
+            throw new FileException("Cannot read file");
+        }
+        return new CsvUtil(fileDataSource, content, () -> fileStorageService.getColumnar(fileDataSource),
+                ForkJoinPool.commonPool(), CsvUtil.DEFAULT_PARALLEL_THRESHOLD).measure(attributes);
+    }
+
+    /**
+     * Returns result of sql query in database of datasource using pooled connections, e.g. for testing attributes of a
+     * measurement
+     *
+     * @param databaseDataSource
+     * @param attributes query and optional client side aggregation
+     * @return
+     * @throws DatabaseException
+     */
+    public Result measureDatabase(DatabaseDataSource databaseDataSource, Map<String, String> attributes) throws DatabaseException {
+        return databaseConnectionService.measure(databaseDataSource, attributes);
+    }
+}
@@ -0,0 +1,468 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.event.FormulaChangedEvent;
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.util.CompiledFormula;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
+import de.uniregensburg.iamreportingmodule.data.entity.EvaluationMode;
+import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
+import de.uniregensburg.iamreportingmodule.data.entity.Metric;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Service for backfilling the history of metrics
+ * The result series of all measurables used in the formula are streamed ordered by point in time and aligned with
+ * an as-of join: at each point in time of any input, every variable takes the latest value of its measurable at that
+ * time. Aligned rows are evaluated in parallel chunks and the derived results are saved in batches.
+ * If the formula of a metric changes, results derived before the change are derived again with the new formula. Each
+ * chunk replaces the previous results within its time range in one transaction, so a failed or interrupted derivation
+ * keeps the previous results of all ranges not derived yet.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class MetricBackfillService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final MeasurableService service;
+    private final ResultRepository resultRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate writeTransactionTemplate;
+    private final FormulaUtil util;
+    private final int chunkSize;
+    private final int maxPendingChunks;
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService chunkExecutor;
+
+    /**
+     *
+     * @param service
+     * @param resultRepository
+     * @param transactionManager
+     * @param poolSize number of chunks evaluated in parallel
+     * @param chunkSize number of points in time per chunk
+     */
+    public MetricBackfillService(MeasurableService service, ResultRepository resultRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${iamreportingmodule.backfill.pool-size:4}") int poolSize,
+                                 @Value("${iamreportingmodule.backfill.chunk-size:1000}") int chunkSize) {
+        this.service = service;
+        this.resultRepository = resultRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.writeTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.util = new FormulaUtil(service);
+        this.chunkSize = Math.max(1, chunkSize);
+        // bound number of chunks in memory
+        this.maxPendingChunks = Math.max(1, poolSize) * 2;
+        this.chunkExecutor = Executors.newFixedThreadPool(Math.max(1, poolSize));
+    }
+
+    /**
+     * Derives history of metric with new or changed formula again in background
+     * Results before the change were calculated with the previous formula and are replaced
+     *
+     * @param event
+     */
+    @EventListener
+    public void onFormulaChanged(FormulaChangedEvent event) {
+        UUID id = event.getMetric().getId();
+        Date changed = new Date(event.getTimestamp());
+        logger.info("Scheduling backfill of metric with id " + id);
+        backfillExecutor.submit(() -> {
+            Metric metric = service.findMetricById(id);
+            if (metric != null) {
+                rederive(metric, changed);
+            }
+        });
+    }
+
+    /**
+     * Backfills history of metric: calculates results at all points in time of input results
+     * before the earliest result of metric
+     *
+     * @param metric
+     * @return number of saved results
+     */
+    public int backfill(Metric metric) {
+        return backfill(metric, null);
+    }
+
+    /**
+     * Derives history of metric again: calculates results at all points in time of input results before point in time
+     * and replaces previous results before point in time
+     * Previous results are replaced range by range together with the new results of the range. Ranges of failed chunks
+     * and ranges not reached before an interruption keep their previous results.
+     *
+     * @param metric
+     * @param before e.g. point in time of formula change
+     * @return number of saved results
+     */
+    public int rederive(Metric metric, Date before) {
+        return backfill(metric, before);
+    }
+
+    /**
+     * Backfills history of metric
+     *
+     * @param metric
+     * @param replaceBefore point in time before which results are replaced or null to fill before earliest result
+     * @return number of saved results
+     */
+    private int backfill(Metric metric, Date replaceBefore) {
+        logger.info("Backfilling metric " + metric.getName());
+        // check formula
+        if (metric.getFormula() == null || metric.getFormula().getFormula() == null || metric.getFormula().getFormula().isBlank()) {
+            logger.info("Formula is blank");
+            return 0;
+        }
+        String formula = metric.getFormula().getFormula();
+        CompiledFormula compiledFormula;
+        try {
+            compiledFormula = util.compile(formula);
+        } catch (FormulaException e) {
+            logger.info("Cannot compile formula: " + e.getMessage());
+            return 0;
+        }
+        List<String> labels = new ArrayList<>(compiledFormula.getLabels());
+        // window functions depend on the time of calculation and cannot be aligned
+        if (compiledFormula.getWindows().size() > 0) {
+            logger.info("Formula contains window functions, backfill not supported");
+            return 0;
+        }
+        // formula without variables has no history
+        if (labels.isEmpty()) {
+            logger.info("Formula contains no variables");
+            return 0;
+        }
+
+        // get measurables by label
+        Map<String, Measurable> measurables = new HashMap<>();
+        for (Measurable measurable : service.findAllMeasurablesByLabels(labels)) {
+            measurables.put(measurable.getLabel(), measurable);
+        }
+        if (measurables.size() != labels.size()) {
+            logger.info("Not all measurables of formula found, backfill aborted");
+            return 0;
+        }
+
+        Date before;
+        boolean replace = replaceBefore != null;
+        if (replace) {
+            // replace results derived with previous formula range by range
+            before = replaceBefore;
+        } else {
+            // do not overwrite existing history
+            Result earliestResult = resultRepository.findFirstByMeasurableOrderByPointInTimeAsc(metric);
+            before = earliestResult != null ? earliestResult.getPointInTime() : new Date();
+        }
+        logger.info("Backfilling results before " + before);
+
+        // align input series and submit chunks
+        List<Future<Integer>> futures = new ArrayList<>();
+        Semaphore pendingChunks = new Semaphore(maxPendingChunks);
+        Date rangeEnd;
+        try {
+            rangeEnd = transactionTemplate.execute(status -> align(labels, measurables, before,
+                    chunk -> futures.add(submit(chunk, pendingChunks, formula, labels, metric, replace))));
+        } catch (BackfillInterruptedException e) {
+            logger.info("Backfill interrupted");
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+
+        // wait for chunks
+        int saved = 0;
+        boolean complete = true;
+        for (Future<Integer> future : futures) {
+            try {
+                saved += future.get();
+            } catch (InterruptedException e) {
+                logger.info("Backfill interrupted, ranges not derived yet keep their previous results");
+                Thread.currentThread().interrupt();
+                return saved;
+            } catch (ExecutionException e) {
+                logger.info("Error while backfilling chunk, range keeps its previous results: " + e.getCause().getMessage());
+                complete = false;
+            }
+        }
+        if (replace && complete) {
+            // previous results after last row of new formula
+            int deleted = rangeEnd != null ? resultRepository.deleteByMeasurableIdBetween(metric.getId(), rangeEnd, before)
+                    : resultRepository.deleteByMeasurableIdBefore(metric.getId(), before);
+            logger.info("Deleted " + deleted + " previous results of metric " + metric.getName() + " after last derived result");
+        }
+        logger.info("Backfilled " + saved + " results of metric " + metric.getName());
+        return saved;
+    }
+
+    /**
+     * Merges result series of measurables ordered by point in time (k-way merge) and emits aligned rows in chunks
+     * Only one row per series is held in memory besides the current chunk
+     *
+     * @param labels
+     * @param measurables measurables by label
+     * @param before
+     * @param consumer receives full chunks
+     * @return end (exclusive) of time range of last chunk or null if no rows were emitted
+     */
+    private Date align(List<String> labels, Map<String, Measurable> measurables, Date before, ChunkConsumer consumer) {
+        List<Stream<Object[]>> streams = new ArrayList<>();
+        try {
+            // open one cursor per measurable
+            PriorityQueue<Cursor> queue = new PriorityQueue<>(Comparator.comparingLong(Cursor::getTime));
+            for (int i = 0; i < labels.size(); i++) {
+                Stream<Object[]> stream = resultRepository.streamValuesByMeasurableIdBefore(measurables.get(labels.get(i)).getId(), before);
+                streams.add(stream);
+                Cursor cursor = new Cursor(i, stream.iterator());
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+
+            // current value of each variable as of current point in time
+            BigDecimal[] current = new BigDecimal[labels.size()];
+            int known = 0;
+            Chunk chunk = new Chunk(chunkSize, labels.size(), null);
+            while (!queue.isEmpty()) {
+                long time = queue.peek().getTime();
+                // apply all results at this point in time
+                while (!queue.isEmpty() && queue.peek().getTime() == time) {
+                    Cursor cursor = queue.poll();
+                    if (current[cursor.index] == null) {
+                        known++;
+                    }
+                    current[cursor.index] = cursor.value;
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+                // emit row once every variable has a value
+                if (known == labels.size()) {
+                    chunk.add(time, current);
+                    if (chunk.isFull()) {
+                        consumer.accept(chunk);
+                        // ranges of chunks are adjacent, so every previous result belongs to one range
+                        chunk = new Chunk(chunkSize, labels.size(), chunk.getEnd());
+                    }
+                }
+            }
+            if (chunk.size() > 0) {
+                consumer.accept(chunk);
+                return chunk.getEnd();
+            }
+            return chunk.start;
+        } finally {
+            streams.forEach(Stream::close);
+        }
+    }
+
+    /**
+     * Submits chunk for evaluation, blocks while too many chunks are pending
+     *
+     * @param chunk
+     * @param pendingChunks
+     * @param formula
+     * @param labels
+     * @param metric
+     * @param replace true if previous results in time range of chunk are replaced
+     * @return
+     */
+    private Future<Integer> submit(Chunk chunk, Semaphore pendingChunks, String formula, List<String> labels, Metric metric,
+                                   boolean replace) {
+        try {
+            pendingChunks.acquire();
+        } catch (InterruptedException e) {
+            throw new BackfillInterruptedException();
+        }
+        return chunkExecutor.submit(() -> {
+            try {
+                return evaluateAndSave(chunk, formula, labels, metric, replace);
+            } finally {
+                pendingChunks.release();
+            }
+        });
+    }
+
+    /**
+     * Evaluates formula for all rows of chunk and saves results in one batch
+     * Replacing chunks delete previous results in their time range and save new results in one transaction.
+     *
+     * @param chunk
+     * @param formula
+     * @param labels
+     * @param metric
+     * @param replace
+     * @return number of saved results
+     * @throws FormulaException
+     */
+    private int evaluateAndSave(Chunk chunk, String formula, List<String> labels, Metric metric, boolean replace) throws FormulaException {
+        // compiled formulas serialize evaluations, therefore each chunk compiles its own
+        CompiledFormula compiledFormula = util.compile(formula);
+        boolean fast = EvaluationMode.FAST.equals(metric.getEvaluationMode());
+        Map<String, BigDecimal> values = new HashMap<>();
+        List<Result> results = new ArrayList<>(chunk.size());
+        int failed = 0;
+        for (int row = 0; row < chunk.size(); row++) {
+            for (int i = 0; i < labels.size(); i++) {
+                values.put(labels.get(i), chunk.values[row][i]);
+            }
+            try {
+                BigDecimal value = fast ? compiledFormula.evaluateFast(values) : compiledFormula.evaluate(values);
+                Result result = new Result(value);
+                result.setPointInTime(new Date(chunk.times[row]));
+                result.setMeasurable(metric);
+                results.add(result);
+            } catch (FormulaException e) {
+                // e.g. division by zero at a single point in time
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            logger.info("Skipped " + failed + " points in time that could not be calculated");
+        }
+        // save batch
+        if (replace) {
+            writeTransactionTemplate.executeWithoutResult(status -> {
+                int deleted = chunk.start != null
+                        ? resultRepository.deleteByMeasurableIdBetween(metric.getId(), chunk.start, chunk.getEnd())
+                        : resultRepository.deleteByMeasurableIdBefore(metric.getId(), chunk.getEnd());
+                logger.info("Replacing " + deleted + " previous results with " + results.size() + " results");
+                resultRepository.saveAll(results);
+            });
+        } else {
+            resultRepository.saveAll(results);
+        }
+        return results.size();
+    }
+
+    /**
+     * Stops pools on shutdown
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Shutting down backfill pools");
+        backfillExecutor.shutdownNow();
+        chunkExecutor.shutdownNow();
+    }
+
+    /**
+     * Receives full chunks of aligned rows
+     */
+    private interface ChunkConsumer {
+        void accept(Chunk chunk);
+    }
+
+    /**
+     * Signals interruption while waiting for pending chunks inside the transaction callback
+     */
+    private static class BackfillInterruptedException extends RuntimeException {}
+
+    /**
+     * Cursor on result series of one measurable
+     */
+    private static class Cursor {
+
+        private final int index;
+        private final Iterator<Object[]> iterator;
+        private long time;
+        private BigDecimal value;
+
+        /**
+         *
+         * @param index index of variable
+         * @param iterator
+         */
+        Cursor(int index, Iterator<Object[]> iterator) {
+            this.index = index;
+            this.iterator = iterator;
+        }
+
+        /**
+         * Moves cursor to next result
+         *
+         * @return false if series is exhausted
+         */
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            Object[] row = iterator.next();
+            time = ((Date) row[0]).getTime();
+            value = (BigDecimal) row[1];
+            return true;
+        }
+
+        long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Chunk of aligned rows: point in time and values of all variables
+     */
+    private static class Chunk {
+
+        private final long[] times;
+        private final BigDecimal[][] values;
+        // start of time range (inclusive), null for the first chunk
+        private final Date start;
+        private int size;
+
+        /**
+         *
+         * @param capacity
+         * @param variables
+         * @param start start of time range or null for the first chunk
+         */
+        Chunk(int capacity, int variables, Date start) {
+            this.times = new long[capacity];
+            this.values = new BigDecimal[capacity][variables];
+            this.start = start;
+        }
+
+        /**
+         * Returns end of time range (exclusive): point in time after last row
+         *
+         * @return
+         */
+        Date getEnd() {
+            return new Date(times[size - 1] + 1);
+        }
+
+        /**
+         * Adds row, values are copied
+         *
+         * @param time
+         * @param row
+         */
+        void add(long time, BigDecimal[] row) {
+            times[size] = time;
+            System.arraycopy(row, 0, values[size], 0, row.length);
+            size++;
+        }
+
+        boolean isFull() {
+            return size == times.length;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaTokenizer;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
+import de.uniregensburg.iamreportingmodule.core.util.MetricGraph;
+import de.uniregensburg.iamreportingmodule.core.util.TokenizedFormula;
+import de.uniregensburg.iamreportingmodule.data.entity.Formula;
+import de.uniregensburg.iamreportingmodule.data.entity.Metric;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Service for recalculating metrics along their dependencies
+ * A changed metric is calculated first, then all metrics depending on it directly or transitively in topological
+ * waves, metrics of the same wave are calculated in parallel on a bounded pool
+ * Dependent metrics are only calculated if an input has a newer result than their latest result, so metrics are driven
+ * by their inputs and not calculated again by their own schedule. A metric is never calculated by two recalculations at
+ * the same time.
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class MetricRecalculationService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final MeasurableService service;
+    private final FormulaUtil util;
+    private final ExecutorService executor;
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     *
+     * @param service
+     * @param formulaCacheService
+     * @param poolSize maximum number of metrics calculated in parallel
+     */
+    public MetricRecalculationService(MeasurableService service, FormulaCacheService formulaCacheService,
+                                      @Value("${iamreportingmodule.recalculation.pool-size:4}") int poolSize) {
+        this.service = service;
+        this.util = new FormulaUtil(service, formulaCacheService);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, poolSize));
+    }
+
+    /**
+     * Calculates scheduled metric and all metrics depending on it
+     * Metric is skipped like a dependent metric if its inputs have not changed since its latest result, unless its
+     * formula uses window functions
+     *
+     * @param metric
+     */
+    public void calculateScheduled(Metric metric) {
+        recalculate(Set.of(metric.getId()), true);
+    }
+
+    /**
+     * Recalculates metrics and all metrics depending on them
+     *
+     * @param metricIds ids of changed metrics
+     */
+    public void recalculate(Collection<UUID> metricIds) {
+        recalculate(metricIds, false);
+    }
+
+    /**
+     * Recalculates metrics and all metrics depending on them
+     *
+     * @param metricIds ids of changed metrics
+     * @param skipUnchanged if true, changed metrics are skipped like dependent metrics if inputs have not changed
+     */
+    private void recalculate(Collection<UUID> metricIds, boolean skipUnchanged) {
+        logger.info("Recalculating metrics " + metricIds + " and dependent metrics");
+        // build dependency graph and waves
+        List<Metric> allMetrics = service.findAllMetrics();
+        Map<UUID, Metric> metrics = allMetrics.stream().collect(Collectors.toMap(Metric::getId, m -> m));
+        MetricGraph graph = MetricGraph.build(allMetrics);
+        List<List<UUID>> waves;
+        try {
+            waves = graph.getWaves(metricIds);
+        } catch (IllegalStateException e) {
+            logger.info("Cannot recalculate metrics: " + e.getMessage());
+            return;
+        }
+        logger.info("Recalculating " + waves.size() + " waves of metrics");
+
+        // calculate wave by wave, skip metrics whose inputs could not be calculated
+        Set<UUID> failed = ConcurrentHashMap.newKeySet();
+        for (List<UUID> wave : waves) {
+            Set<UUID> upToDate = findUpToDate(wave, metrics, skipUnchanged ? Set.of() : metricIds);
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (UUID id : wave) {
+                Metric metric = metrics.get(id);
+                if (graph.getInputs(id).stream().anyMatch(failed::contains)) {
+                    logger.info("Skipping metric " + metric.getName() + ", inputs could not be calculated");
+                    failed.add(id);
+                    continue;
+                }
+                if (upToDate.contains(id)) {
+                    logger.info("Skipping metric " + metric.getName() + ", inputs unchanged since latest result");
+                    continue;
+                }
+                tasks.add(() -> {
+                    if (!calculate(metric)) {
+                        failed.add(id);
+                    }
+                    return null;
+                });
+            }
+            try {
+                // wait for wave to finish before starting next wave
+                executor.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                logger.info("Recalculation interrupted");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.info("Recalculation finished");
+    }
+
+    /**
+     * Returns metrics of wave whose inputs have no result newer than the latest result of the metric
+     * Changed metrics and metrics using window functions are always calculated
+     *
+     * @param wave ids of metrics of wave
+     * @param metrics metrics by id
+     * @param changedIds ids of changed metrics
+     * @return
+     */
+    private Set<UUID> findUpToDate(List<UUID> wave, Map<UUID, Metric> metrics, Collection<UUID> changedIds) {
+        // resolve inputs of dependent metrics
+        Map<UUID, Set<UUID>> inputs = new HashMap<>();
+        Set<UUID> ids = new HashSet<>();
+        for (UUID id : wave) {
+            Formula formula = metrics.get(id).getFormula();
+            if (changedIds.contains(id) || formula == null || formula.getFormula() == null) {
+                continue;
+            }
+            try {
+                TokenizedFormula tokens = FormulaTokenizer.tokenize(formula.getFormula());
+                // values of windows change over time, even without new results of inputs
+                if (!tokens.getWindows().isEmpty()) {
+                    continue;
+                }
+                Set<UUID> inputIds = service.findMeasurableIdsByLabels(tokens.getLabels());
+                inputs.put(id, inputIds);
+                ids.add(id);
+                ids.addAll(inputIds);
+            } catch (FormulaException e) {
+                // calculation reports invalid formula
+            }
+        }
+        // compare latest results of metrics and inputs at once
+        Set<UUID> upToDate = new HashSet<>();
+        Map<UUID, ResultValue> results = service.findLatestResultsByMeasurableIds(ids);
+        for (Map.Entry<UUID, Set<UUID>> entry : inputs.entrySet()) {
+            ResultValue latest = results.get(entry.getKey());
+            if (latest == null) {
+                continue;
+            }
+            boolean changed = entry.getValue().stream().map(results::get)
+                    .anyMatch(input -> input != null && input.getPointInTime().after(latest.getPointInTime()));
+            if (!changed) {
+                upToDate.add(entry.getKey());
+            }
+        }
+        return upToDate;
+    }
+
+    /**
+     * Calculates metric and saves result, unless metric is already being calculated
+     *
+     * @param metric
+     * @return true if result was saved or metric is already being calculated
+     */
+    private boolean calculate(Metric metric) {
+        if (!inFlight.add(metric.getId())) {
+            logger.info("Metric " + metric.getName() + " is already being calculated");
+            return true;
+        }
+        try {
+            return calculateResult(metric);
+        } finally {
+            inFlight.remove(metric.getId());
+        }
+    }
+
+    /**
+     * Calculates metric and saves result
+     *
+     * @param metric
+     * @return true if result was saved
+     */
+    private boolean calculateResult(Metric metric) {
+        logger.info("Calculating metric " + metric.getName());
+        // check formula
+        Formula formula = metric.getFormula();
+        if (formula == null || formula.getFormula() == null || formula.getFormula().isBlank()) {
+            logger.info("Formula of metric " + metric.getName() + " is blank");
+            return false;
+        }
+        // calculate
+        try {
+            Result result = util.calculate(formula);
+            result.setMeasurable(metric);
+            // save result, dependent metrics are recalculated in later waves
+            service.saveResult(result, false);
+            return true;
+        } catch (FormulaException e) {
+            logger.info("Failed to calculate metric " + metric.getName() + ": " + e.getMessage());
+            return false;
+        } catch (Exception e) {
+            logger.info("Error while calculating metric " + metric.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stops pool on shutdown
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Shutting down recalculation pool");
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,103 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.event.ResultSavedEvent;
+import de.uniregensburg.iamreportingmodule.data.entity.Formula;
+import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service for propagating saved results to dependent metrics
+ * Dependent metrics are collected for a short window after the first result is saved and recalculated together,
+ * so a burst of results triggers one calculation per dependent metric
+ *
+ * @author Julian Bauer
+ */
+@Service
+public class ResultPropagationService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final MetricRecalculationService recalculationService;
+    private final long debounceMillis;
+    private final Set<UUID> pendingMetrics = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     *
+     * @param recalculationService
+     * @param debounceMillis time window for collecting results before dependent metrics are recalculated
+     */
+    public ResultPropagationService(MetricRecalculationService recalculationService,
+                                    @Value("${iamreportingmodule.recalculation.debounce-ms:2000}") long debounceMillis) {
+        this.recalculationService = recalculationService;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Collects metrics depending on measurable of saved result and schedules their recalculation
+     *
+     * @param event
+     */
+    @EventListener
+    public void onResultSaved(ResultSavedEvent event) {
+        Measurable measurable = event.getResult().getMeasurable();
+        if (measurable == null || measurable.getFormulas() == null || measurable.getFormulas().isEmpty()) {
+            return;
+        }
+        // get dependent metrics through formulas using measurable
+        for (Formula formula : measurable.getFormulas()) {
+            if (formula.getMetric() != null && formula.getMetric().getId() != null) {
+                pendingMetrics.add(formula.getMetric().getId());
+            }
+        }
+        // schedule recalculation if not already scheduled, later results join the pending recalculation
+        if (flushScheduled.compareAndSet(false, true)) {
+            logger.info("Scheduling recalculation of metrics depending on " + measurable.getName() + " in " + debounceMillis + " ms");
+            scheduler.schedule(this::flush, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Recalculates all pending metrics
+     */
+    private void flush() {
+        // reset before draining: results saved from now on schedule a new recalculation
+        flushScheduled.set(false);
+        Set<UUID> metricIds = new HashSet<>();
+        Iterator<UUID> iterator = pendingMetrics.iterator();
+        while (iterator.hasNext()) {
+            metricIds.add(iterator.next());
+            iterator.remove();
+        }
+        if (metricIds.isEmpty()) {
+            return;
+        }
+        logger.info("Recalculating " + metricIds.size() + " metrics depending on saved results");
+        try {
+            recalculationService.recalculate(metricIds);
+        } catch (Exception e) {
+            logger.info("Error while recalculating dependent metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops scheduler on shutdown
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Shutting down result propagation");
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,649 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Columnar binary representation of a csv file, created once when the file is uploaded
+ * The first record is kept as strings, so it can be treated as header or as data depending on the measurement. Columns
+ * whose values after the first record are all plain decimal numbers are stored as unscaled longs with a common scale,
+ * all other columns are dictionary-encoded. Values are stored in 1, 2, 4 or 8 bytes depending on their range, columns
+ * are decoded only on request.
+ * Layout: version, delimiter, number of records, number of columns, then per column: first value, type, length of
+ * data and data (numeric: scale, width, values; string: dictionary, width, codes with -1 for missing fields).
+ *
+ * @author Julian Bauer
+ */
+public class ColumnarCsv {
+
+    private static final int VERSION = 1;
+    private static final byte NUMERIC = 0;
+    private static final byte STRING = 1;
+    private static final int MAX_SCALE = 18;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private final ByteBuffer data;
+    private final String delimiter;
+    private final int recordCount;
+    private final List<String> firstValues = new ArrayList<>();
+    private final byte[] types;
+    private final int[] offsets;
+
+    /**
+     * Reads header of columnar file, column data is decoded on request
+     *
+     * @param bytes
+     */
+    private ColumnarCsv(byte[] bytes) {
+        data = ByteBuffer.wrap(bytes);
+        if (data.getInt() != VERSION) {
+            throw new IllegalArgumentException("Unknown version of columnar file");
+        }
+        delimiter = readString(data);
+        recordCount = data.getInt();
+        int columnCount = data.getInt();
+        types = new byte[columnCount];
+        offsets = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            firstValues.add(readString(data));
+            types[i] = data.get();
+            int length = data.getInt();
+            offsets[i] = data.position();
+            data.position(data.position() + length);
+        }
+    }
+
+    /**
+     * Returns columnar file
+     *
+     * @param bytes bytes created by encode
+     * @return
+     */
+    public static ColumnarCsv read(byte[] bytes) {
+        return new ColumnarCsv(bytes);
+    }
+
+    /**
+     * Returns delimiter the file was split with
+     *
+     * @return
+     */
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Returns number of records after first record
+     *
+     * @return
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns values of first record
+     *
+     * @return
+     */
+    public List<String> getFirstValues() {
+        return Collections.unmodifiableList(firstValues);
+    }
+
+    /**
+     * Returns if column is stored as numbers
+     *
+     * @param column
+     * @return
+     */
+    public boolean isNumeric(int column) {
+        return types[column] == NUMERIC;
+    }
+
+    /**
+     * Returns scale of numeric column
+     *
+     * @param column
+     * @return
+     */
+    public int getScale(int column) {
+        return data.get(offsets[column]);
+    }
+
+    /**
+     * Returns unscaled values of numeric column
+     *
+     * @param column
+     * @return
+     */
+    public long[] getUnscaled(int column) {
+        if (!isNumeric(column)) {
+            throw new IllegalArgumentException("Column " + column + " is not numeric");
+        }
+        return readValues(offsets[column] + 1);
+    }
+
+    /**
+     * Returns dictionary of string column
+     *
+     * @param column
+     * @return
+     */
+    public List<String> getDictionary(int column) {
+        if (isNumeric(column)) {
+            throw new IllegalArgumentException("Column " + column + " is numeric");
+        }
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(offsets[column]);
+        int size = buffer.getInt();
+        List<String> dictionary = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            dictionary.add(readString(buffer));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Returns codes of string column, -1 for records missing the column
+     *
+     * @param column
+     * @return
+     */
+    public long[] getCodes(int column) {
+        if (isNumeric(column)) {
+            throw new IllegalArgumentException("Column " + column + " is numeric");
+        }
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(offsets[column]);
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            readString(buffer);
+        }
+        return readValues(buffer.position());
+    }
+
+    /**
+     * Returns number of distinct values of string column, each dictionary entry in use is added once
+     *
+     * @param column
+     * @param includeFirst true if first record is data, false if it is header
+     * @param precision precision of HyperLogLog sketch
+     * @return value or null if records miss the column
+     */
+    private BigDecimal countDistinct(int column, boolean includeFirst, int precision) {
+        List<String> dictionary = getDictionary(column);
+        boolean[] used = new boolean[dictionary.size()];
+        for (long code : getCodes(column)) {
+            if (code < 0) {
+                return null;
+            }
+            used[(int) code] = true;
+        }
+        // aggregator counts exactly or switches to sketch like scanning
+        CsvAggregator aggregator = new CsvAggregator(CsvAggregationMethod.COUNT_DISTINCT, null, precision);
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                aggregator.add(dictionary.get(i));
+            }
+        }
+        if (includeFirst) {
+            aggregator.add(firstValues.get(column));
+        }
+        return aggregator.getResult();
+    }
+
+    /**
+     * Returns aggregated value of column
+     * Values are aggregated in primitive loops, sums of unscaled values are exact.
+     *
+     * @param column
+     * @param includeFirst true if first record is data, false if it is header
+     * @param aggregationMethod
+     * @param percentile
+     * @param precision precision of HyperLogLog sketch for distinct counting
+     * @return value or null if column cannot be aggregated from columnar file, e.g. because of missing fields or values
+     * that are not numbers, file has to be scanned then
+     */
+    public BigDecimal aggregate(int column, boolean includeFirst, CsvAggregationMethod aggregationMethod, BigDecimal percentile,
+                                int precision) {
+        if (column < 0 || column >= types.length) {
+            return null;
+        }
+        long count = recordCount + (includeFirst ? 1 : 0);
+        if (count == 0) {
+            return null;
+        }
+        if (!isNumeric(column)) {
+            // rows and distinct values of complete string columns can be counted
+            if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod)) {
+                return countDistinct(column, includeFirst, precision);
+            }
+            if (!CsvAggregationMethod.COUNT.equals(aggregationMethod)) {
+                return null;
+            }
+            for (long code : getCodes(column)) {
+                if (code < 0) {
+                    return null;
+                }
+            }
+            return new BigDecimal(count);
+        }
+        // distinct values of numbers depend on their text, e.g. 1 and 1.0
+        if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod)) {
+            return null;
+        }
+        if (CsvAggregationMethod.COUNT.equals(aggregationMethod)) {
+            return new BigDecimal(count);
+        }
+        String firstValue = includeFirst ? firstValues.get(column) : null;
+        long[] unscaled = getUnscaled(column);
+        int scale = getScale(column);
+        try {
+            return switch (aggregationMethod) {
+                case SUM -> sum(unscaled, scale, firstValue);
+                case AVERAGE -> sum(unscaled, scale, firstValue)
+                        .divide(new BigDecimal(count), MathContext.DECIMAL128.getPrecision(), RoundingMode.HALF_UP);
+                case MINIMUM -> extreme(unscaled, scale, firstValue, true);
+                case MAXIMUM -> extreme(unscaled, scale, firstValue, false);
+                default -> {
+                    // percentiles of doubles as in csv aggregation
+                    double[] numbers = new double[(int) count];
+                    for (int i = 0; i < unscaled.length; i++) {
+                        numbers[i] = toDouble(unscaled[i], scale);
+                    }
+                    if (firstValue != null) {
+                        numbers[unscaled.length] = parseDouble(firstValue);
+                    }
+                    CsvAggregator aggregator = new CsvAggregator(aggregationMethod, percentile);
+                    aggregator.addAll(numbers);
+                    yield aggregator.getResult();
+                }
+            };
+        } catch (ArithmeticException | NumberFormatException e) {
+            // overflow of sum or first value is not a number
+            return null;
+        }
+    }
+
+    /**
+     * Returns exact sum of values
+     *
+     * @param unscaled
+     * @param scale
+     * @param firstValue first value to include or null
+     * @return
+     * @throws ArithmeticException if sum overflows
+     */
+    private static BigDecimal sum(long[] unscaled, int scale, String firstValue) {
+        long sum = 0;
+        for (long value : unscaled) {
+            sum = Math.addExact(sum, value);
+        }
+        BigDecimal result = BigDecimal.valueOf(sum, scale);
+        return firstValue != null ? result.add(new BigDecimal(firstValue)) : result;
+    }
+
+    /**
+     * Returns minimum or maximum of values
+     *
+     * @param unscaled
+     * @param scale
+     * @param firstValue first value to include or null
+     * @param minimum
+     * @return
+     */
+    private static BigDecimal extreme(long[] unscaled, int scale, String firstValue, boolean minimum) {
+        BigDecimal result = null;
+        if (unscaled.length > 0) {
+            long extreme = unscaled[0];
+            for (long value : unscaled) {
+                extreme = minimum ? Math.min(extreme, value) : Math.max(extreme, value);
+            }
+            result = BigDecimal.valueOf(extreme, scale);
+        }
+        if (firstValue != null) {
+            BigDecimal first = new BigDecimal(firstValue);
+            result = result == null ? first : minimum ? result.min(first) : result.max(first);
+        }
+        return result;
+    }
+
+    /**
+     * Returns unscaled value as double, rounded correctly
+     *
+     * @param unscaled
+     * @param scale
+     * @return
+     */
+    private static double toDouble(long unscaled, int scale) {
+        // unscaled value and power of ten are exact doubles, so the division is rounded correctly
+        if (Math.abs(unscaled) < (1L << 53)) {
+            return unscaled / POWERS_OF_TEN[scale];
+        }
+        return BigDecimal.valueOf(unscaled, scale).doubleValue();
+    }
+
+    /**
+     * Parses finite number
+     *
+     * @param value
+     * @return
+     * @throws NumberFormatException if value is not a finite number
+     */
+    private static double parseDouble(String value) {
+        double number = Double.parseDouble(value);
+        if (!Double.isFinite(number)) {
+            throw new NumberFormatException("Not a finite number: " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Reads values stored with width at position
+     *
+     * @param position
+     * @return
+     */
+    private long[] readValues(int position) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(position);
+        int width = buffer.get();
+        long[] values = new long[recordCount];
+        switch (width) {
+            case 1 -> {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = buffer.get();
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = buffer.getShort();
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = buffer.getInt();
+                }
+            }
+            default -> {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = buffer.getLong();
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns columnar representation of csv file
+     * Numeric columns are detected in a first scan, string columns are dictionary-encoded in a second scan.
+     *
+     * @param file
+     * @param delimiter literal delimiter
+     * @return bytes or null if file is empty or no delimiter is given
+     */
+    public static byte[] encode(byte[] file, String delimiter) {
+        if (file == null) {
+            return null;
+        }
+        return encode(ByteBuffer.wrap(file), delimiter);
+    }
+
+    /**
+     * Returns columnar representation of csv data, e.g. of a memory-mapped file
+     *
+     * @param data csv data from position to limit, position of buffer is not changed
+     * @param delimiter literal delimiter
+     * @return bytes or null if data is empty or no delimiter is given
+     */
+    public static byte[] encode(ByteBuffer data, String delimiter) {
+        if (data == null || delimiter == null) {
+            return null;
+        }
+        CsvScanner scanner = new CsvScanner(data.duplicate(), delimiter);
+        if (!scanner.nextRecord()) {
+            return null;
+        }
+        List<String> firstValues = scanner.getRecord();
+        int columnCount = firstValues.size();
+        NumericColumn[] numericColumns = new NumericColumn[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            numericColumns[i] = new NumericColumn();
+        }
+        // first scan: parse numbers, columns with missing fields or other values are strings
+        int records = 0;
+        while (scanner.nextRecord()) {
+            for (int i = 0; i < columnCount; i++) {
+                if (!scanner.field(i)) {
+                    for (int j = i; j < columnCount; j++) {
+                        numericColumns[j].invalidate();
+                    }
+                    break;
+                }
+                numericColumns[i].add(scanner, records);
+            }
+            records++;
+        }
+        // second scan: dictionary-encode string columns
+        List<Integer> stringColumns = new ArrayList<>();
+        for (int i = 0; i < columnCount; i++) {
+            if (!numericColumns[i].finish(records)) {
+                stringColumns.add(i);
+            }
+        }
+        Map<Integer, StringColumn> encodedStringColumns = new HashMap<>();
+        if (!stringColumns.isEmpty()) {
+            for (int column : stringColumns) {
+                encodedStringColumns.put(column, new StringColumn(records));
+            }
+            scanner = new CsvScanner(data.duplicate(), delimiter);
+            scanner.nextRecord();
+            int record = 0;
+            while (scanner.nextRecord()) {
+                for (int column : stringColumns) {
+                    if (!scanner.field(column)) {
+                        break;
+                    }
+                    encodedStringColumns.get(column).add(scanner.getString(), record);
+                }
+                record++;
+            }
+        }
+        // write columns
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            writeString(out, delimiter);
+            out.writeInt(records);
+            out.writeInt(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                writeString(out, firstValues.get(i));
+                ByteArrayOutputStream columnBytes = new ByteArrayOutputStream();
+                DataOutputStream columnOut = new DataOutputStream(columnBytes);
+                if (encodedStringColumns.containsKey(i)) {
+                    out.writeByte(STRING);
+                    encodedStringColumns.get(i).write(columnOut);
+                } else {
+                    out.writeByte(NUMERIC);
+                    numericColumns[i].write(columnOut);
+                }
+                columnOut.flush();
+                out.writeInt(columnBytes.size());
+                columnBytes.writeTo(out);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes values with smallest width holding all values
+     *
+     * @param out
+     * @param values
+     * @param size number of values
+     * @throws IOException
+     */
+    private static void writeValues(DataOutputStream out, long[] values, int size) throws IOException {
+        long min = 0;
+        long max = 0;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        int width = min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE ? 1
+                : min >= Short.MIN_VALUE && max <= Short.MAX_VALUE ? 2
+                : min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE ? 4 : 8;
+        out.writeByte(width);
+        for (int i = 0; i < size; i++) {
+            switch (width) {
+                case 1 -> out.writeByte((int) values[i]);
+                case 2 -> out.writeShort((int) values[i]);
+                case 4 -> out.writeInt((int) values[i]);
+                default -> out.writeLong(values[i]);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Numeric column during encoding: unscaled values with their scales, rescaled to common scale when finished
+     */
+    private static class NumericColumn {
+
+        private long[] unscaled = new long[1024];
+        private byte[] scales = new byte[1024];
+        private int scale = 0;
+        private boolean valid = true;
+        private int records = 0;
+
+        /**
+         * Adds value of current field of scanner
+         *
+         * @param scanner
+         * @param record
+         */
+        void add(CsvScanner scanner, int record) {
+            if (!valid) {
+                return;
+            }
+            long value = scanner.getUnscaled();
+            if (value == Long.MIN_VALUE) {
+                invalidate();
+                return;
+            }
+            if (record == unscaled.length) {
+                unscaled = Arrays.copyOf(unscaled, record + (record >> 1));
+                scales = Arrays.copyOf(scales, unscaled.length);
+            }
+            unscaled[record] = value;
+            scales[record] = (byte) scanner.getParsedScale();
+            scale = Math.max(scale, scanner.getParsedScale());
+        }
+
+        /**
+         * Marks column as string column
+         */
+        void invalidate() {
+            valid = false;
+            unscaled = null;
+            scales = null;
+        }
+
+        /**
+         * Rescales values to common scale
+         *
+         * @param records
+         * @return false if column is not numeric or values do not fit into longs at common scale
+         */
+        boolean finish(int records) {
+            if (!valid || scale > MAX_SCALE) {
+                return false;
+            }
+            try {
+                for (int i = 0; i < records; i++) {
+                    for (int s = scales[i]; s < scale; s++) {
+                        unscaled[i] = Math.multiplyExact(unscaled[i], 10L);
+                    }
+                }
+            } catch (ArithmeticException e) {
+                return false;
+            }
+            this.records = records;
+            return true;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(scale);
+            writeValues(out, unscaled, records);
+        }
+    }
+
+    /**
+     * Dictionary-encoded string column during encoding
+     */
+    private static class StringColumn {
+
+        private final Map<String, Integer> codesByValue = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private final long[] codes;
+
+        /**
+         *
+         * @param records
+         */
+        StringColumn(int records) {
+            codes = new long[records];
+            Arrays.fill(codes, -1);
+        }
+
+        /**
+         * Adds value of record
+         *
+         * @param value
+         * @param record
+         */
+        void add(String value, int record) {
+            Integer code = codesByValue.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                codesByValue.put(value, code);
+                dictionary.add(value);
+            }
+            codes[record] = code;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(dictionary.size());
+            for (String value : dictionary) {
+                writeString(out, value);
+            }
+            writeValues(out, codes, codes.length);
+        }
+    }
+}
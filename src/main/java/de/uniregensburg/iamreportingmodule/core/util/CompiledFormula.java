@@ -0,0 +1,237 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import com.ezylang.evalex.EvaluationException;
+import com.ezylang.evalex.Expression;
+import com.ezylang.evalex.data.EvaluationValue;
+import com.ezylang.evalex.parser.ParseException;
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-parsed formula: variables {{label}} are replaced by slots once and the abstract syntax tree is built once,
+ * evaluation only binds the latest values into the slots
+ * Formulas evaluated more often than the promotion threshold are compiled to method handles and no longer interpreted
+ *
+ * @author Julian Bauer
+ */
+public class CompiledFormula {
+
+    private static final String SLOT_PREFIX = "slot";
+
+    private final String formula;
+    private final int hash;
+    private final Expression expression;
+    private final Map<String, String> slots;
+    private final Set<String> labels;
+    private final Set<FormulaWindow> windows;
+    private final DoubleFormula doubleFormula;
+    private final String slotExpression;
+    private final AtomicLong evaluations = new AtomicLong();
+    private volatile long promotionThreshold = Long.MAX_VALUE;
+    private volatile boolean promotable = true;
+    private volatile MethodHandleFormula methodHandleFormula;
+
+    /**
+     *
+     * @param formula
+     * @param expression
+     * @param slots slots by key of variable (label or key of window)
+     * @param tokens
+     * @param doubleFormula double fast path, null if formula is not supported by fast path
+     * @param slotExpression formula with variables replaced by slots
+     */
+    private CompiledFormula(String formula, Expression expression, Map<String, String> slots, TokenizedFormula tokens, DoubleFormula doubleFormula, String slotExpression) {
+        this.formula = formula;
+        this.hash = formula.hashCode();
+        this.expression = expression;
+        this.slots = slots;
+        this.labels = Collections.unmodifiableSet(tokens.getLabels());
+        this.windows = Collections.unmodifiableSet(tokens.getWindows());
+        this.doubleFormula = doubleFormula;
+        this.slotExpression = slotExpression;
+    }
+
+    /**
+     * Compiles tokenized formula: replaces variables with slots and parses expression
+     *
+     * @param tokens
+     * @return
+     * @throws FormulaException
+     */
+    static CompiledFormula compile(TokenizedFormula tokens) throws FormulaException {
+        String formula = tokens.getFormula();
+        // replace variables with slots, equal labels or windows share one slot
+        Map<String, String> slots = new LinkedHashMap<>();
+        StringBuilder builder = new StringBuilder(formula.length());
+        int position = 0;
+        for (int i = 0; i < tokens.getVariableCount(); i++) {
+            String slot = slots.computeIfAbsent(tokens.getKey(i), key -> SLOT_PREFIX + slots.size());
+            builder.append(formula, position, tokens.getStart(i)).append(slot);
+            position = tokens.getEnd(i);
+        }
+        builder.append(formula, position, formula.length());
+
+        // parse expression once
+        String slotExpression = builder.toString();
+        Expression expression = new Expression(slotExpression);
+        try {
+            expression.getAbstractSyntaxTree();
+        } catch (ParseException e) {
+            throw new FormulaException(e.getMessage());
+        }
+        return new CompiledFormula(formula, expression, Collections.unmodifiableMap(slots), tokens, DoubleFormula.compile(slotExpression, slots.size()), slotExpression);
+    }
+
+    /**
+     * Returns formula string the compiled formula was built from
+     *
+     * @return
+     */
+    public String getFormula() {
+        return formula;
+    }
+
+    /**
+     * Returns labels of all measurables used in formula, including measurables passed to window functions
+     *
+     * @return
+     */
+    public Set<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns window functions used in formula
+     *
+     * @return
+     */
+    public Set<FormulaWindow> getWindows() {
+        return windows;
+    }
+
+    /**
+     * Returns if compiled formula was built from formula string
+     *
+     * @param formula
+     * @return
+     */
+    public boolean matches(String formula) {
+        return formula != null && hash == formula.hashCode() && this.formula.equals(formula);
+    }
+
+    /**
+     * Sets number of evaluations after which formula is compiled to method handles
+     *
+     * @param promotionThreshold
+     */
+    public void setPromotionThreshold(long promotionThreshold) {
+        this.promotionThreshold = promotionThreshold;
+    }
+
+    /**
+     * Returns if formula is evaluated by method handles
+     *
+     * @return
+     */
+    public boolean isPromoted() {
+        return methodHandleFormula != null;
+    }
+
+    /**
+     * Evaluates formula by binding values of variables into slots
+     *
+     * @param values values by label and key of window
+     * @return
+     * @throws FormulaException
+     */
+    public BigDecimal evaluate(Map<String, BigDecimal> values) throws FormulaException {
+        // use method handles if formula is hot
+        MethodHandleFormula promoted = getMethodHandleFormula();
+        if (promoted != null) {
+            BigDecimal[] slotValues = new BigDecimal[slots.size()];
+            int i = 0;
+            for (String key : slots.keySet()) {
+                slotValues[i++] = getValue(values, key);
+            }
+            return promoted.evaluate(slotValues);
+        }
+        // expression holds the bound values, therefore evaluations of the same formula are serialized
+        synchronized (expression) {
+            for (Map.Entry<String, String> slot : slots.entrySet()) {
+                expression.with(slot.getValue(), getValue(values, slot.getKey()));
+            }
+            try {
+                EvaluationValue value = expression.evaluate();
+                return value.getNumberValue();
+            } catch (EvaluationException | ParseException e) {
+                throw new FormulaException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Evaluates formula in primitive doubles, falls back to exact evaluation if formula is not supported by fast path
+     * or result is not finite or not precise enough for the scale of results
+     *
+     * @param values values by label and key of window
+     * @return
+     * @throws FormulaException
+     */
+    public BigDecimal evaluateFast(Map<String, BigDecimal> values) throws FormulaException {
+        if (doubleFormula != null) {
+            // slots are numbered in order of keys
+            double[] slotValues = new double[slots.size()];
+            int i = 0;
+            for (String key : slots.keySet()) {
+                slotValues[i++] = getValue(values, key).doubleValue();
+            }
+            double result = doubleFormula.evaluate(slotValues);
+            if (!Double.isNaN(result)) {
+                return BigDecimal.valueOf(result);
+            }
+        }
+        // fall back to exact evaluation
+        return evaluate(values);
+    }
+
+    /**
+     * Returns method handles of formula, compiles them once the formula is evaluated more often than the promotion threshold
+     *
+     * @return method handles or null if formula is not promoted (yet)
+     */
+    private MethodHandleFormula getMethodHandleFormula() {
+        if (methodHandleFormula == null && promotable && evaluations.incrementAndGet() > promotionThreshold) {
+            synchronized (this) {
+                if (methodHandleFormula == null && promotable) {
+                    MethodHandleFormula compiled = MethodHandleFormula.compile(slotExpression, slots.size());
+                    // formulas using unsupported functions stay interpreted
+                    promotable = compiled != null;
+                    methodHandleFormula = compiled;
+                }
+            }
+        }
+        return methodHandleFormula;
+    }
+
+    /**
+     * Returns value of variable
+     *
+     * @param values
+     * @param key label or key of window
+     * @return
+     * @throws FormulaException if no value provided
+     */
+    private BigDecimal getValue(Map<String, BigDecimal> values, String key) throws FormulaException {
+        BigDecimal value = values.get(key);
+        if (value == null) {
+            throw new FormulaException("No value provided for variable " + key);
+        }
+        return value;
+    }
+}
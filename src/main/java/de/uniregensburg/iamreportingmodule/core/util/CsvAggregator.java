@@ -0,0 +1,425 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Accumulates values of a csv column row by row
+ * COUNT, SUM, MINIMUM, MAXIMUM and AVERAGE keep a constant number of accumulators regardless of number of rows.
+ * MEDIAN and PERCENTILE buffer the values in a primitive array and select the percentile with quickselect,
+ * APPROXIMATE_PERCENTILE keeps a t-digest of bounded size. COUNT_DISTINCT keeps a hash set of the 64 bit hashes of
+ * the values while there are few distinct values and switches to a HyperLogLog sketch of configurable precision when
+ * the number of distinct values exceeds EXACT_DISTINCT_LIMIT, so memory stays bounded for millions of values.
+ *
+ * @author Julian Bauer
+ */
+public class CsvAggregator {
+
+    /**
+     * Maximum number of distinct values counted exactly
+     */
+    public static final int EXACT_DISTINCT_LIMIT = 16384;
+
+    private static final BigDecimal MEDIAN = new BigDecimal(50);
+    private static final BigDecimal HUNDRED = new BigDecimal(100);
+
+    private final CsvAggregationMethod aggregationMethod;
+    private final BigDecimal percentile;
+    private long count = 0;
+    private BigDecimal sum = null;
+    private BigDecimal min = null;
+    private BigDecimal max = null;
+    private double[] values = new double[0];
+    private TDigest digest = null;
+    private final int precision;
+    // open addressing hash set of value hashes, 0 is tracked separately as it marks empty slots
+    private long[] hashes = null;
+    private int distinctCount = 0;
+    private boolean zeroHash = false;
+    private HyperLogLog sketch = null;
+
+    /**
+     *
+     * @param aggregationMethod
+     */
+    public CsvAggregator(CsvAggregationMethod aggregationMethod) {
+        this(aggregationMethod, null);
+    }
+
+    /**
+     *
+     * @param aggregationMethod
+     * @param percentile percentile between 0 and 100, only used by PERCENTILE and APPROXIMATE_PERCENTILE
+     */
+    public CsvAggregator(CsvAggregationMethod aggregationMethod, BigDecimal percentile) {
+        this(aggregationMethod, percentile, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     *
+     * @param aggregationMethod
+     * @param percentile percentile between 0 and 100, only used by PERCENTILE and APPROXIMATE_PERCENTILE
+     * @param precision precision of HyperLogLog sketch between 4 and 18, only used by COUNT_DISTINCT
+     */
+    public CsvAggregator(CsvAggregationMethod aggregationMethod, BigDecimal percentile, int precision) {
+        this.aggregationMethod = aggregationMethod;
+        this.precision = precision;
+        this.percentile = CsvAggregationMethod.MEDIAN.equals(aggregationMethod) ? MEDIAN : percentile;
+        if (isPercentile(aggregationMethod) && (this.percentile == null
+                || this.percentile.compareTo(BigDecimal.ZERO) < 0 || this.percentile.compareTo(HUNDRED) > 0)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (CsvAggregationMethod.MEDIAN.equals(aggregationMethod) || CsvAggregationMethod.PERCENTILE.equals(aggregationMethod)) {
+            values = new double[1024];
+        }
+        if (CsvAggregationMethod.APPROXIMATE_PERCENTILE.equals(aggregationMethod)) {
+            digest = new TDigest(TDigest.DEFAULT_COMPRESSION);
+        }
+        if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod)) {
+            // check precision
+            new HyperLogLog(precision);
+            hashes = new long[64];
+        }
+    }
+
+    /**
+     * Returns if aggregation method needs a percentile
+     *
+     * @param aggregationMethod
+     * @return
+     */
+    public static boolean isPercentile(CsvAggregationMethod aggregationMethod) {
+        return CsvAggregationMethod.PERCENTILE.equals(aggregationMethod)
+                || CsvAggregationMethod.APPROXIMATE_PERCENTILE.equals(aggregationMethod);
+    }
+
+    /**
+     * Adds value of a row
+     *
+     * @param value
+     * @throws NumberFormatException if value is not a number and aggregation method needs numbers
+     */
+    public void add(String value) {
+        switch (aggregationMethod) {
+            // rows are counted without parsing values
+            case COUNT -> {
+            }
+            case SUM, AVERAGE, MINIMUM, MAXIMUM -> add(new BigDecimal(value));
+            case COUNT_DISTINCT -> addHash(HyperLogLog.hash(value.getBytes(StandardCharsets.UTF_8)));
+            default -> add(parseDouble(value));
+        }
+        count++;
+    }
+
+    /**
+     * Adds value of current field of scanner, numbers are parsed directly from the scanned bytes
+     *
+     * @param scanner
+     * @throws NumberFormatException if value is not a number and aggregation method needs numbers
+     */
+    public void add(CsvScanner scanner) {
+        switch (aggregationMethod) {
+            // rows are counted without parsing values
+            case COUNT -> {
+            }
+            case SUM, AVERAGE, MINIMUM, MAXIMUM -> add(scanner.getDecimal());
+            // values are hashed from the scanned bytes without decoding them
+            case COUNT_DISTINCT -> addHash(scanner.getHash());
+            default -> add(scanner.getDouble());
+        }
+        count++;
+    }
+
+    /**
+     * Accumulates decimal value
+     *
+     * @param number
+     */
+    private void add(BigDecimal number) {
+        switch (aggregationMethod) {
+            case SUM, AVERAGE -> sum = sum == null ? number : sum.add(number);
+            case MINIMUM -> min = min == null ? number : min.min(number);
+            case MAXIMUM -> max = max == null ? number : max.max(number);
+        }
+    }
+
+    /**
+     * Buffers value for percentiles
+     *
+     * @param number
+     */
+    private void add(double number) {
+        if (digest != null) {
+            digest.add(number);
+            return;
+        }
+        if (count == values.length) {
+            values = Arrays.copyOf(values, values.length + (values.length >> 1));
+        }
+        values[(int) count] = number;
+    }
+
+    /**
+     * Adds hash of value for distinct counting, switches to HyperLogLog sketch when limit of exact counting is exceeded
+     *
+     * @param hash
+     */
+    private void addHash(long hash) {
+        if (sketch != null) {
+            sketch.addHash(hash);
+            return;
+        }
+        if (hash == 0) {
+            if (!zeroHash) {
+                zeroHash = true;
+                distinctCount++;
+            }
+        } else if (insert(hashes, hash)) {
+            distinctCount++;
+            // keep load factor at most one half
+            if (distinctCount * 2 > hashes.length) {
+                long[] previous = hashes;
+                hashes = new long[previous.length * 2];
+                for (long h : previous) {
+                    if (h != 0) {
+                        insert(hashes, h);
+                    }
+                }
+            }
+        }
+        if (distinctCount > EXACT_DISTINCT_LIMIT) {
+            switchToSketch();
+        }
+    }
+
+    /**
+     * Adds hashes counted exactly to new HyperLogLog sketch, further hashes are added to sketch
+     */
+    private void switchToSketch() {
+        sketch = new HyperLogLog(precision);
+        for (long h : hashes) {
+            if (h != 0) {
+                sketch.addHash(h);
+            }
+        }
+        if (zeroHash) {
+            sketch.addHash(0);
+        }
+        hashes = null;
+    }
+
+    /**
+     * Inserts hash into open addressing hash set
+     *
+     * @param table hash set with at least one empty slot
+     * @param hash hash other than 0
+     * @return false if hash was already contained
+     */
+    private static boolean insert(long[] table, long hash) {
+        int mask = table.length - 1;
+        // hashes are mixed, so lower bits are spread evenly
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            if (table[i] == hash) {
+                return false;
+            }
+            if (table[i] == 0) {
+                table[i] = hash;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds values of a numeric column at once for percentiles, e.g. from a columnar file
+     *
+     * @param numbers values, array may be reused as buffer for exact percentiles
+     */
+    void addAll(double[] numbers) {
+        if (digest != null) {
+            for (double number : numbers) {
+                digest.add(number);
+            }
+        } else if (!CsvAggregationMethod.MEDIAN.equals(aggregationMethod) && !CsvAggregationMethod.PERCENTILE.equals(aggregationMethod)) {
+            throw new IllegalStateException("Values can only be added at once for percentiles");
+        } else if (count == 0 && numbers.length > 0) {
+            values = numbers;
+        } else {
+            values = Arrays.copyOf(values, (int) count + numbers.length);
+            System.arraycopy(numbers, 0, values, (int) count, numbers.length);
+        }
+        count += numbers.length;
+    }
+
+    /**
+     * Merges partial aggregate of another part of the same column
+     *
+     * @param other aggregator with same aggregation method and percentile
+     */
+    public void merge(CsvAggregator other) {
+        if (!aggregationMethod.equals(other.aggregationMethod)) {
+            throw new IllegalArgumentException("Cannot merge different aggregation methods");
+        }
+        if (other.sum != null) {
+            sum = sum == null ? other.sum : sum.add(other.sum);
+        }
+        if (other.min != null) {
+            min = min == null ? other.min : min.min(other.min);
+        }
+        if (other.max != null) {
+            max = max == null ? other.max : max.max(other.max);
+        }
+        if (digest != null) {
+            digest.add(other.digest);
+        } else if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod)) {
+            if (other.sketch != null) {
+                if (sketch == null) {
+                    switchToSketch();
+                }
+                sketch.merge(other.sketch);
+            } else {
+                for (long h : other.hashes) {
+                    if (h != 0) {
+                        addHash(h);
+                    }
+                }
+                if (other.zeroHash) {
+                    addHash(0);
+                }
+            }
+        } else if (CsvAggregationMethod.MEDIAN.equals(aggregationMethod) || CsvAggregationMethod.PERCENTILE.equals(aggregationMethod)) {
+            // exact percentiles need all values
+            if (count + other.count > values.length) {
+                values = Arrays.copyOf(values, (int) (count + other.count));
+            }
+            System.arraycopy(other.values, 0, values, (int) count, (int) other.count);
+        }
+        count += other.count;
+    }
+
+    /**
+     * Returns number of added values
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns aggregated value
+     *
+     * @return aggregated value or null if no values were added
+     */
+    public BigDecimal getResult() {
+        if (count == 0) {
+            return null;
+        }
+        return switch (aggregationMethod) {
+            // count rows
+            case COUNT -> new BigDecimal(count);
+            // sum of values of all rows
+            case SUM -> sum;
+            // minimum value
+            case MINIMUM -> min;
+            // maximum value
+            case MAXIMUM -> max;
+            // average value
+            case AVERAGE -> sum.divide(new BigDecimal(count), MathContext.DECIMAL128.getPrecision(), RoundingMode.HALF_UP);
+            // median value and percentiles
+            case MEDIAN, PERCENTILE -> getPercentile();
+            // approximate percentile
+            case APPROXIMATE_PERCENTILE -> BigDecimal.valueOf(digest.quantile(percentile.doubleValue() / 100));
+            // exact number of distinct values or estimate of sketch
+            case COUNT_DISTINCT -> new BigDecimal(sketch != null ? sketch.estimate() : distinctCount);
+        };
+    }
+
+    /**
+     * Returns percentile of buffered values, interpolates linearly between closest ranks
+     *
+     * @return
+     */
+    private BigDecimal getPercentile() {
+        int size = (int) count;
+        // rank of percentile: (n - 1) * p / 100
+        BigDecimal rank = new BigDecimal(size - 1).multiply(percentile).divide(HUNDRED, MathContext.DECIMAL128);
+        int lowerRank = rank.intValue();
+        BigDecimal fraction = rank.subtract(new BigDecimal(lowerRank));
+        BigDecimal lower = BigDecimal.valueOf(select(values, size, lowerRank));
+        if (fraction.signum() == 0) {
+            return lower;
+        }
+        // after selection all values right of the lower rank are greater or equal
+        double upperValue = values[lowerRank + 1];
+        for (int i = lowerRank + 2; i < size; i++) {
+            upperValue = Math.min(upperValue, values[i]);
+        }
+        BigDecimal upper = BigDecimal.valueOf(upperValue);
+        return lower.add(upper.subtract(lower).multiply(fraction), MathContext.DECIMAL128);
+    }
+
+    /**
+     * Partially sorts values, so value at index k is the k-th smallest value (quickselect)
+     *
+     * @param values
+     * @param size number of values in array
+     * @param k
+     * @return k-th smallest value
+     */
+    static double select(double[] values, int size, int k) {
+        int left = 0;
+        int right = size - 1;
+        while (left < right) {
+            // median of three as pivot
+            int middle = (left + right) >>> 1;
+            double pivot = Math.max(Math.min(values[left], values[middle]),
+                    Math.min(Math.max(values[left], values[middle]), values[right]));
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double value = values[i];
+                    values[i] = values[j];
+                    values[j] = value;
+                    i++;
+                    j--;
+                }
+            }
+            // continue in the part containing k
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    /**
+     * Parses finite number
+     *
+     * @param value
+     * @return
+     * @throws NumberFormatException if value is not a finite number
+     */
+    private static double parseDouble(String value) {
+        double number = Double.parseDouble(value);
+        if (!Double.isFinite(number)) {
+            throw new NumberFormatException("Not a finite number: " + value);
+        }
+        return number;
+    }
+}
@@ -0,0 +1,171 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream cutting csv data into gzip-compressed chunks for storing
+ * A chunk is cut at the first line break outside of quotes after it reached the chunk size, so every chunk holds
+ * complete records and can be scanned on its own after decompressing it. Only one chunk is held in memory.
+ *
+ * @author Julian Bauer
+ */
+public class CsvChunkStream extends OutputStream {
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final int chunkSize;
+    private final ChunkConsumer consumer;
+    private final ByteArrayOutputStream chunk;
+    private boolean quoted = false;
+    // CR reached chunk size, chunk is cut after following LF or before any other byte
+    private boolean cutAfterCr = false;
+    private int chunks = 0;
+    private long compressedSize = 0;
+
+    /**
+     *
+     * @param chunkSize minimum size of uncompressed chunks in bytes, the last chunk may be smaller
+     * @param consumer receives compressed chunks in order
+     */
+    public CsvChunkStream(int chunkSize, ChunkConsumer consumer) {
+        this.chunkSize = chunkSize;
+        this.consumer = consumer;
+        this.chunk = new ByteArrayOutputStream(chunkSize + 1024);
+    }
+
+    /**
+     * Writes byte
+     *
+     * @param b
+     * @throws IOException if consumer fails
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Writes bytes, chunks are cut at record boundaries
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException if consumer fails
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        int from = offset;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (cutAfterCr) {
+                cutAfterCr = false;
+                int cut = b == LF ? i + 1 : i;
+                chunk.write(bytes, from, cut - from);
+                from = cut;
+                cut();
+                if (b == LF) {
+                    continue;
+                }
+            }
+            if (b == QUOTE) {
+                // escaped quotes toggle twice
+                quoted = !quoted;
+            } else if (!quoted && chunk.size() + i - from + 1 >= chunkSize) {
+                if (b == LF) {
+                    chunk.write(bytes, from, i + 1 - from);
+                    from = i + 1;
+                    cut();
+                } else if (b == CR) {
+                    cutAfterCr = true;
+                }
+            }
+        }
+        chunk.write(bytes, from, offset + length - from);
+    }
+
+    /**
+     * Hands over last chunk
+     *
+     * @throws IOException if consumer fails
+     */
+    @Override
+    public void close() throws IOException {
+        cutAfterCr = false;
+        if (chunk.size() > 0) {
+            cut();
+        }
+    }
+
+    /**
+     * Returns number of chunks handed over
+     *
+     * @return
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Returns size of chunks handed over
+     *
+     * @return size in bytes after compression
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Compresses current chunk and hands it over
+     *
+     * @throws IOException
+     */
+    private void cut() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(chunk.size() / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            chunk.writeTo(out);
+        }
+        chunk.reset();
+        consumer.accept(chunks, compressed.toByteArray());
+        chunks++;
+        compressedSize += compressed.size();
+    }
+
+    /**
+     * Returns decompressed chunk
+     *
+     * @param compressed chunk handed over by stream
+     * @return
+     * @throws UncheckedIOException if chunk is not gzip-compressed
+     */
+    public static byte[] decompress(byte[] compressed) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Receiver of compressed chunks
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+
+        /**
+         * Receives compressed chunk
+         *
+         * @param chunkIndex position of chunk in data, starting with 0
+         * @param compressed
+         * @throws IOException
+         */
+        void accept(int chunkIndex, byte[] compressed) throws IOException;
+    }
+}
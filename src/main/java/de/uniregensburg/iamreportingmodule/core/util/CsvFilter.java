@@ -0,0 +1,84 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.data.entity.CsvFilterOperator;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Predicate on a field of a csv record, records not matching are skipped before values of aggregated columns are parsed
+ * EQUALS and NOT_EQUALS compare the bytes of the field with the value, the other operators compare numbers.
+ *
+ * @author Julian Bauer
+ */
+public class CsvFilter {
+
+    private final CsvFilterOperator operator;
+    private final byte[] bytes;
+    private final BigDecimal number;
+
+    /**
+     *
+     * @param operator
+     * @param value
+     * @throws IllegalArgumentException if value is not a number and operator compares numbers
+     */
+    public CsvFilter(CsvFilterOperator operator, String value) {
+        if (operator == null || value == null) {
+            throw new IllegalArgumentException("Filter operator or value is missing");
+        }
+        this.operator = operator;
+        this.bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (isNumeric(operator)) {
+            try {
+                this.number = new BigDecimal(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Filter value is not a number: " + value);
+            }
+        } else {
+            this.number = null;
+        }
+    }
+
+    /**
+     * Returns if current field of scanner matches
+     *
+     * @param scanner
+     * @return
+     * @throws NumberFormatException if field is not a number and operator compares numbers
+     */
+    public boolean matches(CsvScanner scanner) {
+        return switch (operator) {
+            case EQUALS -> scanner.equalsField(bytes);
+            case NOT_EQUALS -> !scanner.equalsField(bytes);
+            default -> compare(scanner.getDecimal());
+        };
+    }
+
+    /**
+     * Returns if number fulfills numeric operator
+     *
+     * @param field
+     * @return
+     */
+    private boolean compare(BigDecimal field) {
+        int comparison = field.compareTo(number);
+        return switch (operator) {
+            case LESS -> comparison < 0;
+            case LESS_OR_EQUAL -> comparison <= 0;
+            case GREATER -> comparison > 0;
+            case GREATER_OR_EQUAL -> comparison >= 0;
+            default -> throw new IllegalStateException("Not a numeric operator: " + operator);
+        };
+    }
+
+    /**
+     * Returns if operator compares numbers
+     *
+     * @param operator
+     * @return
+     */
+    public static boolean isNumeric(CsvFilterOperator operator) {
+        return operator != CsvFilterOperator.EQUALS && operator != CsvFilterOperator.NOT_EQUALS;
+    }
+}
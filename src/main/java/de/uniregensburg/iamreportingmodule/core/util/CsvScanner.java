@@ -0,0 +1,401 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scanner for csv data working directly on the bytes of a buffer (RFC 4180)
+ * Records end with LF, CRLF or CR outside of quotes, fields are separated by a literal delimiter and may be enclosed in
+ * double quotes, a double quote inside a quoted field is escaped by another double quote. Scanning only moves positions,
+ * a field is decoded to a string or parsed to a number only on request, so skipped fields never allocate.
+ * The buffer may be a heap buffer or a memory-mapped file, data is expected to be encoded in UTF-8.
+ *
+ * @author Julian Bauer
+ */
+public class CsvScanner {
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final int MAX_FAST_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final ByteBuffer buffer;
+    private final byte[] delimiter;
+    private final int limit;
+    private final int end;
+    private int position;
+    private boolean started = false;
+    private boolean endOfRecord = true;
+    private int fieldIndex = -1;
+    private int fieldStart = 0;
+    private int fieldEnd = 0;
+    private boolean escapedQuotes = false;
+    private int parsedScale = 0;
+    // bounds of scanned fields of current record for visiting them again
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private boolean[] fieldsEscapedQuotes = new boolean[16];
+
+    /**
+     *
+     * @param buffer data between position and limit of buffer is scanned
+     * @param delimiter literal delimiter of fields
+     */
+    public CsvScanner(ByteBuffer buffer, String delimiter) {
+        this(buffer, delimiter, buffer.limit());
+    }
+
+    /**
+     * Creates scanner for a chunk of the data: records starting before end are scanned, the last record may extend
+     * beyond end up to the limit of the buffer
+     *
+     * @param buffer data between position and limit of buffer is scanned
+     * @param delimiter literal delimiter of fields
+     * @param end position before which the last record starts
+     */
+    public CsvScanner(ByteBuffer buffer, String delimiter, int end) {
+        if (delimiter == null || delimiter.isEmpty()) {
+            throw new IllegalArgumentException("Delimiter is empty");
+        }
+        this.buffer = buffer;
+        this.delimiter = delimiter.getBytes(StandardCharsets.UTF_8);
+        this.position = buffer.position();
+        this.limit = buffer.limit();
+        this.end = end;
+        if (this.delimiter[0] == QUOTE || this.delimiter[0] == LF || this.delimiter[0] == CR) {
+            throw new IllegalArgumentException("Delimiter must not start with quote or line break");
+        }
+    }
+
+    /**
+     * Moves to next record, skips remaining fields of current record
+     *
+     * @return false if no more records exist
+     */
+    public boolean nextRecord() {
+        if (!started) {
+            started = true;
+            skipByteOrderMark();
+        } else {
+            while (!endOfRecord) {
+                scanField();
+            }
+        }
+        if (position >= end || position >= limit) {
+            return false;
+        }
+        endOfRecord = false;
+        fieldIndex = -1;
+        return true;
+    }
+
+    /**
+     * Returns current position: start of next record after last record was scanned
+     *
+     * @return
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns position of next record start at or after position: the byte following the next line feed
+     * Line feeds inside quoted fields cannot be told apart without scanning from the start, callers must verify
+     * that the previous chunk ends at the returned position.
+     *
+     * @param buffer
+     * @param position
+     * @return position or limit of buffer if no further line feed exists
+     */
+    public static int findRecordStart(ByteBuffer buffer, int position) {
+        int limit = buffer.limit();
+        // a record starts at position if the previous byte ends a line
+        for (int p = Math.max(position - 1, buffer.position()); p < limit; p++) {
+            if (buffer.get(p) == LF) {
+                return p + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Moves to field of current record, fields already passed are visited again without scanning
+     *
+     * @param index
+     * @return false if record has less fields
+     */
+    public boolean field(int index) {
+        if (index <= fieldIndex) {
+            fieldStart = fieldStarts[index];
+            fieldEnd = fieldEnds[index];
+            escapedQuotes = fieldsEscapedQuotes[index];
+            return true;
+        }
+        while (fieldIndex < index) {
+            if (endOfRecord) {
+                return false;
+            }
+            scanField();
+        }
+        return true;
+    }
+
+    /**
+     * Returns remaining fields of current record as strings, e.g. for header
+     *
+     * @return
+     */
+    public List<String> getRecord() {
+        List<String> fields = new ArrayList<>();
+        while (!endOfRecord) {
+            scanField();
+            fields.add(getString());
+        }
+        return fields;
+    }
+
+    /**
+     * Returns current field as string
+     *
+     * @return
+     */
+    public String getString() {
+        byte[] bytes = new byte[fieldEnd - fieldStart];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(fieldStart + i);
+        }
+        String field = new String(bytes, StandardCharsets.UTF_8);
+        return escapedQuotes ? field.replace("\"\"", "\"") : field;
+    }
+
+    /**
+     * Returns if current field equals value without decoding it
+     *
+     * @param value UTF-8 encoded value
+     * @return
+     */
+    public boolean equalsField(byte[] value) {
+        if (escapedQuotes) {
+            return getString().equals(new String(value, StandardCharsets.UTF_8));
+        }
+        if (fieldEnd - fieldStart != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (buffer.get(fieldStart + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns 64 bit hash of current field for distinct counting, equal to HyperLogLog.hash of the field as string
+     *
+     * @return
+     */
+    public long getHash() {
+        if (escapedQuotes) {
+            return HyperLogLog.hash(getString().getBytes(StandardCharsets.UTF_8));
+        }
+        long hash = HyperLogLog.FNV_OFFSET_BASIS;
+        for (int p = fieldStart; p < fieldEnd; p++) {
+            hash = HyperLogLog.update(hash, buffer.get(p));
+        }
+        return HyperLogLog.mix(hash);
+    }
+
+    /**
+     * Returns current field as decimal, plain numbers with up to 18 digits are parsed without creating a string
+     *
+     * @return
+     * @throws NumberFormatException if field is not a number
+     */
+    public BigDecimal getDecimal() {
+        long unscaled = parseUnscaled();
+        if (unscaled == Long.MIN_VALUE) {
+            return new BigDecimal(getString());
+        }
+        return BigDecimal.valueOf(unscaled, parsedScale);
+    }
+
+    /**
+     * Returns current field as double, plain numbers with up to 15 significant digits are parsed without creating a
+     * string and rounded correctly
+     *
+     * @return
+     * @throws NumberFormatException if field is not a finite number
+     */
+    public double getDouble() {
+        long unscaled = parseUnscaled();
+        // unscaled value and power of ten are exact doubles, so the division is rounded correctly
+        if (unscaled != Long.MIN_VALUE && Math.abs(unscaled) < (1L << 53) && parsedScale < POWERS_OF_TEN.length) {
+            return unscaled / POWERS_OF_TEN[parsedScale];
+        }
+        double value = Double.parseDouble(getString());
+        if (!Double.isFinite(value)) {
+            throw new NumberFormatException("Not a finite number: " + getString());
+        }
+        return value;
+    }
+
+    /**
+     * Returns unscaled value of current field if it is a plain decimal number with up to 18 digits, the scale is
+     * returned by getParsedScale
+     *
+     * @return unscaled value or Long.MIN_VALUE if field has another format
+     */
+    long getUnscaled() {
+        return parseUnscaled();
+    }
+
+    /**
+     * Returns scale of number parsed by getUnscaled
+     *
+     * @return
+     */
+    int getParsedScale() {
+        return parsedScale;
+    }
+
+    /**
+     * Parses current field as plain decimal number: optional sign, digits and optional decimal point
+     *
+     * @return unscaled value, scale is stored in parsedScale, Long.MIN_VALUE if field has another format
+     */
+    private long parseUnscaled() {
+        if (escapedQuotes) {
+            return Long.MIN_VALUE;
+        }
+        int p = fieldStart;
+        boolean negative = false;
+        if (p < fieldEnd && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+            negative = buffer.get(p) == '-';
+            p++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; p < fieldEnd; p++) {
+            byte b = buffer.get(p);
+            if (b >= '0' && b <= '9') {
+                if (digits == MAX_FAST_DIGITS) {
+                    return Long.MIN_VALUE;
+                }
+                unscaled = unscaled * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    scale++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                return Long.MIN_VALUE;
+            }
+        }
+        if (digits == 0) {
+            return Long.MIN_VALUE;
+        }
+        parsedScale = scale;
+        return negative ? -unscaled : unscaled;
+    }
+
+    /**
+     * Scans next field of current record and moves behind its delimiter or the end of the record
+     */
+    private void scanField() {
+        int p = position;
+        escapedQuotes = false;
+        if (p < limit && buffer.get(p) == QUOTE) {
+            // quoted field: ends at quote not followed by another quote
+            p++;
+            fieldStart = p;
+            while (p < limit) {
+                if (buffer.get(p) == QUOTE) {
+                    if (p + 1 < limit && buffer.get(p + 1) == QUOTE) {
+                        escapedQuotes = true;
+                        p += 2;
+                        continue;
+                    }
+                    break;
+                }
+                p++;
+            }
+            fieldEnd = p;
+            // skip closing quote and anything up to the next delimiter
+            while (p < limit && !isDelimiter(p) && !isLineBreak(buffer.get(p))) {
+                p++;
+            }
+        } else {
+            fieldStart = p;
+            while (p < limit && !isLineBreak(buffer.get(p)) && !isDelimiter(p)) {
+                p++;
+            }
+            fieldEnd = p;
+        }
+        fieldIndex++;
+        if (fieldIndex == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldIndex * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldIndex * 2);
+            fieldsEscapedQuotes = Arrays.copyOf(fieldsEscapedQuotes, fieldIndex * 2);
+        }
+        fieldStarts[fieldIndex] = fieldStart;
+        fieldEnds[fieldIndex] = fieldEnd;
+        fieldsEscapedQuotes[fieldIndex] = escapedQuotes;
+        // move behind delimiter or line break
+        if (p >= limit) {
+            endOfRecord = true;
+            position = limit;
+        } else if (isLineBreak(buffer.get(p))) {
+            endOfRecord = true;
+            if (buffer.get(p) == CR && p + 1 < limit && buffer.get(p + 1) == LF) {
+                p++;
+            }
+            position = p + 1;
+        } else {
+            position = p + delimiter.length;
+        }
+    }
+
+    /**
+     * Returns if delimiter starts at position
+     *
+     * @param p
+     * @return
+     */
+    private boolean isDelimiter(int p) {
+        if (buffer.get(p) != delimiter[0]) {
+            return false;
+        }
+        if (p + delimiter.length > limit) {
+            return false;
+        }
+        for (int i = 1; i < delimiter.length; i++) {
+            if (buffer.get(p + i) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == LF || b == CR;
+    }
+
+    /**
+     * Skips UTF-8 byte order mark at start of data
+     */
+    private void skipByteOrderMark() {
+        if (position == 0 && position + 3 <= limit && buffer.get(position) == (byte) 0xEF && buffer.get(position + 1) == (byte) 0xBB
+                && buffer.get(position + 2) == (byte) 0xBF) {
+            position += 3;
+        }
+    }
+}
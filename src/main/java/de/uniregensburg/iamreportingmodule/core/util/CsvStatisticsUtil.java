@@ -0,0 +1,385 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.data.entity.ColumnStatistics;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility to precompute column statistics of csv files and to answer measurements from them
+ * Statistics are computed once when a file is uploaded, with a delimiter detected from the first records. A
+ * measurement is answered from the statistics if its delimiter matches and its aggregation method can be computed
+ * from count, sum, minimum, maximum and t-digest of the column, otherwise the file has to be scanned.
+ *
+ * @author Julian Bauer
+ */
+public class CsvStatisticsUtil {
+
+    private static final List<String> DELIMITERS = List.of(";", ",", "\t", "|");
+    private static final int SNIFF_RECORDS = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final FileDataSource fileDataSource;
+
+    /**
+     *
+     * @param fileDataSource
+     */
+    public CsvStatisticsUtil(FileDataSource fileDataSource) {
+        this.fileDataSource = fileDataSource;
+    }
+
+    /**
+     * Computes statistics of all columns of file and stores them in datasource, replaces previous statistics
+     */
+    public void computeStatistics() {
+        byte[] file = fileDataSource.getFile();
+        computeStatistics(file != null ? ByteBuffer.wrap(file) : null);
+    }
+
+    /**
+     * Computes statistics of all columns of csv data and stores them in datasource, replaces previous statistics
+     *
+     * @param data content of file, e.g. a memory-mapped upload, position of buffer is not changed
+     */
+    public void computeStatistics(ByteBuffer data) {
+        computeStatistics(data != null ? List.of(data) : List.of());
+    }
+
+    /**
+     * Computes statistics of all columns of csv data in segments of complete records and stores them in datasource,
+     * replaces previous statistics
+     * The delimiter is detected from the first segment.
+     *
+     * @param segments content of file, e.g. windows of a memory-mapped upload, positions of buffers are not changed
+     */
+    public void computeStatistics(Iterable<ByteBuffer> segments) {
+        fileDataSource.getColumnStatistics().clear();
+        fileDataSource.setStatisticsDelimiter(null);
+        Iterator<ByteBuffer> iterator = segments.iterator();
+        if (!iterator.hasNext()) {
+            return;
+        }
+        ByteBuffer data = iterator.next();
+        // detect delimiter
+        String delimiter = sniffDelimiter(data);
+        if (delimiter == null) {
+            logger.info("Cannot detect delimiter, no column statistics computed");
+            return;
+        }
+        // keep first record, it may be header or data
+        CsvScanner scanner = new CsvScanner(data.duplicate(), delimiter);
+        if (!scanner.nextRecord()) {
+            logger.info("No data found, no column statistics computed");
+            return;
+        }
+        List<String> firstValues = scanner.getRecord();
+        List<ColumnAccumulator> columns = new ArrayList<>();
+        for (int i = 0; i < firstValues.size(); i++) {
+            columns.add(new ColumnAccumulator());
+        }
+        // accumulate all columns of remaining records in one scan
+        long records = accumulate(scanner, columns);
+        while (iterator.hasNext()) {
+            records += accumulate(new CsvScanner(iterator.next().duplicate(), delimiter), columns);
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            fileDataSource.getColumnStatistics().add(columns.get(i).toStatistics(i, firstValues.get(i), records));
+        }
+        fileDataSource.setStatisticsDelimiter(delimiter);
+        logger.info("Computed statistics of " + columns.size() + " columns and " + records + " records");
+    }
+
+    /**
+     * Accumulates columns of remaining records of scanner
+     *
+     * @param scanner
+     * @param columns
+     * @return number of records
+     */
+    private static long accumulate(CsvScanner scanner, List<ColumnAccumulator> columns) {
+        long records = 0;
+        while (scanner.nextRecord()) {
+            records++;
+            for (int i = 0; i < columns.size(); i++) {
+                if (!scanner.field(i)) {
+                    break;
+                }
+                columns.get(i).add(scanner);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns result of measurement computed from column statistics
+     *
+     * @param attributes attributes of measurement
+     * @return result or null if measurement cannot be answered from statistics, file has to be scanned then
+     */
+    public Result measure(Map<String, String> attributes) {
+        String delimiter = fileDataSource.getStatisticsDelimiter();
+        if (delimiter == null || attributes.get("csvDelimiter") == null || attributes.get("csvHeader") == null
+                || attributes.get("csvAggregationMethod") == null) {
+            return null;
+        }
+        if (!delimiter.equals(CsvUtil.getLiteralDelimiter(attributes.get("csvDelimiter")))) {
+            return null;
+        }
+        // statistics cover all records, filtered measurements have to be scanned
+        if (attributes.get("csvFilterOperator") != null) {
+            return null;
+        }
+        boolean header = Boolean.parseBoolean(attributes.get("csvHeader"));
+        // find column
+        ColumnStatistics column;
+        CsvAggregationMethod aggregationMethod;
+        BigDecimal percentile = null;
+        int precision = HyperLogLog.DEFAULT_PRECISION;
+        try {
+            column = header ? findColumn(attributes.get("csvColumnName")) : findColumn(Integer.parseInt(attributes.get("csvColumnIndex")));
+            aggregationMethod = CsvAggregationMethod.valueOf(attributes.get("csvAggregationMethod"));
+            if (CsvAggregator.isPercentile(aggregationMethod)) {
+                percentile = new BigDecimal(attributes.get("csvPercentile"));
+                // check percentile
+                new CsvAggregator(aggregationMethod, percentile);
+            }
+            if (attributes.get("csvDistinctPrecision") != null) {
+                precision = Integer.parseInt(attributes.get("csvDistinctPrecision"));
+            }
+        } catch (RuntimeException e) {
+            // invalid attributes are reported by scanning
+            return null;
+        }
+        // records missing the column are reported by scanning
+        if (column == null || !column.isComplete()) {
+            return null;
+        }
+        try {
+            BigDecimal value = aggregate(column, header ? null : column.getFirstValue(), aggregationMethod, percentile, precision);
+            return value != null ? new Result(value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns aggregated value of column
+     *
+     * @param column
+     * @param firstValue value of first record if it is data, null if it is header
+     * @param aggregationMethod
+     * @param percentile
+     * @param precision precision of HyperLogLog sketch for distinct counting
+     * @return value or null if aggregation method cannot be computed from statistics
+     * @throws NumberFormatException if first value is not a number
+     */
+    private BigDecimal aggregate(ColumnStatistics column, String firstValue, CsvAggregationMethod aggregationMethod,
+                                 BigDecimal percentile, int precision) {
+        long count = column.getValueCount() + (firstValue != null ? 1 : 0);
+        if (count == 0) {
+            return null;
+        }
+        if (CsvAggregationMethod.COUNT.equals(aggregationMethod)) {
+            return new BigDecimal(count);
+        }
+        if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod)) {
+            return countDistinct(column, firstValue, precision);
+        }
+        if (!column.isNumeric()) {
+            return null;
+        }
+        // include first record
+        BigDecimal sum = column.getValueSum();
+        BigDecimal min = column.getMinimum();
+        BigDecimal max = column.getMaximum();
+        if (firstValue != null) {
+            BigDecimal first = new BigDecimal(firstValue);
+            sum = sum == null ? first : sum.add(first);
+            min = min == null ? first : min.min(first);
+            max = max == null ? first : max.max(first);
+        }
+        return switch (aggregationMethod) {
+            case SUM -> sum;
+            case MINIMUM -> min;
+            case MAXIMUM -> max;
+            case AVERAGE -> sum.divide(new BigDecimal(count), MathContext.DECIMAL128.getPrecision(), RoundingMode.HALF_UP);
+            case APPROXIMATE_PERCENTILE -> {
+                TDigest digest = column.getDigest() != null ? TDigest.fromBytes(column.getDigest())
+                        : new TDigest(TDigest.DEFAULT_COMPRESSION);
+                if (firstValue != null) {
+                    double first = Double.parseDouble(firstValue);
+                    if (!Double.isFinite(first)) {
+                        throw new NumberFormatException("Not a finite number: " + firstValue);
+                    }
+                    digest.add(first);
+                }
+                yield BigDecimal.valueOf(digest.quantile(percentile.doubleValue() / 100));
+            }
+            // exact percentiles need all values
+            default -> null;
+        };
+    }
+
+    /**
+     * Returns number of distinct values of column estimated by stored sketch
+     * Scanning switches to the same sketch for many distinct values, so the estimate equals the scanned result. Few
+     * distinct values are counted exactly by scanning.
+     *
+     * @param column
+     * @param firstValue value of first record if it is data, null if it is header
+     * @param precision precision of HyperLogLog sketch
+     * @return value or null if distinct values have to be counted by scanning
+     */
+    private BigDecimal countDistinct(ColumnStatistics column, String firstValue, int precision) {
+        if (column.getDistinctSketch() == null) {
+            return null;
+        }
+        HyperLogLog sketch = HyperLogLog.fromBytes(column.getDistinctSketch());
+        if (firstValue != null) {
+            sketch.add(firstValue);
+        }
+        // margin keeps numbers of distinct values close to the limit of exact counting out of the error of the estimate
+        long estimate = sketch.estimate();
+        if (precision != HyperLogLog.DEFAULT_PRECISION || estimate <= 2L * CsvAggregator.EXACT_DISTINCT_LIMIT) {
+            return null;
+        }
+        return new BigDecimal(estimate);
+    }
+
+    /**
+     * Returns statistics of first column with name
+     *
+     * @param columnName
+     * @return statistics or null if no column has the name
+     */
+    private ColumnStatistics findColumn(String columnName) {
+        ColumnStatistics found = null;
+        for (ColumnStatistics column : fileDataSource.getColumnStatistics()) {
+            if (column.getFirstValue() != null && column.getFirstValue().equals(columnName)
+                    && (found == null || column.getColumnIndex() < found.getColumnIndex())) {
+                found = column;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns statistics of column with index
+     *
+     * @param columnIndex
+     * @return statistics or null if column does not exist
+     */
+    private ColumnStatistics findColumn(int columnIndex) {
+        for (ColumnStatistics column : fileDataSource.getColumnStatistics()) {
+            if (column.getColumnIndex() == columnIndex) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns delimiter splitting the first records into the same number of at least two fields
+     *
+     * @param data
+     * @return delimiter or null if no delimiter splits the records consistently
+     */
+    static String sniffDelimiter(ByteBuffer data) {
+        String bestDelimiter = null;
+        int bestFieldCount = 1;
+        for (String delimiter : DELIMITERS) {
+            CsvScanner scanner = new CsvScanner(data.duplicate(), delimiter);
+            int fieldCount = -1;
+            for (int i = 0; i < SNIFF_RECORDS && scanner.nextRecord(); i++) {
+                int fields = scanner.getRecord().size();
+                if (fieldCount != -1 && fields != fieldCount) {
+                    fieldCount = -1;
+                    break;
+                }
+                fieldCount = fields;
+            }
+            if (fieldCount > bestFieldCount) {
+                bestDelimiter = delimiter;
+                bestFieldCount = fieldCount;
+            }
+        }
+        return bestDelimiter;
+    }
+
+    /**
+     * Accumulates statistics of a column record by record
+     */
+    private static class ColumnAccumulator {
+
+        private long count = 0;
+        private boolean numeric = true;
+        private BigDecimal sum = null;
+        private BigDecimal min = null;
+        private BigDecimal max = null;
+        private TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION);
+        private final HyperLogLog distinct = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+
+        /**
+         * Adds value of current field of scanner
+         *
+         * @param scanner
+         */
+        void add(CsvScanner scanner) {
+            count++;
+            distinct.addHash(scanner.getHash());
+            if (!numeric) {
+                return;
+            }
+            try {
+                BigDecimal number = scanner.getDecimal();
+                double doubleNumber = scanner.getDouble();
+                sum = sum == null ? number : sum.add(number);
+                min = min == null ? number : min.min(number);
+                max = max == null ? number : max.max(number);
+                digest.add(doubleNumber);
+            } catch (NumberFormatException e) {
+                // numeric aggregations of column need scanning, which reports the value
+                numeric = false;
+                sum = null;
+                min = null;
+                max = null;
+                digest = null;
+            }
+        }
+
+        /**
+         * Returns statistics entity
+         *
+         * @param columnIndex
+         * @param firstValue
+         * @param records number of records after first record
+         * @return
+         */
+        ColumnStatistics toStatistics(int columnIndex, String firstValue, long records) {
+            ColumnStatistics statistics = new ColumnStatistics();
+            statistics.setColumnIndex(columnIndex);
+            statistics.setFirstValue(firstValue);
+            statistics.setValueCount(count);
+            statistics.setComplete(count == records);
+            statistics.setNumeric(numeric);
+            statistics.setValueSum(sum);
+            statistics.setMinimum(min);
+            statistics.setMaximum(max);
+            statistics.setDigest(digest != null ? digest.toBytes() : null);
+            statistics.setDistinctSketch(distinct.toBytes());
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream validating csv data while it is written to the underlying stream, e.g. an upload spooled to a file
+ * Bytes are checked as they stream in, so invalid or oversized uploads are aborted without being buffered: the
+ * size must not exceed the maximum, the data must be UTF-8 encoded text without null bytes and quoted fields must
+ * be closed at the end. Records are counted by line feeds outside of quoted fields.
+ *
+ * @author Julian Bauer
+ */
+public class CsvUploadStream extends FilterOutputStream {
+
+    private final long maxSize;
+    private long size = 0;
+    private long records = 0;
+    private boolean quoted = false;
+    private boolean recordStarted = false;
+    // number of continuation bytes the current UTF-8 sequence still needs
+    private int continuationBytes = 0;
+
+    /**
+     *
+     * @param out
+     * @param maxSize maximum number of bytes
+     */
+    public CsvUploadStream(OutputStream out, long maxSize) {
+        super(out);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Validates and writes byte
+     *
+     * @param b
+     * @throws IOException if data is invalid
+     */
+    @Override
+    public void write(int b) throws IOException {
+        checkSize(1);
+        validate((byte) b);
+        out.write(b);
+    }
+
+    /**
+     * Validates and writes bytes
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException if data is invalid
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        checkSize(length);
+        for (int i = offset; i < offset + length; i++) {
+            validate(bytes[i]);
+        }
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * Checks end of data, has to be called after all bytes were written
+     *
+     * @throws IOException if data ends inside of a quoted field or a UTF-8 sequence
+     */
+    public void finish() throws IOException {
+        flush();
+        if (continuationBytes > 0) {
+            throw new IOException("File is not UTF-8 encoded");
+        }
+        if (quoted) {
+            throw new IOException("File ends inside of a quoted field");
+        }
+        if (recordStarted) {
+            // last record without line feed
+            records++;
+            recordStarted = false;
+        }
+    }
+
+    /**
+     * Returns number of bytes written
+     *
+     * @return
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns number of records written, complete after finish
+     *
+     * @return
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Checks if bytes can be written without exceeding maximum size
+     *
+     * @param length
+     * @throws IOException
+     */
+    private void checkSize(int length) throws IOException {
+        size += length;
+        if (size > maxSize) {
+            throw new IOException("File exceeds maximum size of " + maxSize / (1024 * 1024) + " MB");
+        }
+    }
+
+    /**
+     * Validates byte and updates record state
+     *
+     * @param b
+     * @throws IOException if byte is invalid at this position
+     */
+    private void validate(byte b) throws IOException {
+        int unsigned = b & 0xff;
+        if (continuationBytes > 0) {
+            if ((unsigned & 0xc0) != 0x80) {
+                throw new IOException("File is not UTF-8 encoded");
+            }
+            continuationBytes--;
+            return;
+        }
+        if (unsigned >= 0x80) {
+            // lead byte of multi-byte sequence, overlong two byte sequences and values above U+10FFFF are invalid
+            if (unsigned >= 0xc2 && unsigned <= 0xdf) {
+                continuationBytes = 1;
+            } else if (unsigned >= 0xe0 && unsigned <= 0xef) {
+                continuationBytes = 2;
+            } else if (unsigned >= 0xf0 && unsigned <= 0xf4) {
+                continuationBytes = 3;
+            } else {
+                throw new IOException("File is not UTF-8 encoded");
+            }
+            recordStarted = true;
+            return;
+        }
+        if (unsigned == 0) {
+            throw new IOException("File is not a text file");
+        }
+        if (unsigned == '"') {
+            // escaped quotes toggle twice
+            quoted = !quoted;
+        } else if (unsigned == '\n' && !quoted) {
+            records++;
+            recordStarted = false;
+            return;
+        }
+        recordStarted = true;
+    }
+}
@@ -2,19 +2,19 @@ package de.uniregensburg.iamreportingmodule.core.util;
 
 import de.uniregensburg.iamreportingmodule.core.exception.FileException;
 import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvFilterOperator;
 import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
 import de.uniregensburg.iamreportingmodule.data.entity.Result;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 
 /**
  * Utility to query csv files
@@ -22,25 +22,134 @@ import java.util.*;
  * @author
  */
 public class CsvUtil {
+
+    /**
+     * Default size of data from which files are aggregated in parallel
+     */
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final FileDataSource fileDataSource;
+    private final Iterable<ByteBuffer> segments;
+    private final Supplier<byte[]> columnarLoader;
+    private final ForkJoinPool pool;
+    private final long parallelThreshold;
+    private ColumnarCsv columnar = null;
+    private boolean columnarLoaded = false;
 
     /**
      *
      * @param fileDataSource
      */
     public CsvUtil(FileDataSource fileDataSource) {
+        this(fileDataSource, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     *
+     * @param fileDataSource
+     * @param pool pool for aggregating chunks of large files in parallel
+     * @param parallelThreshold size of data in bytes from which files are aggregated in parallel
+     */
+    public CsvUtil(FileDataSource fileDataSource, ForkJoinPool pool, long parallelThreshold) {
+        this(fileDataSource, fileDataSource.getFile() != null ? ByteBuffer.wrap(fileDataSource.getFile()) : ByteBuffer.allocate(0),
+                pool, parallelThreshold);
+    }
+
+    /**
+     *
+     * @param fileDataSource
+     * @param data content of file, e.g. a memory-mapped file, position of buffer is not changed
+     * @param pool pool for aggregating chunks of large files in parallel
+     * @param parallelThreshold size of data in bytes from which files are aggregated in parallel
+     */
+    public CsvUtil(FileDataSource fileDataSource, ByteBuffer data, ForkJoinPool pool, long parallelThreshold) {
+        this(fileDataSource, List.of(data), pool, parallelThreshold);
+    }
+
+    /**
+     *
+     * @param fileDataSource
+     * @param segments content of file in segments holding complete records, e.g. decompressed chunks loaded one at a
+     * time while iterating, the first segment starts with the first record, an iterator may throw
+     * UncheckedIOException if a segment cannot be read
+     * @param pool pool for aggregating chunks of large single segments in parallel
+     * @param parallelThreshold size of data in bytes from which a single segment is aggregated in parallel
+     */
+    public CsvUtil(FileDataSource fileDataSource, Iterable<ByteBuffer> segments, ForkJoinPool pool, long parallelThreshold) {
+        this(fileDataSource, segments, fileDataSource::getColumnarFile, pool, parallelThreshold);
+    }
+
+    /**
+     *
+     * @param fileDataSource
+     * @param segments content of file in segments holding complete records, see above
+     * @param columnarLoader loads columnar representation of file when a measurement first needs it, returns null if
+     * file was not converted
+     * @param pool pool for aggregating chunks of large single segments in parallel
+     * @param parallelThreshold size of data in bytes from which a single segment is aggregated in parallel
+     */
+    public CsvUtil(FileDataSource fileDataSource, Iterable<ByteBuffer> segments, Supplier<byte[]> columnarLoader,
+                   ForkJoinPool pool, long parallelThreshold) {
         this.fileDataSource = fileDataSource;
+        this.segments = segments;
+        this.columnarLoader = columnarLoader;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
     }
 
     /**
      * Returns result of measurement specified by attributes header, column, delimiter and aggregation method
+     * Optional attributes filter column, filter operator and filter value restrict the measurement to matching records.
      *
      * @param attributes
      * @return
      * @throws FileException
      */
     public Result measure(Map<String, String> attributes) throws FileException {
+        return measureAll(List.of(attributes)).get(0).toResult();
+    }
+
+    /**
+     * Returns outcomes of several measurements of the file in order of attributes
+     * Measurements with the same header setting and delimiter are aggregated in a single pass over the file, each
+     * record is scanned once and only the columns of the measurements are parsed. An error of one measurement does
+     * not affect the other measurements.
+     *
+     * @param attributesList attributes of measurements
+     * @return
+     */
+    public List<Outcome> measureAll(List<Map<String, String>> attributesList) {
+        Outcome[] outcomes = new Outcome[attributesList.size()];
+        // group columns by header setting and delimiter, each group needs one scan
+        Map<List<Object>, List<ColumnAggregation>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < attributesList.size(); i++) {
+            try {
+                ColumnAggregation column = parse(attributesList.get(i), i);
+                groups.computeIfAbsent(List.of(column.header, column.delimiter), k -> new ArrayList<>()).add(column);
+            } catch (FileException e) {
+                outcomes[i] = new Outcome(null, e.getMessage());
+            }
+        }
+        for (List<ColumnAggregation> columns : groups.values()) {
+            scan(columns);
+            for (ColumnAggregation column : columns) {
+                outcomes[column.index] = column.getOutcome();
+            }
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    /**
+     * Returns column aggregation specified by attributes header, column, delimiter, aggregation method and filter
+     *
+     * @param attributes
+     * @param index position of attributes in list of measurements
+     * @return
+     * @throws FileException if attributes are missing or invalid
+     */
+    private ColumnAggregation parse(Map<String, String> attributes, int index) throws FileException {
         logger.info("Getting attributes");
         // check header
         if (attributes.get("csvHeader") == null) {
@@ -83,146 +192,578 @@ public class CsvUtil {
             throw new FileException("No delimiter attribute provided");
         }
         // get delimiter
-        String delimiter = attributes.get("csvDelimiter");
+        String delimiter = getLiteralDelimiter(attributes.get("csvDelimiter"));
         // check aggregation method
         if (attributes.get("csvAggregationMethod") == null) {
             logger.info("No delimiter attribute provided");
             throw new FileException("No delimiter attribute provided");
         }
-        // get aggregation method
-        CsvAggregationMethod aggregationMethod = CsvAggregationMethod.valueOf(attributes.get("csvAggregationMethod"));
-
-        // get file
-        fileDataSource.getFile();
+        try {
+            // get aggregation method
+            CsvAggregationMethod aggregationMethod = CsvAggregationMethod.valueOf(attributes.get("csvAggregationMethod"));
+            // get percentile
+            BigDecimal percentile = null;
+            if (CsvAggregator.isPercentile(aggregationMethod)) {
+                // check percentile
+                if (attributes.get("csvPercentile") == null) {
+                    logger.info("No percentile attribute provided");
+                    throw new FileException("No percentile attribute provided");
+                }
+                try {
+                    percentile = new BigDecimal(attributes.get("csvPercentile"));
+                } catch (NumberFormatException e) {
+                    logger.info("Cannot convert percentile to number: " + e.getMessage());
+                    throw new FileException("Cannot convert percentile to number: " + e.getMessage());
+                }
+            }
+            // get precision of distinct counting, optional
+            int precision = HyperLogLog.DEFAULT_PRECISION;
+            if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod) && attributes.get("csvDistinctPrecision") != null) {
+                try {
+                    precision = Integer.parseInt(attributes.get("csvDistinctPrecision"));
+                } catch (NumberFormatException e) {
+                    logger.info("Cannot convert distinct precision to integer: " + e.getMessage());
+                    throw new FileException("Cannot convert distinct precision to integer: " + e.getMessage());
+                }
+            }
+            // check percentile, precision and delimiter
+            new CsvAggregator(aggregationMethod, percentile, precision);
+            new CsvScanner(ByteBuffer.allocate(0), delimiter);
+            ColumnAggregation column = new ColumnAggregation(index, header, columnName, columnIndex, delimiter,
+                    aggregationMethod, percentile, precision);
+            parseFilter(attributes, column);
+            return column;
+        } catch (IllegalArgumentException e) {
+            logger.info("Invalid attributes: " + e.getMessage());
+            throw new FileException(e.getMessage());
+        }
+    }
 
-        // read in file row by row
-        String line;
-        List<List<String>> lines = new ArrayList<>();
-        try (ByteArrayInputStream is = new ByteArrayInputStream(fileDataSource.getFile()); BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-            while((line = br.readLine()) != null){
-                List<String> rowValues = Arrays.asList(line.split(delimiter));
-                lines.add(rowValues);
+    /**
+     * Sets filter of column aggregation specified by attributes filter column, filter operator and filter value
+     *
+     * @param attributes
+     * @param column
+     * @throws FileException if filter attributes are incomplete or invalid
+     * @throws IllegalArgumentException if filter operator or value is invalid
+     */
+    private void parseFilter(Map<String, String> attributes, ColumnAggregation column) throws FileException {
+        // filter is optional
+        if (attributes.get("csvFilterOperator") == null) {
+            return;
+        }
+        if (column.header) {
+            // check filter column name
+            if (attributes.get("csvFilterColumnName") == null) {
+                logger.info("No filter column name attribute provided");
+                throw new FileException("No filter column name attribute provided");
+            }
+            column.filterColumnName = attributes.get("csvFilterColumnName");
+        } else {
+            // check filter column index
+            if (attributes.get("csvFilterColumnIndex") == null) {
+                logger.info("No filter column index attribute provided");
+                throw new FileException("No filter column index attribute provided");
+            }
+            try {
+                column.filterColumnIndex = Integer.parseInt(attributes.get("csvFilterColumnIndex"));
+            } catch (NumberFormatException e) {
+                logger.info("Cannot convert filter column index to integer: " + e.getMessage());
+                throw new FileException("Cannot convert filter column index to integer: " + e.getMessage());
             }
-        } catch (IOException e){
-            e.printStackTrace();
         }
+        // check filter value
+        if (attributes.get("csvFilterValue") == null) {
+            logger.info("No filter value attribute provided");
+            throw new FileException("No filter value attribute provided");
+        }
+        column.filter = new CsvFilter(CsvFilterOperator.valueOf(attributes.get("csvFilterOperator")), attributes.get("csvFilterValue"));
+    }
 
-        // check if rows exist
-        if (lines.size() == 0) {
-            logger.info("No data found");
-            throw new FileException("No data found");
+    /**
+     * Scans bytes of file record by record and aggregates values of columns, other fields are skipped
+     *
+     * @param columns columns with same header setting and delimiter
+     */
+    private void scan(List<ColumnAggregation> columns) {
+        String delimiter = columns.get(0).delimiter;
+        // columnar representation of file answers most aggregations without parsing text
+        ColumnarCsv columnar = getColumnar(delimiter);
+        if (columnar != null) {
+            columns = aggregateColumnar(columnar, columns);
+            if (columns.isEmpty()) {
+                return;
+            }
         }
+        try {
+            scanSegments(columns, delimiter);
+        } catch (UncheckedIOException e) {
+            logger.info("Cannot read file: " + e.getMessage());
+            columns.forEach(column -> column.error = "Cannot read file");
+        }
+    }
 
+    /**
+     * Scans segments of file record by record and aggregates values of columns
+     *
+     * @param columns columns not aggregated from columnar file
+     * @param delimiter
+     * @throws UncheckedIOException if a segment cannot be read
+     */
+    private void scanSegments(List<ColumnAggregation> columns, String delimiter) {
+        Iterator<ByteBuffer> iterator = segments.iterator();
+        ByteBuffer buffer = iterator.hasNext() ? iterator.next().duplicate() : ByteBuffer.allocate(0);
+        CsvScanner scanner = new CsvScanner(buffer, delimiter);
         // header
-        if (header) {
-            // get header row
-            List<String> headerLine = lines.get(0);
-            // check if column name exists in header
-            if (headerLine.contains(columnName)) {
-                columnIndex = headerLine.indexOf(columnName);
-            } else {
-                logger.info("No column with name " + columnName + " found");
-                throw new FileException("No column with name " + columnName + " found");
-            }
-            // remove header line
-            lines.remove(0);
-        }
-
-        // get values of specified column
-        List<String> columnValues = new ArrayList<>();
-        int i = columnIndex;
-        try {
-            lines.forEach(l -> columnValues.add(l.get(i)));
-        } catch (ArrayIndexOutOfBoundsException e) {
-            logger.info("Column not found" + e.getMessage());
-            throw new FileException("Column not found: " + e.getMessage());
+        if (columns.get(0).header) {
+            if (!scanner.nextRecord()) {
+                logger.info("No data found");
+                columns.forEach(column -> column.error = "No data found");
+                return;
+            }
+            // check if column names exist in header
+            List<String> headerValues = scanner.getRecord();
+            for (ColumnAggregation column : columns) {
+                if (headerValues.contains(column.columnName)) {
+                    column.columnIndex = headerValues.indexOf(column.columnName);
+                } else {
+                    logger.info("No column with name " + column.columnName + " found");
+                    column.error = "No column with name " + column.columnName + " found";
+                }
+                if (column.filter != null && column.error == null) {
+                    if (headerValues.contains(column.filterColumnName)) {
+                        column.filterColumnIndex = headerValues.indexOf(column.filterColumnName);
+                    } else {
+                        logger.info("No filter column with name " + column.filterColumnName + " found");
+                        column.error = "No filter column with name " + column.filterColumnName + " found";
+                    }
+                }
+            }
         }
+        // fields are visited in ascending order of aggregated columns
+        List<ColumnAggregation> validColumns = new ArrayList<>();
+        for (ColumnAggregation column : columns) {
+            if (column.error == null && column.columnIndex < 0) {
+                logger.info("Column not found: " + column.columnIndex);
+                column.error = "Column not found: " + column.columnIndex;
+            }
+            if (column.error == null && column.filter != null && column.filterColumnIndex < 0) {
+                logger.info("Filter column not found: " + column.filterColumnIndex);
+                column.error = "Filter column not found: " + column.filterColumnIndex;
+            }
+            if (column.error == null) {
+                validColumns.add(column);
+            }
+        }
+        if (validColumns.isEmpty()) {
+            return;
+        }
+        validColumns.sort(Comparator.comparingInt(column -> column.columnIndex));
 
-        // check if column contains values
-        if (columnValues.size() == 0) {
-            logger.info("No data found");
-            throw new FileException("No data found");
+        // aggregate large single segments in parallel chunks, small files, files not splittable at line feeds and
+        // segmented files sequentially
+        CsvAggregator[] aggregators = null;
+        int start = scanner.getPosition();
+        if (!iterator.hasNext() && buffer.limit() - start >= parallelThreshold && pool.getParallelism() > 1) {
+            aggregators = aggregateParallel(buffer, delimiter, start, validColumns);
+        }
+        String[] errors = new String[validColumns.size()];
+        if (aggregators == null) {
+            aggregators = createAggregators(validColumns);
+            aggregate(scanner, validColumns, aggregators, errors);
+            // segments are loaded one at a time
+            while (iterator.hasNext()) {
+                aggregate(new CsvScanner(iterator.next().duplicate(), delimiter), validColumns, aggregators, errors);
+            }
+        }
+        for (int i = 0; i < validColumns.size(); i++) {
+            validColumns.get(i).aggregator = aggregators[i];
+            validColumns.get(i).error = errors[i];
         }
+    }
 
-        // aggregate columns to result using specified aggregation method
-        Result result;
-        try {
-            result = switch (aggregationMethod) {
-                // count rows
-                case COUNT:
-                    yield new Result(new BigDecimal(columnValues.size()));
-                // build sum of values of all rows
-                case SUM:
-                    BigDecimal sum = null;
-                    Iterator<String> itSum = columnValues.iterator();
-                    if(itSum.hasNext()){
-                        sum = new BigDecimal(itSum.next());
-                        while(itSum.hasNext()){
-                            sum = sum.add(new BigDecimal(itSum.next()));
-                        }
-                    }
-                    yield new Result(sum);
-                // get minimum value
-                case MINIMUM:
-                    BigDecimal min = null;
-                    Iterator<String> itMinimum = columnValues.iterator();
-                    if(itMinimum.hasNext()){
-                        min = new BigDecimal(itMinimum.next());
-                        while(itMinimum.hasNext()){
-                            min = min.min(new BigDecimal(itMinimum.next()));
-                        }
-                    }
-                    yield new Result(min);
-                // get maximum value
-                case MAXIMUM:
-                    BigDecimal max = null;
-                    Iterator<String> itMaximum = columnValues.iterator();
-                    if(itMaximum.hasNext()){
-                        max = new BigDecimal(itMaximum.next());
-                        while(itMaximum.hasNext()){
-                            max = max.max(new BigDecimal(itMaximum.next()));
-                        }
+    /**
+     * Returns columnar representation of file if it was split with delimiter
+     *
+     * @param delimiter literal delimiter
+     * @return columnar file or null if not available
+     */
+    private ColumnarCsv getColumnar(String delimiter) {
+        // load once on demand
+        if (!columnarLoaded) {
+            columnarLoaded = true;
+            try {
+                byte[] columnarFile = columnarLoader.get();
+                if (columnarFile != null) {
+                    columnar = ColumnarCsv.read(columnarFile);
+                }
+            } catch (RuntimeException e) {
+                logger.info("Cannot read columnar file: " + e.getMessage());
+                return null;
+            }
+        }
+        return columnar != null && columnar.getDelimiter().equals(delimiter) ? columnar : null;
+    }
+
+    /**
+     * Aggregates columns from columnar file
+     *
+     * @param columnar
+     * @param columns
+     * @return columns that cannot be aggregated from columnar file and have to be scanned
+     */
+    private List<ColumnAggregation> aggregateColumnar(ColumnarCsv columnar, List<ColumnAggregation> columns) {
+        List<ColumnAggregation> remainingColumns = new ArrayList<>();
+        for (ColumnAggregation column : columns) {
+            // filtered columns are aggregated while scanning
+            if (column.filter != null) {
+                remainingColumns.add(column);
+                continue;
+            }
+            int columnIndex = column.header ? columnar.getFirstValues().indexOf(column.columnName) : column.columnIndex;
+            column.value = columnar.aggregate(columnIndex, !column.header, column.aggregationMethod, column.percentile,
+                    column.precision);
+            if (column.value == null) {
+                remainingColumns.add(column);
+            }
+        }
+        logger.info("Aggregated " + (columns.size() - remainingColumns.size()) + " of " + columns.size()
+                + " columns from columnar file");
+        return remainingColumns;
+    }
+
+    /**
+     * Aggregates values of columns of all records of scanner, columns with errors are skipped in further records and
+     * further segments
+     * Filters are evaluated before the value of a column is visited, values of records not matching are not parsed.
+     *
+     * @param scanner
+     * @param columns columns in ascending order of indexes
+     * @param aggregators aggregators of columns
+     * @param errors errors of columns, set if a column is missing or contains a value that is not a number
+     */
+    private void aggregate(CsvScanner scanner, List<ColumnAggregation> columns, CsvAggregator[] aggregators, String[] errors) {
+        int[] columnIndexes = columns.stream().mapToInt(column -> column.columnIndex).toArray();
+        int[] filterColumnIndexes = columns.stream().mapToInt(column -> column.filterColumnIndex).toArray();
+        CsvFilter[] filters = columns.stream().map(column -> column.filter).toArray(CsvFilter[]::new);
+        int remaining = (int) Arrays.stream(errors).filter(Objects::isNull).count();
+        while (remaining > 0 && scanner.nextRecord()) {
+            for (int i = 0; i < columnIndexes.length; i++) {
+                if (errors[i] != null) {
+                    continue;
+                }
+                // skip records not matching filter
+                if (filters[i] != null) {
+                    if (!scanner.field(filterColumnIndexes[i])) {
+                        logger.info("Filter column not found: " + filterColumnIndexes[i]);
+                        errors[i] = "Filter column not found: " + filterColumnIndexes[i];
+                        remaining--;
+                        continue;
                     }
-                    yield new Result(max);
-                // get average value
-                case AVERAGE:
-                    BigDecimal numerator = null;
-                    Iterator<String> itNumerator = columnValues.iterator();
-                    if(itNumerator.hasNext()){
-                        numerator = new BigDecimal(itNumerator.next());
-                        while(itNumerator.hasNext()){
-                            numerator = numerator.add(new BigDecimal(itNumerator.next()));
+                    try {
+                        if (!filters[i].matches(scanner)) {
+                            continue;
                         }
+                    } catch (NumberFormatException e) {
+                        logger.info("Error during filtering: " + e.getMessage());
+                        errors[i] = "Error during filtering: " + e.getMessage();
+                        remaining--;
+                        continue;
                     }
-                    BigDecimal denominator = new BigDecimal(columnValues.size());
-                    if (denominator.equals(BigDecimal.ZERO) || numerator == null) {
-                        yield new Result(null);
-                    } else {
-                        yield new Result(numerator.divide(denominator, MathContext.DECIMAL128.getPrecision(), RoundingMode.HALF_UP));
-                    }
-                // get median value
-                case MEDIAN:
-                    ArrayList<BigDecimal> bigDecimals = new ArrayList<>();
-                    columnValues.forEach(v -> bigDecimals.add(new BigDecimal(v))); // convert to BigDecimal
-                    bigDecimals.sort(BigDecimal::compareTo); // sort bigDecimals
-                    BigDecimal median;
-                    if (bigDecimals.size() == 0) {
-                        median = null;
-                    } else if (bigDecimals.size() % 2 == 1) {
-                        median = bigDecimals.get((bigDecimals.size() + 1) / 2 - 1 );
-                    } else {
-                        median = bigDecimals.get(bigDecimals.size() / 2 - 1);
-                        median = median.add(bigDecimals.get(bigDecimals.size() / 2));
-                        median = median.divide(new BigDecimal(2), MathContext.DECIMAL128.getPrecision(), RoundingMode.HALF_UP);
+                }
+                // move to specified column
+                if (!scanner.field(columnIndexes[i])) {
+                    logger.info("Column not found: " + columnIndexes[i]);
+                    errors[i] = "Column not found: " + columnIndexes[i];
+                    remaining--;
+                    continue;
+                }
+                // aggregate value
+                try {
+                    aggregators[i].add(scanner);
+                } catch (NumberFormatException e) {
+                    logger.info("Error during aggregation: " + e.getMessage());
+                    errors[i] = "Error during aggregation: " + e.getMessage();
+                    remaining--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns new aggregators for columns
+     *
+     * @param columns
+     * @return
+     */
+    private static CsvAggregator[] createAggregators(List<ColumnAggregation> columns) {
+        CsvAggregator[] aggregators = new CsvAggregator[columns.size()];
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i] = new CsvAggregator(columns.get(i).aggregationMethod, columns.get(i).percentile, columns.get(i).precision);
+        }
+        return aggregators;
+    }
+
+    /**
+     * Splits data at line feeds into chunks, aggregates chunks on fork join pool and merges partial aggregates
+     *
+     * @param buffer
+     * @param delimiter
+     * @param start position of first record
+     * @param columns columns in ascending order of indexes
+     * @return aggregators of columns or null if chunks do not end at record boundaries (line feeds in quoted fields)
+     * or aggregation failed, data has to be aggregated sequentially then
+     */
+    private CsvAggregator[] aggregateParallel(ByteBuffer buffer, String delimiter, int start,
+                                              List<ColumnAggregation> columns) {
+        // several chunks per thread for balancing load, chunks not smaller than minimum size
+        long size = buffer.limit() - start;
+        int chunkCount = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, size / MIN_CHUNK_SIZE));
+        List<Integer> starts = new ArrayList<>();
+        starts.add(start);
+        for (int i = 1; i < chunkCount; i++) {
+            int chunkStart = CsvScanner.findRecordStart(buffer, (int) (start + size * i / chunkCount));
+            if (chunkStart > starts.get(starts.size() - 1) && chunkStart < buffer.limit()) {
+                starts.add(chunkStart);
+            }
+        }
+        starts.add(buffer.limit());
+        logger.info("Aggregating " + size + " bytes in " + (starts.size() - 1) + " chunks");
+        try {
+            Chunk chunk = pool.invoke(new ChunkTask(buffer, delimiter, columns, starts, 0, starts.size() - 1));
+            if (!chunk.aligned) {
+                logger.info("Chunks do not end at record boundaries, aggregating sequentially");
+                return null;
+            }
+            return chunk.aggregators;
+        } catch (RuntimeException e) {
+            // errors are reported by sequential aggregation, chunks may have started inside quoted fields
+            logger.info("Parallel aggregation failed, aggregating sequentially: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Outcome of a measurement: value or error
+     */
+    public static final class Outcome {
+
+        private final BigDecimal value;
+        private final String error;
+
+        /**
+         *
+         * @param value
+         * @param error
+         */
+        Outcome(BigDecimal value, String error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * Returns value or null if measurement failed
+         *
+         * @return
+         */
+        public BigDecimal getValue() {
+            return value;
+        }
+
+        /**
+         * Returns error or null if measurement succeeded
+         *
+         * @return
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns new result with value
+         *
+         * @return
+         * @throws FileException if measurement failed
+         */
+        public Result toResult() throws FileException {
+            if (error != null) {
+                throw new FileException(error);
+            }
+            return new Result(value);
+        }
+    }
+
+    /**
+     * Aggregation of a column specified by attributes of a measurement
+     */
+    private static class ColumnAggregation {
+
+        private final int index;
+        private final boolean header;
+        private final String columnName;
+        private int columnIndex;
+        private final String delimiter;
+        private final CsvAggregationMethod aggregationMethod;
+        private final BigDecimal percentile;
+        private final int precision;
+        private String filterColumnName = "";
+        private int filterColumnIndex = -1;
+        private CsvFilter filter = null;
+        private CsvAggregator aggregator = null;
+        private BigDecimal value = null;
+        private String error = null;
+
+        /**
+         *
+         * @param index position of attributes in list of measurements
+         * @param header
+         * @param columnName
+         * @param columnIndex
+         * @param delimiter literal delimiter
+         * @param aggregationMethod
+         * @param percentile
+         * @param precision precision of HyperLogLog sketch for distinct counting
+         */
+        ColumnAggregation(int index, boolean header, String columnName, int columnIndex, String delimiter,
+                          CsvAggregationMethod aggregationMethod, BigDecimal percentile, int precision) {
+            this.index = index;
+            this.header = header;
+            this.columnName = columnName;
+            this.columnIndex = columnIndex;
+            this.delimiter = delimiter;
+            this.aggregationMethod = aggregationMethod;
+            this.percentile = percentile;
+            this.precision = precision;
+        }
+
+        /**
+         * Returns outcome of aggregation
+         *
+         * @return
+         */
+        Outcome getOutcome() {
+            // aggregated from columnar file
+            if (value != null) {
+                return new Outcome(value, null);
+            }
+            if (error != null) {
+                return new Outcome(null, error);
+            }
+            // check if column contains values
+            if (aggregator == null || aggregator.getCount() == 0) {
+                return new Outcome(null, "No data found");
+            }
+            // aggregate column to result using specified aggregation method
+            try {
+                return new Outcome(aggregator.getResult(), null);
+            } catch (Exception e) {
+                return new Outcome(null, "Error during aggregation: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Partial aggregates of consecutive chunks
+     */
+    private static class Chunk {
+
+        private final CsvAggregator[] aggregators;
+        private final int start;
+        private final int end;
+        private final boolean aligned;
+
+        /**
+         *
+         * @param aggregators aggregators of columns
+         * @param start position of first record
+         * @param end position behind last record
+         * @param aligned if every chunk started where the previous chunk ended
+         */
+        Chunk(CsvAggregator[] aggregators, int start, int end, boolean aligned) {
+            this.aggregators = aggregators;
+            this.start = start;
+            this.end = end;
+            this.aligned = aligned;
+        }
+    }
+
+    /**
+     * Fork join task aggregating a range of chunks: splits range in halves and merges partial aggregates
+     */
+    private class ChunkTask extends RecursiveTask<Chunk> {
+
+        private final ByteBuffer buffer;
+        private final String delimiter;
+        private final List<ColumnAggregation> columns;
+        private final List<Integer> starts;
+        private final int from;
+        private final int to;
+
+        /**
+         *
+         * @param buffer
+         * @param delimiter
+         * @param columns columns in ascending order of indexes
+         * @param starts start positions of chunks followed by end of data
+         * @param from first chunk, inclusive
+         * @param to last chunk, exclusive
+         */
+        ChunkTask(ByteBuffer buffer, String delimiter, List<ColumnAggregation> columns, List<Integer> starts, int from,
+                  int to) {
+            this.buffer = buffer;
+            this.delimiter = delimiter;
+            this.columns = columns;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Chunk compute() {
+            if (to - from == 1) {
+                // scan records starting within chunk, absolute reads on buffer are safe across threads
+                ByteBuffer chunkBuffer = buffer.duplicate();
+                chunkBuffer.position(starts.get(from));
+                CsvScanner scanner = new CsvScanner(chunkBuffer, delimiter, starts.get(to));
+                CsvAggregator[] aggregators = createAggregators(columns);
+                String[] errors = new String[aggregators.length];
+                aggregate(scanner, columns, aggregators, errors);
+                for (String error : errors) {
+                    if (error != null) {
+                        throw new IllegalStateException(error);
                     }
-                    yield new Result(median);
-            };
-        } catch (Exception e) {
-            logger.info("Error during aggregation: " + e.getMessage());
-            throw new FileException("Error during aggregation: " + e.getMessage());
+                }
+                return new Chunk(aggregators, starts.get(from), scanner.getPosition(), true);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(buffer, delimiter, columns, starts, from, middle);
+            ChunkTask right = new ChunkTask(buffer, delimiter, columns, starts, middle, to);
+            left.fork();
+            Chunk rightChunk = right.compute();
+            Chunk leftChunk = left.join();
+            for (int i = 0; i < leftChunk.aggregators.length; i++) {
+                leftChunk.aggregators[i].merge(rightChunk.aggregators[i]);
+            }
+            // left part must end exactly where right part starts, otherwise a chunk started inside a quoted field
+            return new Chunk(leftChunk.aggregators, leftChunk.start, rightChunk.end,
+                    leftChunk.aligned && rightChunk.aligned && leftChunk.end == rightChunk.start);
         }
+    }
 
-        // return result
-        return result;
+    /**
+     * Returns delimiter as literal, escaped characters of former regular expression delimiters like \t or \| are
+     * converted to the character
+     *
+     * @param delimiter
+     * @return
+     */
+    static String getLiteralDelimiter(String delimiter) {
+        if (delimiter.equals("\\t")) {
+            return "\t";
+        }
+        if (delimiter.length() == 2 && delimiter.charAt(0) == '\\') {
+            return delimiter.substring(1);
+        }
+        return delimiter;
     }
 }
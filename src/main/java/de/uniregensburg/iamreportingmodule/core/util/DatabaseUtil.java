@@ -1,18 +1,28 @@
 package de.uniregensburg.iamreportingmodule.core.util;
 
 import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
 import de.uniregensburg.iamreportingmodule.data.entity.DatabaseDataSource;
 import de.uniregensburg.iamreportingmodule.data.entity.Dbms;
 import de.uniregensburg.iamreportingmodule.data.entity.Result;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.math.BigDecimal;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
  * Utility to execute database queries
+ * Connections are taken from a connection pool if one is provided, otherwise a new connection is opened. Connections
+ * are closed after each query, which returns pooled connections to their pool. Several single statement queries can be
+ * executed in one round-trip. Queries are cancelled after the query timeout or by calling cancel from another thread.
+ * Queries returning rows instead of a single value can be aggregated client side with the aggregation methods of csv
+ * measurements, rows are fetched in batches with a cursor.
  *
  * @author Julian Bauer
  */
@@ -20,13 +30,28 @@ public class DatabaseUtil {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final DatabaseDataSource databaseDataSource;
+    private final DataSource connections;
+    private final int queryTimeout;
+    private volatile Statement statement;
 
     /**
      *
      * @param databaseDataSource
      */
     public DatabaseUtil(DatabaseDataSource databaseDataSource) {
+        this(databaseDataSource, null, 0);
+    }
+
+    /**
+     *
+     * @param databaseDataSource
+     * @param connections connection pool of datasource or null for opening new connections
+     * @param queryTimeout time in seconds after which queries are cancelled, 0 for no timeout
+     */
+    public DatabaseUtil(DatabaseDataSource databaseDataSource, DataSource connections, int queryTimeout) {
         this.databaseDataSource = databaseDataSource;
+        this.connections = connections;
+        this.queryTimeout = queryTimeout;
     }
 
     /**
@@ -66,30 +91,43 @@ public class DatabaseUtil {
      * @throws SQLException
      */
     public Connection getConnection() throws SQLException {
+        // borrow connection from pool
+        if (connections != null) {
+            return connections.getConnection();
+        }
         // get and return database connection by dbms type
+        String url = getUrl();
+        Properties props = getProperties();
+        logger.info("Returning connection url " + url + " and properties username " + databaseDataSource.getUsername()
+                + " and password ******* (not logged)");
+        return DriverManager.getConnection(url, props);
+    }
+
+    /**
+     * Returns jdbc connection url of datasource: host, port and database
+     *
+     * @return
+     * @throws SQLException if dbms type is not supported
+     */
+    public String getUrl() throws SQLException {
         if (databaseDataSource.getDbmsType().equals(Dbms.POSTGRESQL)) {
-            return getPostgresqlConnection();
-        } else {
-            logger.info("Method not implemented yet for " + databaseDataSource.getDbmsType());
-            return null; // not implemented yet
+            // setup jdbc postgresql connection url: host, port and database
+            return "jdbc:" +
+                    "postgresql://" +
+                    databaseDataSource.getHost() +
+                    ":" + databaseDataSource.getPort() +
+                    "/" + databaseDataSource.getDatabase();
         }
+        logger.info("Method not implemented yet for " + databaseDataSource.getDbmsType());
+        throw new SQLException("Database management system " + databaseDataSource.getDbmsType() + " not supported yet");
     }
 
     /**
-     * Returns postgresql database connection
+     * Returns connection properties of datasource: username and password
      *
      * @return
-     * @throws SQLException
      */
-    private Connection getPostgresqlConnection() throws SQLException {
-        // setup jdbc postgresql connection url: host, port and database
-        String url = "jdbc:" +
-                "postgresql://" +
-                databaseDataSource.getHost() +
-                ":" + databaseDataSource.getPort() +
-                "/" + databaseDataSource.getDatabase();
-
-        // append credentials: username and password
+    public Properties getProperties() {
         Properties props = new Properties();
         if (!databaseDataSource.getUsername().isEmpty()) {
             props.setProperty("user", databaseDataSource.getUsername());
@@ -97,12 +135,7 @@ public class DatabaseUtil {
         if (!databaseDataSource.getPassword().isEmpty()) {
             props.setProperty("password", databaseDataSource.getPassword());
         }
-
-        logger.info("Returning connection url " + url + " and properties username " + databaseDataSource.getUsername()
-                + " and password ******* (not logged)");
-
-        // return postgresql connection
-        return DriverManager.getConnection(url, props);
+        return props;
     }
 
     /**
@@ -114,10 +147,10 @@ public class DatabaseUtil {
      */
     public Result measure(String query) throws DatabaseException {
         logger.info("Executing query " + query);
-        // open connection
-        try (Statement stmt = getConnection().createStatement()) {
-            // execute query
-            ResultSet rs = stmt.executeQuery(query);
+        // open connection, closing it returns pooled connections to their pool
+        try (Connection conn = getConnection();
+             Statement stmt = createStatement(conn);
+             ResultSet rs = stmt.executeQuery(query)) {
             // get value
             rs.next();
             BigDecimal value = rs.getBigDecimal(1);
@@ -127,7 +160,205 @@ public class DatabaseUtil {
         } catch (SQLException e) {
             logger.info(e.toString());
             throw new DatabaseException(e.getMessage());
+        } finally {
+            statement = null;
+        }
+    }
+
+    /**
+     * Returns measurement result of aggregating first column of all rows returned by sql query
+     * Rows are streamed with a cursor in batches of fetch size, so only aggregators buffering values (median and
+     * percentile) need memory growing with the number of rows. Null values are skipped like in sql aggregate functions.
+     *
+     * @param query
+     * @param aggregator
+     * @param fetchSize number of rows fetched per round-trip
+     * @return
+     * @throws DatabaseException if query fails, a value is not a number or query returns no values
+     */
+    public Result measure(String query, CsvAggregator aggregator, int fetchSize) throws DatabaseException {
+        logger.info("Executing query " + query + " with client side aggregation");
+        try (Connection conn = getConnection()) {
+            // postgresql uses a cursor only for fetch size within a transaction
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (Statement stmt = createStatement(conn)) {
+                stmt.setFetchSize(fetchSize);
+                try (ResultSet rs = stmt.executeQuery(query)) {
+                    while (rs.next()) {
+                        String value = rs.getString(1);
+                        if (value != null) {
+                            aggregator.add(value);
+                        }
+                    }
+                }
+                conn.commit();
+            } finally {
+                statement = null;
+                conn.setAutoCommit(autoCommit);
+            }
+            logger.info("Aggregated " + aggregator.getCount() + " values");
+            BigDecimal value = aggregator.getResult();
+            if (value == null) {
+                logger.info("No values returned");
+                throw new DatabaseException("No values returned");
+            }
+            logger.info("Query result: " + value);
+            return new Result(value);
+        } catch (NumberFormatException e) {
+            logger.info("Cannot convert value to number: " + e.getMessage());
+            throw new DatabaseException("Cannot convert value to number: " + e.getMessage());
+        } catch (SQLException e) {
+            logger.info(e.toString());
+            throw new DatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns aggregator for client side aggregation specified by attributes aggregation method (sqlAggregationMethod),
+     * percentile (sqlPercentile) and distinct precision (sqlDistinctPrecision)
+     *
+     * @param attributes attributes of measurement
+     * @return aggregator or null if measurement has no aggregation method
+     * @throws DatabaseException if attributes are invalid
+     */
+    public static CsvAggregator getAggregator(Map<String, String> attributes) throws DatabaseException {
+        // aggregation is optional
+        if (attributes.get("sqlAggregationMethod") == null) {
+            return null;
+        }
+        try {
+            CsvAggregationMethod aggregationMethod = CsvAggregationMethod.valueOf(attributes.get("sqlAggregationMethod"));
+            // get percentile
+            BigDecimal percentile = null;
+            if (CsvAggregator.isPercentile(aggregationMethod)) {
+                if (attributes.get("sqlPercentile") == null) {
+                    throw new DatabaseException("No percentile attribute provided");
+                }
+                percentile = new BigDecimal(attributes.get("sqlPercentile"));
+            }
+            // get precision of distinct counting, optional
+            int precision = HyperLogLog.DEFAULT_PRECISION;
+            if (CsvAggregationMethod.COUNT_DISTINCT.equals(aggregationMethod) && attributes.get("sqlDistinctPrecision") != null) {
+                precision = Integer.parseInt(attributes.get("sqlDistinctPrecision"));
+            }
+            return new CsvAggregator(aggregationMethod, percentile, precision);
+        } catch (IllegalArgumentException e) {
+            // includes number format exceptions
+            throw new DatabaseException("Invalid aggregation attributes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns measurement values of executing sql queries in one round-trip
+     * Queries are sent as one multi-statement string, the value of each query is the first column of its first row.
+     *
+     * @param queries single statement queries, see isBatchable
+     * @return values in order of queries
+     * @throws DatabaseException if any query fails or does not return a result set
+     */
+    public List<BigDecimal> measureAll(List<String> queries) throws DatabaseException {
+        // newline before separator ends trailing line comments
+        StringBuilder sql = new StringBuilder();
+        for (String query : queries) {
+            if (sql.length() > 0) {
+                sql.append("\n;\n");
+            }
+            sql.append(stripSemicolons(query));
+        }
+        logger.info("Executing " + queries.size() + " queries in one round-trip");
+        try (Connection conn = getConnection();
+             Statement stmt = createStatement(conn)) {
+            List<BigDecimal> values = new ArrayList<>(queries.size());
+            boolean resultSet = stmt.execute(sql.toString());
+            while (resultSet || stmt.getUpdateCount() != -1) {
+                if (resultSet) {
+                    try (ResultSet rs = stmt.getResultSet()) {
+                        // get value
+                        rs.next();
+                        values.add(rs.getBigDecimal(1));
+                    }
+                } else {
+                    // statements without result set cannot be assigned to queries
+                    throw new DatabaseException("Query without result");
+                }
+                resultSet = stmt.getMoreResults();
+            }
+            if (values.size() != queries.size()) {
+                throw new DatabaseException(values.size() + " results for " + queries.size() + " queries");
+            }
+            logger.info("Query results: " + values);
+            return values;
+        } catch (SQLException e) {
+            logger.info(e.toString());
+            throw new DatabaseException(e.getMessage());
+        } finally {
+            statement = null;
+        }
+    }
+
+    /**
+     * Creates statement with query timeout, which can be cancelled while executing
+     * Threads interrupted before the statement could be cancelled do not execute it.
+     *
+     * @param conn
+     * @return
+     * @throws SQLException if thread is interrupted
+     */
+    private Statement createStatement(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        if (queryTimeout > 0) {
+            stmt.setQueryTimeout(queryTimeout);
+        }
+        statement = stmt;
+        // cancel finds statement from now on
+        if (Thread.currentThread().isInterrupted()) {
+            stmt.close();
+            logger.info("Query cancelled before execution");
+            throw new SQLException("Query cancelled");
+        }
+        return stmt;
+    }
+
+    /**
+     * Cancels executing query, e.g. when measurement job is interrupted
+     */
+    public void cancel() {
+        Statement stmt = statement;
+        if (stmt == null) {
+            return;
+        }
+        logger.info("Cancelling query");
+        try {
+            stmt.cancel();
+        } catch (SQLException e) {
+            logger.info("Cancelling failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks if query consists of a single statement and can be executed together with other queries
+     *
+     * @param query
+     * @return
+     */
+    public static boolean isBatchable(String query) {
+        // semicolons within query may separate statements, but also occur in literals, both are executed separately
+        return query != null && !query.isBlank() && stripSemicolons(query).indexOf(';') < 0;
+    }
+
+    /**
+     * Removes trailing whitespace and semicolons of query
+     *
+     * @param query
+     * @return
+     */
+    private static String stripSemicolons(String query) {
+        int end = query.length();
+        while (end > 0 && (query.charAt(end - 1) == ';' || Character.isWhitespace(query.charAt(end - 1)))) {
+            end--;
         }
+        return query.substring(0, end);
     }
 
 }
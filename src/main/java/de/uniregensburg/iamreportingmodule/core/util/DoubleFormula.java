@@ -0,0 +1,167 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.math.BigDecimal;
+
+import static de.uniregensburg.iamreportingmodule.core.util.SlotExpression.*;
+
+/**
+ * Formula compiled to a postfix program over primitive doubles, see {@link SlotExpression} for supported syntax
+ * Evaluation propagates a forward error bound and returns NaN if the result is not finite or the bound exceeds
+ * half a unit of the last decimal place stored in results (scale 10), callers then fall back to BigDecimal.
+ *
+ * @author Julian Bauer
+ */
+public class DoubleFormula {
+
+    /**
+     * Maximum absolute error: half a unit of the last decimal place of DECIMAL(20,10)
+     */
+    public static final double TOLERANCE = 0.5e-10;
+
+    private final int[] operations;
+    private final int[] slots;
+    private final double[] constants;
+    private final double[] constantErrors;
+    private final int slotCount;
+    private final int maxDepth;
+
+    /**
+     *
+     * @param operations
+     * @param slots slot index of SLOT operations
+     * @param constants value of CONSTANT operations
+     * @param constantErrors conversion error of CONSTANT operations
+     * @param slotCount
+     * @param maxDepth maximum depth of stack
+     */
+    private DoubleFormula(int[] operations, int[] slots, double[] constants, double[] constantErrors, int slotCount, int maxDepth) {
+        this.operations = operations;
+        this.slots = slots;
+        this.constants = constants;
+        this.constantErrors = constantErrors;
+        this.slotCount = slotCount;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Compiles expression with slots slot0 ... slotN
+     *
+     * @param expression
+     * @param slotCount
+     * @return compiled formula or null if expression uses unsupported operators or functions
+     */
+    public static DoubleFormula compile(String expression, int slotCount) {
+        SlotExpression parsed = SlotExpression.parse(expression, slotCount);
+        if (parsed == null) {
+            return null;
+        }
+        int[] operations = new int[parsed.size()];
+        int[] slots = new int[parsed.size()];
+        double[] constants = new double[parsed.size()];
+        double[] constantErrors = new double[parsed.size()];
+        for (int i = 0; i < parsed.size(); i++) {
+            operations[i] = parsed.getOperation(i);
+            slots[i] = parsed.getSlot(i);
+            if (operations[i] == CONSTANT) {
+                BigDecimal exact = parsed.getConstant(i);
+                double value = exact.doubleValue();
+                constants[i] = value;
+                // error of literal is zero if exactly representable
+                constantErrors[i] = Double.isFinite(value) && new BigDecimal(value).compareTo(exact) == 0 ? 0 : Math.ulp(value) * 0.5;
+            }
+        }
+        return new DoubleFormula(operations, slots, constants, constantErrors, slotCount, parsed.getMaxDepth());
+    }
+
+    /**
+     * Returns number of slots
+     *
+     * @return
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Evaluates formula
+     *
+     * @param values values of slots
+     * @return result or NaN if result is not finite or not precise enough
+     */
+    public double evaluate(double[] values) {
+        double[] stack = new double[maxDepth];
+        double[] errors = new double[maxDepth];
+        int top = -1;
+        for (int i = 0; i < operations.length; i++) {
+            switch (operations[i]) {
+                case CONSTANT -> {
+                    top++;
+                    stack[top] = constants[i];
+                    errors[top] = constantErrors[i];
+                }
+                case SLOT -> {
+                    top++;
+                    stack[top] = values[slots[i]];
+                    // conversion of input to double
+                    errors[top] = Math.ulp(stack[top]) * 0.5;
+                }
+                case NEGATE -> stack[top] = -stack[top];
+                case ABS -> stack[top] = Math.abs(stack[top]);
+                case SQRT -> {
+                    double a = stack[top];
+                    double ea = errors[top];
+                    double r = Math.sqrt(a);
+                    // |sqrt(x) - sqrt(y)| = |x - y| / (sqrt(x) + sqrt(y))
+                    double denominator = r + Math.sqrt(Math.max(0, a - ea));
+                    stack[top] = r;
+                    errors[top] = (denominator > 0 ? ea / denominator : Math.sqrt(ea)) + Math.ulp(r) * 0.5;
+                }
+                default -> {
+                    double b = stack[top];
+                    double eb = errors[top];
+                    top--;
+                    double a = stack[top];
+                    double ea = errors[top];
+                    double r;
+                    double e;
+                    switch (operations[i]) {
+                        case ADD -> {
+                            r = a + b;
+                            e = ea + eb;
+                        }
+                        case SUBTRACT -> {
+                            r = a - b;
+                            e = ea + eb;
+                        }
+                        case MULTIPLY -> {
+                            r = a * b;
+                            e = Math.abs(a) * eb + Math.abs(b) * ea + ea * eb;
+                        }
+                        case DIVIDE -> {
+                            r = a / b;
+                            // divisor may be zero within its error
+                            e = Math.abs(b) > eb ? (ea + Math.abs(r) * eb) / (Math.abs(b) - eb) : Double.POSITIVE_INFINITY;
+                        }
+                        case MIN -> {
+                            r = Math.min(a, b);
+                            e = Math.max(ea, eb);
+                        }
+                        case MAX -> {
+                            r = Math.max(a, b);
+                            e = Math.max(ea, eb);
+                        }
+                        default -> throw new IllegalStateException("Unknown operation " + operations[i]);
+                    }
+                    // rounding of result
+                    stack[top] = r;
+                    errors[top] = e + Math.ulp(r) * 0.5;
+                }
+            }
+        }
+        double result = stack[0];
+        if (!Double.isFinite(result) || !(errors[0] <= TOLERANCE)) {
+            return Double.NaN;
+        }
+        return result;
+    }
+}
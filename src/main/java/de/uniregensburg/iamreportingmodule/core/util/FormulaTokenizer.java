@@ -0,0 +1,198 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Tokenizer of formulas: finds all variables {{label}} of a formula in a single pass
+ * and validates braces and labels on the way
+ * Variables passed to a window function with a duration, e.g. avg({{failedLogins}}, 7d), span the whole call
+ *
+ * @author Julian Bauer
+ */
+public class FormulaTokenizer {
+
+    private static final Pattern LOWER_CAMEL_CASE = Pattern.compile("[a-z]+((\\d)|([A-Z0-9][a-z0-9]+))*([A-Z])?");
+
+    private FormulaTokenizer() {}
+
+    /**
+     * Tokenizes formula: returns spans and labels of all variables
+     * If braces are not set correctly, no variables are returned
+     *
+     * @param formula
+     * @return
+     * @throws FormulaException if a label does not match lower camel case
+     */
+    public static TokenizedFormula tokenize(String formula) throws FormulaException {
+        int length = formula.length();
+        // variables need at least four characters, start with capacity for a few of them
+        int[] starts = new int[Math.min(8, length / 4 + 1)];
+        int[] ends = new int[starts.length];
+        int count = 0;
+        int variableStart = -1;
+        // state of brace validation
+        int openBraces = 0;
+        char lastChar = Character.MIN_VALUE;
+        for (int i = 0; i < length; i++) {
+            char c = formula.charAt(i);
+            // if not first round
+            if (lastChar != Character.MIN_VALUE) {
+                // first opening brace not followed by second opening brace
+                if (lastChar == '{' && openBraces < 2 && c != '{') {
+                    return invalidBraces(formula);
+                }
+                // first closing brace not followed by second closing brace
+                if (lastChar == '}' && openBraces > 0 && c != '}') {
+                    return invalidBraces(formula);
+                }
+            }
+            if (c == '{') {
+                // more than 2 braces opened
+                if (openBraces > 2) {
+                    return invalidBraces(formula);
+                }
+                openBraces++;
+                // start of variable
+                if (lastChar == '{' && variableStart == -1) {
+                    variableStart = i - 1;
+                }
+            } else if (c == '}') {
+                // no opened brace
+                if (openBraces < 1) {
+                    return invalidBraces(formula);
+                }
+                openBraces--;
+                // end of variable
+                if (lastChar == '}' && variableStart != -1) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                        ends = Arrays.copyOf(ends, count * 2);
+                    }
+                    starts[count] = variableStart;
+                    ends[count] = i + 1;
+                    count++;
+                    variableStart = -1;
+                }
+            }
+            lastChar = c;
+        }
+        // check if all braces are closed
+        if (openBraces != 0) {
+            return invalidBraces(formula);
+        }
+
+        // extract and check labels
+        String[] labels = new String[count];
+        FormulaWindow[] windows = new FormulaWindow[count];
+        for (int i = 0; i < count; i++) {
+            String label = formula.substring(starts[i] + 2, ends[i] - 2);
+            if (!LOWER_CAMEL_CASE.matcher(label).matches()) {
+                throw new FormulaException("Variable does not match lower camel case");
+            }
+            labels[i] = label;
+            // extend span of variable to window function call
+            windows[i] = tokenizeWindow(formula, label, starts, ends, i);
+        }
+        return new TokenizedFormula(formula, true, labels, windows, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * Returns tokenized formula with invalid braces
+     *
+     * @param formula
+     * @return
+     */
+    private static TokenizedFormula invalidBraces(String formula) {
+        return new TokenizedFormula(formula, false, new String[0], new FormulaWindow[0], new int[0], new int[0]);
+    }
+
+    /**
+     * Checks if variable is the first argument of a window function followed by a duration, e.g. avg({{x}}, 7d)
+     * If so, span of variable is extended to the whole call
+     *
+     * @param formula
+     * @param label
+     * @param starts
+     * @param ends
+     * @param index index of variable
+     * @return window or null if variable is not argument of a window function
+     */
+    private static FormulaWindow tokenizeWindow(String formula, String label, int[] starts, int[] ends, int index) {
+        // backwards: optional whitespace, opening parenthesis, optional whitespace, name of function
+        int position = skipWhitespaceBackwards(formula, starts[index] - 1);
+        if (position < 0 || formula.charAt(position) != '(') {
+            return null;
+        }
+        int nameEnd = skipWhitespaceBackwards(formula, position - 1) + 1;
+        int nameStart = nameEnd;
+        while (nameStart > 0 && Character.isLetter(formula.charAt(nameStart - 1))) {
+            nameStart--;
+        }
+        WindowFunction function = null;
+        for (WindowFunction candidate : WindowFunction.values()) {
+            if (candidate.name().equalsIgnoreCase(formula.substring(nameStart, nameEnd))) {
+                function = candidate;
+            }
+        }
+        if (function == null) {
+            return null;
+        }
+
+        // forwards: comma, duration with unit, closing parenthesis
+        position = skipWhitespace(formula, ends[index]);
+        if (position >= formula.length() || formula.charAt(position) != ',') {
+            return null;
+        }
+        position = skipWhitespace(formula, position + 1);
+        int numberStart = position;
+        while (position < formula.length() && Character.isDigit(formula.charAt(position))) {
+            position++;
+        }
+        if (position == numberStart || position >= formula.length()) {
+            return null;
+        }
+        long unit = switch (formula.charAt(position)) {
+            case 's' -> 1;
+            case 'm' -> 60;
+            case 'h' -> 3600;
+            case 'd' -> 86400;
+            case 'w' -> 604800;
+            default -> 0;
+        };
+        if (unit == 0) {
+            return null;
+        }
+        long amount;
+        try {
+            amount = Long.parseLong(formula.substring(numberStart, position));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        position = skipWhitespace(formula, position + 1);
+        if (position >= formula.length() || formula.charAt(position) != ')' || amount <= 0) {
+            return null;
+        }
+
+        // window found, extend span
+        starts[index] = nameStart;
+        ends[index] = position + 1;
+        return new FormulaWindow(function, label, amount * unit);
+    }
+
+    private static int skipWhitespace(String formula, int position) {
+        while (position < formula.length() && Character.isWhitespace(formula.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipWhitespaceBackwards(String formula, int position) {
+        while (position >= 0 && Character.isWhitespace(formula.charAt(position))) {
+            position--;
+        }
+        return position;
+    }
+}
@@ -5,15 +5,20 @@ import com.ezylang.evalex.Expression;
 import com.ezylang.evalex.data.EvaluationValue;
 import com.ezylang.evalex.parser.ParseException;
 import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.service.FormulaCacheService;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
+import de.uniregensburg.iamreportingmodule.data.entity.EvaluationMode;
+import de.uniregensburg.iamreportingmodule.data.entity.Formula;
 import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
 import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultStatistics;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
 
 /**
  * Utility to validate and calculate formulas
@@ -24,224 +29,238 @@ public class FormulaUtil {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final MeasurableService service;
+    private final FormulaCacheService cacheService;
 
     /**
      *
      * @param service
      */
     public FormulaUtil(MeasurableService service) {
+        this(service, null);
+    }
+
+    /**
+     *
+     * @param service
+     * @param cacheService cache of compiled formulas, may be null
+     */
+    public FormulaUtil(MeasurableService service, FormulaCacheService cacheService) {
         this.service = service;
+        this.cacheService = cacheService;
     }
 
     /**
-     * Calculates results based on formula
+     * Calculates result of persisted formula using the compiled formula cache
      *
      * @param formula
      * @return
      * @throws FormulaException
      */
-    public Result calculate(String formula) throws FormulaException {
-        logger.info("Calculating " + formula);
-        // replace variables with values
-        formula = replaceVariablesWithMeasurableValues(formula);
-        // evaluate formula
-        Expression expression = new Expression(formula);
-        try {
-            EvaluationValue value = expression.evaluate();
-            logger.info("Evaluation value: " + value.getNumberValue());
-            // return result
-            return new Result(value.getNumberValue());
-        } catch (EvaluationException | ParseException e) {
-            logger.info("Failed to calculate: " + e.getMessage());
-            throw new FormulaException(e.getMessage());
+    public Result calculate(Formula formula) throws FormulaException {
+        logger.info("Calculating " + formula.getFormula());
+        // get compiled formula, from cache if possible
+        CompiledFormula compiledFormula;
+        if (cacheService != null && formula.getId() != null) {
+            compiledFormula = cacheService.getCompiledFormula(formula, this);
+        } else {
+            compiledFormula = compile(formula.getFormula());
+        }
+        // bind latest values and window values of measurables and evaluate depending on evaluation mode of metric
+        Map<String, BigDecimal> values = getValues(compiledFormula.getLabels(), compiledFormula.getWindows());
+        BigDecimal value;
+        if (formula.getMetric() != null && EvaluationMode.FAST.equals(formula.getMetric().getEvaluationMode())) {
+            value = compiledFormula.evaluateFast(values);
+        } else {
+            value = compiledFormula.evaluate(values);
         }
+        logger.info("Evaluation value: " + value);
+        // return result
+        return new Result(value);
     }
 
     /**
-     * Validates braces of formula:
-     * variables are composed of two opening braces {{,
-     * the label of the measurable
-     * and two closing braces }}
+     * Compiles formula: variables are replaced by slots and the expression is parsed once
      *
      * @param formula
      * @return
+     * @throws FormulaException
      */
-    public boolean validateBraces(String formula) {
-        logger.info("Validating brackets of formula: " + formula);
-        // init counter
-        int openBraces = 0;
-        // init variable last character
-        char lastChar = Character.MIN_VALUE;
-        // iterate over all characters of the formula
-        for (char c : formula.toCharArray()) {
-            // if not first round
-            if (lastChar != Character.MIN_VALUE) {
-                // first opening brace not followed by second opening brace
-                if (lastChar == '{' && openBraces < 2 && c != '{') {
-                    logger.info("Error: Opening brace '{' not followed by second opening bracket '{'");
-                    return false;
+    public CompiledFormula compile(String formula) throws FormulaException {
+        logger.info("Compiling formula " + formula);
+        return CompiledFormula.compile(FormulaTokenizer.tokenize(formula));
+    }
+
+    /**
+     * Returns latest result values of measurables by label and values of window functions by key of window
+     * Measurables and their latest results are loaded with a constant number of queries regardless of number of labels,
+     * each window function needs one or two range scans
+     *
+     * @param labels
+     * @param windows
+     * @return
+     * @throws FormulaException
+     */
+    private Map<String, BigDecimal> getValues(Set<String> labels, Set<FormulaWindow> windows) throws FormulaException {
+        Map<String, BigDecimal> values = new HashMap<>();
+        // find measurables by labels, in theory only one measurable per label because a label is unique
+        Map<String, Measurable> measurables = getMeasurablesByLabel(labels);
+        // get the latest results of all measurables
+        Map<UUID, ResultValue> results = service.findLatestResultsByMeasurables(measurables.values());
+        for (String label : labels) {
+            Measurable measurable = measurables.get(label);
+            ResultValue result = results.get(measurable.getId());
+            // check if result exists
+            if (result == null) {
+                throw new FormulaException("No results of " + measurable.getName() + " available for calculation");
+            }
+            values.put(label, result.getValue());
+        }
+        // calculate window functions
+        Date now = new Date();
+        for (FormulaWindow window : windows) {
+            Measurable measurable = measurables.get(window.getLabel());
+            values.put(window.getKey(), getWindowValue(window, measurable, results.get(measurable.getId()), now));
+        }
+        return values;
+    }
+
+    /**
+     * Returns value of window function over results of measurable
+     *
+     * @param window
+     * @param measurable
+     * @param latest latest result of measurable
+     * @param now end of window
+     * @return
+     * @throws FormulaException if no results within window
+     */
+    private BigDecimal getWindowValue(FormulaWindow window, Measurable measurable, ResultValue latest, Date now) throws FormulaException {
+        Date from = new Date(now.getTime() - window.getSeconds() * 1000);
+        switch (window.getFunction()) {
+            case DELTA, RATE -> {
+                // compare latest value with value at start of window, which has to be an earlier result
+                Result start = service.findResultByMeasurableAsOf(measurable, from);
+                if (start == null || !start.getPointInTime().before(latest.getPointInTime())) {
+                    throw new FormulaException("Not enough results of " + measurable.getName() + " for "
+                            + window.getFunction().name().toLowerCase());
                 }
-                // first closing brace not followed by second closing brace
-                if (lastChar == '}' && openBraces > 0 && c != '}') {
-                    logger.info("Error: Closing brace '}' not followed by second closing bracket '}'");
-                    return false;
+                BigDecimal delta = latest.getValue().subtract(start.getValue());
+                if (WindowFunction.DELTA.equals(window.getFunction())) {
+                    return delta;
                 }
-            }
-            // opening brace
-            if (c == '{') {
-                // more than 2 braces opened
-                if (openBraces > 2) {
-                    logger.info("Error: More than two opening brace '{");
-                    return false;
-                } else {
-                    // increment
-                    openBraces++;
+                long seconds = (latest.getPointInTime().getTime() - start.getPointInTime().getTime()) / 1000;
+                if (seconds <= 0) {
+                    throw new FormulaException("Not enough results of " + measurable.getName() + " for rate");
                 }
+                return delta.divide(BigDecimal.valueOf(seconds), MathContext.DECIMAL128);
             }
-            // closing brace
-            if (c == '}') {
-                // no opened brace
-                if (openBraces < 1) {
-                    logger.info("Error: Closing bracket '}' but no brace are opened'");
-                    return false;
-                } else {
-                    // decrement
-                    openBraces--;
+            default -> {
+                // aggregate results within window in database
+                ResultStatistics statistics = service.findResultStatisticsByMeasurableSince(measurable, from);
+                long count = statistics.getNumberOfResults() != null ? statistics.getNumberOfResults() : 0;
+                if (WindowFunction.COUNT.equals(window.getFunction())) {
+                    return BigDecimal.valueOf(count);
+                }
+                if (count == 0) {
+                    throw new FormulaException("No results of " + measurable.getName() + " within window");
                 }
+                return switch (window.getFunction()) {
+                    case AVG -> statistics.getSumOfValues().divide(BigDecimal.valueOf(count), MathContext.DECIMAL128);
+                    case MIN -> statistics.getMinimumValue();
+                    case MAX -> statistics.getMaximumValue();
+                    default -> statistics.getSumOfValues();
+                };
             }
-            // set last character
-            lastChar = c;
-        }
-        // iteration finished
-        // check if all braces are closed
-        if (openBraces != 0) {
-            logger.info("Not all brace closed");
-            return false;
         }
-        return true;
     }
 
     /**
-     * Replaces variables with the latest result of measurable
+     * Returns measurables by label, every label must reference a measurable
      *
-     * @param formula
+     * @param labels
      * @return
      * @throws FormulaException
      */
-    public String replaceVariablesWithMeasurableValues(String formula) throws FormulaException {
-        logger.info("Replacing variables of formula with measurable values");
-        logger.info("Formula: " + formula);
-        // check if formula contains a variable and braces are set correctly
-        if (validateBraces(formula) && containsVariable(formula)) {
-            // get label
-            String variable = getFirstVariable(formula);
-            // find measurables by label
-            List<Measurable> measurables = service.findAllMeasurablesByLabel(variable);
-            // check if measurable exists
-            if (measurables.isEmpty()) {
-                throw new FormulaException("No measurables found with label: " + variable);
-            }
-            // get first measurable, in theory only list should contain only one measurable because a label is unique
-            Measurable measurable = measurables.get(0);
-            // get the latest result of measurable
-            Result result = service.findLatestResultByMeasurable(measurable);
-            // check if result exists
-            if (result == null) {
-                throw new FormulaException("No results of " + measurable.getName() + " available for calculation");
+    private Map<String, Measurable> getMeasurablesByLabel(Set<String> labels) throws FormulaException {
+        Map<String, Measurable> measurables = new HashMap<>();
+        for (Measurable measurable : service.findAllMeasurablesByLabels(labels)) {
+            measurables.putIfAbsent(measurable.getLabel(), measurable);
+        }
+        // check if measurables exist
+        for (String label : labels) {
+            if (!measurables.containsKey(label)) {
+                throw new FormulaException("No measurables found with label: " + label);
             }
-
-            // replace variable with result value in formula
-            int start = getStartIndexOfFirstVariable(formula);
-            String substring = formula.substring(start + 2); // get substring after {{
-            int end = getEndIndexOfFirstVariable(substring);
-            String newFormula = formula.substring(0, start) + result.getValue() + substring.substring(end + 2);
-            // recursive method call with new formula
-            return replaceVariablesWithMeasurableValues(newFormula);
         }
-        // return formula with replaced variables by result values
-        return formula;
+        return measurables;
     }
 
     /**
-     * Returns first variable in formula
+     * Calculates results based on formula
      *
      * @param formula
      * @return
      * @throws FormulaException
      */
-    private String getFirstVariable(String formula) throws FormulaException {
-        logger.info("Get variable");
-        // check if a variable contains in formula
-        if (containsVariable(formula)) {
-            // get start and end index
-            int start = getStartIndexOfFirstVariable(formula);
-            int end = getEndIndexOfFirstVariable(formula);
-            // get variable substring
-            String variable = formula.substring(start + 2, end); // get variable name
-            logger.info("Variable: " + variable);
-            // return variable
-            return variable;
-        } else {
-            return null;
+    public Result calculate(String formula) throws FormulaException {
+        logger.info("Calculating " + formula);
+        // replace variables with values
+        formula = replaceVariablesWithMeasurableValues(formula);
+        // evaluate formula
+        Expression expression = new Expression(formula);
+        try {
+            EvaluationValue value = expression.evaluate();
+            logger.info("Evaluation value: " + value.getNumberValue());
+            // return result
+            return new Result(value.getNumberValue());
+        } catch (EvaluationException | ParseException e) {
+            logger.info("Failed to calculate: " + e.getMessage());
+            throw new FormulaException(e.getMessage());
         }
     }
 
     /**
-     * Returns start index of first variable in formula
+     * Validates braces of formula:
+     * variables are composed of two opening braces {{,
+     * the label of the measurable
+     * and two closing braces }}
      *
      * @param formula
      * @return
      */
-    private int getStartIndexOfFirstVariable(String formula) {
-        logger.info("Get index of start of variable");
-        int start = formula.indexOf("{{"); // get start index of variable
-        logger.info("Index of start: " + start);
-        return start;
+    public boolean validateBraces(String formula) {
+        logger.info("Validating brackets of formula: " + formula);
+        try {
+            return FormulaTokenizer.tokenize(formula).hasValidBraces();
+        } catch (FormulaException e) {
+            // braces are valid, but a label is not lower camel case
+            return true;
+        }
     }
 
     /**
-     * Returns end index of first variable in formula
+     * Replaces variables with the latest result of measurable
      *
      * @param formula
      * @return
+     * @throws FormulaException
      */
-    private int getEndIndexOfFirstVariable(String formula) {
-        logger.info("Get index of end of variable");
-        int end = formula.indexOf("}}"); // get end index of variable
-        logger.info("Index of end: " + end);
-        return end;
+    public String replaceVariablesWithMeasurableValues(String formula) throws FormulaException {
+        return replaceVariablesWithMeasurableValues(FormulaTokenizer.tokenize(formula));
     }
 
     /**
-     * Check if formula contains a variable
+     * Replaces variables of tokenized formula with the latest result of measurable
      *
-     * @param formula
+     * @param tokens
      * @return
      * @throws FormulaException
      */
-    private boolean containsVariable(String formula) throws FormulaException {
-        logger.info("Checking if formula contains variable");
-        int start = getStartIndexOfFirstVariable(formula);
-        if (start == -1)  { // variable start definition does not exist
-            logger.info("No variable start definition");
-            return false;
-        } else { // variable start definition exists
-            int end = getEndIndexOfFirstVariable(formula);
-            if (end == -1) { // variable end definition does not exist
-                logger.info("No variable end definition");
-                return false;
-            } else { // variable end definition exists
-                String variable = formula.substring(start + 2, end); // get variable name
-                String pattern = "[a-z]+((\\d)|([A-Z0-9][a-z0-9]+))*([A-Z])?"; // regex expression for lower camel case
-                if (variable.matches(pattern)) { // variable name is lower camel case
-                    logger.info("Variable found");
-                    return true;
-                } else { // variable name not is lower camel case
-                    logger.info("Variable does not match lower camel case");
-                    throw new FormulaException("Variable does not match lower camel case");
-                }
-            }
-        }
+    public String replaceVariablesWithMeasurableValues(TokenizedFormula tokens) throws FormulaException {
+        logger.info("Replacing variables of formula with measurable values");
+        logger.info("Formula: " + tokens.getFormula());
+        // resolve latest values of all labels and window functions at once and replace variables in one pass
+        return tokens.replace(getValues(tokens.getLabels(), tokens.getWindows()));
     }
 
     /**
@@ -252,30 +271,22 @@ public class FormulaUtil {
      * @throws FormulaException
      */
     public Set<Measurable> getMeasurables(String formula) throws FormulaException {
-        Set<Measurable> measurables = new HashSet<>();
+        return getMeasurables(FormulaTokenizer.tokenize(formula));
+    }
+
+    /**
+     * Returns all measurables referenced by tokenized formula
+     *
+     * @param tokens
+     * @return
+     * @throws FormulaException
+     */
+    public Set<Measurable> getMeasurables(TokenizedFormula tokens) throws FormulaException {
         logger.info("Getting referenced measurables of formula");
-        logger.info("Formula: " + formula);
-        // while formula a variable and braces are set correctly
-        while (validateBraces(formula) && containsVariable(formula)) {
-            // get first variable
-            String variable = getFirstVariable(formula);
-            // find measurable by label / variable
-            List<Measurable> m = service.findAllMeasurablesByLabel(variable);
-            // check if measurable exists
-            if (m.isEmpty()) {
-                throw new FormulaException("No measurables found with label: " + variable);
-            }
-            // get first measurable, in theory only list should contain only one measurable because a label is unique
-            Measurable measurable = m.get(0);
-            // add measurable to set
-            measurables.add(measurable);
-            // shorten formula: new start index is after current variable
-            int start = getStartIndexOfFirstVariable(formula);
-            String substring = formula.substring(start + 2); // get substring after {{
-            int end = getEndIndexOfFirstVariable(substring);
-            formula = formula.substring(0, start) + 1 + substring.substring(end + 2);
-        }
+        logger.info("Formula: " + tokens.getFormula());
+        // find measurables of all variables at once
+        Map<String, Measurable> measurables = getMeasurablesByLabel(tokens.getLabels());
         // return all measurables
-        return measurables;
+        return new HashSet<>(measurables.values());
     }
 }
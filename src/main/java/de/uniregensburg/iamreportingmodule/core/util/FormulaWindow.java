@@ -0,0 +1,73 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+/**
+ * Window function applied to the result history of a measurable within a formula, e.g. avg({{failedLogins}}, 7d)
+ *
+ * @author Julian Bauer
+ */
+public class FormulaWindow {
+
+    private final WindowFunction function;
+    private final String label;
+    private final long seconds;
+    private final String key;
+
+    /**
+     *
+     * @param function
+     * @param label label of measurable
+     * @param seconds length of window in seconds
+     */
+    public FormulaWindow(WindowFunction function, String label, long seconds) {
+        this.function = function;
+        this.label = label;
+        this.seconds = seconds;
+        this.key = function.name().toLowerCase() + "({{" + label + "}}, " + seconds + "s)";
+    }
+
+    /**
+     * Returns window function
+     *
+     * @return
+     */
+    public WindowFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns label of measurable
+     *
+     * @return
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns length of window in seconds
+     *
+     * @return
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Returns normalized key of window, equal windows share one key
+     *
+     * @return
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FormulaWindow && key.equals(((FormulaWindow) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+}
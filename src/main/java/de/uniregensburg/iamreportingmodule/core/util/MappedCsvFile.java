@@ -0,0 +1,126 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Csv file memory-mapped in windows of complete records
+ * A single mapping is limited to 2 GB, so larger files are mapped window by window. A window is cut after the last
+ * line break outside of quotes, like chunks of stored files, so every window holds complete records and can be scanned
+ * on its own. A window is mapped when the previous window was returned.
+ *
+ * @author Julian Bauer
+ */
+public class MappedCsvFile implements Iterable<ByteBuffer> {
+
+    /**
+     * Default size of windows, records have to be shorter
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final Path path;
+    private final int windowSize;
+
+    /**
+     *
+     * @param path
+     */
+    public MappedCsvFile(Path path) {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     *
+     * @param path
+     * @param windowSize maximum size of windows in bytes
+     */
+    public MappedCsvFile(Path path, int windowSize) {
+        this.path = path;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns windows of file in order
+     *
+     * @return iterator throwing UncheckedIOException if file cannot be mapped or a record exceeds the window size
+     */
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        return new Iterator<>() {
+            private long position = 0;
+            private final long size = size();
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+                    if (position + window.limit() < size) {
+                        window.limit(findCut(window));
+                    }
+                    position += window.limit();
+                    return window;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns size of file
+     *
+     * @return size in bytes
+     * @throws UncheckedIOException
+     */
+    private long size() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns position after last line break outside of quotes in window starting at a record
+     *
+     * @param window
+     * @return position
+     * @throws IOException if window holds no line break outside of quotes
+     */
+    static int findCut(ByteBuffer window) throws IOException {
+        boolean quoted = false;
+        int cut = 0;
+        int limit = window.limit();
+        for (int i = 0; i < limit; i++) {
+            byte b = window.get(i);
+            if (b == QUOTE) {
+                // escaped quotes toggle twice
+                quoted = !quoted;
+            } else if (!quoted && (b == LF || b == CR && i + 1 < limit && window.get(i + 1) != LF)) {
+                cut = i + 1;
+            }
+        }
+        if (cut == 0) {
+            throw new IOException("Record exceeds window size of " + window.limit() + " bytes");
+        }
+        return cut;
+    }
+}
@@ -0,0 +1,171 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Formula compiled to a tree of method handles taking the values of all slots as BigDecimal array
+ * The JIT compiler can inline the whole tree, so evaluation has no interpretive overhead and needs no lock.
+ * Arithmetic uses the default math context of EvalEx (68 digits, HALF_EVEN), see {@link SlotExpression} for
+ * supported syntax.
+ *
+ * @author Julian Bauer
+ */
+public class MethodHandleFormula {
+
+    /**
+     * Default math context of EvalEx
+     */
+    static final MathContext MATH_CONTEXT = new MathContext(68, RoundingMode.HALF_EVEN);
+
+    private static final MethodType UNARY = MethodType.methodType(BigDecimal.class, BigDecimal.class);
+    private static final MethodType BINARY = MethodType.methodType(BigDecimal.class, BigDecimal.class, BigDecimal.class);
+    private static final MethodHandle ELEMENT = MethodHandles.arrayElementGetter(BigDecimal[].class);
+
+    private final MethodHandle handle;
+    private final int slotCount;
+
+    /**
+     *
+     * @param handle method handle of type (BigDecimal[])BigDecimal
+     * @param slotCount
+     */
+    private MethodHandleFormula(MethodHandle handle, int slotCount) {
+        this.handle = handle;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Compiles expression with slots slot0 ... slotN
+     *
+     * @param expression
+     * @param slotCount
+     * @return compiled formula or null if expression uses unsupported operators or functions
+     */
+    public static MethodHandleFormula compile(String expression, int slotCount) {
+        SlotExpression parsed = SlotExpression.parse(expression, slotCount);
+        if (parsed == null) {
+            return null;
+        }
+        // build tree bottom up: every handle on the stack has type (BigDecimal[])BigDecimal
+        Deque<MethodHandle> stack = new ArrayDeque<>();
+        for (int i = 0; i < parsed.size(); i++) {
+            int operation = parsed.getOperation(i);
+            switch (operation) {
+                case SlotExpression.CONSTANT -> stack.push(MethodHandles.dropArguments(
+                        MethodHandles.constant(BigDecimal.class, parsed.getConstant(i)), 0, BigDecimal[].class));
+                case SlotExpression.SLOT -> stack.push(MethodHandles.insertArguments(ELEMENT, 1, parsed.getSlot(i)));
+                default -> {
+                    if (SlotExpression.isUnary(operation)) {
+                        stack.push(MethodHandles.filterArguments(operation(operation), 0, stack.pop()));
+                    } else {
+                        MethodHandle right = stack.pop();
+                        MethodHandle left = stack.pop();
+                        // (BigDecimal[], BigDecimal[])BigDecimal, then pass the same array to both operands
+                        MethodHandle combined = MethodHandles.filterArguments(operation(operation), 0, left, right);
+                        stack.push(MethodHandles.permuteArguments(combined,
+                                MethodType.methodType(BigDecimal.class, BigDecimal[].class), 0, 0));
+                    }
+                }
+            }
+        }
+        return new MethodHandleFormula(stack.pop(), slotCount);
+    }
+
+    /**
+     * Returns number of slots
+     *
+     * @return
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Evaluates formula
+     *
+     * @param values values of slots
+     * @return
+     * @throws FormulaException e.g. on division by zero
+     */
+    public BigDecimal evaluate(BigDecimal[] values) throws FormulaException {
+        try {
+            return (BigDecimal) handle.invokeExact(values);
+        } catch (ArithmeticException e) {
+            throw new FormulaException(e.getMessage());
+        } catch (Throwable e) {
+            throw new FormulaException("Evaluation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns method handle of operation
+     *
+     * @param operation
+     * @return
+     */
+    private static MethodHandle operation(int operation) {
+        String name = switch (operation) {
+            case SlotExpression.ADD -> "add";
+            case SlotExpression.SUBTRACT -> "subtract";
+            case SlotExpression.MULTIPLY -> "multiply";
+            case SlotExpression.DIVIDE -> "divide";
+            case SlotExpression.NEGATE -> "negate";
+            case SlotExpression.ABS -> "abs";
+            case SlotExpression.SQRT -> "sqrt";
+            case SlotExpression.MIN -> "min";
+            case SlotExpression.MAX -> "max";
+            default -> throw new IllegalStateException("Unknown operation " + operation);
+        };
+        try {
+            return MethodHandles.lookup().findStatic(MethodHandleFormula.class, name,
+                    SlotExpression.isUnary(operation) ? UNARY : BINARY);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static BigDecimal add(BigDecimal a, BigDecimal b) {
+        return a.add(b, MATH_CONTEXT);
+    }
+
+    private static BigDecimal subtract(BigDecimal a, BigDecimal b) {
+        return a.subtract(b, MATH_CONTEXT);
+    }
+
+    private static BigDecimal multiply(BigDecimal a, BigDecimal b) {
+        return a.multiply(b, MATH_CONTEXT);
+    }
+
+    private static BigDecimal divide(BigDecimal a, BigDecimal b) {
+        return a.divide(b, MATH_CONTEXT);
+    }
+
+    private static BigDecimal negate(BigDecimal a) {
+        return a.negate(MATH_CONTEXT);
+    }
+
+    private static BigDecimal abs(BigDecimal a) {
+        return a.abs(MATH_CONTEXT);
+    }
+
+    private static BigDecimal sqrt(BigDecimal a) {
+        return a.sqrt(MATH_CONTEXT);
+    }
+
+    private static BigDecimal min(BigDecimal a, BigDecimal b) {
+        return a.min(b);
+    }
+
+    private static BigDecimal max(BigDecimal a, BigDecimal b) {
+        return a.max(b);
+    }
+}
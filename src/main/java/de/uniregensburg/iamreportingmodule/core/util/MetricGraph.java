@@ -0,0 +1,218 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.data.entity.Formula;
+import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
+import de.uniregensburg.iamreportingmodule.data.entity.Metric;
+
+import java.util.*;
+
+/**
+ * Dependency graph of metrics: a metric depends on all metrics used as variables in its formula
+ * Edges point from input metric to dependent metric, measurements are sources and not part of the graph
+ *
+ * @author Julian Bauer
+ */
+public class MetricGraph {
+
+    private final Map<UUID, Set<UUID>> dependents = new HashMap<>();
+    private final Map<UUID, Set<UUID>> inputs = new HashMap<>();
+
+    /**
+     * Builds graph from metrics using the formulas referencing each metric
+     *
+     * @param metrics
+     * @return
+     */
+    public static MetricGraph build(Collection<Metric> metrics) {
+        MetricGraph graph = new MetricGraph();
+        for (Metric metric : metrics) {
+            graph.addMetric(metric.getId());
+            if (metric.getFormulas() == null) {
+                continue;
+            }
+            // formulas using metric as variable belong to dependent metrics
+            for (Formula formula : metric.getFormulas()) {
+                if (formula.getMetric() != null) {
+                    graph.addDependency(metric.getId(), formula.getMetric().getId());
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Adds metric without dependencies
+     *
+     * @param metric id of metric
+     */
+    public void addMetric(UUID metric) {
+        dependents.computeIfAbsent(metric, id -> new HashSet<>());
+        inputs.computeIfAbsent(metric, id -> new HashSet<>());
+    }
+
+    /**
+     * Adds dependency: dependent metric uses input metric in its formula
+     *
+     * @param input id of input metric
+     * @param dependent id of dependent metric
+     */
+    public void addDependency(UUID input, UUID dependent) {
+        addMetric(input);
+        addMetric(dependent);
+        dependents.get(input).add(dependent);
+        inputs.get(dependent).add(input);
+    }
+
+    /**
+     * Replaces inputs of metric by metrics used in formula, e.g. of a metric that is about to be saved
+     *
+     * @param metric id of metric
+     * @param measurables measurables used in formula
+     */
+    public void replaceInputs(UUID metric, Collection<? extends Measurable> measurables) {
+        // measurements are not part of the graph
+        Set<UUID> inputMetrics = new HashSet<>();
+        for (Measurable measurable : measurables) {
+            if (measurable instanceof Metric) {
+                inputMetrics.add(measurable.getId());
+            }
+        }
+        replaceInputIds(metric, inputMetrics);
+    }
+
+    /**
+     * Replaces inputs of metric by input metrics, e.g. found by labels in formula of a metric that is about to be saved
+     *
+     * @param metric id of metric
+     * @param inputMetrics ids of metrics used in formula
+     */
+    public void replaceInputIds(UUID metric, Collection<UUID> inputMetrics) {
+        addMetric(metric);
+        // remove old edges
+        for (UUID input : inputs.get(metric)) {
+            dependents.get(input).remove(metric);
+        }
+        inputs.get(metric).clear();
+        // add new edges
+        for (UUID input : inputMetrics) {
+            addDependency(input, metric);
+        }
+    }
+
+    /**
+     * Returns ids of input metrics of metric
+     *
+     * @param metric id of metric
+     * @return
+     */
+    public Set<UUID> getInputs(UUID metric) {
+        return inputs.getOrDefault(metric, Set.of());
+    }
+
+    /**
+     * Returns a cycle of metrics as path starting and ending with the same metric or an empty list if graph is acyclic
+     *
+     * @return
+     */
+    public List<UUID> findCycle() {
+        // 0 = unvisited, 1 = on current path, 2 = done
+        Map<UUID, Integer> states = new HashMap<>();
+        Deque<UUID> path = new ArrayDeque<>();
+        Deque<Iterator<UUID>> iterators = new ArrayDeque<>();
+        for (UUID start : dependents.keySet()) {
+            if (states.getOrDefault(start, 0) != 0) {
+                continue;
+            }
+            // iterative depth first search, formulas may be nested deeply
+            states.put(start, 1);
+            path.addLast(start);
+            iterators.addLast(dependents.get(start).iterator());
+            while (!iterators.isEmpty()) {
+                Iterator<UUID> iterator = iterators.peekLast();
+                if (!iterator.hasNext()) {
+                    states.put(path.removeLast(), 2);
+                    iterators.removeLast();
+                    continue;
+                }
+                UUID next = iterator.next();
+                int state = states.getOrDefault(next, 0);
+                if (state == 1) {
+                    // back edge: cycle found, cut path at first occurrence of next
+                    List<UUID> cycle = new ArrayList<>(path);
+                    cycle = cycle.subList(cycle.indexOf(next), cycle.size());
+                    cycle.add(next);
+                    return new ArrayList<>(cycle);
+                }
+                if (state == 0) {
+                    states.put(next, 1);
+                    path.addLast(next);
+                    iterators.addLast(dependents.get(next).iterator());
+                }
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Returns metrics affected by change of roots (roots and all transitive dependents) in topological waves:
+     * metrics of a wave only depend on metrics of earlier waves and can be calculated in parallel
+     *
+     * @param roots ids of changed metrics
+     * @return
+     * @throws IllegalStateException if affected metrics contain a cycle
+     */
+    public List<List<UUID>> getWaves(Collection<UUID> roots) {
+        // collect affected metrics
+        Set<UUID> affected = new LinkedHashSet<>();
+        Deque<UUID> queue = new ArrayDeque<>();
+        for (UUID root : roots) {
+            if (dependents.containsKey(root) && affected.add(root)) {
+                queue.add(root);
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (UUID dependent : dependents.get(queue.poll())) {
+                if (affected.add(dependent)) {
+                    queue.add(dependent);
+                }
+            }
+        }
+
+        // count affected inputs of each affected metric
+        Map<UUID, Integer> pendingInputs = new HashMap<>();
+        List<UUID> wave = new ArrayList<>();
+        for (UUID metric : affected) {
+            int count = 0;
+            for (UUID input : inputs.get(metric)) {
+                if (affected.contains(input)) {
+                    count++;
+                }
+            }
+            pendingInputs.put(metric, count);
+            if (count == 0) {
+                wave.add(metric);
+            }
+        }
+
+        // kahn's algorithm, one wave per round
+        List<List<UUID>> waves = new ArrayList<>();
+        int scheduled = 0;
+        while (!wave.isEmpty()) {
+            waves.add(wave);
+            scheduled += wave.size();
+            List<UUID> nextWave = new ArrayList<>();
+            for (UUID metric : wave) {
+                for (UUID dependent : dependents.get(metric)) {
+                    if (pendingInputs.merge(dependent, -1, Integer::sum) == 0) {
+                        nextWave.add(dependent);
+                    }
+                }
+            }
+            wave = nextWave;
+        }
+        if (scheduled != affected.size()) {
+            throw new IllegalStateException("Dependencies of metrics contain a cycle");
+        }
+        return waves;
+    }
+}
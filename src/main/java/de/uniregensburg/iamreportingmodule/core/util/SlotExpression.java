@@ -0,0 +1,349 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Parsed expression with slots slot0 ... slotN in postfix order
+ * Supports numbers, slots, + - * /, unary minus, parentheses and the functions ABS, SQRT, MIN and MAX.
+ * Shared by the compilers of formulas that bypass the EvalEx interpreter.
+ *
+ * @author Julian Bauer
+ */
+class SlotExpression {
+
+    static final int CONSTANT = 0;
+    static final int SLOT = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    static final int NEGATE = 6;
+    static final int ABS = 7;
+    static final int SQRT = 8;
+    static final int MIN = 9;
+    static final int MAX = 10;
+
+    private static final String SLOT_PREFIX = "slot";
+
+    private final int[] operations;
+    private final int[] slots;
+    private final BigDecimal[] constants;
+    private final int slotCount;
+    private final int maxDepth;
+
+    /**
+     *
+     * @param operations
+     * @param slots slot index of SLOT operations
+     * @param constants value of CONSTANT operations
+     * @param slotCount
+     * @param maxDepth maximum depth of stack during evaluation
+     */
+    private SlotExpression(int[] operations, int[] slots, BigDecimal[] constants, int slotCount, int maxDepth) {
+        this.operations = operations;
+        this.slots = slots;
+        this.constants = constants;
+        this.slotCount = slotCount;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Parses expression
+     *
+     * @param expression
+     * @param slotCount
+     * @return parsed expression or null if expression uses unsupported operators or functions
+     */
+    static SlotExpression parse(String expression, int slotCount) {
+        Parser parser = new Parser(expression, slotCount);
+        if (!parser.parse()) {
+            return null;
+        }
+        return new SlotExpression(Arrays.copyOf(parser.operations, parser.size), Arrays.copyOf(parser.slots, parser.size),
+                Arrays.copyOf(parser.constants, parser.size), slotCount, parser.maxDepth);
+    }
+
+    /**
+     * Returns true if operation takes one operand
+     *
+     * @param operation
+     * @return
+     */
+    static boolean isUnary(int operation) {
+        return operation == NEGATE || operation == ABS || operation == SQRT;
+    }
+
+    int size() {
+        return operations.length;
+    }
+
+    int getOperation(int index) {
+        return operations[index];
+    }
+
+    int getSlot(int index) {
+        return slots[index];
+    }
+
+    BigDecimal getConstant(int index) {
+        return constants[index];
+    }
+
+    int getSlotCount() {
+        return slotCount;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Recursive descent parser emitting postfix operations
+     */
+    private static class Parser {
+
+        private final String expression;
+        private final int slotCount;
+        private int position = 0;
+        private int[] operations = new int[16];
+        private int[] slots = new int[16];
+        private BigDecimal[] constants = new BigDecimal[16];
+        private int size = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+
+        /**
+         *
+         * @param expression
+         * @param slotCount
+         */
+        Parser(String expression, int slotCount) {
+            this.expression = expression;
+            this.slotCount = slotCount;
+        }
+
+        /**
+         * Parses whole expression
+         *
+         * @return false if expression is not supported
+         */
+        boolean parse() {
+            if (!expression()) {
+                return false;
+            }
+            skipWhitespace();
+            return position == expression.length() && depth == 1;
+        }
+
+        // expression := term (('+' | '-') term)*
+        private boolean expression() {
+            if (!term()) {
+                return false;
+            }
+            while (true) {
+                char c = peek();
+                if (c == '+' || c == '-') {
+                    position++;
+                    if (!term()) {
+                        return false;
+                    }
+                    emit(c == '+' ? ADD : SUBTRACT);
+                } else {
+                    return true;
+                }
+            }
+        }
+
+        // term := unary (('*' | '/') unary)*
+        private boolean term() {
+            if (!unary()) {
+                return false;
+            }
+            while (true) {
+                char c = peek();
+                if (c == '*' || c == '/') {
+                    position++;
+                    if (!unary()) {
+                        return false;
+                    }
+                    emit(c == '*' ? MULTIPLY : DIVIDE);
+                } else {
+                    return true;
+                }
+            }
+        }
+
+        // unary := ('-' | '+') unary | primary
+        private boolean unary() {
+            char c = peek();
+            if (c == '-') {
+                position++;
+                if (!unary()) {
+                    return false;
+                }
+                emit(NEGATE);
+                return true;
+            }
+            if (c == '+') {
+                position++;
+                return unary();
+            }
+            return primary();
+        }
+
+        // primary := number | slot | function '(' expression (',' expression)* ')' | '(' expression ')'
+        private boolean primary() {
+            char c = peek();
+            if (c == '(') {
+                position++;
+                if (!expression() || peek() != ')') {
+                    return false;
+                }
+                position++;
+                return true;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                return number();
+            }
+            if (Character.isLetter(c)) {
+                int start = position;
+                while (position < expression.length() && Character.isLetterOrDigit(expression.charAt(position))) {
+                    position++;
+                }
+                String identifier = expression.substring(start, position);
+                if (peek() == '(') {
+                    return function(identifier.toUpperCase());
+                }
+                return slot(identifier);
+            }
+            return false;
+        }
+
+        private boolean number() {
+            int start = position;
+            while (position < expression.length() && (Character.isDigit(expression.charAt(position)) || expression.charAt(position) == '.')) {
+                position++;
+            }
+            // exponent
+            if (position < expression.length() && (expression.charAt(position) == 'e' || expression.charAt(position) == 'E')) {
+                position++;
+                if (position < expression.length() && (expression.charAt(position) == '+' || expression.charAt(position) == '-')) {
+                    position++;
+                }
+                while (position < expression.length() && Character.isDigit(expression.charAt(position))) {
+                    position++;
+                }
+            }
+            BigDecimal value;
+            try {
+                value = new BigDecimal(expression.substring(start, position));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            int index = emit(CONSTANT);
+            constants[index] = value;
+            return true;
+        }
+
+        private boolean slot(String identifier) {
+            if (!identifier.startsWith(SLOT_PREFIX) || identifier.length() == SLOT_PREFIX.length()) {
+                return false;
+            }
+            int slot;
+            try {
+                slot = Integer.parseInt(identifier.substring(SLOT_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (slot < 0 || slot >= slotCount) {
+                return false;
+            }
+            int index = emit(SLOT);
+            slots[index] = slot;
+            return true;
+        }
+
+        private boolean function(String name) {
+            int operation;
+            boolean variadic;
+            switch (name) {
+                case "ABS" -> {
+                    operation = ABS;
+                    variadic = false;
+                }
+                case "SQRT" -> {
+                    operation = SQRT;
+                    variadic = false;
+                }
+                case "MIN" -> {
+                    operation = MIN;
+                    variadic = true;
+                }
+                case "MAX" -> {
+                    operation = MAX;
+                    variadic = true;
+                }
+                default -> {
+                    return false;
+                }
+            }
+            // skip '('
+            position++;
+            if (!expression()) {
+                return false;
+            }
+            int arguments = 1;
+            while (peek() == ',') {
+                position++;
+                if (!expression()) {
+                    return false;
+                }
+                arguments++;
+                // fold variadic functions into binary operations
+                emit(operation);
+            }
+            if (peek() != ')' || (!variadic && arguments != 1)) {
+                return false;
+            }
+            position++;
+            if (!variadic) {
+                emit(operation);
+            }
+            return true;
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return position < expression.length() ? expression.charAt(position) : Character.MIN_VALUE;
+        }
+
+        private void skipWhitespace() {
+            while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        /**
+         * Appends operation and tracks depth of stack
+         *
+         * @param operation
+         * @return index of operation
+         */
+        private int emit(int operation) {
+            if (size == operations.length) {
+                operations = Arrays.copyOf(operations, size * 2);
+                slots = Arrays.copyOf(slots, size * 2);
+                constants = Arrays.copyOf(constants, size * 2);
+            }
+            operations[size] = operation;
+            if (operation == CONSTANT || operation == SLOT) {
+                depth++;
+            } else if (!isUnary(operation)) {
+                depth--;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            return size++;
+        }
+    }
+}
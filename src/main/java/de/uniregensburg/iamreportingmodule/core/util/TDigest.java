@@ -0,0 +1,309 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch for approximate quantiles of a stream of values (merging t-digest)
+ * Values are collected in a buffer and merged into a sorted list of weighted centroids when the buffer is full.
+ * Centroids near the median may grow large while centroids at the tails stay small, so quantiles at the tails are
+ * almost exact. Memory is bounded by the compression regardless of number of values.
+ *
+ * @author Julian Bauer
+ */
+public class TDigest {
+
+    /**
+     * Compression used by csv aggregation: at most about 50 centroids
+     */
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private final double compression;
+    private double[] means = new double[0];
+    private double[] weights = new double[0];
+    private int centroidCount = 0;
+    private final double[] bufferMeans;
+    private final double[] bufferWeights;
+    private int bufferCount = 0;
+    private boolean unitWeights = true;
+    private double totalWeight = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     *
+     * @param compression higher compression keeps more centroids and gives more accurate quantiles
+     */
+    public TDigest(double compression) {
+        this.compression = compression;
+        int bufferSize = (int) Math.ceil(5 * compression);
+        this.bufferMeans = new double[bufferSize];
+        this.bufferWeights = new double[bufferSize];
+    }
+
+    /**
+     * Adds value
+     *
+     * @param value
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds value with weight
+     *
+     * @param value
+     * @param weight
+     */
+    public void add(double value, double weight) {
+        if (Double.isNaN(value)) {
+            throw new IllegalArgumentException("Cannot add NaN");
+        }
+        if (bufferCount == bufferMeans.length) {
+            compress();
+        }
+        bufferMeans[bufferCount] = value;
+        bufferWeights[bufferCount] = weight;
+        unitWeights &= weight == 1;
+        bufferCount++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all values of other digest, e.g. of another part of the same file
+     *
+     * @param other
+     */
+    public void add(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroidCount; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        // centroids at the tails do not carry the exact extremes
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns digest as bytes for storing, buffered values are merged before
+     *
+     * @return
+     */
+    public byte[] toBytes() {
+        compress();
+        ByteBuffer bytes = ByteBuffer.allocate(4 * Double.BYTES + Integer.BYTES + 2 * centroidCount * Double.BYTES);
+        bytes.putDouble(compression).putDouble(totalWeight).putDouble(min).putDouble(max).putInt(centroidCount);
+        for (int i = 0; i < centroidCount; i++) {
+            bytes.putDouble(means[i]).putDouble(weights[i]);
+        }
+        return bytes.array();
+    }
+
+    /**
+     * Returns digest stored as bytes
+     *
+     * @param data bytes returned by toBytes
+     * @return
+     */
+    public static TDigest fromBytes(byte[] data) {
+        ByteBuffer bytes = ByteBuffer.wrap(data);
+        TDigest digest = new TDigest(bytes.getDouble());
+        digest.totalWeight = bytes.getDouble();
+        digest.min = bytes.getDouble();
+        digest.max = bytes.getDouble();
+        digest.centroidCount = bytes.getInt();
+        digest.means = new double[digest.centroidCount];
+        digest.weights = new double[digest.centroidCount];
+        for (int i = 0; i < digest.centroidCount; i++) {
+            digest.means[i] = bytes.getDouble();
+            digest.weights[i] = bytes.getDouble();
+        }
+        return digest;
+    }
+
+    /**
+     * Returns total weight of added values
+     *
+     * @return
+     */
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Returns number of centroids after merging buffered values
+     *
+     * @return
+     */
+    public int getCentroidCount() {
+        compress();
+        return centroidCount;
+    }
+
+    /**
+     * Returns approximate quantile
+     *
+     * @param q quantile between 0 and 1
+     * @return quantile or NaN if no values were added
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        compress();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+        double index = q * totalWeight;
+        // extremes are known exactly
+        if (index < 1) {
+            return min;
+        }
+        if (index > totalWeight - 1) {
+            return max;
+        }
+        // left tail: interpolate between minimum and center of first centroid
+        if (weights[0] > 1 && index < weights[0] / 2) {
+            return min + (index - 1) / (weights[0] / 2 - 1) * (means[0] - min);
+        }
+        // right tail: interpolate between center of last centroid and maximum
+        int last = centroidCount - 1;
+        if (weights[last] > 1 && totalWeight - index <= weights[last] / 2) {
+            return max - (totalWeight - index - 1) / (weights[last] / 2 - 1) * (max - means[last]);
+        }
+        // interpolate between centers of neighbouring centroids
+        double weightSoFar = weights[0] / 2;
+        for (int i = 0; i < last; i++) {
+            double distance = (weights[i] + weights[i + 1]) / 2;
+            if (weightSoFar + distance > index) {
+                double left = index - weightSoFar;
+                double right = weightSoFar + distance - index;
+                return (means[i] * right + means[i + 1] * left) / distance;
+            }
+            weightSoFar += distance;
+        }
+        return means[last];
+    }
+
+    /**
+     * Merges buffered values into centroids
+     */
+    private void compress() {
+        if (bufferCount == 0) {
+            return;
+        }
+        // sort buffer and merge it with sorted centroids
+        if (unitWeights) {
+            Arrays.sort(bufferMeans, 0, bufferCount);
+        } else {
+            sort(bufferMeans, bufferWeights, 0, bufferCount - 1);
+        }
+        int count = centroidCount + bufferCount;
+        double[] sortedMeans = new double[count];
+        double[] sortedWeights = new double[count];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < count; k++) {
+            if (j >= bufferCount || (i < centroidCount && means[i] <= bufferMeans[j])) {
+                sortedMeans[k] = means[i];
+                sortedWeights[k] = weights[i];
+                i++;
+            } else {
+                sortedMeans[k] = bufferMeans[j];
+                sortedWeights[k] = bufferWeights[j];
+                j++;
+            }
+        }
+        bufferCount = 0;
+        unitWeights = true;
+        // merge neighbours while centroid spans at most one unit of the scale function
+        int last = 0;
+        double weightSoFar = 0;
+        double limit = totalWeight * quantileLimit(0);
+        for (int k = 1; k < count; k++) {
+            double proposedWeight = sortedWeights[last] + sortedWeights[k];
+            if (weightSoFar + proposedWeight <= limit) {
+                sortedWeights[last] = proposedWeight;
+                sortedMeans[last] += (sortedMeans[k] - sortedMeans[last]) * sortedWeights[k] / proposedWeight;
+            } else {
+                weightSoFar += sortedWeights[last];
+                limit = totalWeight * quantileLimit(weightSoFar / totalWeight);
+                last++;
+                sortedMeans[last] = sortedMeans[k];
+                sortedWeights[last] = sortedWeights[k];
+            }
+        }
+        centroidCount = last + 1;
+        means = Arrays.copyOf(sortedMeans, centroidCount);
+        weights = Arrays.copyOf(sortedWeights, centroidCount);
+    }
+
+    /**
+     * Returns end of centroid starting at quantile q, so the centroid spans one unit of the scale function
+     * k(q) = compression / (2 pi) * asin(2q - 1). The scale function is steep at the tails, so centroids there stay
+     * small, and bounded, so the number of centroids is at most about compression / 2.
+     *
+     * @param q
+     * @return
+     */
+    private double quantileLimit(double q) {
+        double k = Math.asin(2 * q - 1) + 2 * Math.PI / compression;
+        return k >= Math.PI / 2 ? 1 : (Math.sin(k) + 1) / 2;
+    }
+
+    /**
+     * Sorts values by keys without boxing
+     *
+     * @param keys
+     * @param values
+     * @param from inclusive
+     * @param to inclusive
+     */
+    private static void sort(double[] keys, double[] values, int from, int to) {
+        while (to - from > 16) {
+            double pivot = keys[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // recurse into smaller part to bound depth of stack
+            if (j - from < to - i) {
+                sort(keys, values, from, j);
+                from = i;
+            } else {
+                sort(keys, values, i, to);
+                to = j;
+            }
+        }
+        // insertion sort for small ranges
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+                swap(keys, values, j - 1, j);
+            }
+        }
+    }
+
+    private static void swap(double[] keys, double[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -0,0 +1,163 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Result of tokenizing a formula: labels and spans of all variables {{label}} in order of occurrence
+ * Variables passed to window functions span the whole call and are keyed by the window instead of the label
+ *
+ * @author Julian Bauer
+ */
+public class TokenizedFormula {
+
+    private final String formula;
+    private final boolean validBraces;
+    private final String[] labels;
+    private final FormulaWindow[] windows;
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     *
+     * @param formula
+     * @param validBraces
+     * @param labels
+     * @param windows window of each variable, null if variable is not passed to a window function
+     * @param starts start indexes of variables (index of {{ or of window function)
+     * @param ends end indexes of variables (index after }} or after window function)
+     */
+    TokenizedFormula(String formula, boolean validBraces, String[] labels, FormulaWindow[] windows, int[] starts, int[] ends) {
+        this.formula = formula;
+        this.validBraces = validBraces;
+        this.labels = labels;
+        this.windows = windows;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Returns formula
+     *
+     * @return
+     */
+    public String getFormula() {
+        return formula;
+    }
+
+    /**
+     * Returns if braces of formula are set correctly
+     *
+     * @return
+     */
+    public boolean hasValidBraces() {
+        return validBraces;
+    }
+
+    /**
+     * Returns number of variables
+     *
+     * @return
+     */
+    public int getVariableCount() {
+        return labels.length;
+    }
+
+    /**
+     * Returns label of variable
+     *
+     * @param index
+     * @return
+     */
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    /**
+     * Returns window of variable
+     *
+     * @param index
+     * @return window or null if variable is not passed to a window function
+     */
+    public FormulaWindow getWindow(int index) {
+        return windows[index];
+    }
+
+    /**
+     * Returns key of variable: label or key of window
+     *
+     * @param index
+     * @return
+     */
+    public String getKey(int index) {
+        return windows[index] != null ? windows[index].getKey() : labels[index];
+    }
+
+    /**
+     * Returns start index of variable (index of {{ or of window function)
+     *
+     * @param index
+     * @return
+     */
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Returns end index of variable (index after }} or after window function)
+     *
+     * @param index
+     * @return
+     */
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Returns distinct labels of all variables including variables passed to window functions in order of occurrence
+     *
+     * @return
+     */
+    public Set<String> getLabels() {
+        Set<String> distinctLabels = new LinkedHashSet<>();
+        Collections.addAll(distinctLabels, labels);
+        return distinctLabels;
+    }
+
+    /**
+     * Returns distinct windows in order of occurrence
+     *
+     * @return
+     */
+    public Set<FormulaWindow> getWindows() {
+        Set<FormulaWindow> distinctWindows = new LinkedHashSet<>();
+        for (FormulaWindow window : windows) {
+            if (window != null) {
+                distinctWindows.add(window);
+            }
+        }
+        return distinctWindows;
+    }
+
+    /**
+     * Replaces all variables with values
+     *
+     * @param values values by key (label or key of window)
+     * @return
+     */
+    public String replace(Map<String, ?> values) {
+        if (labels.length == 0) {
+            return formula;
+        }
+        StringBuilder builder = new StringBuilder(formula.length() + labels.length * 16);
+        int position = 0;
+        for (int i = 0; i < labels.length; i++) {
+            builder.append(formula, position, starts[i]).append(values.get(getKey(i)));
+            position = ends[i];
+        }
+        builder.append(formula, position, formula.length());
+        return builder.toString();
+    }
+}
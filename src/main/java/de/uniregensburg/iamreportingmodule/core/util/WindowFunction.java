@@ -0,0 +1,18 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+/**
+ * Enumeration window functions over the result history of a measurable, e.g. avg({{failedLogins}}, 7d)
+ * Values: AVG, MIN, MAX, SUM, COUNT (aggregates of results within window),
+ * DELTA (latest value minus value at start of window), RATE (delta per second)
+ *
+ * @author Julian Bauer
+ */
+public enum WindowFunction {
+    AVG,
+    MIN,
+    MAX,
+    SUM,
+    COUNT,
+    DELTA,
+    RATE,
+}
@@ -8,6 +8,7 @@ import de.uniregensburg.iamreportingmodule.data.entity.Formula;
 import de.uniregensburg.iamreportingmodule.data.entity.Metric;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
 import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaTokenizer;
 import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,7 +81,7 @@ public class StringToFormulaConverter implements Converter<String, Formula> {
                 }
             }
             try {
-                formula.setMeasurables(util.getMeasurables(fieldValue));
+                formula.setMeasurables(util.getMeasurables(FormulaTokenizer.tokenize(fieldValue)));
             } catch (FormulaException e) {
                 logger.info(e.getMessage());
                 return Result.error(e.getMessage());
@@ -0,0 +1,228 @@
+package de.uniregensburg.iamreportingmodule.data.entity;
+
+import org.hibernate.annotations.Type;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+
+/**
+ * Entity column statistics of a csv file, computed once when the file is uploaded
+ * Statistics cover the records after the first record, the first record is kept as value, so it can be treated as
+ * header or as data depending on the measurement.
+ * Attributes: columnIndex (int), firstValue (String), valueCount (long), complete (boolean), numeric (boolean),
+ * valueSum (BigDecimal), minimum (BigDecimal), maximum (BigDecimal), digest (byte[]), distinctSketch (byte[])
+ *
+ * @author Julian Bauer
+ */
+@Entity
+public class ColumnStatistics extends AbstractEntity {
+
+    private int columnIndex;
+
+    @Lob
+    @Type(type = "org.hibernate.type.TextType")
+    private String firstValue;
+
+    private long valueCount;
+
+    private boolean complete;
+
+    private boolean numeric;
+
+    @Column(precision = 38, scale = 10, columnDefinition = "DECIMAL(38,10)")
+    private BigDecimal valueSum;
+
+    @Column(precision = 38, scale = 10, columnDefinition = "DECIMAL(38,10)")
+    private BigDecimal minimum;
+
+    @Column(precision = 38, scale = 10, columnDefinition = "DECIMAL(38,10)")
+    private BigDecimal maximum;
+
+    @Lob
+    @Type(type = "org.hibernate.type.BinaryType")
+    private byte[] digest;
+
+    @Lob
+    @Type(type = "org.hibernate.type.BinaryType")
+    private byte[] distinctSketch;
+
+    /**
+     * Returns index of column
+     *
+     * @return
+     */
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    /**
+     * Sets index of column
+     *
+     * @param columnIndex
+     */
+    public void setColumnIndex(int columnIndex) {
+        this.columnIndex = columnIndex;
+    }
+
+    /**
+     * Returns value of column in first record, the column name if file has a header
+     *
+     * @return
+     */
+    public String getFirstValue() {
+        return firstValue;
+    }
+
+    /**
+     * Sets value of column in first record
+     *
+     * @param firstValue
+     */
+    public void setFirstValue(String firstValue) {
+        this.firstValue = firstValue;
+    }
+
+    /**
+     * Returns number of values of column after first record
+     *
+     * @return
+     */
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Sets number of values of column after first record
+     *
+     * @param valueCount
+     */
+    public void setValueCount(long valueCount) {
+        this.valueCount = valueCount;
+    }
+
+    /**
+     * Returns if all records after first record contain column
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Sets if all records after first record contain column
+     *
+     * @param complete
+     */
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Returns if all values of column after first record are numbers
+     *
+     * @return
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Sets if all values of column after first record are numbers
+     *
+     * @param numeric
+     */
+    public void setNumeric(boolean numeric) {
+        this.numeric = numeric;
+    }
+
+    /**
+     * Returns sum of values of column after first record
+     *
+     * @return
+     */
+    public BigDecimal getValueSum() {
+        return valueSum;
+    }
+
+    /**
+     * Sets sum of values of column after first record
+     *
+     * @param valueSum
+     */
+    public void setValueSum(BigDecimal valueSum) {
+        this.valueSum = valueSum;
+    }
+
+    /**
+     * Returns minimum value of column after first record
+     *
+     * @return
+     */
+    public BigDecimal getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * Sets minimum value of column after first record
+     *
+     * @param minimum
+     */
+    public void setMinimum(BigDecimal minimum) {
+        this.minimum = minimum;
+    }
+
+    /**
+     * Returns maximum value of column after first record
+     *
+     * @return
+     */
+    public BigDecimal getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Sets maximum value of column after first record
+     *
+     * @param maximum
+     */
+    public void setMaximum(BigDecimal maximum) {
+        this.maximum = maximum;
+    }
+
+    /**
+     * Returns t-digest of values of column after first record
+     *
+     * @return
+     */
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    /**
+     * Sets t-digest of values of column after first record
+     *
+     * @param digest
+     */
+    public void setDigest(byte[] digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Returns HyperLogLog sketch of values of column after first record
+     *
+     * @return
+     */
+    public byte[] getDistinctSketch() {
+        return distinctSketch;
+    }
+
+    /**
+     * Sets HyperLogLog sketch of values of column after first record
+     *
+     * @param distinctSketch
+     */
+    public void setDistinctSketch(byte[] distinctSketch) {
+        this.distinctSketch = distinctSketch;
+    }
+}
@@ -0,0 +1,101 @@
+package de.uniregensburg.iamreportingmodule.data.entity;
+
+import org.hibernate.annotations.Type;
+
+import javax.persistence.*;
+import java.util.UUID;
+
+/**
+ * Entity columnar representation of an uploaded file, stored apart from the datasource so it is only loaded when a
+ * measurement reads it, belongs to the generation of the chunks it was computed from
+ * Attributes: fileDataSourceId (UUID), generation (int), data (byte[])
+ *
+ * @author Julian Bauer
+ */
+@Entity
+@Table(indexes = @Index(columnList = "fileDataSourceId, generation"))
+public class ColumnarFile extends AbstractEntity {
+
+    @Type(type = "uuid-char")
+    private UUID fileDataSourceId;
+
+    // columnar representations stored before generations belong to generation 0
+    @Column(columnDefinition = "integer default 0 not null")
+    private int generation;
+
+    @Lob
+    @Type(type = "org.hibernate.type.BinaryType")
+    private byte[] data;
+
+    /**
+     *
+     */
+    public ColumnarFile() {
+    }
+
+    /**
+     *
+     * @param fileDataSourceId
+     * @param generation
+     * @param data
+     */
+    public ColumnarFile(UUID fileDataSourceId, int generation, byte[] data) {
+        this.fileDataSourceId = fileDataSourceId;
+        this.generation = generation;
+        this.data = data;
+    }
+
+    /**
+     * Returns id of file datasource
+     *
+     * @return
+     */
+    public UUID getFileDataSourceId() {
+        return fileDataSourceId;
+    }
+
+    /**
+     * Sets id of file datasource
+     *
+     * @param fileDataSourceId
+     */
+    public void setFileDataSourceId(UUID fileDataSourceId) {
+        this.fileDataSourceId = fileDataSourceId;
+    }
+
+    /**
+     * Returns generation of file the columnar representation belongs to
+     *
+     * @return
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Sets generation of file the columnar representation belongs to
+     *
+     * @param generation
+     */
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Returns encoded columnar representation
+     *
+     * @return
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Sets encoded columnar representation
+     *
+     * @param data
+     */
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+}
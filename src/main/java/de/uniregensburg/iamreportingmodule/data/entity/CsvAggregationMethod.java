@@ -2,7 +2,7 @@ package de.uniregensburg.iamreportingmodule.data.entity;
 
 /**
  * Enumeration csv aggregation method
- * Values: COUNT, SUM, MINIMUM, MAXIMUM, AVERAGE, MEDIAN
+ * Values: COUNT, SUM, MINIMUM, MAXIMUM, AVERAGE, MEDIAN, PERCENTILE, APPROXIMATE_PERCENTILE, COUNT_DISTINCT
  *
  * @author Julian Bauer
  */
@@ -12,5 +12,8 @@ public enum CsvAggregationMethod {
     MINIMUM,
     MAXIMUM,
     AVERAGE,
-    MEDIAN
+    MEDIAN,
+    PERCENTILE,
+    APPROXIMATE_PERCENTILE,
+    COUNT_DISTINCT
 }
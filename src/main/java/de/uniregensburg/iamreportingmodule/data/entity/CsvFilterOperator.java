@@ -0,0 +1,16 @@
+package de.uniregensburg.iamreportingmodule.data.entity;
+
+/**
+ * Enumeration csv filter operator
+ * Values: EQUALS, NOT_EQUALS, LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL
+ *
+ * @author Julian Bauer
+ */
+public enum CsvFilterOperator {
+    EQUALS,
+    NOT_EQUALS,
+    LESS,
+    LESS_OR_EQUAL,
+    GREATER,
+    GREATER_OR_EQUAL
+}
@@ -1,12 +1,16 @@
 package de.uniregensburg.iamreportingmodule.data.entity;
 
+import javax.annotation.Nullable;
 import javax.persistence.*;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 
 /**
  * Entity database data source extends data source
- * Attributes: host (String), port (int), database (String), dbmsType (Dbms), username (String), password (String)
+ * Attributes: host (String), port (int), database (String), dbmsType (Dbms), username (String), password (String),
+ * maxPoolSize (Integer), batchWindow (Integer), maxConcurrentQueries (Integer), queryTimeout (Integer)
  *
  * @author Julian Bauer
  */
@@ -48,6 +52,26 @@ public class DatabaseDataSource extends DataSource {
     @NotNull
     private String password;
 
+    @Min(1)
+    @Max(100)
+    @Nullable
+    private Integer maxPoolSize;
+
+    @Min(0)
+    @Max(10000)
+    @Nullable
+    private Integer batchWindow;
+
+    @Min(1)
+    @Max(100)
+    @Nullable
+    private Integer maxConcurrentQueries;
+
+    @Min(1)
+    @Max(3600)
+    @Nullable
+    private Integer queryTimeout;
+
     /**
      * Returns host
      *
@@ -155,4 +179,76 @@ public class DatabaseDataSource extends DataSource {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    /**
+     * Returns maximum number of pooled connections
+     *
+     * @return maximum or null for default size
+     */
+    public Integer getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * Sets maximum number of pooled connections
+     *
+     * @param maxPoolSize maximum or null for default size
+     */
+    public void setMaxPoolSize(Integer maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Returns time in milliseconds in which due measurements are collected and queried in one round-trip
+     *
+     * @return time or null if measurements are queried separately
+     */
+    public Integer getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Sets time in milliseconds in which due measurements are collected and queried in one round-trip
+     *
+     * @param batchWindow time or null if measurements are queried separately
+     */
+    public void setBatchWindow(Integer batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * Returns maximum number of queries executed at the same time
+     *
+     * @return maximum or null for pool size
+     */
+    public Integer getMaxConcurrentQueries() {
+        return maxConcurrentQueries;
+    }
+
+    /**
+     * Sets maximum number of queries executed at the same time
+     *
+     * @param maxConcurrentQueries maximum or null for pool size
+     */
+    public void setMaxConcurrentQueries(Integer maxConcurrentQueries) {
+        this.maxConcurrentQueries = maxConcurrentQueries;
+    }
+
+    /**
+     * Returns time in seconds after which queries are cancelled
+     *
+     * @return time or null for default timeout
+     */
+    public Integer getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * Sets time in seconds after which queries are cancelled
+     *
+     * @param queryTimeout time or null for default timeout
+     */
+    public void setQueryTimeout(Integer queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
 }
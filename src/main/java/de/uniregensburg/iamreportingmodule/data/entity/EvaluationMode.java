@@ -0,0 +1,12 @@
+package de.uniregensburg.iamreportingmodule.data.entity;
+
+/**
+ * Enumeration evaluation mode of metrics
+ * Values: EXACT (BigDecimal), FAST (double with fallback to BigDecimal if precision is insufficient)
+ *
+ * @author Julian Bauer
+ */
+public enum EvaluationMode {
+    EXACT,
+    FAST,
+}
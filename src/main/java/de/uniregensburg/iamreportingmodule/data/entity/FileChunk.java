@@ -0,0 +1,124 @@
+package de.uniregensburg.iamreportingmodule.data.entity;
+
+import org.hibernate.annotations.Type;
+
+import javax.persistence.*;
+import java.util.UUID;
+
+/**
+ * Entity chunk of an uploaded file, files are stored in chunks so they never have to be held in memory as a whole
+ * A chunk holds complete records of the csv file, gzip-compressed. Chunks of a new upload are written under a new
+ * generation, the datasource only reads chunks of its current generation.
+ * Attributes: fileDataSourceId (UUID), generation (int), chunkIndex (int), data (byte[])
+ *
+ * @author Julian Bauer
+ */
+@Entity
+@Table(indexes = @Index(columnList = "fileDataSourceId, generation, chunkIndex"))
+public class FileChunk extends AbstractEntity {
+
+    @Type(type = "uuid-char")
+    private UUID fileDataSourceId;
+
+    // chunks stored before generations belong to generation 0
+    @Column(columnDefinition = "integer default 0 not null")
+    private int generation;
+
+    private int chunkIndex;
+
+    @Lob
+    @Type(type = "org.hibernate.type.BinaryType")
+    private byte[] data;
+
+    /**
+     *
+     */
+    public FileChunk() {
+    }
+
+    /**
+     *
+     * @param fileDataSourceId
+     * @param generation
+     * @param chunkIndex
+     * @param data
+     */
+    public FileChunk(UUID fileDataSourceId, int generation, int chunkIndex, byte[] data) {
+        this.fileDataSourceId = fileDataSourceId;
+        this.generation = generation;
+        this.chunkIndex = chunkIndex;
+        this.data = data;
+    }
+
+    /**
+     * Returns id of file datasource
+     *
+     * @return
+     */
+    public UUID getFileDataSourceId() {
+        return fileDataSourceId;
+    }
+
+    /**
+     * Sets id of file datasource
+     *
+     * @param fileDataSourceId
+     */
+    public void setFileDataSourceId(UUID fileDataSourceId) {
+        this.fileDataSourceId = fileDataSourceId;
+    }
+
+    /**
+     * Returns generation of file the chunk belongs to
+     *
+     * @return
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Sets generation of file the chunk belongs to
+     *
+     * @param generation
+     */
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Returns position of chunk in file
+     *
+     * @return
+     */
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    /**
+     * Sets position of chunk in file
+     *
+     * @param chunkIndex
+     */
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    /**
+     * Returns gzip-compressed data
+     *
+     * @return
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Sets gzip-compressed data
+     *
+     * @param data
+     */
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+}
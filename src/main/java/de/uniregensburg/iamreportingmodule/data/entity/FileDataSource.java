@@ -2,13 +2,22 @@ package de.uniregensburg.iamreportingmodule.data.entity;
 
 import org.hibernate.annotations.Type;
 
+import javax.annotation.Nullable;
 import javax.persistence.*;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Entity file data source extends data source
- * Attributes: file (byte[]), fileType (FileType), fileName (String)
+ * Attributes: file (byte[]), fileSize (Long), fileGeneration (Integer), fileChunks (Integer), fileType (FileType),
+ * fileName (String), statisticsDelimiter (String), columnStatistics (Set<ColumnStatistics>), columnarFile (byte[])
+ * Uploaded files are stored in compressed chunks (FileChunk) and file is null, file only holds content of files stored before
+ * chunked storage and of generated datasources. The columnar representation is stored apart (ColumnarFile), columnarFile
+ * only holds a columnar representation not stored yet. Chunks and columnar representation of the current file belong to
+ * generation fileGeneration, a new upload is stored under the next generation before the datasource switches to it.
  *
  * @author Julian Bauer
  */
@@ -25,9 +34,21 @@ public class FileDataSource extends DataSource {
 
     @Lob
     @Type(type = "org.hibernate.type.BinaryType")
-    @NotNull
+    @Nullable
     private byte[] file;
 
+    @Nullable
+    private Long fileSize;
+
+    @Nullable
+    private Integer fileGeneration;
+
+    @Nullable
+    private Integer fileChunks;
+
+    @Transient
+    private Path uploadedFile;
+
     @Enumerated(EnumType.STRING)
     @NotNull
     private FileType fileType;
@@ -35,6 +56,16 @@ public class FileDataSource extends DataSource {
     @NotBlank
     private String fileName;
 
+    @Nullable
+    private String statisticsDelimiter;
+
+    @Transient
+    private byte[] columnarFile;
+
+    @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    @JoinColumn(name = "file_data_source_id")
+    private Set<ColumnStatistics> columnStatistics = new HashSet<>();
+
     /**
      * Returns file
      *
@@ -53,6 +84,78 @@ public class FileDataSource extends DataSource {
         this.file = file;
     }
 
+    /**
+     * Returns size of file stored in chunks
+     *
+     * @return size in bytes or null if file is stored in attribute file
+     */
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Sets size of file stored in chunks
+     *
+     * @param fileSize
+     */
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Returns generation of chunks and columnar representation of current file
+     *
+     * @return generation or null if file was stored before generations
+     */
+    public Integer getFileGeneration() {
+        return fileGeneration;
+    }
+
+    /**
+     * Sets generation of chunks and columnar representation of current file
+     *
+     * @param fileGeneration
+     */
+    public void setFileGeneration(Integer fileGeneration) {
+        this.fileGeneration = fileGeneration;
+    }
+
+    /**
+     * Returns number of chunks of current file
+     *
+     * @return number or null if file was stored before generations
+     */
+    public Integer getFileChunks() {
+        return fileChunks;
+    }
+
+    /**
+     * Sets number of chunks of current file
+     *
+     * @param fileChunks
+     */
+    public void setFileChunks(Integer fileChunks) {
+        this.fileChunks = fileChunks;
+    }
+
+    /**
+     * Returns temporary file of upload not stored yet
+     *
+     * @return path or null if no file was uploaded since datasource was loaded
+     */
+    public Path getUploadedFile() {
+        return uploadedFile;
+    }
+
+    /**
+     * Sets temporary file of upload, file is stored in chunks when datasource is saved
+     *
+     * @param uploadedFile
+     */
+    public void setUploadedFile(Path uploadedFile) {
+        this.uploadedFile = uploadedFile;
+    }
+
     /**
      * Returns file type
      *
@@ -88,4 +191,58 @@ public class FileDataSource extends DataSource {
     public void setFileName(String fileName) {
         this.fileName = fileName;
     }
+
+    /**
+     * Returns delimiter the column statistics were computed with
+     *
+     * @return delimiter or null if no statistics were computed
+     */
+    public String getStatisticsDelimiter() {
+        return statisticsDelimiter;
+    }
+
+    /**
+     * Sets delimiter the column statistics were computed with
+     *
+     * @param statisticsDelimiter
+     */
+    public void setStatisticsDelimiter(String statisticsDelimiter) {
+        this.statisticsDelimiter = statisticsDelimiter;
+    }
+
+    /**
+     * Returns column statistics
+     *
+     * @return
+     */
+    public Set<ColumnStatistics> getColumnStatistics() {
+        return columnStatistics;
+    }
+
+    /**
+     * Sets column statistics
+     *
+     * @param columnStatistics
+     */
+    public void setColumnStatistics(Set<ColumnStatistics> columnStatistics) {
+        this.columnStatistics = columnStatistics;
+    }
+
+    /**
+     * Returns columnar representation of file not stored yet
+     *
+     * @return bytes or null if file was not converted or columnar representation is stored
+     */
+    public byte[] getColumnarFile() {
+        return columnarFile;
+    }
+
+    /**
+     * Sets columnar representation of file, stored when the datasource is saved
+     *
+     * @param columnarFile
+     */
+    public void setColumnarFile(byte[] columnarFile) {
+        this.columnarFile = columnarFile;
+    }
 }
@@ -5,6 +5,8 @@ import org.hibernate.annotations.CascadeType;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.validation.constraints.NotNull;
@@ -12,7 +14,7 @@ import java.math.BigDecimal;
 
 /**
  * Entity metric extends measurable
- * Attributes: formula (Formula), targetValue (BigDecimal)
+ * Attributes: formula (Formula), targetValue (BigDecimal), evaluationMode (EvaluationMode)
  *
  * @author Julian Bauer
  */
@@ -30,6 +32,9 @@ public class Metric extends Measurable {
     @Column(precision = 20, scale = 10, columnDefinition="DECIMAL(20,10)")
     private BigDecimal targetValue = BigDecimal.ZERO;
 
+    @Enumerated(EnumType.STRING)
+    private EvaluationMode evaluationMode = EvaluationMode.EXACT;
+
     /**
      * Returns formula
      *
@@ -66,4 +71,22 @@ public class Metric extends Measurable {
     public void setTargetValue(BigDecimal targetValue) {
         this.targetValue = targetValue;
     }
+
+    /**
+     * Returns evaluation mode, metrics saved without evaluation mode are evaluated exactly
+     *
+     * @return
+     */
+    public EvaluationMode getEvaluationMode() {
+        return evaluationMode != null ? evaluationMode : EvaluationMode.EXACT;
+    }
+
+    /**
+     * Sets evaluation mode
+     *
+     * @param evaluationMode
+     */
+    public void setEvaluationMode(EvaluationMode evaluationMode) {
+        this.evaluationMode = evaluationMode;
+    }
 }
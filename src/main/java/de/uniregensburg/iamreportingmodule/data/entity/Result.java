@@ -14,6 +14,8 @@ import java.util.Date;
  * @author Julian Bauer
  */
 @Entity
+// range scans over the history of a measurable, e.g. for window functions in formulas
+@Table(indexes = @Index(name = "idx_result_measurable_point_in_time", columnList = "measurable_id, pointInTime"))
 public class Result extends AbstractEntity {
 
     @NotNull
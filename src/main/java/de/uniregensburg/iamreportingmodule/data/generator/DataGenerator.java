@@ -1,7 +1,10 @@
 package de.uniregensburg.iamreportingmodule.data.generator;
 
 import com.vaadin.flow.spring.annotation.SpringComponent;
+import de.uniregensburg.iamreportingmodule.core.service.FileStorageService;
 import de.uniregensburg.iamreportingmodule.core.service.JobSchedulingService;
+import de.uniregensburg.iamreportingmodule.core.util.ColumnarCsv;
+import de.uniregensburg.iamreportingmodule.core.util.CsvStatisticsUtil;
 import de.uniregensburg.iamreportingmodule.data.entity.*;
 import de.uniregensburg.iamreportingmodule.data.repository.*;
 import org.slf4j.Logger;
@@ -39,6 +42,7 @@ public class DataGenerator {
      * @param manualDataSourceRepository
      * @param databaseDataSourceRepository
      * @param fileDataSourceRepository
+     * @param columnarFileRepository
      * @param measurementRepository
      * @param jobSchedulingService
      * @param metricRepository
@@ -52,6 +56,7 @@ public class DataGenerator {
                                          ManualDataSourceRepository manualDataSourceRepository,
                                          DatabaseDataSourceRepository databaseDataSourceRepository,
                                          FileDataSourceRepository fileDataSourceRepository,
+                                         ColumnarFileRepository columnarFileRepository,
                                          MeasurementRepository measurementRepository,
                                          JobSchedulingService jobSchedulingService,
                                          MetricRepository metricRepository) {
@@ -212,9 +217,13 @@ public class DataGenerator {
             csvfileDataSource.setFileType(FileType.CSV);
             csvfileDataSource.setFile(Base64.getDecoder().decode("Vm9ybmFtZTtOYWNobmFtZTtBbHRlcg0KQW5uZTtNYXVlcjszMA0KTWFyY287TWV5ZXI7MjMNCkthdHJpbjtGaW5rOzU0DQpCcmlnaXR0ZTtGbGVpc2NoZXI7MzQNCkRvbWluaWs7SG9sem1hbm47MjANCkFubmE7V2ViZXI7MzQNCg=="));
             csvfileDataSource.setFileName("useraccounts.csv");
+            new CsvStatisticsUtil(csvfileDataSource).computeStatistics();
+            byte[] csvColumnarFile = ColumnarCsv.encode(csvfileDataSource.getFile(), csvfileDataSource.getStatisticsDelimiter());
 
             logger.info("Saving file datasources");
             fileDataSourceRepository.saveAll(Set.of(csvfileDataSource));
+            columnarFileRepository.save(new ColumnarFile(csvfileDataSource.getId(),
+                    FileStorageService.ATTRIBUTE_FILE_GENERATION, csvColumnarFile));
 
             logger.info("Generating measurements");
 
@@ -0,0 +1,63 @@
+package de.uniregensburg.iamreportingmodule.data.repository;
+
+import de.uniregensburg.iamreportingmodule.data.entity.ColumnarFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Repository for columnar representations of uploaded files
+ * extends JpaRepository
+ *
+ * @author Julian Bauer
+ */
+public interface ColumnarFileRepository extends JpaRepository<ColumnarFile, UUID> {
+
+    /**
+     * Returns columnar representation of generation of file
+     *
+     * @param fileDataSourceId
+     * @param generation
+     * @return
+     */
+    Optional<ColumnarFile> findByFileDataSourceIdAndGeneration(UUID fileDataSourceId, int generation);
+
+    /**
+     * Deletes columnar representation of file without loading it
+     *
+     * @param fileDataSourceId
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ColumnarFile c WHERE c.fileDataSourceId = :fileDataSourceId")
+    void deleteByFileDataSourceId(@Param("fileDataSourceId") UUID fileDataSourceId);
+
+    /**
+     * Deletes columnar representation of file of generation without loading, removes leftovers of a failed upload
+     *
+     * @param fileDataSourceId
+     * @param generation
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ColumnarFile c WHERE c.fileDataSourceId = :fileDataSourceId AND c.generation = :generation")
+    void deleteByFileDataSourceIdAndGeneration(@Param("fileDataSourceId") UUID fileDataSourceId,
+                                               @Param("generation") int generation);
+
+    /**
+     * Deletes columnar representation of file of all other generations without loading
+     *
+     * @param fileDataSourceId
+     * @param generation generation to keep
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ColumnarFile c WHERE c.fileDataSourceId = :fileDataSourceId AND c.generation <> :generation")
+    void deleteByFileDataSourceIdAndGenerationNot(@Param("fileDataSourceId") UUID fileDataSourceId,
+                                                  @Param("generation") int generation);
+}
@@ -0,0 +1,64 @@
+package de.uniregensburg.iamreportingmodule.data.repository;
+
+import de.uniregensburg.iamreportingmodule.data.entity.FileChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Repository for chunks of uploaded files
+ * extends JpaRepository
+ *
+ * @author Julian Bauer
+ */
+public interface FileChunkRepository extends JpaRepository<FileChunk, UUID> {
+
+    /**
+     * Returns chunk of generation of file at position
+     *
+     * @param fileDataSourceId
+     * @param generation
+     * @param chunkIndex
+     * @return
+     */
+    Optional<FileChunk> findByFileDataSourceIdAndGenerationAndChunkIndex(UUID fileDataSourceId, int generation, int chunkIndex);
+
+    /**
+     * Deletes all chunks of file without loading them
+     *
+     * @param fileDataSourceId
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileChunk c WHERE c.fileDataSourceId = :fileDataSourceId")
+    void deleteByFileDataSourceId(@Param("fileDataSourceId") UUID fileDataSourceId);
+
+    /**
+     * Deletes chunks of file of generation without loading, removes leftovers of a failed upload
+     *
+     * @param fileDataSourceId
+     * @param generation
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileChunk c WHERE c.fileDataSourceId = :fileDataSourceId AND c.generation = :generation")
+    void deleteByFileDataSourceIdAndGeneration(@Param("fileDataSourceId") UUID fileDataSourceId,
+                                               @Param("generation") int generation);
+
+    /**
+     * Deletes chunks of file of all other generations without loading
+     *
+     * @param fileDataSourceId
+     * @param generation generation to keep
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM FileChunk c WHERE c.fileDataSourceId = :fileDataSourceId AND c.generation <> :generation")
+    void deleteByFileDataSourceIdAndGenerationNot(@Param("fileDataSourceId") UUID fileDataSourceId,
+                                                  @Param("generation") int generation);
+}
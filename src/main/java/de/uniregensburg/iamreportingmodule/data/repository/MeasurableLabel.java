@@ -0,0 +1,26 @@
+package de.uniregensburg.iamreportingmodule.data.repository;
+
+import java.util.UUID;
+
+/**
+ * Projection of label of a measurable
+ * Attributes: id (UUID), label (String)
+ *
+ * @author Julian Bauer
+ */
+public interface MeasurableLabel {
+
+    /**
+     * Returns id of measurable
+     *
+     * @return
+     */
+    UUID getId();
+
+    /**
+     * Returns label of measurable
+     *
+     * @return
+     */
+    String getLabel();
+}
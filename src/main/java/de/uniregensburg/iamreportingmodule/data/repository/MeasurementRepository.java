@@ -2,7 +2,9 @@ package de.uniregensburg.iamreportingmodule.data.repository;
 
 import de.uniregensburg.iamreportingmodule.data.entity.Measurement;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,4 +23,20 @@ public interface MeasurementRepository extends JpaRepository<Measurement, UUID>
      * @return
      */
     List<Measurement> findAllByLabel(String label);
+
+    /**
+     * Returns all measurements by labels
+     *
+     * @param labels
+     * @return
+     */
+    List<Measurement> findAllByLabelIn(Collection<String> labels);
+
+    /**
+     * Returns ids and labels of all measurements without loading the measurements
+     *
+     * @return
+     */
+    @Query("SELECT m.id AS id, m.label AS label FROM Measurement m")
+    List<MeasurableLabel> findAllLabels();
 }
@@ -4,7 +4,9 @@ import de.uniregensburg.iamreportingmodule.data.entity.Audience;
 import de.uniregensburg.iamreportingmodule.data.entity.InformationNeed;
 import de.uniregensburg.iamreportingmodule.data.entity.Metric;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -33,4 +35,20 @@ public interface MetricRepository extends JpaRepository<Metric, UUID> {
      * @return
      */
     List<Metric> findAllByLabel(String label);
+
+    /**
+     * Returns all metrics by labels
+     *
+     * @param labels
+     * @return
+     */
+    List<Metric> findAllByLabelIn(Collection<String> labels);
+
+    /**
+     * Returns ids and labels of all metrics without loading the metrics
+     *
+     * @return
+     */
+    @Query("SELECT m.id AS id, m.label AS label FROM Metric m")
+    List<MeasurableLabel> findAllLabels();
 }
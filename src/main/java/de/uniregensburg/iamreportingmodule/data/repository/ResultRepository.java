@@ -3,9 +3,20 @@ package de.uniregensburg.iamreportingmodule.data.repository;
 import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
 import de.uniregensburg.iamreportingmodule.data.entity.Result;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 /**
  * Repository for results
@@ -30,4 +41,92 @@ public interface ResultRepository extends JpaRepository<Result, UUID> {
      * @return
      */
     Result findFirstByMeasurableOrderByPointInTimeDesc(Measurable measurable);
+
+    /**
+     * Returns id of measurable, point in time and value of latest result of each measurable by ids of measurables in
+     * one query, measurables are not loaded
+     *
+     * @param measurableIds
+     * @return
+     */
+    @Query("SELECT r.measurable.id AS measurableId, r.pointInTime AS pointInTime, r.value AS value FROM Result r " +
+            "WHERE r.measurable.id IN :measurableIds AND r.pointInTime = " +
+            "(SELECT MAX(l.pointInTime) FROM Result l WHERE l.measurable.id = r.measurable.id)")
+    List<ResultValue> findLatestByMeasurableIdIn(@Param("measurableIds") Collection<UUID> measurableIds);
+
+    /**
+     * Returns first result by measurable ordered by point in time ascending
+     *
+     * @param measurable
+     * @return
+     */
+    Result findFirstByMeasurableOrderByPointInTimeAsc(Measurable measurable);
+
+    /**
+     * Streams point in time and value of all results of measurable before point in time ordered by point in time
+     * Must be consumed within a transaction, rows are fetched in batches instead of being loaded at once
+     *
+     * @param measurableId
+     * @param before
+     * @return stream of rows [pointInTime (Date), value (BigDecimal)]
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT r.pointInTime, r.value FROM Result r WHERE r.measurable.id = :measurableId AND r.pointInTime < :before " +
+            "ORDER BY r.pointInTime")
+    Stream<Object[]> streamValuesByMeasurableIdBefore(@Param("measurableId") UUID measurableId, @Param("before") Date before);
+
+    /**
+     * Deletes all results of measurable before point in time without loading them
+     *
+     * @param measurableId
+     * @param before
+     * @return number of deleted results
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Result r WHERE r.measurable.id = :measurableId AND r.pointInTime < :before")
+    int deleteByMeasurableIdBefore(@Param("measurableId") UUID measurableId, @Param("before") Date before);
+
+    /**
+     * Deletes all results of measurable from point in time (inclusive) to point in time (exclusive) without loading them
+     *
+     * @param measurableId
+     * @param from
+     * @param before
+     * @return number of deleted results
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Result r WHERE r.measurable.id = :measurableId AND r.pointInTime >= :from AND r.pointInTime < :before")
+    int deleteByMeasurableIdBetween(@Param("measurableId") UUID measurableId, @Param("from") Date from,
+                                    @Param("before") Date before);
+
+    /**
+     * Returns statistics of results by measurable since point in time using an indexed range scan
+     *
+     * @param measurable
+     * @param from
+     * @return
+     */
+    @Query("SELECT COUNT(r) AS numberOfResults, SUM(r.value) AS sumOfValues, MIN(r.value) AS minimumValue, " +
+            "MAX(r.value) AS maximumValue FROM Result r WHERE r.measurable = :measurable AND r.pointInTime >= :from")
+    ResultStatistics findStatisticsByMeasurableSince(@Param("measurable") Measurable measurable, @Param("from") Date from);
+
+    /**
+     * Returns latest result by measurable at or before point in time
+     *
+     * @param measurable
+     * @param pointInTime
+     * @return
+     */
+    Result findFirstByMeasurableAndPointInTimeLessThanEqualOrderByPointInTimeDesc(Measurable measurable, Date pointInTime);
+
+    /**
+     * Returns earliest result by measurable at or after point in time
+     *
+     * @param measurable
+     * @param pointInTime
+     * @return
+     */
+    Result findFirstByMeasurableAndPointInTimeGreaterThanEqualOrderByPointInTimeAsc(Measurable measurable, Date pointInTime);
 }
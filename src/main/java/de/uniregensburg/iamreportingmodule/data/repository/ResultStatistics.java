@@ -0,0 +1,40 @@
+package de.uniregensburg.iamreportingmodule.data.repository;
+
+import java.math.BigDecimal;
+
+/**
+ * Projection of aggregated results of a measurable
+ * Attributes: numberOfResults (Long), sumOfValues (BigDecimal), minimumValue (BigDecimal), maximumValue (BigDecimal)
+ *
+ * @author Julian Bauer
+ */
+public interface ResultStatistics {
+
+    /**
+     * Returns number of results
+     *
+     * @return
+     */
+    Long getNumberOfResults();
+
+    /**
+     * Returns sum of values, null if no results
+     *
+     * @return
+     */
+    BigDecimal getSumOfValues();
+
+    /**
+     * Returns minimum value, null if no results
+     *
+     * @return
+     */
+    BigDecimal getMinimumValue();
+
+    /**
+     * Returns maximum value, null if no results
+     *
+     * @return
+     */
+    BigDecimal getMaximumValue();
+}
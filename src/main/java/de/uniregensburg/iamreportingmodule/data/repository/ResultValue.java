@@ -0,0 +1,35 @@
+package de.uniregensburg.iamreportingmodule.data.repository;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Projection of a result without its measurable entity
+ * Attributes: measurableId (UUID), pointInTime (Date), value (BigDecimal)
+ *
+ * @author Julian Bauer
+ */
+public interface ResultValue {
+
+    /**
+     * Returns id of measurable
+     *
+     * @return
+     */
+    UUID getMeasurableId();
+
+    /**
+     * Returns point in time
+     *
+     * @return
+     */
+    Date getPointInTime();
+
+    /**
+     * Returns value
+     *
+     * @return
+     */
+    BigDecimal getValue();
+}
@@ -7,7 +7,9 @@ import com.vaadin.flow.data.binder.Validator;
 import com.vaadin.flow.data.binder.ValueContext;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
 import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaTokenizer;
 import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
+import de.uniregensburg.iamreportingmodule.core.util.TokenizedFormula;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,8 +46,9 @@ public class FormulaValidator implements Validator<String> {
             return ValidationResult.error("Formula is null");
         }
         try {
-            // validate formula
-            String formula = util.replaceVariablesWithMeasurableValues(value);
+            // tokenize and validate formula
+            TokenizedFormula tokens = FormulaTokenizer.tokenize(value);
+            String formula = util.replaceVariablesWithMeasurableValues(tokens);
             Expression expression = new Expression(formula);
             expression.validate();
             // return ok
@@ -4,15 +4,10 @@ import com.vaadin.flow.data.binder.ValidationResult;
 import com.vaadin.flow.data.binder.Validator;
 import com.vaadin.flow.data.binder.ValueContext;
 import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
-import de.uniregensburg.iamreportingmodule.data.entity.Measurement;
-import de.uniregensburg.iamreportingmodule.data.entity.Metric;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Validator for labels of measurables
  *
@@ -60,18 +55,9 @@ public class MeasurableLabelValidator implements Validator<String> {
                 logger.info("Provided label differs current label");
             }
         }
-        logger.info("Collecting labels of all measurables");
-        // adding all already used labels to set
-        Set<String> labels = new HashSet<>();
-        for (Measurement measurement : service.findAllMeasurements()) {
-            labels.add(measurement.getLabel());
-        }
-        for (Metric metric : service.findAllMetrics()) {
-            labels.add(metric.getLabel());
-        }
         logger.info("Checking if label for validation with value " + value + " is unique");
-        // checking if label is unique
-        if (labels.contains(value)) {
+        // checking if label is unique using label directory
+        if (service.isLabelUsed(value)) {
             logger.info("Label is not unique");
             // return error: not unique
             return ValidationResult.error("Label not unique");
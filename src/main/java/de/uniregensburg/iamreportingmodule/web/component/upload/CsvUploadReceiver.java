@@ -0,0 +1,158 @@
+package de.uniregensburg.iamreportingmodule.web.component.upload;
+
+import com.vaadin.flow.component.upload.Receiver;
+import de.uniregensburg.iamreportingmodule.core.util.CsvUploadStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Upload receiver spooling csv files to a temporary file and validating them while they stream in
+ * Unlike a memory buffer, uploads are never held in memory as a whole. Gzip-compressed files (.csv.gz) are spooled as
+ * they are and decompressed into a second temporary file in a stream when the upload is taken, validated the same way.
+ *
+ * @author Julian Bauer
+ */
+public class CsvUploadReceiver implements Receiver {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final long maxFileSize;
+    private Path file = null;
+    private OutputStream stream = null;
+    private boolean compressed = false;
+
+    /**
+     *
+     * @param maxFileSize maximum size of uploaded files in bytes
+     */
+    public CsvUploadReceiver(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Returns stream to temporary file for upload, deletes temporary file of previous upload not taken
+     *
+     * @param fileName
+     * @param mimeType
+     * @return
+     */
+    @Override
+    public OutputStream receiveUpload(String fileName, String mimeType) {
+        discard();
+        try {
+            compressed = isCompressed(fileName, mimeType);
+            file = Files.createTempFile("iamreportingmodule-upload-", compressed ? ".csv.gz" : ".csv");
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+            // compressed data is validated after decompressing
+            stream = compressed ? out : new CsvUploadStream(out, maxFileSize);
+            logger.info("Spooling upload " + fileName + " to " + file);
+            return stream;
+        } catch (IOException e) {
+            logger.info("Cannot create temporary file: " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks end of upload and hands over temporary file, caller is responsible for deleting it
+     *
+     * @return temporary file
+     * @throws IOException if upload is invalid, temporary file is deleted then
+     */
+    public Path takeFile() throws IOException {
+        if (file == null) {
+            throw new IOException("No uploaded file found");
+        }
+        Path uploadedFile = file;
+        try {
+            if (compressed) {
+                stream.close();
+                uploadedFile = decompress(file);
+                Files.delete(file);
+            } else {
+                CsvUploadStream csvStream = (CsvUploadStream) stream;
+                csvStream.finish();
+                csvStream.close();
+                logger.info("Received " + csvStream.getSize() + " bytes and " + csvStream.getRecords() + " records");
+            }
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+        file = null;
+        stream = null;
+        return uploadedFile;
+    }
+
+    /**
+     * Returns if upload is gzip-compressed
+     *
+     * @param fileName
+     * @param mimeType
+     * @return
+     */
+    public static boolean isCompressed(String fileName, String mimeType) {
+        return fileName.toLowerCase().endsWith(".gz") || (mimeType != null && mimeType.contains("gzip"));
+    }
+
+    /**
+     * Returns file name of upload after decompressing
+     *
+     * @param fileName
+     * @return file name without extension .gz
+     */
+    public static String getDecompressedFileName(String fileName) {
+        return fileName.toLowerCase().endsWith(".gz") ? fileName.substring(0, fileName.length() - 3) : fileName;
+    }
+
+    /**
+     * Decompresses gzip-compressed file into new temporary file in a stream and validates it
+     *
+     * @param compressedFile
+     * @return temporary file
+     * @throws IOException if file is not gzip-compressed or decompressed data is invalid
+     */
+    private Path decompress(Path compressedFile) throws IOException {
+        Path decompressedFile = Files.createTempFile("iamreportingmodule-upload-", ".csv");
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressedFile), 65536);
+             CsvUploadStream out = new CsvUploadStream(new BufferedOutputStream(Files.newOutputStream(decompressedFile)), maxFileSize)) {
+            in.transferTo(out);
+            out.finish();
+            logger.info("Decompressed " + Files.size(compressedFile) + " to " + out.getSize() + " bytes and "
+                    + out.getRecords() + " records");
+        } catch (IOException e) {
+            Files.deleteIfExists(decompressedFile);
+            throw e;
+        }
+        return decompressedFile;
+    }
+
+    /**
+     * Deletes temporary file of upload not taken
+     */
+    public void discard() {
+        if (file == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            logger.info("Cannot close upload stream: " + e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.info("Cannot delete temporary file: " + e.getMessage());
+        }
+        file = null;
+        stream = null;
+    }
+}
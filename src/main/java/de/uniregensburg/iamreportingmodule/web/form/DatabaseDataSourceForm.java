@@ -11,6 +11,7 @@ import com.vaadin.flow.component.textfield.TextField;
 import com.vaadin.flow.data.binder.BeanValidationBinder;
 import com.vaadin.flow.data.binder.Binder;
 import com.vaadin.flow.data.binder.ValidationException;
+import com.vaadin.flow.data.converter.StringToIntegerConverter;
 import com.vaadin.flow.shared.Registration;
 import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
 import de.uniregensburg.iamreportingmodule.core.util.DatabaseUtil;
@@ -52,6 +53,10 @@ public class DatabaseDataSourceForm extends FormLayout {
     private final TextField database = new TextField("Database");
     private final TextField username = new TextField("Username");
     private final PasswordField password = new PasswordField("Password");
+    private final TextField maxPoolSize = new TextField("Maximum connections");
+    private final TextField batchWindow = new TextField("Batch window (ms)");
+    private final TextField maxConcurrentQueries = new TextField("Maximum concurrent queries");
+    private final TextField queryTimeout = new TextField("Query timeout (s)");
 
     /**
      *
@@ -74,13 +79,39 @@ public class DatabaseDataSourceForm extends FormLayout {
                 .withConverter(
                         new StringToPortConverter("Not in range from 1 to 65535"))
                 .bind(DatabaseDataSource::getPort,DatabaseDataSource::setPort);
+        // empty for default pool size
+        binder.forField(maxPoolSize)
+                .withConverter(new StringToIntegerConverter("Not a number"))
+                .withValidator(size -> size == null || (size >= 1 && size <= 100), "Not in range from 1 to 100")
+                .bind(DatabaseDataSource::getMaxPoolSize,DatabaseDataSource::setMaxPoolSize);
+        // empty for separate queries
+        binder.forField(batchWindow)
+                .withConverter(new StringToIntegerConverter("Not a number"))
+                .withValidator(window -> window == null || (window >= 0 && window <= 10000), "Not in range from 0 to 10000")
+                .bind(DatabaseDataSource::getBatchWindow,DatabaseDataSource::setBatchWindow);
+        // empty for pool size
+        binder.forField(maxConcurrentQueries)
+                .withConverter(new StringToIntegerConverter("Not a number"))
+                .withValidator(max -> max == null || (max >= 1 && max <= 100), "Not in range from 1 to 100")
+                .bind(DatabaseDataSource::getMaxConcurrentQueries,DatabaseDataSource::setMaxConcurrentQueries);
+        // empty for default timeout
+        binder.forField(queryTimeout)
+                .withConverter(new StringToIntegerConverter("Not a number"))
+                .withValidator(timeout -> timeout == null || (timeout >= 1 && timeout <= 3600), "Not in range from 1 to 3600")
+                .bind(DatabaseDataSource::getQueryTimeout,DatabaseDataSource::setQueryTimeout);
         binder.bindInstanceFields(this);
+        maxPoolSize.setPlaceholder("Default");
+        batchWindow.setPlaceholder("Disabled");
+        batchWindow.setHelperText("Measurements due within this time are queried in one round-trip");
+        maxConcurrentQueries.setPlaceholder("Maximum connections");
+        maxConcurrentQueries.setHelperText("Further measurements wait for a short time and are skipped");
+        queryTimeout.setPlaceholder("Default");
 
         // configure form components
         configureComboBox(dbmsTypeList);
 
         // add components to layout
-        add(name, description, dbmsType, host, port, database, username, password);
+        add(name, description, dbmsType, host, port, database, username, password, maxPoolSize, batchWindow, maxConcurrentQueries, queryTimeout);
     }
 
     /**
@@ -10,23 +10,25 @@ import com.vaadin.flow.component.html.Paragraph;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.textfield.TextField;
 import com.vaadin.flow.component.upload.Upload;
-import com.vaadin.flow.component.upload.receivers.MemoryBuffer;
 import com.vaadin.flow.data.binder.BeanValidationBinder;
 import com.vaadin.flow.data.binder.Binder;
 import com.vaadin.flow.data.binder.ValidationException;
 import com.vaadin.flow.server.StreamResource;
 import com.vaadin.flow.shared.Registration;
+import de.uniregensburg.iamreportingmodule.core.service.FileStorageService;
 import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
 import de.uniregensburg.iamreportingmodule.data.entity.FileType;
 import de.uniregensburg.iamreportingmodule.web.component.notification.ErrorNotification;
 import de.uniregensburg.iamreportingmodule.web.component.notification.SuccessNotification;
+import de.uniregensburg.iamreportingmodule.web.component.upload.CsvUploadReceiver;
 import de.uniregensburg.iamreportingmodule.web.view.MainLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -54,13 +56,19 @@ public class FileDataSourceForm extends FormLayout {
     private final TextField description = new TextField("Description");
     private final TextField fileName = new TextField("File name");
     private final TextField fileType = new TextField("File type");
-    private final MemoryBuffer buffer = new MemoryBuffer();
-    private final Upload upload = new Upload(buffer);
+    private final FileStorageService fileStorageService;
+    private final CsvUploadReceiver receiver;
+    private final Upload upload;
+    private boolean preparing = false;
 
     /**
      *
+     * @param fileStorageService
      */
-    public FileDataSourceForm() {
+    public FileDataSourceForm(FileStorageService fileStorageService) {
+        this.fileStorageService = fileStorageService;
+        this.receiver = new CsvUploadReceiver(fileStorageService.getMaxFileSize());
+        this.upload = new Upload(receiver);
         init();
     }
 
@@ -84,7 +92,8 @@ public class FileDataSourceForm extends FormLayout {
 
         // add upload field and hint to div
         Div uploadDiv = new Div();
-        Paragraph hint = new Paragraph("Maximum file size: 100 MB");
+        Paragraph hint = new Paragraph("Csv file or gzip-compressed csv file (.csv.gz), maximum file size: "
+                + fileStorageService.getMaxFileSize() / (1024 * 1024) + " MB");
         uploadDiv.add(hint, upload);
 
         // read only fields
@@ -140,7 +149,12 @@ public class FileDataSourceForm extends FormLayout {
      * @return
      */
     private InputStream makeInputStreamOfContent() {
-        return new ByteArrayInputStream(dataSource.getFile());
+        try {
+            return fileStorageService.openStream(dataSource);
+        } catch (IOException e) {
+            logger.info("Cannot read file: " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -148,28 +162,40 @@ public class FileDataSourceForm extends FormLayout {
      */
     private void configureUpload() {
         upload.setMaxFiles(1); // limit to one file
-        upload.setMaxFileSize(100 * 1024 * 1024); // limit file size to 100 MB
-        upload.setAcceptedFileTypes("text/csv"); // limit mime types
+        // limit file size in browser, the limit of the upload field is an int, larger limits are enforced by receiver
+        if (fileStorageService.getMaxFileSize() <= Integer.MAX_VALUE) {
+            upload.setMaxFileSize(Math.toIntExact(fileStorageService.getMaxFileSize()));
+        }
+        upload.setAcceptedFileTypes("text/csv", ".csv", "application/gzip", ".gz"); // limit mime types and extensions
 
         upload.addSucceededListener(event -> {
             logger.info("File uploaded sucessfully");
-            InputStream fileData = buffer.getInputStream();
             try {
                 logger.info("Adding file content to bean");
-                if (event.getMIMEType().equals("text/csv")) {
-                    fileType.setValue(FileType.CSV.toString());
-                } else {
+                boolean compressed = CsvUploadReceiver.isCompressed(event.getFileName(), event.getMIMEType());
+                if (!event.getMIMEType().equals("text/csv") && !compressed) {
                     logger.info("MIME type unknown: " + event.getMIMEType());
                     new ErrorNotification("File upload failed", "Unknown MIME type " + event.getMIMEType()).open();
+                    receiver.discard();
                     return;
                 }
-                fileName.setValue(event.getFileName());
-                dataSource.setFile(fileData.readAllBytes());
-                new SuccessNotification("Success", "File uploaded successfully").open();
-                logger.info("Added file content to bean");
+                // upload was validated while streaming into temporary file, compressed uploads are decompressed
+                Path uploadedFile = receiver.takeFile();
+                String uploadedFileName = compressed ? CsvUploadReceiver.getDecompressedFileName(event.getFileName()) : event.getFileName();
+                // scanning large files takes a while, form is updated when file is prepared
+                FileDataSource preparedDataSource = dataSource;
+                UI ui = UI.getCurrent();
+                setPreparing(true);
+                fileStorageService.prepareAsync(preparedDataSource, uploadedFile).whenComplete((result, e) -> {
+                    try {
+                        ui.access(() -> filePrepared(preparedDataSource, uploadedFileName, e));
+                    } catch (UIDetachedException detached) {
+                        fileStorageService.discard(preparedDataSource);
+                    }
+                });
             } catch (IOException e) {
                 logger.info("Error while writing file content to bean: " + e.getMessage());
-                new ErrorNotification("File upload failed", "Cannot save file content").open();
+                new ErrorNotification("File upload failed", e.getMessage()).open();
             }
 
         });
@@ -180,11 +206,48 @@ public class FileDataSourceForm extends FormLayout {
         });
 
         upload.addFailedListener(event -> {
+            receiver.discard();
             logger.info("File upload failed: " + event.getReason().getMessage());
             new ErrorNotification("File upload failed", event.getReason().getMessage()).open();
         });
     }
 
+    /**
+     * Updates form after uploaded file was prepared, file is stored in chunks when datasource is saved
+     * Files prepared for a datasource no longer shown are discarded.
+     *
+     * @param preparedDataSource
+     * @param uploadedFileName
+     * @param e error or null if file was prepared
+     */
+    private void filePrepared(FileDataSource preparedDataSource, String uploadedFileName, Throwable e) {
+        setPreparing(false);
+        if (preparedDataSource != dataSource || !isAttached()) {
+            fileStorageService.discard(preparedDataSource);
+            return;
+        }
+        if (e != null) {
+            logger.info("Error while writing file content to bean: " + e.getMessage());
+            new ErrorNotification("File upload failed", e.getMessage()).open();
+            return;
+        }
+        fileType.setValue(FileType.CSV.toString());
+        fileName.setValue(uploadedFileName);
+        new SuccessNotification("Success", "File uploaded successfully").open();
+        logger.info("Added file content to bean");
+    }
+
+    /**
+     * Disables upload and saving while uploaded file is prepared
+     *
+     * @param preparing
+     */
+    private void setPreparing(boolean preparing) {
+        this.preparing = preparing;
+        upload.getElement().setEnabled(!preparing);
+        save.setEnabled(!preparing && binder.isValid());
+    }
+
     /**
      * Initializes buttons in navbar
      *
@@ -202,7 +265,7 @@ public class FileDataSourceForm extends FormLayout {
         delete.addClickListener(event -> fireEvent(new DeleteEvent(this, dataSource)));
         cancel.addClickListener(event -> fireEvent(new CloseEvent(this)));
 
-        binder.addStatusChangeListener(e -> save.setEnabled(binder.isValid()));
+        binder.addStatusChangeListener(e -> save.setEnabled(!preparing && binder.isValid()));
     }
 
     /**
@@ -218,7 +281,9 @@ public class FileDataSourceForm extends FormLayout {
      * Validates and saves file datasource
      */
     private void validateAndSave() {
-        if (!uploadSuccessful()) {
+        if (preparing) {
+            new ErrorNotification("Uploaded file is still being prepared").open();
+        } else if (!uploadSuccessful()) {
             new ErrorNotification("No uploaded file found").open();
         } else if (binder.validate().hasErrors()) {
             new ErrorNotification("Form contains errors").open();
@@ -238,11 +303,11 @@ public class FileDataSourceForm extends FormLayout {
      * @return
      */
     private boolean uploadSuccessful() {
-        if (dataSource.getFile() == null) {
+        if (dataSource.getFile() == null && dataSource.getUploadedFile() == null && dataSource.getFileSize() == null) {
             logger.info("No file provided");
             return false;
         }
-        if (dataSource.getFile().length == 0) {
+        if (fileStorageService.getSize(dataSource) == 0) {
             logger.info("No file data set");
             return false;
         }
@@ -346,6 +411,12 @@ public class FileDataSourceForm extends FormLayout {
             ml.getNavbarButtons().removeAll();
         }
 
+        // delete temporary files of uploads not saved, files still being prepared are discarded when prepared
+        receiver.discard();
+        if (dataSource != null && !preparing) {
+            fileStorageService.discard(dataSource);
+        }
+
         super.onDetach(detachEvent);
     }
 
@@ -20,8 +20,8 @@ import com.vaadin.flow.shared.Registration;
 import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
 import de.uniregensburg.iamreportingmodule.core.exception.FileException;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
-import de.uniregensburg.iamreportingmodule.core.util.CsvUtil;
-import de.uniregensburg.iamreportingmodule.core.util.DatabaseUtil;
+import de.uniregensburg.iamreportingmodule.core.util.CsvAggregator;
+import de.uniregensburg.iamreportingmodule.core.util.HyperLogLog;
 import de.uniregensburg.iamreportingmodule.data.converter.StringToFrequencyConverter;
 import de.uniregensburg.iamreportingmodule.data.entity.Unit;
 import de.uniregensburg.iamreportingmodule.data.entity.*;
@@ -46,6 +46,8 @@ import java.util.Map;
  */
 public class MeasurementForm extends FormLayout {
 
+    private static final List<CsvAggregationMethod> AGGREGATION_METHODS = List.of(CsvAggregationMethod.COUNT, CsvAggregationMethod.SUM, CsvAggregationMethod.AVERAGE, CsvAggregationMethod.MEDIAN, CsvAggregationMethod.MAXIMUM, CsvAggregationMethod.MINIMUM, CsvAggregationMethod.PERCENTILE, CsvAggregationMethod.APPROXIMATE_PERCENTILE, CsvAggregationMethod.COUNT_DISTINCT);
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private Measurement measurement;
@@ -68,13 +70,22 @@ public class MeasurementForm extends FormLayout {
     private final TextField frequency = new TextField("Frequency");
     private final ComboBox<DataSource> dataSources = new ComboBox<>("Data Source");
     private final TextArea sqlQuery = new TextArea("SQL Query");
+    private final TextField sqlPercentile = new TextField("Percentile");
+    private final TextField sqlDistinctPrecision = new TextField("Distinct precision");
     private final Div db = new Div();
     private final TextField csvColumnName = new TextField("Column name");
     private final TextField csvColumnIndex = new TextField("Column index");
     private final TextField csvDelimiter = new TextField("Delimiter");
+    private final TextField csvPercentile = new TextField("Percentile");
+    private final TextField csvDistinctPrecision = new TextField("Distinct precision");
+    private final TextField csvFilterColumnName = new TextField("Filter column name");
+    private final TextField csvFilterColumnIndex = new TextField("Filter column index");
+    private final TextField csvFilterValue = new TextField("Filter value");
     private final Checkbox csvHeader = new Checkbox("Heading");
     private final FormLayout csv = new FormLayout();
     ComboBox<CsvAggregationMethod> csvAggregationMethod = new ComboBox<>("Aggregation method");
+    ComboBox<CsvFilterOperator> csvFilterOperator = new ComboBox<>("Filter operator");
+    ComboBox<CsvAggregationMethod> sqlAggregationMethod = new ComboBox<>("Aggregation method");
 
     /**
      *
@@ -107,21 +118,53 @@ public class MeasurementForm extends FormLayout {
         initAudiences();
         initInformationNeeds();
         initDataSources();
+        initDb();
         initCsv();
 
         // add database specific components
         Paragraph dbParagrapth = new Paragraph("Database specific attributes");
         sqlQuery.setWidthFull();
-        db.add(dbParagrapth, sqlQuery);
+        db.add(dbParagrapth, sqlQuery, sqlAggregationMethod, sqlPercentile, sqlDistinctPrecision);
 
         // add csv file specific components
         Paragraph csvParagrapth = new Paragraph("CSV specific attributes");
-        csv.add(csvParagrapth, csvHeader, csvColumnName, csvColumnIndex, csvDelimiter, csvAggregationMethod);
+        csv.add(csvParagrapth, csvHeader, csvColumnName, csvColumnIndex, csvDelimiter, csvAggregationMethod, csvPercentile,
+                csvDistinctPrecision, csvFilterOperator, csvFilterColumnName, csvFilterColumnIndex, csvFilterValue);
 
         // add components to layout
         add(name, description, label, scale, unit, frequency, stakeholders, audiences, informationNeeds, dataSources, db, csv);
     }
 
+    /**
+     * Initializes database components
+     */
+    private void initDb() {
+        // aggregation of returned rows is optional, without aggregation method the first value is measured
+        sqlAggregationMethod.setItems(AGGREGATION_METHODS);
+        sqlAggregationMethod.setClearButtonVisible(true);
+        sqlAggregationMethod.setPlaceholder("First value");
+        sqlAggregationMethod.setHelperText("Aggregates first column of all returned rows");
+        // percentile only for percentile aggregation methods
+        sqlPercentile.setPlaceholder("e.g. 95");
+        sqlPercentile.setVisible(false);
+        // precision only for distinct counting, optional
+        sqlDistinctPrecision.setPlaceholder("4 to 18, default " + HyperLogLog.DEFAULT_PRECISION);
+        sqlDistinctPrecision.setHelperText("Up to " + CsvAggregator.EXACT_DISTINCT_LIMIT + " distinct values are counted exactly");
+        sqlDistinctPrecision.setVisible(false);
+        sqlAggregationMethod.addValueChangeListener(event -> {
+            boolean percentile = CsvAggregator.isPercentile(event.getValue());
+            sqlPercentile.setVisible(percentile);
+            if (!percentile) {
+                sqlPercentile.clear();
+            }
+            boolean distinct = CsvAggregationMethod.COUNT_DISTINCT.equals(event.getValue());
+            sqlDistinctPrecision.setVisible(distinct);
+            if (!distinct) {
+                sqlDistinctPrecision.clear();
+            }
+        });
+    }
+
     /**
      * Initializes csv components
      */
@@ -131,15 +174,61 @@ public class MeasurementForm extends FormLayout {
                 csvColumnName.setVisible(true);
                 csvColumnIndex.setVisible(false);
                 csvColumnIndex.clear();
+                csvFilterColumnIndex.clear();
             } else {
                 csvColumnName.setVisible(false);
                 csvColumnIndex.setVisible(true);
                 csvColumnName.clear();
+                csvFilterColumnName.clear();
             }
+            setCsvFilterVisible(csvFilterOperator.getValue() != null);
         });
         csvHeader.setValue(false);
         csvColumnName.setVisible(false);
-        csvAggregationMethod.setItems(List.of(CsvAggregationMethod.COUNT, CsvAggregationMethod.SUM, CsvAggregationMethod.AVERAGE, CsvAggregationMethod.MEDIAN, CsvAggregationMethod.MAXIMUM, CsvAggregationMethod.MINIMUM));
+        csvAggregationMethod.setItems(AGGREGATION_METHODS);
+        // percentile only for percentile aggregation methods
+        csvPercentile.setPlaceholder("e.g. 95");
+        csvPercentile.setVisible(false);
+        // precision only for distinct counting, optional
+        csvDistinctPrecision.setPlaceholder("4 to 18, default " + HyperLogLog.DEFAULT_PRECISION);
+        csvDistinctPrecision.setHelperText("Up to " + CsvAggregator.EXACT_DISTINCT_LIMIT + " distinct values are counted exactly");
+        csvDistinctPrecision.setVisible(false);
+        csvAggregationMethod.addValueChangeListener(event -> {
+            boolean percentile = CsvAggregator.isPercentile(event.getValue());
+            csvPercentile.setVisible(percentile);
+            if (!percentile) {
+                csvPercentile.clear();
+            }
+            boolean distinct = CsvAggregationMethod.COUNT_DISTINCT.equals(event.getValue());
+            csvDistinctPrecision.setVisible(distinct);
+            if (!distinct) {
+                csvDistinctPrecision.clear();
+            }
+        });
+        // filter column and value only if filter operator is selected
+        csvFilterOperator.setItems(CsvFilterOperator.values());
+        csvFilterOperator.setClearButtonVisible(true);
+        csvFilterOperator.setPlaceholder("No filter");
+        csvFilterValue.setPlaceholder("e.g. LOCKED");
+        setCsvFilterVisible(false);
+        csvFilterOperator.addValueChangeListener(event -> setCsvFilterVisible(event.getValue() != null));
+    }
+
+    /**
+     * Shows or hides csv filter column and value fields
+     *
+     * @param visible
+     */
+    private void setCsvFilterVisible(boolean visible) {
+        boolean header = csvHeader.getValue();
+        csvFilterColumnName.setVisible(visible && header);
+        csvFilterColumnIndex.setVisible(visible && !header);
+        csvFilterValue.setVisible(visible);
+        if (!visible) {
+            csvFilterColumnName.clear();
+            csvFilterColumnIndex.clear();
+            csvFilterValue.clear();
+        }
     }
 
     /**
@@ -184,6 +273,9 @@ public class MeasurementForm extends FormLayout {
         db.setVisible(visible);
         if (!visible) {
             sqlQuery.clear();
+            sqlAggregationMethod.clear();
+            sqlPercentile.clear();
+            sqlDistinctPrecision.clear();
         }
     }
 
@@ -200,6 +292,9 @@ public class MeasurementForm extends FormLayout {
             csvAggregationMethod.clear();
             csvColumnIndex.clear();
             csvColumnName.clear();
+            csvPercentile.clear();
+            csvDistinctPrecision.clear();
+            csvFilterOperator.clear();
         }
     }
 
@@ -352,9 +447,35 @@ public class MeasurementForm extends FormLayout {
         }
         String csvAggregationMethodAttribute = csvAggregationMethod.getValue().name();
         attributes.put("csvAggregationMethod", csvAggregationMethodAttribute);
-        CsvUtil csvUtil = new CsvUtil(fileDataSource);
+        if (CsvAggregator.isPercentile(csvAggregationMethod.getValue())) {
+            String csvPercentileAttribute = csvPercentile.getValue();
+            if (csvPercentileAttribute.isBlank()) {
+                logger.info("Percentile is blank");
+                if (!silent) {
+                    new ErrorNotification("Percentile is blank").open();
+                }
+                return false;
+            }
+            attributes.put("csvPercentile", csvPercentileAttribute);
+        }
+        if (!csvDistinctPrecision.getValue().isBlank()) {
+            attributes.put("csvDistinctPrecision", csvDistinctPrecision.getValue());
+        }
+        if (csvFilterOperator.getValue() != null) {
+            String csvFilterColumnAttribute = csvHeaderAttribute ? csvFilterColumnName.getValue() : csvFilterColumnIndex.getValue();
+            if (csvFilterColumnAttribute.isBlank()) {
+                logger.info("Filter column is blank");
+                if (!silent) {
+                    new ErrorNotification("Filter column is blank").open();
+                }
+                return false;
+            }
+            attributes.put(csvHeaderAttribute ? "csvFilterColumnName" : "csvFilterColumnIndex", csvFilterColumnAttribute);
+            attributes.put("csvFilterOperator", csvFilterOperator.getValue().name());
+            attributes.put("csvFilterValue", csvFilterValue.getValue());
+        }
         try {
-            Result result = csvUtil.measure(attributes);
+            Result result = service.measureFile(fileDataSource, attributes);
             logger.info("Measurement successful: " + result.getValue());
             if (!silent) {
                 new SuccessNotification("Measurement successful: " + result.getValue().stripTrailingZeros().toPlainString()).open();
@@ -385,9 +506,27 @@ public class MeasurementForm extends FormLayout {
             }
             return false;
         }
-        DatabaseUtil databaseUtil = new DatabaseUtil(databaseDataSource);
+        HashMap<String, String> attributes = new HashMap<>();
+        attributes.put("sqlQuery", sqlQuery.getValue());
+        if (sqlAggregationMethod.getValue() != null) {
+            attributes.put("sqlAggregationMethod", sqlAggregationMethod.getValue().name());
+            if (CsvAggregator.isPercentile(sqlAggregationMethod.getValue())) {
+                String sqlPercentileAttribute = sqlPercentile.getValue();
+                if (sqlPercentileAttribute.isBlank()) {
+                    logger.info("Percentile is blank");
+                    if (!silent) {
+                        new ErrorNotification("Percentile is blank").open();
+                    }
+                    return false;
+                }
+                attributes.put("sqlPercentile", sqlPercentileAttribute);
+            }
+            if (!sqlDistinctPrecision.getValue().isBlank()) {
+                attributes.put("sqlDistinctPrecision", sqlDistinctPrecision.getValue());
+            }
+        }
         try {
-            Result result = databaseUtil.measure(sqlQuery.getValue());
+            Result result = service.measureDatabase(databaseDataSource, attributes);
             logger.info("Query successful: " + result.getValue());
             if (!silent) {
                 new SuccessNotification("Query successful: " + result.getValue()).open();
@@ -461,6 +600,18 @@ public class MeasurementForm extends FormLayout {
         }
         if (DataSourceType.DATABASE.equals(type)) {
             attributes.put("sqlQuery", sqlQuery.getValue());
+            attributes.remove("sqlAggregationMethod");
+            attributes.remove("sqlPercentile");
+            attributes.remove("sqlDistinctPrecision");
+            if (sqlAggregationMethod.getValue() != null) {
+                attributes.put("sqlAggregationMethod", sqlAggregationMethod.getValue().name());
+                if (CsvAggregator.isPercentile(sqlAggregationMethod.getValue())) {
+                    attributes.put("sqlPercentile", sqlPercentile.getValue());
+                }
+                if (!sqlDistinctPrecision.getValue().isBlank()) {
+                    attributes.put("sqlDistinctPrecision", sqlDistinctPrecision.getValue());
+                }
+            }
         }
         if (DataSourceType.FILE.equals(type)) {
             FileDataSource fileDataSource = (FileDataSource) dataSource;
@@ -476,6 +627,26 @@ public class MeasurementForm extends FormLayout {
                 attributes.put("csvDelimiter", csvDelimiter.getValue());
                 if (csvAggregationMethod.getValue() != null) {
                     attributes.put("csvAggregationMethod", csvAggregationMethod.getValue().name());
+                    if (CsvAggregator.isPercentile(csvAggregationMethod.getValue())) {
+                        attributes.put("csvPercentile", csvPercentile.getValue());
+                    }
+                }
+                attributes.remove("csvDistinctPrecision");
+                if (!csvDistinctPrecision.getValue().isBlank()) {
+                    attributes.put("csvDistinctPrecision", csvDistinctPrecision.getValue());
+                }
+                attributes.remove("csvFilterColumnName");
+                attributes.remove("csvFilterColumnIndex");
+                attributes.remove("csvFilterOperator");
+                attributes.remove("csvFilterValue");
+                if (csvFilterOperator.getValue() != null) {
+                    if (heading) {
+                        attributes.put("csvFilterColumnName", csvFilterColumnName.getValue());
+                    } else {
+                        attributes.put("csvFilterColumnIndex", csvFilterColumnIndex.getValue());
+                    }
+                    attributes.put("csvFilterOperator", csvFilterOperator.getValue().name());
+                    attributes.put("csvFilterValue", csvFilterValue.getValue());
                 }
             }
         }
@@ -500,6 +671,18 @@ public class MeasurementForm extends FormLayout {
         if (sqlQueryAttribute != null) {
             sqlQuery.setValue(sqlQueryAttribute);
         }
+        String sqlAggregationMethodAttribute = attributes.get("sqlAggregationMethod");
+        if (sqlAggregationMethodAttribute != null) {
+            sqlAggregationMethod.setValue(CsvAggregationMethod.valueOf(sqlAggregationMethodAttribute));
+        }
+        String sqlPercentileAttribute = attributes.get("sqlPercentile");
+        if (sqlPercentileAttribute != null) {
+            sqlPercentile.setValue(sqlPercentileAttribute);
+        }
+        String sqlDistinctPrecisionAttribute = attributes.get("sqlDistinctPrecision");
+        if (sqlDistinctPrecisionAttribute != null) {
+            sqlDistinctPrecision.setValue(sqlDistinctPrecisionAttribute);
+        }
         String csvHeaderAttribute = attributes.get("csvHeader");
         if (csvHeaderAttribute != null) {
             boolean header = Boolean.parseBoolean(csvHeaderAttribute);
@@ -528,6 +711,30 @@ public class MeasurementForm extends FormLayout {
         if (csvAggregationMethodAttribute != null) {
             csvAggregationMethod.setValue(CsvAggregationMethod.valueOf(csvAggregationMethodAttribute));
         }
+        String csvPercentileAttribute = attributes.get("csvPercentile");
+        if (csvPercentileAttribute != null) {
+            csvPercentile.setValue(csvPercentileAttribute);
+        }
+        String csvDistinctPrecisionAttribute = attributes.get("csvDistinctPrecision");
+        if (csvDistinctPrecisionAttribute != null) {
+            csvDistinctPrecision.setValue(csvDistinctPrecisionAttribute);
+        }
+        String csvFilterOperatorAttribute = attributes.get("csvFilterOperator");
+        if (csvFilterOperatorAttribute != null) {
+            csvFilterOperator.setValue(CsvFilterOperator.valueOf(csvFilterOperatorAttribute));
+        }
+        String csvFilterColumnNameAttribute = attributes.get("csvFilterColumnName");
+        if (csvFilterColumnNameAttribute != null) {
+            csvFilterColumnName.setValue(csvFilterColumnNameAttribute);
+        }
+        String csvFilterColumnIndexAttribute = attributes.get("csvFilterColumnIndex");
+        if (csvFilterColumnIndexAttribute != null) {
+            csvFilterColumnIndex.setValue(csvFilterColumnIndexAttribute);
+        }
+        String csvFilterValueAttribute = attributes.get("csvFilterValue");
+        if (csvFilterValueAttribute != null) {
+            csvFilterValue.setValue(csvFilterValueAttribute);
+        }
     }
 
     /**
@@ -63,6 +63,7 @@ import java.util.List;
     private final ComboBox<Scale> scale = new ComboBox<>("Scale");
     private final ComboBox<Unit> unit = new ComboBox<>("Unit");
     private final TextField frequency = new TextField("Frequency");
+    private final ComboBox<EvaluationMode> evaluationMode = new ComboBox<>("Evaluation mode");
 
     /**
      *
@@ -96,12 +97,13 @@ import java.util.List;
         // configure form components
         scale.setItems(scales);
         unit.setItems(units);
+        evaluationMode.setItems(EvaluationMode.values());
         initStakeholders();
         initAudiences();
         initInformationNeeds();
 
         // add components to layout
-        add(name, description, label, formula, targetValue, scale, unit, frequency, stakeholders, audiences, informationNeeds);
+        add(name, description, label, formula, targetValue, scale, unit, frequency, evaluationMode, stakeholders, audiences, informationNeeds);
     }
 
     /**
@@ -6,6 +6,7 @@ import com.vaadin.flow.router.Route;
 import de.uniregensburg.iamreportingmodule.web.component.notification.ErrorNotification;
 import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
 import de.uniregensburg.iamreportingmodule.core.service.DataSourceService;
+import de.uniregensburg.iamreportingmodule.core.service.FileStorageService;
 import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
 import de.uniregensburg.iamreportingmodule.web.component.notification.SuccessNotification;
 import de.uniregensburg.iamreportingmodule.web.form.FileDataSourceForm;
@@ -27,15 +28,17 @@ public class AddFileDataSourceView extends VerticalLayout {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final DataSourceService service;
-    private final FileDataSourceForm form = new FileDataSourceForm();
+    private final FileDataSourceForm form;
     private final FileDataSource dataSource = new FileDataSource();
 
     /**
      *
      * @param service
+     * @param fileStorageService
      */
-    public AddFileDataSourceView(DataSourceService service) {
+    public AddFileDataSourceView(DataSourceService service, FileStorageService fileStorageService) {
         this.service = service;
+        this.form = new FileDataSourceForm(fileStorageService);
         addClassName("datasource-add"); // CSS class name
         setSizeFull(); // whole browser size
 
@@ -13,8 +13,10 @@ import com.vaadin.flow.component.orderedlayout.VerticalLayout;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import de.uniregensburg.iamreportingmodule.core.service.DataSourceService;
+import de.uniregensburg.iamreportingmodule.core.service.DatabaseConnectionService;
 import de.uniregensburg.iamreportingmodule.data.entity.DataSource;
 import de.uniregensburg.iamreportingmodule.data.entity.DataSourceType;
+import de.uniregensburg.iamreportingmodule.data.entity.DatabaseDataSource;
 import de.uniregensburg.iamreportingmodule.web.component.notification.ErrorNotification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +69,14 @@ public class DataSourcesView extends VerticalLayout {
             }
             return dataSource.getMeasurements().size();
         }).setHeader("Measurements");
+        grid.addColumn(dataSource -> {
+            if (!DataSourceType.DATABASE.equals(dataSource.getType())) {
+                return "";
+            }
+            // statistics of connection pool, no pool before first measurement
+            DatabaseConnectionService.PoolStatistics statistics = service.getPoolStatistics((DatabaseDataSource) dataSource);
+            return statistics != null ? statistics.toString() : "No connections";
+        }).setHeader("Connections");
 
         grid.getColumns().forEach(col -> col.setAutoWidth(true)); // auto resize
 
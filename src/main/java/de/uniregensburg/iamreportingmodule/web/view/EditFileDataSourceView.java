@@ -10,6 +10,7 @@ import com.vaadin.flow.router.Route;
 import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
 import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
 import de.uniregensburg.iamreportingmodule.core.service.DataSourceService;
+import de.uniregensburg.iamreportingmodule.core.service.FileStorageService;
 import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
 import de.uniregensburg.iamreportingmodule.web.component.notification.ErrorNotification;
 import de.uniregensburg.iamreportingmodule.web.component.notification.SuccessNotification;
@@ -33,16 +34,18 @@ public class EditFileDataSourceView extends VerticalLayout implements HasUrlPara
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final DataSourceService service;
-    private final FileDataSourceForm form = new FileDataSourceForm();
+    private final FileDataSourceForm form;
     private FileDataSource dataSource = null;
     private String id;
 
     /**
      *
      * @param service
+     * @param fileStorageService
      */
-    public EditFileDataSourceView(DataSourceService service) {
+    public EditFileDataSourceView(DataSourceService service, FileStorageService fileStorageService) {
         this.service = service;
+        this.form = new FileDataSourceForm(fileStorageService);
         addClassName("datasource-add"); // CSS class name
         setSizeFull(); // whole browser size
     }
@@ -0,0 +1,199 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
+import de.uniregensburg.iamreportingmodule.data.entity.DatabaseDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Tests batching of database measurements without database: queries "SELECT n" return n, queries containing "fail"
+ * fail. Measurements started together join the batch of the first measurement.
+ *
+ * @author Julian Bauer
+ */
+public class DatabaseBatchServiceTest {
+
+    private static final int WINDOW_MILLIS = 300;
+
+    private RecordingConnectionService connectionService;
+    private DatabaseBatchService batchService;
+    private DatabaseDataSource databaseDataSource;
+    private ExecutorService executor;
+
+    /**
+     * Creates services and datasource with batch window
+     */
+    @Before
+    public void setupData() {
+        connectionService = new RecordingConnectionService();
+        batchService = new DatabaseBatchService(connectionService, 2);
+        databaseDataSource = new DatabaseDataSource();
+        databaseDataSource.setId(UUID.randomUUID());
+        databaseDataSource.setName("Test database");
+        databaseDataSource.setBatchWindow(WINDOW_MILLIS);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    /**
+     * Stops executors
+     */
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+        batchService.shutdown();
+    }
+
+    /**
+     * Tests concurrent measurements within window: executed in one round-trip, each gets value of its query
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentJoiners() throws Exception {
+        List<Future<Result>> results = measureConcurrently("SELECT 1", "SELECT 2", "SELECT 3");
+
+        Assert.assertEquals(new BigDecimal(1), results.get(0).get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(new BigDecimal(2), results.get(1).get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(new BigDecimal(3), results.get(2).get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(1, connectionService.batches.size());
+        Assert.assertEquals(3, connectionService.batches.get(0).size());
+        Assert.assertTrue(connectionService.separate.isEmpty());
+    }
+
+    /**
+     * Tests measurements with equal queries: query is executed once, value is shared
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEqualQueriesShared() throws Exception {
+        List<Future<Result>> results = measureConcurrently("SELECT 1", "SELECT 1", "SELECT 2");
+
+        Assert.assertEquals(new BigDecimal(1), results.get(0).get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(new BigDecimal(1), results.get(1).get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(new BigDecimal(2), results.get(2).get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(List.of(List.of("SELECT 1", "SELECT 2")), connectionService.batches);
+    }
+
+    /**
+     * Tests failed batch: queries are executed separately, only the failing query reports an error
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFallbackOnBatchFailure() throws Exception {
+        List<Future<Result>> results = measureConcurrently("SELECT 1", "SELECT fail");
+
+        Assert.assertEquals(new BigDecimal(1), results.get(0).get(5, TimeUnit.SECONDS).getValue());
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> results.get(1).get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(e.getCause() instanceof DatabaseException);
+        Assert.assertEquals(1, connectionService.batches.size());
+        Assert.assertEquals(List.of("SELECT 1", "SELECT fail"), connectionService.separate);
+    }
+
+    /**
+     * Tests interrupted opening measurement, like a stopped measurement job: only the opening measurement fails, the
+     * batch is executed and the other measurements get their values, also with the same query
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOpenerInterrupted() throws Exception {
+        BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+        Future<Result> opener = executor.submit(() -> {
+            threads.add(Thread.currentThread());
+            return batchService.measure(databaseDataSource, "SELECT 1");
+        });
+        Thread thread = threads.take();
+        // joining measurements start while batch is open
+        Thread.sleep(WINDOW_MILLIS / 3);
+        Future<Result> sameQuery = executor.submit(() -> batchService.measure(databaseDataSource, "SELECT 1"));
+        Future<Result> otherQuery = executor.submit(() -> batchService.measure(databaseDataSource, "SELECT 2"));
+        Thread.sleep(WINDOW_MILLIS / 3);
+        thread.interrupt();
+
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> opener.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(e.getCause() instanceof DatabaseException);
+        Assert.assertEquals(new BigDecimal(1), sameQuery.get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(new BigDecimal(2), otherQuery.get(5, TimeUnit.SECONDS).getValue());
+        Assert.assertEquals(List.of(List.of("SELECT 1", "SELECT 2")), connectionService.batches);
+        Assert.assertTrue(connectionService.separate.isEmpty());
+    }
+
+    /**
+     * Starts measurements of queries at the same time, first query opens batch
+     *
+     * @param queries
+     * @return results in order of queries
+     * @throws InterruptedException
+     */
+    private List<Future<Result>> measureConcurrently(String... queries) throws InterruptedException {
+        List<Future<Result>> results = new ArrayList<>();
+        results.add(executor.submit(() -> batchService.measure(databaseDataSource, queries[0])));
+        // opening measurement is first
+        Thread.sleep(WINDOW_MILLIS / 3);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 1; i < queries.length; i++) {
+            String query = queries[i];
+            results.add(executor.submit(() -> {
+                start.await();
+                return batchService.measure(databaseDataSource, query);
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    /**
+     * Connection service recording executed queries instead of executing them
+     */
+    private static class RecordingConnectionService extends DatabaseConnectionService {
+
+        private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        private final List<String> separate = new CopyOnWriteArrayList<>();
+
+        private RecordingConnectionService() {
+            super(1, 1000, 1000, 0, 0, 1);
+        }
+
+        @Override
+        public Result measure(DatabaseDataSource databaseDataSource, String query) throws DatabaseException {
+            separate.add(query);
+            return new Result(getValue(query));
+        }
+
+        @Override
+        public List<BigDecimal> measureAll(DatabaseDataSource databaseDataSource, List<String> queries) throws DatabaseException {
+            batches.add(List.copyOf(queries));
+            List<BigDecimal> values = new ArrayList<>();
+            for (String query : queries) {
+                values.add(getValue(query));
+            }
+            return values;
+        }
+
+        /**
+         * Returns value of query
+         *
+         * @param query
+         * @return
+         * @throws DatabaseException if query contains fail
+         */
+        private static BigDecimal getValue(String query) throws DatabaseException {
+            if (query.contains("fail")) {
+                throw new DatabaseException("Query failed: " + query);
+            }
+            return new BigDecimal(query.substring("SELECT ".length()));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DatabaseException;
+import de.uniregensburg.iamreportingmodule.data.entity.DatabaseDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.Dbms;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests connection service without database: queries are executed within the bulkhead of their datasource, but do not
+ * use the connection pool. Pools are created without connecting to the database, so their statistics are available.
+ *
+ * @author Julian Bauer
+ */
+public class DatabaseConnectionServiceTest {
+
+    private static final long BULKHEAD_WAIT_MILLIS = 100;
+
+    private DatabaseConnectionService service;
+    private ExecutorService executor;
+    private DatabaseDataSource databaseDataSource;
+
+    /**
+     * Creates service, datasource allows one concurrent query
+     */
+    @Before
+    public void setupData() {
+        service = new DatabaseConnectionService(4, 250, 60000, 60, BULKHEAD_WAIT_MILLIS, 1000);
+        executor = Executors.newSingleThreadExecutor();
+        databaseDataSource = createDataSource(2);
+        databaseDataSource.setMaxConcurrentQueries(1);
+    }
+
+    /**
+     * Closes pools and stops executor
+     */
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+        service.shutdown();
+    }
+
+    /**
+     * Tests bulkhead: query is rejected while another query occupies the only slot, executed after slot is released
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBulkheadRejection() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> blocking = executor.submit(() -> service.execute(databaseDataSource, util -> block(running, release)));
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        DatabaseException e = Assertions.assertThrows(DatabaseException.class,
+                () -> service.execute(databaseDataSource, util -> "rejected"));
+        Assert.assertTrue(e.getMessage().contains("busy"));
+
+        release.countDown();
+        Assert.assertEquals("released", blocking.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("executed", service.execute(databaseDataSource, util -> "executed"));
+    }
+
+    /**
+     * Tests eviction of datasource: new bulkhead accepts queries while query of evicted bulkhead is still running
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEvictRebuildsBulkhead() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> blocking = executor.submit(() -> service.execute(databaseDataSource, util -> block(running, release)));
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        service.evict(databaseDataSource);
+        Assert.assertEquals("executed", service.execute(databaseDataSource, util -> "executed"));
+
+        // released slot belongs to evicted bulkhead, new bulkhead is not overfilled
+        release.countDown();
+        Assert.assertEquals("released", blocking.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("executed", service.execute(databaseDataSource, util -> "executed"));
+    }
+
+    /**
+     * Tests cancellation of thread like interrupted measurement job: next query of thread is not executed and releases
+     * its slot
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCancel() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        AtomicBoolean executed = new AtomicBoolean();
+        BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+        Future<DatabaseException> cancelled = executor.submit(() -> {
+            threads.add(Thread.currentThread());
+            // running query ends when thread is interrupted, like a cancelled statement
+            service.execute(databaseDataSource, util -> {
+                running.countDown();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            try {
+                service.execute(databaseDataSource, util -> executed.getAndSet(true));
+                return null;
+            } catch (DatabaseException e) {
+                return e;
+            }
+        });
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        Thread thread = threads.take();
+        thread.interrupt();
+        service.cancel(thread);
+
+        Assert.assertNotNull(cancelled.get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(executed.get());
+        Assert.assertEquals("executed", service.execute(databaseDataSource, util -> "executed"));
+    }
+
+    /**
+     * Tests pools: created on first query of a datasource, one pool per datasource with its own size
+     *
+     * @throws DatabaseException
+     */
+    @Test
+    public void testPoolCreatedLazily() throws DatabaseException {
+        DatabaseDataSource other = createDataSource(3);
+        Assert.assertNull(service.getStatistics(databaseDataSource));
+
+        service.execute(databaseDataSource, util -> null);
+        Assert.assertEquals(2, service.getStatistics(databaseDataSource).getMaximum());
+        Assert.assertNull(service.getStatistics(other));
+
+        service.execute(other, util -> null);
+        Assert.assertEquals(3, service.getStatistics(other).getMaximum());
+        Assert.assertEquals(2, service.getStatistics(databaseDataSource).getMaximum());
+    }
+
+    /**
+     * Tests eviction like after datasource was saved or deleted: pool is closed, next query creates pool with new size
+     *
+     * @throws DatabaseException
+     */
+    @Test
+    public void testEvictRebuildsPool() throws DatabaseException {
+        service.execute(databaseDataSource, util -> null);
+        Assert.assertEquals(2, service.getStatistics(databaseDataSource).getMaximum());
+
+        databaseDataSource.setMaxPoolSize(5);
+        service.evict(databaseDataSource);
+        Assert.assertNull(service.getStatistics(databaseDataSource));
+
+        service.execute(databaseDataSource, util -> null);
+        Assert.assertEquals(5, service.getStatistics(databaseDataSource).getMaximum());
+    }
+
+    /**
+     * Tests statistics of datasources without pool: unused and unsaved datasources have none
+     *
+     * @throws DatabaseException
+     */
+    @Test
+    public void testStatisticsWithoutPool() throws DatabaseException {
+        Assert.assertNull(service.getStatistics(databaseDataSource));
+
+        // unsaved datasources open new connections instead of a pool
+        DatabaseDataSource unsaved = createDataSource(2);
+        unsaved.setId(null);
+        service.execute(unsaved, util -> null);
+        Assert.assertNull(service.getStatistics(unsaved));
+
+        service.evict(databaseDataSource);
+        Assert.assertNull(service.getStatistics(databaseDataSource));
+    }
+
+    /**
+     * Blocks query until released
+     *
+     * @param running counted down when query runs
+     * @param release
+     * @return
+     * @throws DatabaseException if interrupted
+     */
+    private static String block(CountDownLatch running, CountDownLatch release) throws DatabaseException {
+        running.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new DatabaseException("Interrupted");
+        }
+        return "released";
+    }
+
+    /**
+     * Creates saved postgresql datasource
+     *
+     * @param maxPoolSize
+     * @return
+     */
+    private static DatabaseDataSource createDataSource(int maxPoolSize) {
+        DatabaseDataSource databaseDataSource = new DatabaseDataSource();
+        databaseDataSource.setId(UUID.randomUUID());
+        databaseDataSource.setName("Test database");
+        databaseDataSource.setDbmsType(Dbms.POSTGRESQL);
+        databaseDataSource.setHost("localhost");
+        databaseDataSource.setPort(5432);
+        databaseDataSource.setDatabase("test");
+        databaseDataSource.setUsername("test");
+        databaseDataSource.setPassword("Test123!");
+        databaseDataSource.setMaxPoolSize(maxPoolSize);
+        return databaseDataSource;
+    }
+}
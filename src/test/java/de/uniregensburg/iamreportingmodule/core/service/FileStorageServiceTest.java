@@ -0,0 +1,163 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.data.entity.FileChunk;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import de.uniregensburg.iamreportingmodule.data.entity.FileType;
+import de.uniregensburg.iamreportingmodule.data.repository.FileChunkRepository;
+import de.uniregensburg.iamreportingmodule.data.repository.FileDataSourceRepository;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests replacement of stored files: new chunks are written under a new generation and the datasource switches to it
+ * Small chunks, so every file is stored in several chunks.
+ *
+ * @author Julian Bauer
+ */
+@ActiveProfiles(profiles = "local")
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"spring.quartz.auto-startup=false", "iamreportingmodule.upload.chunk-size-bytes=16"})
+public class FileStorageServiceTest {
+
+    private static final String FIRST = "Name;Age\nAnne;30\nMarco;23\nKatrin;54\n";
+    private static final String SECOND = "Name;Age\nBrigitte;34\nDominik;20\nAnna;34\nJulia;41\n";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+    @Autowired
+    private FileChunkRepository fileChunkRepository;
+    @Autowired
+    private FileDataSourceRepository fileDataSourceRepository;
+
+    /**
+     * Tests replacement of file: datasource reads new file, chunks of previous generation are deleted
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testReplaceFile() throws IOException {
+        FileDataSource fileDataSource = createDataSource(FIRST);
+        Assert.assertEquals(Integer.valueOf(1), fileDataSource.getFileGeneration());
+        Assert.assertEquals(FIRST, read(fileDataSource));
+
+        upload(fileDataSource, SECOND);
+        fileStorageService.save(fileDataSource);
+
+        Assert.assertEquals(Integer.valueOf(2), fileDataSource.getFileGeneration());
+        Assert.assertEquals(SECOND, read(fileDataSource));
+        Assert.assertEquals(SECOND, read(fileDataSourceRepository.findById(fileDataSource.getId()).orElseThrow()));
+        Assert.assertTrue(fileChunkRepository.findByFileDataSourceIdAndGenerationAndChunkIndex(fileDataSource.getId(), 1, 0).isEmpty());
+    }
+
+    /**
+     * Tests chunks left by a failed upload: not read by datasource, replaced by next upload
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFailedUpload() throws IOException {
+        FileDataSource fileDataSource = createDataSource(FIRST);
+        // upload failed after first chunk of next generation
+        fileChunkRepository.save(new FileChunk(fileDataSource.getId(), 2, 0, new byte[]{1, 2, 3}));
+        Assert.assertEquals(FIRST, read(fileDataSourceRepository.findById(fileDataSource.getId()).orElseThrow()));
+
+        upload(fileDataSource, SECOND);
+        fileStorageService.save(fileDataSource);
+
+        Assert.assertEquals(SECOND, read(fileDataSource));
+    }
+
+    /**
+     * Tests datasource loaded before replacement: reading fails instead of returning part of a file
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testReplacedWhileReading() throws IOException {
+        FileDataSource fileDataSource = createDataSource(FIRST);
+        FileDataSource loaded = fileDataSourceRepository.findById(fileDataSource.getId()).orElseThrow();
+
+        upload(fileDataSource, SECOND);
+        fileStorageService.save(fileDataSource);
+
+        Assertions.assertThrows(UncheckedIOException.class, () -> read(loaded));
+    }
+
+    /**
+     * Tests preparing upload in background: statistics are computed before future completes, file is stored on save
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPrepareAsync() throws Exception {
+        FileDataSource fileDataSource = createDataSource(FIRST);
+        Path uploadedFile = Files.createTempFile("upload", ".csv");
+        Files.writeString(uploadedFile, SECOND);
+
+        fileStorageService.prepareAsync(fileDataSource, uploadedFile).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(";", fileDataSource.getStatisticsDelimiter());
+        Assert.assertEquals(uploadedFile, fileDataSource.getUploadedFile());
+        fileStorageService.save(fileDataSource);
+
+        Assert.assertEquals(SECOND, read(fileDataSource));
+        Assert.assertFalse(Files.exists(uploadedFile));
+    }
+
+    /**
+     * Saves datasource with uploaded file
+     *
+     * @param content
+     * @return
+     * @throws IOException
+     */
+    private FileDataSource createDataSource(String content) throws IOException {
+        FileDataSource fileDataSource = new FileDataSource();
+        fileDataSource.setName("Stored file");
+        fileDataSource.setDescription("Test datasource");
+        fileDataSource.setFileType(FileType.CSV);
+        fileDataSource.setFileName("stored.csv");
+        upload(fileDataSource, content);
+        fileStorageService.save(fileDataSource);
+        return fileDataSource;
+    }
+
+    /**
+     * Prepares upload of content as temporary file
+     *
+     * @param fileDataSource
+     * @param content
+     * @throws IOException
+     */
+    private void upload(FileDataSource fileDataSource, String content) throws IOException {
+        Path uploadedFile = Files.createTempFile("upload", ".csv");
+        Files.writeString(uploadedFile, content);
+        fileStorageService.prepare(fileDataSource, uploadedFile);
+    }
+
+    /**
+     * Reads stored file of datasource
+     *
+     * @param fileDataSource
+     * @return
+     * @throws IOException
+     */
+    private String read(FileDataSource fileDataSource) throws IOException {
+        try (InputStream stream = fileStorageService.openStream(fileDataSource)) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.core.util.CompiledFormula;
+import de.uniregensburg.iamreportingmodule.core.util.FormulaUtil;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tests compiled formula cache: cache hits, recompilation of changed formulas and invalidation by measurable service
+ * Saved metrics are deleted with their backfilled results after each test.
+ *
+ * @author Julian Bauer
+ */
+@ActiveProfiles(profiles = "local")
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.quartz.auto-startup=false")
+public class FormulaCacheServiceTest {
+
+    @Autowired
+    private MeasurableService service;
+    @Autowired
+    private FormulaCacheService cacheService;
+    @Autowired
+    private ResultRepository resultRepository;
+    private FormulaUtil util;
+    private MeasurableFixture fixture;
+
+    /**
+     * Initializes formula util and fixture
+     */
+    @Before
+    public void setupData() {
+        this.util = new FormulaUtil(service, cacheService);
+        this.fixture = new MeasurableFixture(service, resultRepository);
+    }
+
+    /**
+     * Deletes saved metrics
+     *
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @After
+    public void deleteData() throws DeleteEntityException, InterruptedException {
+        fixture.deleteAll();
+    }
+
+    /**
+     * Tests cache hit: unchanged formula string returns the same compiled formula, also for a new formula object
+     * with the same id
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testCacheHit() throws FormulaException {
+        FormulaCacheService cache = new FormulaCacheService(50);
+        Formula formula = new Formula("{{a}} + 1");
+        formula.setId(UUID.randomUUID());
+
+        CompiledFormula first = cache.getCompiledFormula(formula, util);
+        CompiledFormula second = cache.getCompiledFormula(formula, util);
+        Formula reloaded = new Formula("{{a}} + 1");
+        reloaded.setId(formula.getId());
+        CompiledFormula third = cache.getCompiledFormula(reloaded, util);
+
+        Assert.assertSame(first, second);
+        Assert.assertSame(first, third);
+    }
+
+    /**
+     * Tests changed formula string with the same id: hash mismatch forces recompilation
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testHashMismatch() throws FormulaException {
+        FormulaCacheService cache = new FormulaCacheService(50);
+        Formula formula = new Formula("{{a}} + 1");
+        formula.setId(UUID.randomUUID());
+        CompiledFormula first = cache.getCompiledFormula(formula, util);
+
+        formula.setFormula("{{a}} + 2");
+        CompiledFormula second = cache.getCompiledFormula(formula, util);
+
+        Assert.assertNotSame(first, second);
+        Assert.assertFalse(first.matches("{{a}} + 2"));
+        Assert.assertTrue(second.matches("{{a}} + 2"));
+        Assert.assertEquals(0, new BigDecimal(3).compareTo(second.evaluate(Map.of("a", BigDecimal.ONE))));
+        // recompiled formula is cached
+        Assert.assertSame(second, cache.getCompiledFormula(formula, util));
+    }
+
+    /**
+     * Tests equal hash codes of different formula strings: strings are compared, not only hashes
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testHashCollision() throws FormulaException {
+        // "Aa" and "BB" have the same hash code
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        FormulaCacheService cache = new FormulaCacheService(50);
+        Formula formula = new Formula("{{a}} + Aa");
+        formula.setId(UUID.randomUUID());
+        CompiledFormula first = cache.getCompiledFormula(formula, util);
+
+        formula.setFormula("{{a}} + BB");
+        CompiledFormula second = cache.getCompiledFormula(formula, util);
+
+        Assert.assertNotSame(first, second);
+        Assert.assertFalse(first.matches("{{a}} + BB"));
+    }
+
+    /**
+     * Tests invalidation of compiled formula when metric is saved
+     *
+     * @throws FormulaException
+     * @throws SaveEntityException
+     */
+    @Test
+    public void testInvalidateOnSave() throws FormulaException, SaveEntityException {
+        Measurable passwords = fixture.find("passwords");
+        Metric metric = fixture.saveMetric("cacheSaveTest", "{{passwords}} * 2", passwords);
+        CompiledFormula first = cacheService.getCompiledFormula(metric.getFormula(), util);
+        Assert.assertSame(first, cacheService.getCompiledFormula(metric.getFormula(), util));
+
+        metric.getFormula().setFormula("{{passwords}} * 3");
+        // measurables of saved formula are not loaded
+        metric.getFormula().setMeasurables(Set.of(passwords));
+        service.saveMetric(metric);
+        Metric savedMetric = service.findMetricById(metric.getId());
+        CompiledFormula second = cacheService.getCompiledFormula(savedMetric.getFormula(), util);
+
+        Assert.assertNotSame(first, second);
+        Assert.assertTrue(second.matches("{{passwords}} * 3"));
+    }
+
+    /**
+     * Tests invalidation of compiled formula when metric is deleted
+     *
+     * @throws FormulaException
+     * @throws SaveEntityException
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testInvalidateOnDelete() throws FormulaException, SaveEntityException, DeleteEntityException,
+            InterruptedException {
+        Metric metric = fixture.saveMetric("cacheDeleteTest", "{{passwords}} * 2", fixture.find("passwords"));
+        CompiledFormula first = cacheService.getCompiledFormula(metric.getFormula(), util);
+
+        fixture.deleteMetric(metric);
+        CompiledFormula second = cacheService.getCompiledFormula(metric.getFormula(), util);
+
+        Assert.assertNotSame(first, second);
+    }
+}
@@ -0,0 +1,155 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.UUID;
+
+/**
+ * Tests label directory: updates by measurable service, renames and consistency check against database
+ *
+ * @author Julian Bauer
+ */
+@ActiveProfiles(profiles = "local")
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.quartz.auto-startup=false")
+public class LabelDirectoryServiceTest {
+
+    @Autowired
+    private MeasurableService service;
+    @Autowired
+    private LabelDirectoryService labelDirectoryService;
+    @Autowired
+    private ResultRepository resultRepository;
+    private MeasurableFixture fixture;
+
+    /**
+     * Initializes fixture
+     */
+    @Before
+    public void setupData() {
+        this.fixture = new MeasurableFixture(service, resultRepository);
+    }
+
+    /**
+     * Deletes saved measurables
+     *
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @After
+    public void deleteData() throws DeleteEntityException, InterruptedException {
+        fixture.deleteAll();
+    }
+
+    /**
+     * Tests save and delete of measurement: label is added and removed
+     *
+     * @throws SaveEntityException
+     * @throws DeleteEntityException
+     */
+    @Test
+    public void testSaveAndDeleteMeasurement() throws SaveEntityException, DeleteEntityException {
+        Measurement measurement = fixture.saveMeasurement("directoryMeasurement");
+
+        LabelDirectoryService.Entry entry = labelDirectoryService.find("directoryMeasurement");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(measurement.getId(), entry.getId());
+        Assert.assertFalse(entry.isMetric());
+
+        service.deleteMeasurement(measurement);
+        Assert.assertNull(labelDirectoryService.find("directoryMeasurement"));
+        Assert.assertFalse(service.isLabelUsed("directoryMeasurement"));
+    }
+
+    /**
+     * Tests save and delete of metric: label is added and removed
+     *
+     * @throws SaveEntityException
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSaveAndDeleteMetric() throws SaveEntityException, DeleteEntityException, InterruptedException {
+        Metric metric = fixture.saveMetric("directoryMetric", "{{passwords}} * 2", fixture.find("passwords"));
+
+        LabelDirectoryService.Entry entry = labelDirectoryService.find("directoryMetric");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(metric.getId(), entry.getId());
+        Assert.assertTrue(entry.isMetric());
+
+        fixture.deleteMetric(metric);
+        Assert.assertNull(labelDirectoryService.find("directoryMetric"));
+    }
+
+    /**
+     * Tests rename of metric: old label is removed, new label maps to same id
+     *
+     * @throws SaveEntityException
+     */
+    @Test
+    public void testRename() throws SaveEntityException {
+        Metric metric = fixture.saveMetric("directoryOldLabel", "{{passwords}} * 2", fixture.find("passwords"));
+        UUID id = labelDirectoryService.find("directoryOldLabel").getId();
+
+        metric.setLabel("directoryNewLabel");
+        service.saveMetric(metric);
+
+        Assert.assertNull(labelDirectoryService.find("directoryOldLabel"));
+        Assert.assertFalse(service.isLabelUsed("directoryOldLabel"));
+        Assert.assertEquals(id, labelDirectoryService.find("directoryNewLabel").getId());
+    }
+
+    /**
+     * Tests label missing in directory, e.g. saved by another instance: confirmed in database and added to directory
+     */
+    @Test
+    public void testLabelUsedOnDirectoryMiss() {
+        Measurable passwords = fixture.find("passwords");
+        labelDirectoryService.remove(passwords);
+
+        Assert.assertTrue(service.isLabelUsed("passwords"));
+        Assert.assertEquals(passwords.getId(), labelDirectoryService.find("passwords").getId());
+        Assert.assertFalse(service.isLabelUsed("directoryUnusedLabel"));
+    }
+
+    /**
+     * Tests consistency check: missing, unknown and moved labels are corrected
+     */
+    @Test
+    public void testCheckConsistency() {
+        Measurable passwords = service.findAllMeasurablesByLabel("passwords").get(0);
+        Measurable weakPasswords = service.findAllMeasurablesByLabel("weakPasswords").get(0);
+        Assert.assertEquals(0, labelDirectoryService.checkConsistency());
+
+        // drift: label missing, label of deleted measurable, label mapped to wrong id
+        labelDirectoryService.remove(passwords);
+        Metric ghost = new Metric();
+        ghost.setId(UUID.randomUUID());
+        ghost.setLabel("directoryGhost");
+        labelDirectoryService.put(ghost);
+        Metric wrongId = new Metric();
+        wrongId.setId(UUID.randomUUID());
+        wrongId.setLabel("weakPasswords");
+        labelDirectoryService.put(wrongId);
+        Assert.assertNull(labelDirectoryService.find("passwords"));
+
+        Assert.assertEquals(3, labelDirectoryService.checkConsistency());
+        Assert.assertEquals(passwords.getId(), labelDirectoryService.find("passwords").getId());
+        Assert.assertNull(labelDirectoryService.find("directoryGhost"));
+        Assert.assertEquals(weakPasswords.getId(), labelDirectoryService.find("weakPasswords").getId());
+        Assert.assertFalse(labelDirectoryService.find("weakPasswords").isMetric());
+        Assert.assertEquals(0, labelDirectoryService.checkConsistency());
+    }
+}
@@ -0,0 +1,146 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shared fixture of service tests: saves test measurements and metrics and deletes them with their results
+ * Metrics with variables are backfilled in background after saving, so their results are deleted before the metric
+ * and deleting is retried while backfilling saves results.
+ *
+ * @author Julian Bauer
+ */
+class MeasurableFixture {
+
+    // after all results, within range of database timestamps
+    private static final Date END_OF_TIME = Date.from(Instant.parse("9999-12-31T00:00:00Z"));
+
+    private final MeasurableService service;
+    private final ResultRepository resultRepository;
+    private final List<Measurable> saved = new ArrayList<>();
+
+    /**
+     *
+     * @param service
+     * @param resultRepository
+     */
+    MeasurableFixture(MeasurableService service, ResultRepository resultRepository) {
+        this.service = service;
+        this.resultRepository = resultRepository;
+    }
+
+    /**
+     * Saves metric, deleted by deleteAll
+     *
+     * @param label
+     * @param formula
+     * @param measurables measurables used in formula
+     * @return saved metric
+     * @throws SaveEntityException
+     */
+    Metric saveMetric(String label, String formula, Measurable... measurables) throws SaveEntityException {
+        Metric metric = new Metric();
+        Formula metricFormula = new Formula(formula);
+        metricFormula.setMeasurables(Set.of(measurables));
+        metric.setFormula(metricFormula);
+        metric.setName(label);
+        metric.setLabel(label);
+        metric.setDescription("Test metric");
+        metric.setScale(Scale.RATIO);
+        metric.setUnit(Unit.TOTAL);
+        metric.setFrequency(new Frequency(Duration.parse("PT1H")));
+        service.saveMetric(metric);
+        saved.add(metric);
+        return metric;
+    }
+
+    /**
+     * Saves measurement using data source of passwords, deleted by deleteAll
+     *
+     * @param label
+     * @return saved measurement
+     * @throws SaveEntityException
+     */
+    Measurement saveMeasurement(String label) throws SaveEntityException {
+        Measurement passwords = (Measurement) service.findAllMeasurablesByLabel("passwords").get(0);
+        Measurement measurement = new Measurement();
+        measurement.setDataSource(passwords.getDataSource());
+        measurement.setName(label);
+        measurement.setLabel(label);
+        measurement.setDescription("Test measurement");
+        measurement.setScale(Scale.RATIO);
+        measurement.setUnit(Unit.TOTAL);
+        measurement.setFrequency(new Frequency(Duration.parse("PT1H")));
+        service.saveMeasurement(measurement);
+        saved.add(measurement);
+        return measurement;
+    }
+
+    /**
+     * Returns measurable used in test data, e.g. passwords
+     *
+     * @param label
+     * @return
+     */
+    Measurable find(String label) {
+        return service.findAllMeasurablesByLabel(label).get(0);
+    }
+
+    /**
+     * Deletes metric with its results
+     *
+     * @param metric
+     * @throws DeleteEntityException if metric cannot be deleted
+     * @throws InterruptedException
+     */
+    void deleteMetric(Metric metric) throws DeleteEntityException, InterruptedException {
+        for (int i = 0; ; i++) {
+            resultRepository.deleteByMeasurableIdBefore(metric.getId(), END_OF_TIME);
+            try {
+                service.deleteMetric(metric);
+                return;
+            } catch (DeleteEntityException e) {
+                // background backfill saved results meanwhile
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Deletes saved measurables still existing with their results, dependent metrics first
+     *
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    void deleteAll() throws DeleteEntityException, InterruptedException {
+        for (int i = saved.size() - 1; i >= 0; i--) {
+            // tests may have changed or deleted measurable
+            Measurable measurable = saved.get(i);
+            if (measurable instanceof Metric) {
+                Metric metric = service.findMetricById(measurable.getId());
+                if (metric != null) {
+                    deleteMetric(metric);
+                }
+            } else {
+                Measurement measurement = service.findMeasurementById(measurable.getId());
+                if (measurement != null) {
+                    resultRepository.deleteByMeasurableIdBefore(measurement.getId(), END_OF_TIME);
+                    service.deleteMeasurement(measurement);
+                }
+            }
+        }
+        saved.clear();
+    }
+}
@@ -0,0 +1,139 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.data.entity.Measurable;
+import de.uniregensburg.iamreportingmodule.data.entity.Metric;
+import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultValue;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tests resolution of latest results of measurables for formula evaluation and dependency checks of saved metrics
+ * Scheduled jobs are not started, so only statements of the tested methods are counted.
+ *
+ * @author Julian Bauer
+ */
+@ActiveProfiles(profiles = "local")
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.generate_statistics=true", "spring.quartz.auto-startup=false"})
+public class MeasurableServiceTest {
+
+    @Autowired
+    private MeasurableService service;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private ResultRepository resultRepository;
+    private MeasurableFixture fixture;
+
+    /**
+     * Initializes fixture
+     */
+    @Before
+    public void setupData() {
+        this.fixture = new MeasurableFixture(service, resultRepository);
+    }
+
+    /**
+     * Deletes saved metrics
+     *
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @After
+    public void deleteData() throws DeleteEntityException, InterruptedException {
+        fixture.deleteAll();
+    }
+
+    /**
+     * Tests latest results of several measurables: one statement, no entities loaded, latest value per measurable
+     */
+    @Test
+    public void testFindLatestResultsByMeasurables() {
+        Measurable passwords = service.findAllMeasurablesByLabel("passwords").get(0);
+        Measurable weakPasswords = service.findAllMeasurablesByLabel("weakPasswords").get(0);
+        Measurable identicalPasswords = service.findAllMeasurablesByLabel("identicalPasswords").get(0);
+        // results after all generated results
+        long future = System.currentTimeMillis() + 24 * 60 * 60 * 1000;
+        saveResult(passwords, "10", new Date(future));
+        saveResult(passwords, "20", new Date(future + 1000));
+        saveResult(weakPasswords, "5", new Date(future));
+        saveResult(identicalPasswords, "7", new Date(future));
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        Map<UUID, ResultValue> results = service.findLatestResultsByMeasurables(List.of(passwords, weakPasswords));
+
+        Assert.assertEquals(1, statistics.getPrepareStatementCount());
+        Assert.assertEquals(0, statistics.getEntityLoadCount());
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(passwords.getId(), results.get(passwords.getId()).getMeasurableId());
+        Assert.assertEquals(0, new BigDecimal(20).compareTo(results.get(passwords.getId()).getValue()));
+        Assert.assertEquals(future + 1000, results.get(passwords.getId()).getPointInTime().getTime());
+        Assert.assertEquals(0, new BigDecimal(5).compareTo(results.get(weakPasswords.getId()).getValue()));
+        Assert.assertFalse(results.containsKey(identicalPasswords.getId()));
+    }
+
+    /**
+     * Tests latest results of no measurables: no statement
+     */
+    @Test
+    public void testFindLatestResultsByNoMeasurables() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        Assert.assertTrue(service.findLatestResultsByMeasurables(List.of()).isEmpty());
+        Assert.assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    /**
+     * Tests circular dependency in formula of loaded metric: found from labels in formula, measurables of the loaded
+     * formula are not read
+     *
+     * @throws SaveEntityException
+     */
+    @Test
+    public void testCircularDependencyOfLoadedMetric() throws SaveEntityException {
+        Metric input = fixture.saveMetric("circularInput", "{{passwords}} * 2", fixture.find("passwords"));
+        fixture.saveMetric("circularDependent", "{{circularInput}} + 1", input);
+        Metric loaded = service.findMetricById(input.getId());
+        loaded.getFormula().setFormula("{{circularDependent}} * 2");
+
+        SaveEntityException e = Assertions.assertThrows(SaveEntityException.class, () -> service.saveMetric(loaded));
+        Assert.assertTrue(e.getMessage().contains("circular dependency"));
+    }
+
+    /**
+     * Saves result of measurable without notifying listeners
+     *
+     * @param measurable
+     * @param value
+     * @param pointInTime
+     */
+    private void saveResult(Measurable measurable, String value, Date pointInTime) {
+        Result result = new Result(new BigDecimal(value));
+        result.setPointInTime(pointInTime);
+        result.setMeasurable(measurable);
+        service.saveResult(result, false);
+    }
+}
@@ -0,0 +1,208 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Tests backfill of metrics: as-of join of input series with gaps and replacement of results after formula changes
+ * Input series (hours after start):
+ * a: 0 = 10, 2 = 30, 5 = 50
+ * b: 1 = 2, 4 = 5
+ * Rows are emitted from hour 1, when both inputs have a value. Gaps are filled with the latest value of the input.
+ * Saved measurements and metrics are deleted with their results after each test.
+ *
+ * @author Julian Bauer
+ */
+@ActiveProfiles(profiles = "local")
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.quartz.auto-startup=false")
+public class MetricBackfillServiceTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Autowired
+    private MeasurableService service;
+    @Autowired
+    private MetricBackfillService backfillService;
+    @Autowired
+    private ResultRepository resultRepository;
+    private MeasurableFixture fixture;
+    // start of input series, full seconds
+    private final long start = (System.currentTimeMillis() - 10 * 24 * HOUR) / 1000 * 1000;
+
+    /**
+     * Initializes fixture
+     */
+    @Before
+    public void setupData() {
+        this.fixture = new MeasurableFixture(service, resultRepository);
+    }
+
+    /**
+     * Deletes saved measurements and metrics
+     *
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @After
+    public void deleteData() throws DeleteEntityException, InterruptedException {
+        fixture.deleteAll();
+    }
+
+    /**
+     * Tests as-of join: each row takes the latest value of each input, no rows before all inputs have a value
+     *
+     * @throws SaveEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testAsOfAlignment() throws SaveEntityException, InterruptedException {
+        Metric metric = createMetric("A", "{{backfillInputA}} + {{backfillSecondInputA}}");
+        Map<Long, Integer> expected = Map.of(start + HOUR, 12, start + 2 * HOUR, 32,
+                start + 4 * HOUR, 35, start + 5 * HOUR, 55);
+        // backfilled after metric is saved
+        awaitValues(metric, expected);
+
+        // deriving again replaces results
+        Assert.assertEquals(4, backfillService.rederive(metric, new Date()));
+        Assert.assertEquals(expected, getValues(metric));
+    }
+
+    /**
+     * Tests re-derivation: previous results between and after derived points in time are replaced as well
+     *
+     * @throws SaveEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRederiveReplacesRanges() throws SaveEntityException, InterruptedException {
+        Metric metric = createMetric("D", "{{backfillInputD}} + {{backfillSecondInputD}}");
+        Map<Long, Integer> expected = Map.of(start + HOUR, 12, start + 2 * HOUR, 32,
+                start + 4 * HOUR, 35, start + 5 * HOUR, 55);
+        awaitValues(metric, expected);
+
+        // results without input rows, e.g. derived with a previous formula
+        saveResult(metric, 3, "99");
+        saveResult(metric, 6, "99");
+
+        Assert.assertEquals(4, backfillService.rederive(metric, new Date(start + 7 * HOUR)));
+        Assert.assertEquals(expected, getValues(metric));
+    }
+
+    /**
+     * Tests gaps in input series: hours without result of an input use its previous value, hours before the first
+     * result of an input are skipped
+     *
+     * @throws SaveEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testGaps() throws SaveEntityException, InterruptedException {
+        Metric metric = createMetric("B", "{{backfillInputB}} - {{backfillSecondInputB}}");
+        Map<Long, Integer> expected = Map.of(start + HOUR, 8, start + 2 * HOUR, 28,
+                start + 4 * HOUR, 25, start + 5 * HOUR, 45);
+
+        awaitValues(metric, expected);
+
+        Assert.assertFalse(getValues(metric).containsKey(start));
+        Assert.assertFalse(getValues(metric).containsKey(start + 3 * HOUR));
+    }
+
+    /**
+     * Tests formula change of existing metric: results derived with previous formula are replaced
+     *
+     * @throws SaveEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRederiveOnFormulaChange() throws SaveEntityException, InterruptedException {
+        Metric metric = createMetric("C", "{{backfillInputC}} + {{backfillSecondInputC}}");
+        awaitValues(metric, Map.of(start + HOUR, 12, start + 2 * HOUR, 32,
+                start + 4 * HOUR, 35, start + 5 * HOUR, 55));
+
+        Metric savedMetric = service.findMetricById(metric.getId());
+        savedMetric.getFormula().setFormula("{{backfillInputC}} * {{backfillSecondInputC}}");
+        // measurables of saved formula are not loaded
+        savedMetric.getFormula().setMeasurables(new HashSet<>(service.findAllMeasurablesByLabels(
+                List.of("backfillInputC", "backfillSecondInputC"))));
+        service.saveMetric(savedMetric);
+
+        awaitValues(metric, Map.of(start + HOUR, 20, start + 2 * HOUR, 60,
+                start + 4 * HOUR, 150, start + 5 * HOUR, 250));
+    }
+
+    /**
+     * Saves input measurements with results and metric using them
+     *
+     * @param suffix suffix of labels
+     * @param formula
+     * @return
+     * @throws SaveEntityException
+     */
+    private Metric createMetric(String suffix, String formula) throws SaveEntityException {
+        Measurement a = fixture.saveMeasurement("backfillInput" + suffix);
+        saveResult(a, 0, "10");
+        saveResult(a, 2, "30");
+        saveResult(a, 5, "50");
+        Measurement b = fixture.saveMeasurement("backfillSecondInput" + suffix);
+        saveResult(b, 1, "2");
+        saveResult(b, 4, "5");
+        return fixture.saveMetric("backfillMetric" + suffix, formula, a, b);
+    }
+
+    /**
+     * Saves result of measurable without notifying listeners
+     *
+     * @param measurable
+     * @param hour hours after start
+     * @param value
+     */
+    private void saveResult(Measurable measurable, int hour, String value) {
+        Result result = new Result(new BigDecimal(value));
+        result.setPointInTime(new Date(start + hour * HOUR));
+        result.setMeasurable(measurable);
+        service.saveResult(result, false);
+    }
+
+    /**
+     * Waits for background backfill until results of metric equal expected values
+     *
+     * @param metric
+     * @param expected
+     * @throws InterruptedException
+     */
+    private void awaitValues(Metric metric, Map<Long, Integer> expected) throws InterruptedException {
+        for (int i = 0; i < 100 && !expected.equals(getValues(metric)); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(expected, getValues(metric));
+    }
+
+    /**
+     * Returns values of results of metric by point in time
+     *
+     * @param metric
+     * @return
+     */
+    private Map<Long, Integer> getValues(Metric metric) {
+        Map<Long, Integer> values = new HashMap<>();
+        for (Result result : service.findFirst10ResultsByMeasurableOrderByPointInTimeDesc(metric)) {
+            values.put(result.getPointInTime().getTime(), result.getValue().intValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,98 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Tests recalculation of metrics: dependent metrics are only calculated if their inputs changed
+ * Scheduled jobs are not started, so metrics are only calculated by the tests. Saved metrics are deleted with their
+ * results after each test.
+ *
+ * @author Julian Bauer
+ */
+@ActiveProfiles(profiles = "local")
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.quartz.auto-startup=false")
+public class MetricRecalculationServiceTest {
+
+    @Autowired
+    private MeasurableService service;
+    @Autowired
+    private MetricRecalculationService recalculationService;
+    @Autowired
+    private ResultRepository resultRepository;
+    private MeasurableFixture fixture;
+
+    /**
+     * Initializes fixture
+     */
+    @Before
+    public void setupData() {
+        this.fixture = new MeasurableFixture(service, resultRepository);
+    }
+
+    /**
+     * Deletes saved metrics
+     *
+     * @throws DeleteEntityException
+     * @throws InterruptedException
+     */
+    @After
+    public void deleteData() throws DeleteEntityException, InterruptedException {
+        fixture.deleteAll();
+    }
+
+    /**
+     * Tests recalculation of changed metric: dependent metric is calculated after its input
+     *
+     * @throws SaveEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRecalculateDependent() throws SaveEntityException, InterruptedException {
+        Metric input = fixture.saveMetric("recalculationInputA", "{{passwords}} * 2", fixture.find("passwords"));
+        Metric dependent = fixture.saveMetric("recalculationDependentA", "{{recalculationInputA}} + 1", input);
+        recalculationService.recalculate(Set.of(input.getId()));
+        Date first = service.findLatestResultByMeasurable(dependent).getPointInTime();
+        Thread.sleep(10);
+
+        recalculationService.recalculate(Set.of(input.getId()));
+        Date second = service.findLatestResultByMeasurable(dependent).getPointInTime();
+
+        Assert.assertTrue(second.after(first));
+        Assert.assertFalse(second.before(service.findLatestResultByMeasurable(input).getPointInTime()));
+    }
+
+    /**
+     * Tests scheduled calculation of dependent metric: skipped if input has no newer result
+     *
+     * @throws SaveEntityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSkipUnchangedInputs() throws SaveEntityException, InterruptedException {
+        Metric input = fixture.saveMetric("recalculationInputB", "{{passwords}} * 2", fixture.find("passwords"));
+        Metric dependent = fixture.saveMetric("recalculationDependentB", "{{recalculationInputB}} + 1", input);
+        recalculationService.recalculate(Set.of(input.getId()));
+        Date latest = service.findLatestResultByMeasurable(dependent).getPointInTime();
+        Thread.sleep(10);
+
+        recalculationService.calculateScheduled(dependent);
+
+        Assert.assertEquals(latest, service.findLatestResultByMeasurable(dependent).getPointInTime());
+    }
+}
@@ -0,0 +1,165 @@
+package de.uniregensburg.iamreportingmodule.core.service;
+
+import de.uniregensburg.iamreportingmodule.core.event.ResultSavedEvent;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests propagation of saved results: bursts of results are coalesced into one recalculation of dependent metrics
+ *
+ * @author Julian Bauer
+ */
+public class ResultPropagationServiceTest {
+
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private RecordingRecalculationService recalculationService;
+    private ResultPropagationService propagationService;
+    private Metric first;
+    private Metric second;
+    private Metric third;
+    private Measurement passwords;
+    private Measurement weakPasswords;
+
+    /**
+     * Creates measurements used by formulas of three metrics
+     */
+    @Before
+    public void setupData() {
+        recalculationService = new RecordingRecalculationService();
+        propagationService = new ResultPropagationService(recalculationService, DEBOUNCE_MILLIS);
+        first = createMetric();
+        second = createMetric();
+        third = createMetric();
+        passwords = createMeasurement(first, second);
+        weakPasswords = createMeasurement(second, third);
+    }
+
+    /**
+     * Stops services
+     */
+    @After
+    public void shutdown() {
+        propagationService.shutdown();
+        recalculationService.shutdown();
+    }
+
+    /**
+     * Tests burst of saved results: one recalculation with all dependent metrics
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testBurstCoalesced() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            propagationService.onResultSaved(createEvent(i % 2 == 0 ? passwords : weakPasswords));
+        }
+
+        Assert.assertTrue(recalculationService.latch.await(5, TimeUnit.SECONDS));
+        // no further recalculation after debounce window
+        Thread.sleep(DEBOUNCE_MILLIS * 2);
+        Assert.assertEquals(1, recalculationService.calls.size());
+        Assert.assertEquals(Set.of(first.getId(), second.getId(), third.getId()), recalculationService.calls.get(0));
+    }
+
+    /**
+     * Tests results saved after recalculation: new recalculation with metrics of new results only
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSeparateBursts() throws InterruptedException {
+        propagationService.onResultSaved(createEvent(passwords));
+        Assert.assertTrue(recalculationService.latch.await(5, TimeUnit.SECONDS));
+
+        recalculationService.latch = new CountDownLatch(1);
+        propagationService.onResultSaved(createEvent(weakPasswords));
+        Assert.assertTrue(recalculationService.latch.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(2, recalculationService.calls.size());
+        Assert.assertEquals(Set.of(first.getId(), second.getId()), recalculationService.calls.get(0));
+        Assert.assertEquals(Set.of(second.getId(), third.getId()), recalculationService.calls.get(1));
+    }
+
+    /**
+     * Tests result of measurable without dependent metrics: no recalculation
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testNoDependents() throws InterruptedException {
+        propagationService.onResultSaved(createEvent(createMeasurement()));
+
+        Assert.assertFalse(recalculationService.latch.await(DEBOUNCE_MILLIS * 3, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(recalculationService.calls.isEmpty());
+    }
+
+    /**
+     * Creates metric with id
+     *
+     * @return
+     */
+    private Metric createMetric() {
+        Metric metric = new Metric();
+        metric.setId(UUID.randomUUID());
+        return metric;
+    }
+
+    /**
+     * Creates measurement used by formulas of metrics
+     *
+     * @param metrics
+     * @return
+     */
+    private Measurement createMeasurement(Metric... metrics) {
+        Measurement measurement = new Measurement();
+        measurement.setId(UUID.randomUUID());
+        measurement.setName("Test measurement");
+        Set<Formula> formulas = new HashSet<>();
+        for (Metric metric : metrics) {
+            formulas.add(new Formula(metric));
+        }
+        measurement.setFormulas(formulas);
+        return measurement;
+    }
+
+    /**
+     * Creates event of saved result of measurable
+     *
+     * @param measurable
+     * @return
+     */
+    private ResultSavedEvent createEvent(Measurable measurable) {
+        Result result = new Result(BigDecimal.ONE);
+        result.setMeasurable(measurable);
+        return new ResultSavedEvent(this, result);
+    }
+
+    /**
+     * Recalculation service recording ids of recalculated metrics instead of calculating them
+     */
+    private static class RecordingRecalculationService extends MetricRecalculationService {
+
+        private final List<Set<UUID>> calls = new CopyOnWriteArrayList<>();
+        private volatile CountDownLatch latch = new CountDownLatch(1);
+
+        private RecordingRecalculationService() {
+            super(null, null, 1);
+        }
+
+        @Override
+        public void recalculate(Collection<UUID> metricIds) {
+            calls.add(new HashSet<>(metricIds));
+            latch.countDown();
+        }
+    }
+}
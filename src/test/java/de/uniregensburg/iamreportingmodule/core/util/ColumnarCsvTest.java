@@ -0,0 +1,89 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FileException;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests columnar representation of csv files
+ *
+ * @author Julian Bauer
+ */
+public class ColumnarCsvTest {
+
+    private static final String FILE = "username;failedLogins;balance;department\nalice;3;-1.5;it\nbob;300;20;hr\n"
+            + "carol;1;0.25;it\n\"dave; jr\";4;100000;\"r;d\"\n";
+
+    /**
+     * Tests encoding of numeric and string columns
+     */
+    @Test
+    public void testEncode() {
+        ColumnarCsv columnar = ColumnarCsv.read(ColumnarCsv.encode(FILE.getBytes(StandardCharsets.UTF_8), ";"));
+
+        Assert.assertEquals(";", columnar.getDelimiter());
+        Assert.assertEquals(4, columnar.getRecordCount());
+        Assert.assertEquals(List.of("username", "failedLogins", "balance", "department"), columnar.getFirstValues());
+        Assert.assertFalse(columnar.isNumeric(0));
+        Assert.assertEquals(List.of("alice", "bob", "carol", "dave; jr"), columnar.getDictionary(0));
+        Assert.assertTrue(columnar.isNumeric(1));
+        Assert.assertArrayEquals(new long[]{3, 300, 1, 4}, columnar.getUnscaled(1));
+        // values of column share the largest scale
+        Assert.assertEquals(2, columnar.getScale(2));
+        Assert.assertArrayEquals(new long[]{-150, 2000, 25, 10000000}, columnar.getUnscaled(2));
+        Assert.assertEquals(List.of("it", "hr", "r;d"), columnar.getDictionary(3));
+        Assert.assertArrayEquals(new long[]{0, 1, 0, 2}, columnar.getCodes(3));
+    }
+
+    /**
+     * Tests missing fields and aggregations that need scanning
+     */
+    @Test
+    public void testMissingFields() {
+        ColumnarCsv columnar = ColumnarCsv.read(ColumnarCsv.encode("a,b\n1,2\n3\n".getBytes(StandardCharsets.UTF_8), ","));
+
+        Assert.assertFalse(columnar.isNumeric(1));
+        Assert.assertArrayEquals(new long[]{0, -1}, columnar.getCodes(1));
+        Assert.assertNull(columnar.aggregate(1, false, CsvAggregationMethod.COUNT, null, HyperLogLog.DEFAULT_PRECISION));
+        Assert.assertNull(columnar.aggregate(1, false, CsvAggregationMethod.SUM, null, HyperLogLog.DEFAULT_PRECISION));
+        Assert.assertEquals(0, new BigDecimal("4").compareTo(columnar.aggregate(0, false, CsvAggregationMethod.SUM, null, HyperLogLog.DEFAULT_PRECISION)));
+        // header value is not a number
+        Assert.assertNull(columnar.aggregate(0, true, CsvAggregationMethod.SUM, null, HyperLogLog.DEFAULT_PRECISION));
+    }
+
+    /**
+     * Tests that aggregations from columnar file equal aggregations of text
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testAggregate() throws FileException {
+        FileDataSource text = new FileDataSource();
+        text.setFile(FILE.getBytes(StandardCharsets.UTF_8));
+        FileDataSource columnar = new FileDataSource();
+        columnar.setFile(text.getFile());
+        columnar.setColumnarFile(ColumnarCsv.encode(text.getFile(), ";"));
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "true", "csvDelimiter", ";",
+                "csvPercentile", "75"));
+        for (String column : List.of("failedLogins", "balance", "username")) {
+            attributes.put("csvColumnName", column);
+            for (CsvAggregationMethod method : CsvAggregationMethod.values()) {
+                attributes.put("csvAggregationMethod", method.name());
+                CsvUtil.Outcome expected = new CsvUtil(text).measureAll(List.of(attributes)).get(0);
+                CsvUtil.Outcome actual = new CsvUtil(columnar).measureAll(List.of(attributes)).get(0);
+                Assert.assertEquals(expected.getError(), actual.getError());
+                if (expected.getValue() != null) {
+                    Assert.assertEquals(0, expected.getValue().compareTo(actual.getValue()));
+                }
+            }
+        }
+    }
+}
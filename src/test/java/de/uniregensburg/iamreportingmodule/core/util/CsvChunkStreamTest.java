@@ -0,0 +1,92 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests cutting csv data into compressed chunks of complete records
+ *
+ * @author Julian Bauer
+ */
+public class CsvChunkStreamTest {
+
+    /**
+     * Writes data in small parts and returns decompressed chunks
+     *
+     * @param data
+     * @param chunkSize
+     * @return
+     * @throws IOException
+     */
+    private List<byte[]> cut(String data, int chunkSize) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        try (CsvChunkStream stream = new CsvChunkStream(chunkSize, (chunkIndex, compressed) -> {
+            Assert.assertEquals(chunks.size(), chunkIndex);
+            chunks.add(CsvChunkStream.decompress(compressed));
+        })) {
+            for (int i = 0; i < bytes.length; i += 5) {
+                stream.write(bytes, i, Math.min(5, bytes.length - i));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns number of records of data
+     *
+     * @param data
+     * @return
+     */
+    private int countRecords(byte[] data) {
+        CsvScanner scanner = new CsvScanner(ByteBuffer.wrap(data), ";");
+        int records = 0;
+        while (scanner.nextRecord()) {
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Tests that chunks hold complete records and restore data
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testChunks() throws IOException {
+        String data = "name;city\n\"Alice\nSmith\";Regensburg\r\n\"Bob \"\"B\"\"\";Passau\rCarol;\"M\r\nunich\"\nDave;Berlin";
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        for (int chunkSize : List.of(1, 4, 12, 30, 1000)) {
+            List<byte[]> chunks = cut(data, chunkSize);
+            ByteArrayOutputStream restored = new ByteArrayOutputStream();
+            int records = 0;
+            for (byte[] chunk : chunks) {
+                restored.write(chunk);
+                records += countRecords(chunk);
+            }
+            Assert.assertArrayEquals(bytes, restored.toByteArray());
+            Assert.assertEquals(countRecords(bytes), records);
+        }
+        // a chunk per record if chunk size is smaller than records
+        Assert.assertEquals(5, cut(data, 1).size());
+        Assert.assertEquals(1, cut(data, 1000).size());
+    }
+
+    /**
+     * Tests decompressing invalid chunks
+     */
+    @Test
+    public void testDecompress() {
+        assertThrows(UncheckedIOException.class, () -> CsvChunkStream.decompress(new byte[]{1, 2, 3}));
+    }
+}
@@ -0,0 +1,113 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests scanning of csv data on bytes
+ *
+ * @author Julian Bauer
+ */
+public class CsvScannerTest {
+
+    /**
+     * Returns scanner for data
+     *
+     * @param data
+     * @param delimiter
+     * @return
+     */
+    private CsvScanner getScanner(String data, String delimiter) {
+        return new CsvScanner(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)), delimiter);
+    }
+
+    /**
+     * Tests quoted fields with delimiters, escaped quotes and line breaks
+     */
+    @Test
+    public void testQuotedFields() {
+        CsvScanner scanner = getScanner("name,comment,age\r\n\"Bauer, Julian\",\"said \"\"hi\"\"\nand left\",42\r\nanna,,7", ",");
+
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertEquals(List.of("name", "comment", "age"), scanner.getRecord());
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertEquals(List.of("Bauer, Julian", "said \"hi\"\nand left", "42"), scanner.getRecord());
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertTrue(scanner.field(1));
+        Assert.assertEquals("", scanner.getString());
+        Assert.assertTrue(scanner.field(2));
+        Assert.assertEquals(7, scanner.getDouble(), 0);
+        Assert.assertFalse(scanner.nextRecord());
+    }
+
+    /**
+     * Tests skipping of fields and records with less fields
+     */
+    @Test
+    public void testFields() {
+        CsvScanner scanner = getScanner("1;2;3\n4\n", ";");
+
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertTrue(scanner.field(2));
+        Assert.assertEquals("3", scanner.getString());
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertFalse(scanner.field(1));
+        Assert.assertFalse(scanner.nextRecord());
+    }
+
+    /**
+     * Tests visiting fields already passed
+     */
+    @Test
+    public void testRevisitFields() {
+        CsvScanner scanner = getScanner("\"a\"\"b\";LOCKED;3\n", ";");
+
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertTrue(scanner.field(2));
+        Assert.assertTrue(scanner.field(1));
+        Assert.assertTrue(scanner.equalsField("LOCKED".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertTrue(scanner.field(0));
+        Assert.assertEquals("a\"b", scanner.getString());
+        Assert.assertTrue(scanner.equalsField("a\"b".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertTrue(scanner.field(2));
+        Assert.assertEquals(3, scanner.getDouble(), 0);
+        Assert.assertFalse(scanner.nextRecord());
+    }
+
+    /**
+     * Tests delimiter with several characters
+     */
+    @Test
+    public void testDelimiter() {
+        CsvScanner scanner = getScanner("a||b|c||d", "||");
+
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertEquals(List.of("a", "b|c", "d"), scanner.getRecord());
+    }
+
+    /**
+     * Tests parsing of numbers from bytes
+     */
+    @Test
+    public void testNumbers() {
+        CsvScanner scanner = getScanner("-12.50,.5,1e3,12345678901234567890.1,\"3\"", ",");
+
+        Assert.assertTrue(scanner.nextRecord());
+        Assert.assertTrue(scanner.field(0));
+        Assert.assertEquals(new BigDecimal("-12.50"), scanner.getDecimal());
+        Assert.assertEquals(-12.5, scanner.getDouble(), 0);
+        Assert.assertTrue(scanner.field(1));
+        Assert.assertEquals(new BigDecimal("0.5"), scanner.getDecimal());
+        Assert.assertTrue(scanner.field(2));
+        Assert.assertEquals(0, new BigDecimal("1000").compareTo(scanner.getDecimal()));
+        Assert.assertTrue(scanner.field(3));
+        Assert.assertEquals(new BigDecimal("12345678901234567890.1"), scanner.getDecimal());
+        Assert.assertTrue(scanner.field(4));
+        Assert.assertEquals(new BigDecimal("3"), scanner.getDecimal());
+    }
+}
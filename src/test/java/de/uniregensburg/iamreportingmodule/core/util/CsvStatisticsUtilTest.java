@@ -0,0 +1,145 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FileException;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests measuring csv files from precomputed column statistics
+ *
+ * @author Julian Bauer
+ */
+public class CsvStatisticsUtilTest {
+
+    private static final String FILE = "username,failedLogins,department\nalice,3,it\nbob,8,hr\ncarol,1,it\ndave,4,\"r,d\"\n";
+
+    /**
+     * Returns datasource with file and computed statistics
+     *
+     * @param file
+     * @return
+     */
+    private FileDataSource getDataSource(String file) {
+        FileDataSource fileDataSource = new FileDataSource();
+        fileDataSource.setFile(file.getBytes(StandardCharsets.UTF_8));
+        new CsvStatisticsUtil(fileDataSource).computeStatistics();
+        return fileDataSource;
+    }
+
+    /**
+     * Tests detection of delimiter
+     */
+    @Test
+    public void testSniffDelimiter() {
+        Assert.assertEquals(",", getDataSource(FILE).getStatisticsDelimiter());
+        Assert.assertEquals(3, getDataSource(FILE).getColumnStatistics().size());
+        Assert.assertEquals("\t", getDataSource("a\tb\n1\t2\n").getStatisticsDelimiter());
+        Assert.assertNull(getDataSource("a\n1\n2\n").getStatisticsDelimiter());
+        Assert.assertNull(getDataSource("a;b\n1;2;3\n").getStatisticsDelimiter());
+    }
+
+    /**
+     * Tests that results from statistics equal results of scanning the file
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testMeasure() throws FileException {
+        FileDataSource fileDataSource = getDataSource(FILE);
+        CsvStatisticsUtil util = new CsvStatisticsUtil(fileDataSource);
+        CsvUtil csvUtil = new CsvUtil(fileDataSource);
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "true", "csvColumnName", "failedLogins",
+                "csvDelimiter", ",", "csvPercentile", "50"));
+        for (CsvAggregationMethod method : List.of(CsvAggregationMethod.COUNT, CsvAggregationMethod.SUM,
+                CsvAggregationMethod.MINIMUM, CsvAggregationMethod.MAXIMUM, CsvAggregationMethod.AVERAGE)) {
+            attributes.put("csvAggregationMethod", method.name());
+            Assert.assertEquals(0, csvUtil.measure(attributes).getValue().compareTo(util.measure(attributes).getValue()));
+        }
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.APPROXIMATE_PERCENTILE.name());
+        Assert.assertEquals(3.5, util.measure(attributes).getValue().doubleValue(), 0.5);
+        // exact percentiles need scanning
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.MEDIAN.name());
+        Assert.assertNull(util.measure(attributes));
+    }
+
+    /**
+     * Tests that distinct counts from statistics equal results of scanning, few distinct values are counted by scanning
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testCountDistinct() throws FileException {
+        StringBuilder file = new StringBuilder("u0,1\n");
+        for (int i = 1; i < 100000; i++) {
+            file.append('u').append(i).append(',').append(i % 3).append('\n');
+        }
+        FileDataSource fileDataSource = getDataSource(file.toString());
+        CsvStatisticsUtil util = new CsvStatisticsUtil(fileDataSource);
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "false", "csvColumnIndex", "0",
+                "csvDelimiter", ",", "csvAggregationMethod", CsvAggregationMethod.COUNT_DISTINCT.name()));
+
+        Assert.assertEquals(0, new CsvUtil(fileDataSource).measure(attributes).getValue().compareTo(util.measure(attributes).getValue()));
+        attributes.put("csvColumnIndex", "1");
+        Assert.assertNull(util.measure(attributes));
+    }
+
+    /**
+     * Tests first record as data, non-numeric columns and other delimiters
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testFirstRecordAndFallback() throws FileException {
+        FileDataSource fileDataSource = getDataSource("5;x\n3;y\n8;z\n");
+        CsvStatisticsUtil util = new CsvStatisticsUtil(fileDataSource);
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "false", "csvColumnIndex", "0",
+                "csvDelimiter", ";", "csvAggregationMethod", CsvAggregationMethod.SUM.name()));
+
+        Assert.assertEquals(0, new BigDecimal("16").compareTo(util.measure(attributes).getValue()));
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.MINIMUM.name());
+        Assert.assertEquals(0, new BigDecimal("3").compareTo(util.measure(attributes).getValue()));
+        // non-numeric column is counted, but not summed
+        attributes.put("csvColumnIndex", "1");
+        Assert.assertNull(util.measure(attributes));
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.COUNT.name());
+        Assert.assertEquals(0, new BigDecimal("3").compareTo(util.measure(attributes).getValue()));
+        // statistics were computed with another delimiter
+        attributes.put("csvDelimiter", ",");
+        Assert.assertNull(util.measure(attributes));
+    }
+
+    /**
+     * Tests statistics of file in segments like a file mapped in windows: results equal results of whole file
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testSegments() throws FileException {
+        FileDataSource whole = getDataSource(FILE);
+        FileDataSource segmented = new FileDataSource();
+        segmented.setFile(FILE.getBytes(StandardCharsets.UTF_8));
+        int cut = FILE.indexOf("carol");
+        new CsvStatisticsUtil(segmented).computeStatistics(List.of(
+                ByteBuffer.wrap(FILE.substring(0, cut).getBytes(StandardCharsets.UTF_8)),
+                ByteBuffer.wrap(FILE.substring(cut).getBytes(StandardCharsets.UTF_8))));
+
+        Assert.assertEquals(",", segmented.getStatisticsDelimiter());
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "true", "csvColumnName", "failedLogins",
+                "csvDelimiter", ","));
+        for (CsvAggregationMethod aggregationMethod : List.of(CsvAggregationMethod.COUNT, CsvAggregationMethod.SUM,
+                CsvAggregationMethod.MAXIMUM)) {
+            attributes.put("csvAggregationMethod", aggregationMethod.name());
+            Assert.assertEquals(new CsvStatisticsUtil(whole).measure(attributes).getValue(),
+                    new CsvStatisticsUtil(segmented).measure(attributes).getValue());
+        }
+    }
+}
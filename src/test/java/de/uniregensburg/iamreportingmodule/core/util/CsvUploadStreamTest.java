@@ -0,0 +1,72 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests validating csv uploads while they are written
+ *
+ * @author Julian Bauer
+ */
+public class CsvUploadStreamTest {
+
+    /**
+     * Writes bytes in small parts like an upload and finishes stream
+     *
+     * @param bytes
+     * @param maxSize
+     * @return
+     * @throws IOException
+     */
+    private CsvUploadStream write(byte[] bytes, long maxSize) throws IOException {
+        CsvUploadStream stream = new CsvUploadStream(new ByteArrayOutputStream(), maxSize);
+        for (int i = 0; i < bytes.length; i += 3) {
+            stream.write(bytes, i, Math.min(3, bytes.length - i));
+        }
+        stream.finish();
+        return stream;
+    }
+
+    /**
+     * Tests valid files
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testValid() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvUploadStream stream = new CsvUploadStream(out, 100);
+        byte[] bytes = "name;city\n\"M\u00fcller\nJr.\";\"R\"\"egensburg\"\r\nB\u00e4r;Passau".getBytes(StandardCharsets.UTF_8);
+        stream.write(bytes);
+        stream.finish();
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+        Assert.assertEquals(bytes.length, stream.getSize());
+        Assert.assertEquals(3, stream.getRecords());
+
+        // multi-byte sequences split between writes
+        Assert.assertEquals(2, write("\u20ac;\ud83d\ude00\n1;2\n".getBytes(StandardCharsets.UTF_8), 100).getRecords());
+    }
+
+    /**
+     * Tests invalid files
+     */
+    @Test
+    public void testInvalid() {
+        Assert.assertEquals("File exceeds maximum size of 0 MB",
+                assertThrows(IOException.class, () -> write("a;b\n1;2\n".getBytes(StandardCharsets.UTF_8), 5)).getMessage());
+        Assert.assertEquals("File is not a text file",
+                assertThrows(IOException.class, () -> write(new byte[]{'a', 0, 'b'}, 100)).getMessage());
+        Assert.assertEquals("File is not UTF-8 encoded",
+                assertThrows(IOException.class, () -> write("M\u00fcller".getBytes(StandardCharsets.ISO_8859_1), 100)).getMessage());
+        Assert.assertEquals("File is not UTF-8 encoded",
+                assertThrows(IOException.class, () -> write(new byte[]{'a', (byte) 0xe2, (byte) 0x82}, 100)).getMessage());
+        Assert.assertEquals("File ends inside of a quoted field",
+                assertThrows(IOException.class, () -> write("a;\"b\n1;2\n".getBytes(StandardCharsets.UTF_8), 100)).getMessage());
+    }
+}
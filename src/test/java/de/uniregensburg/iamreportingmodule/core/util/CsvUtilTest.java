@@ -0,0 +1,325 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FileException;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvAggregationMethod;
+import de.uniregensburg.iamreportingmodule.data.entity.CsvFilterOperator;
+import de.uniregensburg.iamreportingmodule.data.entity.FileDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests measuring of csv files
+ *
+ * @author Julian Bauer
+ */
+public class CsvUtilTest {
+
+    private static final String FILE = "username;failedLogins\nalice;3\nbob;8\ncarol;1\ndave;4\n";
+
+    /**
+     * Returns util for file
+     *
+     * @param file
+     * @return
+     */
+    private CsvUtil getUtil(String file) {
+        FileDataSource fileDataSource = new FileDataSource();
+        fileDataSource.setFile(file.getBytes(StandardCharsets.UTF_8));
+        return new CsvUtil(fileDataSource);
+    }
+
+    /**
+     * Returns attributes of measurement with header
+     *
+     * @param aggregationMethod
+     * @return
+     */
+    private Map<String, String> getAttributes(CsvAggregationMethod aggregationMethod) {
+        return Map.of("csvHeader", "true", "csvColumnName", "failedLogins", "csvDelimiter", ";",
+                "csvAggregationMethod", aggregationMethod.name());
+    }
+
+    /**
+     * Tests all aggregation methods
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testAggregationMethods() throws FileException {
+        CsvUtil util = getUtil(FILE);
+
+        Assert.assertEquals(0, new BigDecimal("4").compareTo(util.measure(getAttributes(CsvAggregationMethod.COUNT)).getValue()));
+        Assert.assertEquals(0, new BigDecimal("16").compareTo(util.measure(getAttributes(CsvAggregationMethod.SUM)).getValue()));
+        Assert.assertEquals(0, new BigDecimal("1").compareTo(util.measure(getAttributes(CsvAggregationMethod.MINIMUM)).getValue()));
+        Assert.assertEquals(0, new BigDecimal("8").compareTo(util.measure(getAttributes(CsvAggregationMethod.MAXIMUM)).getValue()));
+        Assert.assertEquals(0, new BigDecimal("4").compareTo(util.measure(getAttributes(CsvAggregationMethod.AVERAGE)).getValue()));
+        Assert.assertEquals(0, new BigDecimal("3.5").compareTo(util.measure(getAttributes(CsvAggregationMethod.MEDIAN)).getValue()));
+    }
+
+    /**
+     * Tests column by index without header
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testColumnIndex() throws FileException {
+        CsvUtil util = getUtil("1,2,3\n4,5,6\n");
+        Map<String, String> attributes = Map.of("csvHeader", "false", "csvColumnIndex", "2", "csvDelimiter", ",",
+                "csvAggregationMethod", CsvAggregationMethod.SUM.name());
+
+        Assert.assertEquals(0, new BigDecimal("9").compareTo(util.measure(attributes).getValue()));
+    }
+
+    /**
+     * Tests missing column and file without data
+     */
+    @Test
+    public void testErrors() {
+        Map<String, String> attributes = Map.of("csvHeader", "true", "csvColumnName", "unknown", "csvDelimiter", ";",
+                "csvAggregationMethod", CsvAggregationMethod.SUM.name());
+
+        Exception exception = Assertions.assertThrows(FileException.class, () -> getUtil(FILE).measure(attributes));
+        Assert.assertEquals("No column with name unknown found", exception.getMessage());
+        exception = Assertions.assertThrows(FileException.class, () -> getUtil("username;failedLogins\n").measure(getAttributes(CsvAggregationMethod.SUM)));
+        Assert.assertEquals("No data found", exception.getMessage());
+    }
+
+    /**
+     * Tests exact and approximate percentiles
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testPercentiles() throws FileException {
+        StringBuilder file = new StringBuilder("accountAge\n");
+        for (int i = 100; i >= 1; i--) {
+            file.append(i).append('\n');
+        }
+        CsvUtil util = getUtil(file.toString());
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "true", "csvColumnName", "accountAge",
+                "csvDelimiter", ";", "csvPercentile", "90"));
+
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.PERCENTILE.name());
+        Assert.assertEquals(0, new BigDecimal("90.1").compareTo(util.measure(attributes).getValue()));
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.APPROXIMATE_PERCENTILE.name());
+        Assert.assertEquals(90.1, util.measure(attributes).getValue().doubleValue(), 1);
+        attributes.put("csvPercentile", "101");
+        Assertions.assertThrows(FileException.class, () -> util.measure(attributes));
+    }
+
+    /**
+     * Tests quoted fields containing the delimiter
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testQuotedFields() throws FileException {
+        CsvUtil util = getUtil("username;failedLogins\n\"bauer; julian\";3\n\"doe\";\"5\"\n");
+
+        Assert.assertEquals(0, new BigDecimal("8").compareTo(util.measure(getAttributes(CsvAggregationMethod.SUM)).getValue()));
+    }
+
+    /**
+     * Tests that parallel aggregation of chunks gives the same results as sequential aggregation, also if line feeds
+     * inside quoted fields prevent splitting at line feeds
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testParallel() throws FileException {
+        StringBuilder file = new StringBuilder("username;failedLogins\n");
+        StringBuilder quotedFile = new StringBuilder("username;failedLogins\n");
+        for (int i = 0; i < 200000; i++) {
+            file.append("user").append(i).append(';').append(i % 97).append('\n');
+            quotedFile.append("\"user with a long name\n").append(i).append("\";").append(i % 97).append('\n');
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String content : List.of(file.toString(), quotedFile.toString())) {
+                FileDataSource fileDataSource = new FileDataSource();
+                fileDataSource.setFile(content.getBytes(StandardCharsets.UTF_8));
+                CsvUtil sequential = new CsvUtil(fileDataSource, pool, Long.MAX_VALUE);
+                CsvUtil parallel = new CsvUtil(fileDataSource, pool, 0);
+                for (CsvAggregationMethod method : List.of(CsvAggregationMethod.COUNT, CsvAggregationMethod.SUM,
+                        CsvAggregationMethod.MINIMUM, CsvAggregationMethod.MAXIMUM, CsvAggregationMethod.AVERAGE,
+                        CsvAggregationMethod.MEDIAN, CsvAggregationMethod.COUNT_DISTINCT)) {
+                    Assert.assertEquals(0, sequential.measure(getAttributes(method)).getValue()
+                            .compareTo(parallel.measure(getAttributes(method)).getValue()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests measuring several columns in a single scan, errors of one measurement do not affect the others
+     */
+    @Test
+    public void testMeasureAll() {
+        CsvUtil util = getUtil("username;failedLogins;lockouts\nalice;3;1\nbob;8;x\ncarol;1;0\n");
+        Map<String, String> lockouts = Map.of("csvHeader", "true", "csvColumnName", "lockouts", "csvDelimiter", ";",
+                "csvAggregationMethod", CsvAggregationMethod.SUM.name());
+        Map<String, String> unknown = Map.of("csvHeader", "true", "csvColumnName", "unknown", "csvDelimiter", ";",
+                "csvAggregationMethod", CsvAggregationMethod.SUM.name());
+        Map<String, String> index = Map.of("csvHeader", "false", "csvColumnIndex", "0", "csvDelimiter", ";",
+                "csvAggregationMethod", CsvAggregationMethod.COUNT.name());
+
+        List<CsvUtil.Outcome> outcomes = util.measureAll(List.of(lockouts, getAttributes(CsvAggregationMethod.SUM),
+                unknown, getAttributes(CsvAggregationMethod.MAXIMUM), index));
+        Assert.assertEquals(5, outcomes.size());
+        Assert.assertTrue(outcomes.get(0).getError().startsWith("Error during aggregation"));
+        Assert.assertEquals(0, new BigDecimal("12").compareTo(outcomes.get(1).getValue()));
+        Assert.assertEquals("No column with name unknown found", outcomes.get(2).getError());
+        Assert.assertEquals(0, new BigDecimal("8").compareTo(outcomes.get(3).getValue()));
+        Assert.assertEquals(0, new BigDecimal("4").compareTo(outcomes.get(4).getValue()));
+    }
+
+    /**
+     * Tests filters on other columns, also on columns after the aggregated column and with column indexes
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testFilter() throws FileException {
+        CsvUtil util = getUtil("failedLogins;status;department\n3;LOCKED;IT\n8;ACTIVE;IT\nx;ACTIVE;HR\n1;LOCKED;HR\n");
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "true", "csvColumnName", "failedLogins",
+                "csvDelimiter", ";", "csvAggregationMethod", CsvAggregationMethod.COUNT.name(),
+                "csvFilterColumnName", "status", "csvFilterOperator", CsvFilterOperator.EQUALS.name(), "csvFilterValue", "LOCKED"));
+
+        Assert.assertEquals(0, new BigDecimal("2").compareTo(util.measure(attributes).getValue()));
+        // values of records not matching are not parsed
+        attributes.put("csvAggregationMethod", CsvAggregationMethod.SUM.name());
+        attributes.put("csvFilterColumnName", "department");
+        attributes.put("csvFilterValue", "IT");
+        Assert.assertEquals(0, new BigDecimal("11").compareTo(util.measure(attributes).getValue()));
+        attributes.put("csvFilterOperator", CsvFilterOperator.NOT_EQUALS.name());
+        attributes.put("csvFilterValue", "HR");
+        Assert.assertEquals(0, new BigDecimal("11").compareTo(util.measure(attributes).getValue()));
+        attributes.put("csvFilterColumnName", "unknown");
+        Assert.assertEquals("No filter column with name unknown found",
+                Assertions.assertThrows(FileException.class, () -> util.measure(attributes)).getMessage());
+
+        // numeric operators without header
+        Map<String, String> indexAttributes = new HashMap<>(Map.of("csvHeader", "false", "csvColumnIndex", "1",
+                "csvDelimiter", ",", "csvAggregationMethod", CsvAggregationMethod.SUM.name(),
+                "csvFilterColumnIndex", "0", "csvFilterOperator", CsvFilterOperator.GREATER_OR_EQUAL.name(), "csvFilterValue", "2"));
+        CsvUtil indexUtil = getUtil("1,10\n2,20\n3,30\n");
+        Assert.assertEquals(0, new BigDecimal("50").compareTo(indexUtil.measure(indexAttributes).getValue()));
+        indexAttributes.put("csvFilterOperator", CsvFilterOperator.LESS.name());
+        Assert.assertEquals(0, new BigDecimal("10").compareTo(indexUtil.measure(indexAttributes).getValue()));
+        indexAttributes.put("csvFilterValue", "a");
+        Assertions.assertThrows(FileException.class, () -> indexUtil.measure(indexAttributes));
+        indexAttributes.put("csvFilterValue", "0");
+        Assert.assertEquals("No data found",
+                Assertions.assertThrows(FileException.class, () -> indexUtil.measure(indexAttributes)).getMessage());
+    }
+
+    /**
+     * Tests exact distinct counting of few values and estimated distinct counting of many values, also in parallel
+     * and from columnar file
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testCountDistinct() throws FileException {
+        CsvUtil util = getUtil("username;role\nalice;admin\nbob;user\n\"alice\";admin\ncarol;admin\n");
+        Map<String, String> attributes = new HashMap<>(Map.of("csvHeader", "true", "csvColumnName", "username",
+                "csvDelimiter", ";", "csvAggregationMethod", CsvAggregationMethod.COUNT_DISTINCT.name(),
+                "csvFilterColumnName", "role", "csvFilterOperator", CsvFilterOperator.EQUALS.name(), "csvFilterValue", "admin"));
+        Assert.assertEquals(0, new BigDecimal("2").compareTo(util.measure(attributes).getValue()));
+
+        int distinct = 200000;
+        StringBuilder file = new StringBuilder("username;role\n");
+        for (int i = 0; i < distinct * 2; i++) {
+            file.append("user").append(i % distinct).append(";admin\n");
+        }
+        FileDataSource fileDataSource = new FileDataSource();
+        fileDataSource.setFile(file.toString().getBytes(StandardCharsets.UTF_8));
+        attributes.put("csvDistinctPrecision", "14");
+        BigDecimal sequential = new CsvUtil(fileDataSource, ForkJoinPool.commonPool(), Long.MAX_VALUE).measure(attributes).getValue();
+        Assert.assertEquals(distinct, sequential.doubleValue(), distinct * 0.03);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assert.assertEquals(0, sequential.compareTo(new CsvUtil(fileDataSource, pool, 0).measure(attributes).getValue()));
+        } finally {
+            pool.shutdown();
+        }
+        fileDataSource.setColumnarFile(ColumnarCsv.encode(fileDataSource.getFile(), ";"));
+        attributes.remove("csvFilterOperator");
+        Assert.assertEquals(0, sequential.compareTo(new CsvUtil(fileDataSource).measure(attributes).getValue()));
+        attributes.put("csvDistinctPrecision", "20");
+        Assertions.assertThrows(FileException.class, () -> new CsvUtil(fileDataSource).measure(attributes));
+    }
+
+    /**
+     * Tests columnar representation loaded on demand: loaded once and used instead of scanning the file
+     *
+     * @throws FileException
+     */
+    @Test
+    public void testColumnarLoader() throws FileException {
+        FileDataSource fileDataSource = new FileDataSource();
+        byte[] columnarFile = ColumnarCsv.encode(FILE.getBytes(StandardCharsets.UTF_8), ";");
+        int[] loads = {0};
+        // no segments, values can only be aggregated from columnar representation
+        CsvUtil util = new CsvUtil(fileDataSource, List.of(), () -> {
+            loads[0]++;
+            return columnarFile;
+        }, ForkJoinPool.commonPool(), Long.MAX_VALUE);
+
+        Assert.assertEquals(0, loads[0]);
+        Assert.assertEquals(0, new BigDecimal("16").compareTo(util.measure(getAttributes(CsvAggregationMethod.SUM)).getValue()));
+        Assert.assertEquals(0, new BigDecimal("8").compareTo(util.measure(getAttributes(CsvAggregationMethod.MAXIMUM)).getValue()));
+        Assert.assertEquals(1, loads[0]);
+
+        // file not converted: file is scanned
+        CsvUtil scanned = new CsvUtil(fileDataSource, List.of(ByteBuffer.wrap(FILE.getBytes(StandardCharsets.UTF_8))),
+                () -> null, ForkJoinPool.commonPool(), Long.MAX_VALUE);
+        Assert.assertEquals(0, new BigDecimal("16").compareTo(scanned.measure(getAttributes(CsvAggregationMethod.SUM)).getValue()));
+    }
+
+    /**
+     * Tests measuring a file stored in compressed chunks, segment by segment
+     *
+     * @throws IOException
+     * @throws FileException
+     */
+    @Test
+    public void testSegments() throws IOException, FileException {
+        StringBuilder file = new StringBuilder("username;failedLogins\n");
+        for (int i = 0; i < 1000; i++) {
+            file.append("\"user\n").append(i).append("\";").append(i % 97).append('\n');
+        }
+        FileDataSource fileDataSource = new FileDataSource();
+        fileDataSource.setFile(file.toString().getBytes(StandardCharsets.UTF_8));
+        List<ByteBuffer> segments = new ArrayList<>();
+        try (CsvChunkStream stream = new CsvChunkStream(1000,
+                (chunkIndex, compressed) -> segments.add(ByteBuffer.wrap(CsvChunkStream.decompress(compressed))))) {
+            stream.write(fileDataSource.getFile());
+        }
+        Assert.assertTrue(segments.size() > 10);
+        CsvUtil whole = new CsvUtil(fileDataSource);
+        CsvUtil segmented = new CsvUtil(fileDataSource, segments, ForkJoinPool.commonPool(), CsvUtil.DEFAULT_PARALLEL_THRESHOLD);
+        for (CsvAggregationMethod method : List.of(CsvAggregationMethod.COUNT, CsvAggregationMethod.SUM,
+                CsvAggregationMethod.MINIMUM, CsvAggregationMethod.MAXIMUM, CsvAggregationMethod.MEDIAN)) {
+            Assert.assertEquals(0, whole.measure(getAttributes(method)).getValue()
+                    .compareTo(segmented.measure(getAttributes(method)).getValue()));
+        }
+        // errors in later segments
+        segments.add(ByteBuffer.wrap("\"user\";x\n".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertTrue(segmented.measureAll(List.of(getAttributes(CsvAggregationMethod.SUM))).get(0).getError()
+                .startsWith("Error during aggregation"));
+    }
+}
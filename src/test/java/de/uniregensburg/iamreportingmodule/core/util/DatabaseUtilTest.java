@@ -7,8 +7,11 @@ import de.uniregensburg.iamreportingmodule.data.entity.Result;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Tests database util: connection to postgresql database and execution of simple select statement
@@ -72,4 +75,73 @@ public class DatabaseUtilTest {
         BigDecimal actual = result.getValue();
         Assert.assertEquals(expected,actual);
     }
+
+    /**
+     * Tests executing several sql queries in one round-trip
+     *
+     * @throws DatabaseException
+     */
+    @Test
+    public void countAccountsBatched() throws DatabaseException {
+        List<String> queries = List.of("SELECT COUNT(*) FROM users;",
+                "SELECT COUNT(*) FROM users WHERE username = 'admin' -- comment",
+                "SELECT 3");
+        List<BigDecimal> actual = databaseUtil.measureAll(queries);
+        Assert.assertEquals(List.of(new BigDecimal(2), new BigDecimal(1), new BigDecimal(3)), actual);
+    }
+
+    /**
+     * Tests query of interrupted thread: not executed, fails
+     */
+    @Test
+    public void interruptedBeforeExecution() {
+        Thread.currentThread().interrupt();
+        try {
+            Assertions.assertThrows(DatabaseException.class, () -> databaseUtil.measure("SELECT COUNT(*) FROM users;"));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Tests detecting queries executable in one round-trip
+     */
+    @Test
+    public void batchable() {
+        Assert.assertTrue(DatabaseUtil.isBatchable("SELECT COUNT(*) FROM users"));
+        Assert.assertTrue(DatabaseUtil.isBatchable("SELECT COUNT(*) FROM users; \n"));
+        Assert.assertFalse(DatabaseUtil.isBatchable("SELECT 1; SELECT 2"));
+        Assert.assertFalse(DatabaseUtil.isBatchable("SELECT COUNT(*) FROM users WHERE username = ';'"));
+        Assert.assertFalse(DatabaseUtil.isBatchable(" "));
+    }
+
+    /**
+     * Tests aggregating rows returned by sql query client side: counts distinct usernames in table users
+     *
+     * @throws DatabaseException
+     */
+    @Test
+    public void countDistinctAccountsAggregated() throws DatabaseException {
+        String query = "SELECT username FROM users UNION ALL SELECT username FROM users";
+        CsvAggregator aggregator = DatabaseUtil.getAggregator(Map.of("sqlAggregationMethod", "COUNT_DISTINCT"));
+        Result result = databaseUtil.measure(query, aggregator, 1);
+        Assert.assertEquals(new BigDecimal(2), result.getValue());
+    }
+
+    /**
+     * Tests creating aggregators from attributes
+     *
+     * @throws DatabaseException
+     */
+    @Test
+    public void aggregator() throws DatabaseException {
+        Assert.assertNull(DatabaseUtil.getAggregator(Map.of("sqlQuery", "SELECT 1")));
+        CsvAggregator aggregator = DatabaseUtil.getAggregator(Map.of("sqlAggregationMethod", "PERCENTILE", "sqlPercentile", "50"));
+        aggregator.add("1");
+        aggregator.add("3");
+        Assert.assertEquals(0, new BigDecimal(2).compareTo(aggregator.getResult()));
+        Assertions.assertThrows(DatabaseException.class, () -> DatabaseUtil.getAggregator(Map.of("sqlAggregationMethod", "PERCENTILE")));
+        Assertions.assertThrows(DatabaseException.class, () -> DatabaseUtil.getAggregator(Map.of("sqlAggregationMethod", "UNKNOWN")));
+        Assertions.assertThrows(DatabaseException.class, () -> DatabaseUtil.getAggregator(Map.of("sqlAggregationMethod", "COUNT_DISTINCT", "sqlDistinctPrecision", "x")));
+    }
 }
@@ -0,0 +1,79 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests double fast path of formulas
+ *
+ * @author Julian Bauer
+ */
+public class DoubleFormulaTest {
+
+    /**
+     * Tests ratio of two slots
+     */
+    @Test
+    public void testRatio() {
+        DoubleFormula formula = DoubleFormula.compile("slot0/slot1", 2);
+
+        Assert.assertNotNull(formula);
+        Assert.assertEquals(0.023, formula.evaluate(new double[]{23, 1000}), 0);
+    }
+
+    /**
+     * Tests precedence of operators, unary minus and parentheses
+     */
+    @Test
+    public void testPrecedence() {
+        DoubleFormula formula = DoubleFormula.compile("(slot0 + 1) * (2 - 3) + -slot1 / 4", 2);
+
+        Assert.assertNotNull(formula);
+        Assert.assertEquals(-13.5, formula.evaluate(new double[]{10, 10}), 0);
+    }
+
+    /**
+     * Tests supported functions
+     */
+    @Test
+    public void testFunctions() {
+        DoubleFormula formula = DoubleFormula.compile("MAX(slot0, 2, 3) + MIN(slot0, 2) + ABS(-4) + SQRT(16)", 1);
+
+        Assert.assertNotNull(formula);
+        Assert.assertEquals(12, formula.evaluate(new double[]{1}), 0);
+    }
+
+    /**
+     * Tests unsupported operators and functions: not compiled
+     */
+    @Test
+    public void testUnsupported() {
+        Assert.assertNull(DoubleFormula.compile("slot0 ^ 2", 1));
+        Assert.assertNull(DoubleFormula.compile("ROUND(slot0, 2)", 1));
+        Assert.assertNull(DoubleFormula.compile("slot0 + PI", 1));
+        Assert.assertNull(DoubleFormula.compile("slot1", 1));
+    }
+
+    /**
+     * Tests precision loss: cancellation of large values exceeds tolerance and returns NaN
+     */
+    @Test
+    public void testPrecisionLoss() {
+        DoubleFormula formula = DoubleFormula.compile("(slot0 - slot1) / 3", 2);
+
+        Assert.assertNotNull(formula);
+        Assert.assertTrue(Double.isNaN(formula.evaluate(new double[]{1e15 + 1, 1e15})));
+        Assert.assertFalse(Double.isNaN(formula.evaluate(new double[]{10, 7})));
+    }
+
+    /**
+     * Tests division by zero: returns NaN
+     */
+    @Test
+    public void testDivisionByZero() {
+        DoubleFormula formula = DoubleFormula.compile("slot0/slot1", 2);
+
+        Assert.assertNotNull(formula);
+        Assert.assertTrue(Double.isNaN(formula.evaluate(new double[]{1, 0})));
+    }
+}
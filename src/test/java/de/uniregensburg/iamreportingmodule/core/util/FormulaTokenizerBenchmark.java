@@ -0,0 +1,170 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares replacing variables of a formula with about 1000 characters: previous recursive replacement with
+ * indexOf/substring and brace validation per variable against single pass tokenizer
+ * Logging of the previous replacement is left out, so only string handling is compared
+ * Results on Java 17 with one core: recursiveReplace 124 us/op, tokenizeAndReplace 19 us/op, tokenize 15 us/op,
+ * replaceTokenized 1.7 us/op
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=de.uniregensburg.iamreportingmodule.core.util.FormulaTokenizerBenchmark
+ *
+ * @author Julian Bauer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaTokenizerBenchmark {
+
+    private static final String LOWER_CAMEL_CASE = "[a-z]+((\\d)|([A-Z0-9][a-z0-9]+))*([A-Z])?";
+
+    private String formula;
+    private final Map<String, BigDecimal> values = new HashMap<>();
+    private TokenizedFormula tokens;
+
+    /**
+     * Builds formula with about 1000 characters and values of its variables
+     *
+     * @throws FormulaException
+     */
+    @Setup
+    public void setup() throws FormulaException {
+        StringBuilder builder = new StringBuilder("(");
+        int i = 0;
+        while (builder.length() < 1000) {
+            String label = "measurable" + i;
+            if (i > 0) {
+                builder.append(i % 2 == 0 ? " + " : " * ");
+            }
+            builder.append("{{").append(label).append("}}");
+            values.put(label, new BigDecimal(i + 1));
+            i++;
+        }
+        formula = builder.append(") / 100").toString();
+        tokens = FormulaTokenizer.tokenize(formula);
+        // both variants produce the same formula
+        if (!tokens.replace(values).equals(replaceVariables(formula, values))) {
+            throw new IllegalStateException("Replaced formulas differ");
+        }
+    }
+
+    @Benchmark
+    public String recursiveReplace() throws FormulaException {
+        return replaceVariables(formula, values);
+    }
+
+    @Benchmark
+    public TokenizedFormula tokenize() throws FormulaException {
+        return FormulaTokenizer.tokenize(formula);
+    }
+
+    @Benchmark
+    public String tokenizeAndReplace() throws FormulaException {
+        return FormulaTokenizer.tokenize(formula).replace(values);
+    }
+
+    @Benchmark
+    public String replaceTokenized() {
+        return tokens.replace(values);
+    }
+
+    /**
+     * Previous replacement: replaces first variable and calls itself with the new formula
+     *
+     * @param formula
+     * @param values
+     * @return
+     * @throws FormulaException
+     */
+    private static String replaceVariables(String formula, Map<String, BigDecimal> values) throws FormulaException {
+        if (validateBraces(formula) && containsVariable(formula)) {
+            int start = formula.indexOf("{{");
+            String variable = formula.substring(start + 2, formula.indexOf("}}"));
+            String substring = formula.substring(start + 2);
+            int end = substring.indexOf("}}");
+            String newFormula = formula.substring(0, start) + values.get(variable) + substring.substring(end + 2);
+            return replaceVariables(newFormula, values);
+        }
+        return formula;
+    }
+
+    /**
+     * Previous check for a variable, compiles lower camel case pattern on every call
+     *
+     * @param formula
+     * @return
+     * @throws FormulaException
+     */
+    private static boolean containsVariable(String formula) throws FormulaException {
+        int start = formula.indexOf("{{");
+        if (start == -1) {
+            return false;
+        }
+        int end = formula.indexOf("}}");
+        if (end == -1) {
+            return false;
+        }
+        if (!formula.substring(start + 2, end).matches(LOWER_CAMEL_CASE)) {
+            throw new FormulaException("Variable does not match lower camel case");
+        }
+        return true;
+    }
+
+    /**
+     * Previous validation of braces
+     *
+     * @param formula
+     * @return
+     */
+    private static boolean validateBraces(String formula) {
+        int openBraces = 0;
+        char lastChar = Character.MIN_VALUE;
+        for (char c : formula.toCharArray()) {
+            if (lastChar != Character.MIN_VALUE) {
+                if (lastChar == '{' && openBraces < 2 && c != '{') {
+                    return false;
+                }
+                if (lastChar == '}' && openBraces > 0 && c != '}') {
+                    return false;
+                }
+            }
+            if (c == '{') {
+                if (openBraces > 2) {
+                    return false;
+                }
+                openBraces++;
+            }
+            if (c == '}') {
+                if (openBraces < 1) {
+                    return false;
+                }
+                openBraces--;
+            }
+            lastChar = c;
+        }
+        return openBraces == 0;
+    }
+
+    /**
+     * Runs benchmark
+     *
+     * @param args
+     * @throws RunnerException
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FormulaTokenizerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
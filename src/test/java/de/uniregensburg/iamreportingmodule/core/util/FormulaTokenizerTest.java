@@ -0,0 +1,124 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests formula tokenizer
+ *
+ * @author Julian Bauer
+ */
+public class FormulaTokenizerTest {
+
+    /**
+     * Tests spans and labels of variables
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testVariables() throws FormulaException {
+        String formula = "({{weakPasswords}} + 1) / {{passwords}} * {{weakPasswords}}";
+        TokenizedFormula tokens = FormulaTokenizer.tokenize(formula);
+
+        Assert.assertTrue(tokens.hasValidBraces());
+        Assert.assertEquals(3, tokens.getVariableCount());
+        Assert.assertEquals("weakPasswords", tokens.getLabel(0));
+        Assert.assertEquals(1, tokens.getStart(0));
+        Assert.assertEquals(18, tokens.getEnd(0));
+        Assert.assertEquals(List.of("weakPasswords", "passwords"), List.copyOf(tokens.getLabels()));
+    }
+
+    /**
+     * Tests replacing variables with values
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testReplace() throws FormulaException {
+        String formula = "{{identicalPasswords}}/{{passwords}}";
+        TokenizedFormula tokens = FormulaTokenizer.tokenize(formula);
+
+        String actual = tokens.replace(Map.of("identicalPasswords", new BigDecimal("23"), "passwords", new BigDecimal("1000")));
+
+        Assert.assertEquals("23/1000", actual);
+    }
+
+    /**
+     * Tests formula without variables
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testNoVariables() throws FormulaException {
+        String formula = "1 + 2 / (4 * SQRT(4))";
+        TokenizedFormula tokens = FormulaTokenizer.tokenize(formula);
+
+        Assert.assertTrue(tokens.hasValidBraces());
+        Assert.assertEquals(0, tokens.getVariableCount());
+        Assert.assertEquals(formula, tokens.replace(Map.of()));
+    }
+
+    /**
+     * Tests invalid braces: no variables are returned
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testInvalidBraces() throws FormulaException {
+        String formula = "({{identicalPasswords}} + {{weakPasswords}) * (2 - 3)";
+        TokenizedFormula tokens = FormulaTokenizer.tokenize(formula);
+
+        Assert.assertFalse(tokens.hasValidBraces());
+        Assert.assertEquals(0, tokens.getVariableCount());
+    }
+
+    /**
+     * Tests uppercase variable
+     */
+    @Test
+    public void testUppercaseVariable() {
+        String formula = "({{UPPERCASE}} + 1) * (2 - 3)";
+
+        Exception exception = Assertions.assertThrows(FormulaException.class, () -> FormulaTokenizer.tokenize(formula));
+
+        Assert.assertEquals("Variable does not match lower camel case", exception.getMessage());
+    }
+
+    /**
+     * Tests window function: whole call is replaced by value of window
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testWindow() throws FormulaException {
+        String formula = "AVG( {{failedLogins}}, 1h ) / {{failedLogins}}";
+        TokenizedFormula tokens = FormulaTokenizer.tokenize(formula);
+
+        Assert.assertEquals(2, tokens.getVariableCount());
+        Assert.assertEquals(1, tokens.getWindows().size());
+        FormulaWindow window = tokens.getWindows().iterator().next();
+        Assert.assertEquals(WindowFunction.AVG, window.getFunction());
+        Assert.assertEquals(3600, window.getSeconds());
+        Assert.assertEquals("failedLogins", window.getLabel());
+        Assert.assertEquals("4 / 2", tokens.replace(Map.of(window.getKey(), "4", "failedLogins", "2")));
+    }
+
+    /**
+     * Tests function without duration: variable is not a window
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testNoWindow() throws FormulaException {
+        TokenizedFormula tokens = FormulaTokenizer.tokenize("MAX({{failedLogins}}, 7)");
+
+        Assert.assertTrue(tokens.getWindows().isEmpty());
+        Assert.assertEquals("MAX(3, 7)", tokens.replace(Map.of("failedLogins", "3")));
+    }
+}
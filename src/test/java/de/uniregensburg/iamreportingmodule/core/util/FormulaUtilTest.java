@@ -5,10 +5,12 @@ import com.ezylang.evalex.EvaluationException;
 import com.ezylang.evalex.Expression;
 import com.ezylang.evalex.data.EvaluationValue;
 import com.ezylang.evalex.parser.ParseException;
+import de.uniregensburg.iamreportingmodule.core.exception.DeleteEntityException;
 import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import de.uniregensburg.iamreportingmodule.core.exception.SaveEntityException;
 import de.uniregensburg.iamreportingmodule.core.service.MeasurableService;
-import de.uniregensburg.iamreportingmodule.data.entity.Metric;
-import de.uniregensburg.iamreportingmodule.data.entity.Result;
+import de.uniregensburg.iamreportingmodule.data.entity.*;
+import de.uniregensburg.iamreportingmodule.data.repository.ResultRepository;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -20,7 +22,10 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -35,6 +40,8 @@ public class FormulaUtilTest {
 
     @Autowired
     private MeasurableService service;
+    @Autowired
+    private ResultRepository resultRepository;
     private FormulaUtil util;
 
     /**
@@ -137,6 +144,39 @@ public class FormulaUtilTest {
         Assert.assertEquals(new BigDecimal("26"), result.getNumberValue());
     }
 
+    /**
+     * Tests delta and rate of measurable with a single result: no earlier result to compare with
+     *
+     * @throws SaveEntityException
+     * @throws DeleteEntityException
+     */
+    @Test
+    public void testDeltaAndRateWithSingleResult() throws SaveEntityException, DeleteEntityException {
+        Measurement passwords = (Measurement) service.findAllMeasurablesByLabel("passwords").get(0);
+        Measurement measurement = new Measurement();
+        measurement.setDataSource(passwords.getDataSource());
+        measurement.setName("singleResult");
+        measurement.setLabel("singleResult");
+        measurement.setDescription("Test measurement");
+        measurement.setScale(Scale.RATIO);
+        measurement.setUnit(Unit.TOTAL);
+        measurement.setFrequency(new Frequency(Duration.parse("PT1H")));
+        service.saveMeasurement(measurement);
+        Result result = new Result(BigDecimal.TEN);
+        result.setMeasurable(measurement);
+        service.saveResult(result, false);
+        try {
+            for (String function : List.of("delta", "rate")) {
+                Exception exception = Assertions.assertThrows(FormulaException.class,
+                        () -> util.calculate(function + "({{singleResult}}, 1h)"));
+                Assert.assertEquals("Not enough results of singleResult for " + function, exception.getMessage());
+            }
+        } finally {
+            resultRepository.deleteByMeasurableIdBefore(measurement.getId(), new Date(System.currentTimeMillis() + 60000));
+            service.deleteMeasurement(measurement);
+        }
+    }
+
     /**
      * Tests uppercase variable
      *
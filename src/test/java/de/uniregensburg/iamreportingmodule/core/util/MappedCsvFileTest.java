@@ -0,0 +1,98 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests mapping csv files in windows of complete records, small windows stand in for windows of large files
+ *
+ * @author Julian Bauer
+ */
+public class MappedCsvFileTest {
+
+    private Path file;
+
+    /**
+     * Creates temporary file
+     *
+     * @throws IOException
+     */
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("mapped", ".csv");
+    }
+
+    /**
+     * Deletes temporary file
+     *
+     * @throws IOException
+     */
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Writes data to file and returns its windows
+     *
+     * @param data
+     * @param windowSize
+     * @return
+     * @throws IOException
+     */
+    private List<String> map(String data, int windowSize) throws IOException {
+        Files.writeString(file, data);
+        List<String> windows = new ArrayList<>();
+        for (ByteBuffer window : new MappedCsvFile(file, windowSize)) {
+            byte[] bytes = new byte[window.remaining()];
+            window.get(bytes);
+            windows.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return windows;
+    }
+
+    /**
+     * Tests windows: cut after last record fitting into window, windows together are the file
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testWindows() throws IOException {
+        Assert.assertEquals(List.of("a;b\n1;2\n", "3;4\n5;6\n", "7;8"), map("a;b\n1;2\n3;4\n5;6\n7;8", 10));
+        Assert.assertEquals(List.of("a;b\r\n", "1;2\r\n"), map("a;b\r\n1;2\r\n", 6));
+        Assert.assertEquals(List.of("a;b\n1;2\n"), map("a;b\n1;2\n", 1024));
+        Assert.assertEquals(List.of(), map("", 10));
+    }
+
+    /**
+     * Tests line breaks in quoted fields: window is not cut within a record
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testQuotedLineBreak() throws IOException {
+        Assert.assertEquals(List.of("a;b\n", "\"1\n2\";3\n"), map("a;b\n\"1\n2\";3\n", 11));
+        Assert.assertEquals(List.of("a\n", "\"x\"\"\ny\"\n"), map("a\n\"x\"\"\ny\"\n", 8));
+    }
+
+    /**
+     * Tests record longer than window
+     */
+    @Test
+    public void testRecordExceedsWindow() {
+        assertThrows(UncheckedIOException.class, () -> map("a;b\n1234567890;1\n", 8));
+    }
+}
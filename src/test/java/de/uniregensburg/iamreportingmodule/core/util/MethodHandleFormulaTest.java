@@ -0,0 +1,85 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import de.uniregensburg.iamreportingmodule.core.exception.FormulaException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Tests compilation of formulas to method handles
+ *
+ * @author Julian Bauer
+ */
+public class MethodHandleFormulaTest {
+
+    /**
+     * Tests precedence of operators, unary minus and parentheses
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testArithmetic() throws FormulaException {
+        MethodHandleFormula formula = MethodHandleFormula.compile("(slot0 + 1) * (2 - 3) + -slot1 / 4", 2);
+
+        Assert.assertNotNull(formula);
+        BigDecimal actual = formula.evaluate(new BigDecimal[]{new BigDecimal("10"), new BigDecimal("10")});
+        Assert.assertEquals(0, new BigDecimal("-13.5").compareTo(actual));
+    }
+
+    /**
+     * Tests supported functions
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testFunctions() throws FormulaException {
+        MethodHandleFormula formula = MethodHandleFormula.compile("MAX(slot0, 2, 3) + MIN(slot0, 2) + ABS(-4) + SQRT(16)", 1);
+
+        Assert.assertNotNull(formula);
+        BigDecimal actual = formula.evaluate(new BigDecimal[]{BigDecimal.ONE});
+        Assert.assertEquals(0, new BigDecimal("12").compareTo(actual));
+    }
+
+    /**
+     * Tests division by zero
+     */
+    @Test
+    public void testDivisionByZero() {
+        MethodHandleFormula formula = MethodHandleFormula.compile("slot0/slot1", 2);
+
+        Assert.assertNotNull(formula);
+        Assertions.assertThrows(FormulaException.class, () -> formula.evaluate(new BigDecimal[]{BigDecimal.ONE, BigDecimal.ZERO}));
+    }
+
+    /**
+     * Tests unsupported operators: not compiled
+     */
+    @Test
+    public void testUnsupported() {
+        Assert.assertNull(MethodHandleFormula.compile("slot0 ^ 2", 1));
+        Assert.assertNull(MethodHandleFormula.compile("IF(slot0 > 1, 1, 0)", 1));
+    }
+
+    /**
+     * Tests promotion of compiled formula after threshold: results of interpreter and method handles are equal
+     *
+     * @throws FormulaException
+     */
+    @Test
+    public void testPromotion() throws FormulaException {
+        CompiledFormula formula = CompiledFormula.compile(FormulaTokenizer.tokenize("({{identicalPasswords}} + 1) / {{passwords}}"));
+        formula.setPromotionThreshold(2);
+        Map<String, BigDecimal> values = Map.of("identicalPasswords", new BigDecimal("22"), "passwords", new BigDecimal("1000"));
+
+        BigDecimal interpreted = formula.evaluate(values);
+        formula.evaluate(values);
+        Assert.assertFalse(formula.isPromoted());
+        BigDecimal promoted = formula.evaluate(values);
+
+        Assert.assertTrue(formula.isPromoted());
+        Assert.assertEquals(0, interpreted.compareTo(promoted));
+    }
+}
@@ -0,0 +1,87 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tests dependency graph of metrics
+ *
+ * @author Julian Bauer
+ */
+public class MetricGraphTest {
+
+    private final UUID a = UUID.randomUUID();
+    private final UUID b = UUID.randomUUID();
+    private final UUID c = UUID.randomUUID();
+    private final UUID d = UUID.randomUUID();
+
+    /**
+     * Tests waves of diamond: a -> b, a -> c, b -> d, c -> d
+     */
+    @Test
+    public void testWaves() {
+        MetricGraph graph = new MetricGraph();
+        graph.addDependency(a, b);
+        graph.addDependency(a, c);
+        graph.addDependency(b, d);
+        graph.addDependency(c, d);
+
+        List<List<UUID>> waves = graph.getWaves(List.of(a));
+
+        Assert.assertEquals(3, waves.size());
+        Assert.assertEquals(List.of(a), waves.get(0));
+        Assert.assertEquals(Set.of(b, c), Set.copyOf(waves.get(1)));
+        Assert.assertEquals(List.of(d), waves.get(2));
+    }
+
+    /**
+     * Tests waves of changed metric in the middle of graph: upstream metrics are not recalculated
+     */
+    @Test
+    public void testWavesDownstreamOnly() {
+        MetricGraph graph = new MetricGraph();
+        graph.addDependency(a, b);
+        graph.addDependency(b, c);
+        graph.addMetric(d);
+
+        List<List<UUID>> waves = graph.getWaves(List.of(b));
+
+        Assert.assertEquals(List.of(List.of(b), List.of(c)), waves);
+    }
+
+    /**
+     * Tests acyclic graph
+     */
+    @Test
+    public void testNoCycle() {
+        MetricGraph graph = new MetricGraph();
+        graph.addDependency(a, b);
+        graph.addDependency(b, c);
+        graph.addDependency(a, c);
+
+        Assert.assertTrue(graph.findCycle().isEmpty());
+    }
+
+    /**
+     * Tests cycle: a -> b -> c -> a
+     */
+    @Test
+    public void testCycle() {
+        MetricGraph graph = new MetricGraph();
+        graph.addDependency(a, b);
+        graph.addDependency(b, c);
+        graph.addDependency(c, a);
+
+        List<UUID> cycle = graph.findCycle();
+
+        Assert.assertEquals(4, cycle.size());
+        Assert.assertEquals(cycle.get(0), cycle.get(3));
+        Assert.assertEquals(Set.of(a, b, c), Set.copyOf(cycle));
+        Assertions.assertThrows(IllegalStateException.class, () -> graph.getWaves(List.of(a)));
+    }
+}
@@ -0,0 +1,71 @@
+package de.uniregensburg.iamreportingmodule.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests approximate quantiles of t-digest
+ *
+ * @author Julian Bauer
+ */
+public class TDigestTest {
+
+    /**
+     * Tests accuracy and bounded size for many values
+     */
+    @Test
+    public void testQuantiles() {
+        Random random = new Random(42);
+        double[] values = new double[100000];
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 100;
+            digest.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        Assert.assertTrue(digest.getCentroidCount() < 100);
+        for (double q : new double[]{0.01, 0.5, 0.9, 0.99, 0.999}) {
+            double exact = values[(int) (q * (values.length - 1))];
+            // error in rank below 0.5 percent
+            int rank = Math.abs(Arrays.binarySearch(values, digest.quantile(q)));
+            Assert.assertEquals(q, (double) rank / values.length, 0.005);
+            Assert.assertEquals(exact, digest.quantile(q), 5);
+        }
+        Assert.assertEquals(values[0], digest.quantile(0), 0);
+        Assert.assertEquals(values[values.length - 1], digest.quantile(1), 0);
+    }
+
+    /**
+     * Tests merging of digests
+     */
+    @Test
+    public void testMerge() {
+        TDigest left = new TDigest(TDigest.DEFAULT_COMPRESSION);
+        TDigest right = new TDigest(TDigest.DEFAULT_COMPRESSION);
+        for (int i = 0; i < 5000; i++) {
+            left.add(i);
+            right.add(5000 + i);
+        }
+        left.add(right);
+
+        Assert.assertEquals(10000, left.getTotalWeight(), 0);
+        Assert.assertEquals(5000, left.quantile(0.5), 50);
+        Assert.assertEquals(9900, left.quantile(0.99), 20);
+    }
+
+    /**
+     * Tests quickselect of exact percentiles
+     */
+    @Test
+    public void testSelect() {
+        double[] values = {5, 1, 4, 1, 3, 9, 2, 6};
+
+        Assert.assertEquals(1, CsvAggregator.select(values.clone(), values.length, 0), 0);
+        Assert.assertEquals(3, CsvAggregator.select(values.clone(), values.length, 3), 0);
+        Assert.assertEquals(9, CsvAggregator.select(values.clone(), values.length, 7), 0);
+    }
+}